@@ -6,9 +6,11 @@ import org.matrix.androidsdk.MXDataHandler;
 import org.matrix.androidsdk.MXSession;
 import org.matrix.androidsdk.data.MXMemoryStore;
 import org.matrix.androidsdk.rest.model.login.Credentials;
+import org.matrix.androidsdk.util.MediaCache;
 import org.matrix.matrixandroidsdk.store.LoginStorage;
 import org.matrix.matrixandroidsdk.util.RageShake;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -17,13 +19,30 @@ import java.util.List;
  */
 public class Matrix {
 
+    // Number of event stream chunks that may wait for processing while the next one is fetched
+    private static final int EVENT_STREAM_PIPELINE_CAPACITY = 4;
+
+    // Rooms whose messages are loaded straight after the room list, the others are loaded when opened
+    private static final int PRELOADED_ROOMS = 10;
+
+    // Room events kept in memory, per room and in all
+    private static final int MAX_EVENTS_PER_ROOM = 500;
+    private static final int MAX_EVENTS = 5000;
+
+    private static final String MEDIA_CACHE_DIRECTORY = "media";
+    private static final long MEDIA_MEMORY_CACHE_BYTES = 16 * 1024 * 1024;
+    private static final long MEDIA_DISK_CACHE_BYTES = 50 * 1024 * 1024;
+
     private static Matrix instance = null;
 
     private LoginStorage mLoginStorage;
     private MXSession mDefaultSession;
+    private MediaCache mMediaCache;
 
     protected Matrix(Context appContext) {
         mLoginStorage = new LoginStorage(appContext.getApplicationContext());
+        mMediaCache = new MediaCache(new File(appContext.getCacheDir(), MEDIA_CACHE_DIRECTORY),
+                MEDIA_MEMORY_CACHE_BYTES, MEDIA_DISK_CACHE_BYTES);
         RageShake.getInstance().start(appContext.getApplicationContext());
     }
 
@@ -101,7 +120,13 @@ public class Matrix {
                 credentials.homeServer = "http://" + credentials.homeServer;
             }
         }
-        return new MXSession(new MXDataHandler(new MXMemoryStore(), credentials), credentials);
+        MXDataHandler dataHandler = new MXDataHandler(new MXMemoryStore(MAX_EVENTS_PER_ROOM, MAX_EVENTS), credentials);
+        dataHandler.setBatchLiveEvents(true);
+        MXSession session = new MXSession(dataHandler, credentials);
+        session.setEventStreamPipelineCapacity(EVENT_STREAM_PIPELINE_CAPACITY);
+        session.setSummaryInitialSync(PRELOADED_ROOMS);
+        session.getContentManager().setMediaCache(mMediaCache);
+        return session;
     }
 
     /**
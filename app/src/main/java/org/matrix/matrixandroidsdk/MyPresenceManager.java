@@ -69,14 +69,12 @@ public class MyPresenceManager {
         myUser.addEventListener(new MXEventListener() {
             @Override
             public void onPresenceUpdate(Event event, User user) {
-                myUser.presence = user.presence;
-
                 // If the received presence is the same as the last one we've advertised, this must be
                 // the event stream sending back our own event => nothing more to do
-                if (!user.presence.equals(latestAdvertisedPresence)) {
+                if (!user.getPresence().equals(latestAdvertisedPresence)) {
                     // If we're here, the presence event comes from another of this user's devices. If it's saying for example that it's
                     // offline but we're currently online, our presence takes precedence; in which case, we broadcast the correction
-                    Integer newPresenceOrder = presenceOrderMap.get(user.presence);
+                    Integer newPresenceOrder = presenceOrderMap.get(user.getPresence());
                     if (newPresenceOrder != null) {
                         int ourPresenceOrder = presenceOrderMap.get(latestAdvertisedPresence);
                         // If the new presence is further down the order list, we correct it
@@ -101,7 +99,7 @@ public class MyPresenceManager {
         tmpPresence = presence;
 
         // Only do it if different
-        if (!presence.equals(myUser.presence)) {
+        if (!presence.equals(myUser.getPresence())) {
             Log.d(LOG_TAG, "Advertising presence " + presence);
             myUser.updatePresence(presence, null, null);
         }
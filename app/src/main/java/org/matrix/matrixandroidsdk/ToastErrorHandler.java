@@ -16,6 +16,8 @@
 package org.matrix.matrixandroidsdk;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.Toast;
 
 import org.matrix.androidsdk.rest.callback.ApiFailureCallback;
@@ -28,6 +30,7 @@ public class ToastErrorHandler implements ApiFailureCallback {
 
     private Context context;
     private String msgPrefix;
+    private Handler uiHandler = new Handler(Looper.getMainLooper());
 
     /**
      * Constructor with context for the toast messages and a common prefix for messages.
@@ -41,17 +44,27 @@ public class ToastErrorHandler implements ApiFailureCallback {
 
     @Override
     public void onNetworkError(Exception e) {
-        Toast.makeText(context, appendPrefix("Connection error"), Toast.LENGTH_LONG).show();
+        showToast(appendPrefix("Connection error"));
     }
 
     @Override
     public void onMatrixError(MatrixError e) {
-        Toast.makeText(context, appendPrefix(e.error), Toast.LENGTH_LONG).show();
+        showToast(appendPrefix(e.error));
     }
 
     @Override
     public void onUnexpectedError(Exception e) {
-        Toast.makeText(context, appendPrefix(null), Toast.LENGTH_LONG).show();
+        showToast(appendPrefix(null));
+    }
+
+    // Errors are reported on a background thread
+    private void showToast(final String text) {
+        uiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(context, text, Toast.LENGTH_LONG).show();
+            }
+        });
     }
 
     String appendPrefix(String text) {
@@ -21,7 +21,6 @@ import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.PublicRoom;
 import org.matrix.androidsdk.rest.model.RoomMember;
-import org.matrix.androidsdk.util.JsonUtils;
 import org.matrix.matrixandroidsdk.Matrix;
 import org.matrix.matrixandroidsdk.MyPresenceManager;
 import org.matrix.matrixandroidsdk.R;
@@ -88,7 +87,7 @@ public class HomeActivity extends MXCActionBarActivity {
                                 if (Event.EVENT_TYPE_STATE_ROOM_CREATE.equals(event.type)) {
                                     addNewRoom(event.roomId);
                                 } else if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(event.type)) {
-                                    RoomMember member = JsonUtils.toRoomMember(event.content);
+                                    RoomMember member = event.getContentAsRoomMember();
                                     if (RoomMember.MEMBERSHIP_INVITE.equals(member.membership) && event.stateKey.equals(selfUserId)) {
                                         // we were invited to a new room.
                                         addNewRoom(event.roomId);
@@ -168,9 +167,14 @@ public class HomeActivity extends MXCActionBarActivity {
     private void refreshPublicRoomsList() {
         Matrix.getInstance(getApplicationContext()).getDefaultSession().getEventsApiClient().loadPublicRooms(new SimpleApiCallback<List<PublicRoom>>() {
             @Override
-            public void onSuccess(List<PublicRoom> publicRooms) {
-                mAdapter.setPublicRoomsList(publicRooms);
-                mPublicRooms = publicRooms;
+            public void onSuccess(final List<PublicRoom> publicRooms) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mAdapter.setPublicRoomsList(publicRooms);
+                        mPublicRooms = publicRooms;
+                    }
+                });
             }
         });
     }
@@ -377,8 +381,13 @@ public class HomeActivity extends MXCActionBarActivity {
                 session.createRoom(name, null, roomVisibility, alias, new SimpleApiCallback<String>() {
 
                     @Override
-                    public void onSuccess(String info) {
-                        goToRoomPage(info);
+                    public void onSuccess(final String info) {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                goToRoomPage(info);
+                            }
+                        });
                     }
                 });
             }
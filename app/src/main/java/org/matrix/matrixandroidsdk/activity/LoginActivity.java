@@ -56,14 +56,24 @@ public class LoginActivity extends MXCActionBarActivity {
             public void onSuccess(Credentials credentials) {
                 MXSession session = Matrix.getInstance(getApplicationContext()).createSession(credentials);
                 Matrix.getInstance(getApplicationContext()).setDefaultSession(session);
-                goToSplash();
-                LoginActivity.this.finish();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        goToSplash();
+                        LoginActivity.this.finish();
+                    }
+                });
             }
 
             @Override
             public void onMatrixError(MatrixError e) {
-                String msg = "Unable to login: " + e.error + "("+e.errcode+")";
-                Toast.makeText(getApplicationContext(), msg, Toast.LENGTH_LONG).show();
+                final String msg = "Unable to login: " + e.error + "("+e.errcode+")";
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(getApplicationContext(), msg, Toast.LENGTH_LONG).show();
+                    }
+                });
             }
         });
     }
@@ -39,11 +39,16 @@ public class PublicRoomsActivity extends MXCActionBarActivity {
         publicRoomsGridView.setAdapter(adapter);
         Matrix.getInstance(getApplicationContext()).getDefaultSession().getEventsApiClient().loadPublicRooms(new SimpleApiCallback<List<PublicRoom>>() {
             @Override
-            public void onSuccess(List<PublicRoom> publicRooms) {
-                for (PublicRoom publicRoom : publicRooms) {
-                    adapter.add(publicRoom);
-                }
-                adapter.sortRooms();
+            public void onSuccess(final List<PublicRoom> publicRooms) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (PublicRoom publicRoom : publicRooms) {
+                            adapter.add(publicRoom);
+                        }
+                        adapter.sortRooms();
+                    }
+                });
             }
         });
 
@@ -21,11 +21,9 @@ import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.listeners.MXEventListener;
 import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
-import org.matrix.androidsdk.rest.model.ContentResponse;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.ImageMessage;
-import org.matrix.androidsdk.util.ContentManager;
-import org.matrix.androidsdk.util.ContentUtils;
+import org.matrix.androidsdk.util.ImageUploader;
 import org.matrix.androidsdk.util.JsonUtils;
 import org.matrix.matrixandroidsdk.ErrorListener;
 import org.matrix.matrixandroidsdk.Matrix;
@@ -69,7 +67,7 @@ public class RoomActivity extends MXCActionBarActivity {
                     }
                     else if (Event.EVENT_TYPE_STATE_ROOM_TOPIC.equals(event.type)) {
                         Log.e(LOG_TAG, "Updating room topic.");
-                        RoomState roomState = JsonUtils.toRoomState(event.content);
+                        RoomState roomState = JsonUtils.toRoomState(event.getContent());
                         setTopic(roomState.topic);
                     }
                 }
@@ -142,7 +140,12 @@ public class RoomActivity extends MXCActionBarActivity {
                                                         mRoom.invite(text.trim(), new SimpleApiCallback<Void>() {
                                                             @Override
                                                             public void onSuccess(Void info) {
-                                                                Toast.makeText(getApplicationContext(), "Sent invite to " + text.trim() + ".", Toast.LENGTH_LONG).show();
+                                                                runOnUiThread(new Runnable() {
+                                                                    @Override
+                                                                    public void run() {
+                                                                        Toast.makeText(getApplicationContext(), "Sent invite to " + text.trim() + ".", Toast.LENGTH_LONG).show();
+                                                                    }
+                                                                });
                                                             }
                                                         });
                                                     }
@@ -261,7 +264,12 @@ public class RoomActivity extends MXCActionBarActivity {
 
                     @Override
                     public void onSuccess(Void info) {
-                        RoomActivity.this.finish();
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                RoomActivity.this.finish();
+                            }
+                        });
                     }
                 });
             }
@@ -310,28 +318,39 @@ public class RoomActivity extends MXCActionBarActivity {
                 final String selectedPath = ResourceUtils.getImagePath(this, selectedImageUri);
                 Log.d(LOG_TAG, "Selected image to upload: " + selectedPath);
 
-                final ProgressDialog progressDialog = ProgressDialog.show(this, null, getString(R.string.message_uploading), true);
+                final ProgressDialog progressDialog = new ProgressDialog(this);
+                progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+                progressDialog.setMessage(getString(R.string.message_uploading));
+                progressDialog.setMax(100);
+                progressDialog.show();
+
+                final ImageUploader.ImageUpload upload = mSession.getContentManager().uploadImage(selectedPath, 0, new ImageUploader.ImageUploadCallback() {
+                    @Override
+                    public void onUploadProgress(long bytesSent, long totalBytes) {
+                        if (totalBytes > 0) {
+                            progressDialog.setProgress((int) (bytesSent * 100 / totalBytes));
+                        }
+                    }
 
-                mSession.getContentManager().uploadContent(selectedPath, new ContentManager.UploadCallback() {
                     @Override
-                    public void onUploadComplete(ContentResponse uploadResponse) {
-                        if (uploadResponse == null) {
+                    public void onImageMessageReady(ImageMessage message) {
+                        if (message == null) {
                             Toast.makeText(RoomActivity.this, "Failed to upload", Toast.LENGTH_LONG).show();
                         }
                         else {
-                            Log.d(LOG_TAG, "Uploaded to " + uploadResponse.contentUri);
-                            // Build the image message
-                            ImageMessage message = new ImageMessage();
-                            message.url = uploadResponse.contentUri;
-                            message.body = selectedPath.substring(selectedPath.lastIndexOf('/') + 1);
-
-                            message.info = ContentUtils.getImageInfoFromFile(selectedPath);
-
+                            Log.d(LOG_TAG, "Uploaded to " + message.url);
                             mMatrixMessageListFragment.sendImage(message);
                         }
                         progressDialog.dismiss();
                     }
                 });
+
+                progressDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+                    @Override
+                    public void onCancel(DialogInterface dialog) {
+                        upload.cancel();
+                    }
+                });
             }
         }
     }
@@ -227,6 +227,10 @@ public class SettingsActivity extends MXCActionBarActivity {
             final ProgressDialog progressDialog = ProgressDialog.show(this, null, getString(R.string.message_uploading), true);
 
             session.getContentManager().uploadContent(selectedPath, new ContentManager.UploadCallback() {
+                @Override
+                public void onUploadProgress(long bytesSent, long totalBytes) {
+                }
+
                 @Override
                 public void onUploadComplete(ContentResponse uploadResponse) {
                     if (uploadResponse == null) {
@@ -2,10 +2,6 @@ package org.matrix.matrixandroidsdk.adapters;
 
 import android.app.Application;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
-import android.support.v4.util.LruCache;
 import android.text.Html;
 import android.util.Log;
 import android.widget.ImageView;
@@ -21,13 +17,7 @@ import org.matrix.androidsdk.util.ContentManager;
 import org.matrix.matrixandroidsdk.Matrix;
 import org.matrix.matrixandroidsdk.R;
 
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.FileOutputStream;
 import java.io.ObjectOutputStream;
-import java.lang.ref.WeakReference;
-import java.net.URL;
 
 /**
  * Contains useful functions for adapters.
@@ -72,13 +62,13 @@ public class AdapterUtils {
                 String userDisplayName = getUserDisplayName(mEvent.userId);
                 if (Event.EVENT_TYPE_MESSAGE.equals(mEvent.type)) {
                     // all m.room.message events should support the 'body' key fallback, so use it.
-                    text = mEvent.content.get("body") == null ? null : mEvent.content.get("body").getAsString();
+                    text = mEvent.getContent().get("body") == null ? null : mEvent.getContent().get("body").getAsString();
 
                     // check for html formatting
-                    if (mEvent.content.has("formatted_body") && mEvent.content.has("format")) {
-                        String format = mEvent.content.getAsJsonPrimitive("format").getAsString();
+                    if (mEvent.getContent().has("formatted_body") && mEvent.getContent().has("format")) {
+                        String format = mEvent.getContent().getAsJsonPrimitive("format").getAsString();
                         if ("org.matrix.custom.html".equals(format)) {
-                            text = Html.fromHtml(mEvent.content.getAsJsonPrimitive("formatted_body").getAsString());
+                            text = Html.fromHtml(mEvent.getContent().getAsJsonPrimitive("formatted_body").getAsString());
                         }
                     }
 
@@ -89,18 +79,18 @@ public class AdapterUtils {
                 else if (Event.EVENT_TYPE_STATE_ROOM_TOPIC.equals(mEvent.type)) {
                     // pretty print 'XXX changed the topic to YYYY'
                     text = mContext.getString(R.string.notice_topic_changed,
-                            userDisplayName, mEvent.content.getAsJsonPrimitive("topic").getAsString());
+                            userDisplayName, mEvent.getContent().getAsJsonPrimitive("topic").getAsString());
                 }
                 else if (Event.EVENT_TYPE_STATE_ROOM_NAME.equals(mEvent.type)) {
                     // pretty print 'XXX changed the room name to YYYY'
                     text = mContext.getString(R.string.notice_room_name_changed,
-                            userDisplayName, mEvent.content.getAsJsonPrimitive("name").getAsString());
+                            userDisplayName, mEvent.getContent().getAsJsonPrimitive("name").getAsString());
                 }
                 else if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(mEvent.type)) {
                     // m.room.member is used to represent at least 3 different changes in state: membership,
                     // avatar pic url and display name. We need to figure out which thing changed to display
                     // the right text.
-                    JsonObject prevState = mEvent.prevContent;
+                    JsonObject prevState = mEvent.getPrevContent();
                     if (prevState == null) {
                         // if there is no previous state, it has to be an invite or a join as they are the first
                         // m.room.member events for a user.
@@ -121,7 +111,7 @@ public class AdapterUtils {
                         }
                         else {
                             // well shucks, I'm all out of ideas, let's whine.
-                            Log.e(LOG_TAG, "Redundant membership event. PREV=>"+prevState+" NOW=>"+mEvent.content);
+                            Log.e(LOG_TAG, "Redundant membership event. PREV=>"+prevState+" NOW=>"+mEvent.getContent());
                         }
                     }
                 }
@@ -134,14 +124,14 @@ public class AdapterUtils {
         }
 
         private String getMembershipNotice(Event msg) {
-            String membership = msg.content.getAsJsonPrimitive("membership").getAsString();
+            String membership = msg.getContent().getAsJsonPrimitive("membership").getAsString();
             String userDisplayName = null;
 
             // the displayname could be defined in the event
             // use it instead of the getUserDisplayName result
             // the user could have joined the before his roomMember has been created.
-            if (msg.content.has("displayname")) {
-                userDisplayName =  msg.content.get("displayname") == JsonNull.INSTANCE ? null : msg.content.get("displayname").getAsString();
+            if (msg.getContent().has("displayname")) {
+                userDisplayName =  msg.getContent().get("displayname") == JsonNull.INSTANCE ? null : msg.getContent().get("displayname").getAsString();
             }
 
             // cannot retrieve the display name from the event
@@ -183,15 +173,15 @@ public class AdapterUtils {
         private String getDisplayNameChangeNotice(Event msg) {
             return mContext.getString(R.string.notice_display_name_changed,
                     getUserDisplayName(msg.userId),
-                    msg.content.getAsJsonPrimitive("displayname").getAsString()
+                    msg.getContent().getAsJsonPrimitive("displayname").getAsString()
             );
         }
 
         private boolean hasStringValueChanged(Event msg, String key) {
-            JsonObject prevContent = msg.prevContent;
-            if (prevContent.has(key) && msg.content.has(key)) {
+            JsonObject prevContent = msg.getPrevContent();
+            if (prevContent.has(key) && msg.getContent().has(key)) {
                 String old = prevContent.get(key) == JsonNull.INSTANCE ? null : prevContent.get(key).getAsString();
-                String current = msg.content.get(key) == JsonNull.INSTANCE ? null : msg.content.get(key).getAsString();
+                String current = msg.getContent().get(key) == JsonNull.INSTANCE ? null : msg.getContent().get(key).getAsString();
                 if (old == null && current == null) {
                     return false;
                 }
@@ -202,7 +192,7 @@ public class AdapterUtils {
                     return !current.equals(old);
                 }
             }
-            else if (!prevContent.has(key) && !msg.content.has(key)) {
+            else if (!prevContent.has(key) && !msg.getContent().has(key)) {
                 return false; // this key isn't in either prev or current
             }
             else {
@@ -218,210 +208,12 @@ public class AdapterUtils {
     public static void loadBitmap(ImageView imageView, String url) {
         ContentManager contentManager = Matrix.getInstance(imageView.getContext()).getDefaultSession().getContentManager();
         String downloadableUrl = contentManager.getDownloadableUrl(url);
-        imageView.setTag(downloadableUrl);
-
-        // check if the bitmap is already cached
-        Bitmap bitmap = BitmapWorkerTask.bitmapForURL(downloadableUrl, imageView.getContext().getApplicationContext());
-
-        if (null != bitmap) {
-            // display it
-            imageView.setImageBitmap(bitmap);
-        } else {
-            // download it in background
-            BitmapWorkerTask task = new BitmapWorkerTask(imageView, downloadableUrl);
-            task.execute();
-        }
+        contentManager.getMediaDownloader().loadBitmap(imageView, downloadableUrl);
     }
 
     public static void loadThumbnailBitmap(ImageView imageView, String url, int width, int height) {
         ContentManager contentManager = Matrix.getInstance(imageView.getContext()).getDefaultSession().getContentManager();
         String downloadableUrl = contentManager.getDownloadableThumbnailUrl(url, width, height, ContentManager.METHOD_CROP);
-        imageView.setTag(downloadableUrl);
-
-        // check if the bitmap is already cached
-        Bitmap bitmap = BitmapWorkerTask.bitmapForURL(downloadableUrl, imageView.getContext().getApplicationContext());
-
-        if (null != bitmap) {
-            // display it
-            imageView.setImageBitmap(bitmap);
-        } else {
-            // download it in background
-            BitmapWorkerTask task = new BitmapWorkerTask(imageView, downloadableUrl);
-            task.execute(width, height);
-        }
-    }
-
-    static class BitmapWorkerTask extends AsyncTask<Integer, Void, Bitmap> {
-
-        private static final int MEMORY_CACHE_MB = 16;
-
-        private static LruCache<String, Bitmap> sMemoryCache = new LruCache<String, Bitmap>(1024 * 1024 * MEMORY_CACHE_MB){
-            @Override
-            protected int sizeOf(String key, Bitmap bitmap) {
-                return bitmap.getRowBytes() * bitmap.getHeight(); // size in bytes
-            }
-        };
-
-        private final WeakReference<ImageView> mImageViewReference;
-        private String mUrl;
-
-        public BitmapWorkerTask(ImageView imageView, String url) {
-            mImageViewReference = new WeakReference<ImageView>(imageView);
-            mUrl = url;
-        }
-
-        public static Bitmap bitmapForURL(String url, Context context) {
-            Bitmap bitmap = null;
-
-            // sanity check
-            if (null != url) {
-                synchronized (sMemoryCache) {
-                    bitmap = sMemoryCache.get(url);
-                }
-
-                // check if the image has not been saved in file system
-                if ((null == bitmap) && (null != context)) {
-                    String filename  = "file" + url.hashCode();
-
-                    try {
-                        FileInputStream fis = context.openFileInput(filename);
-                        if (null != fis) {
-                            BitmapFactory.Options options = new BitmapFactory.Options();
-                            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-                            bitmap = BitmapFactory.decodeStream(fis, null, options);
-
-                            if (null != bitmap) {
-                                synchronized (sMemoryCache) {
-                                    sMemoryCache.put(url, bitmap);
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-
-                    }
-                }
-            }
-
-            return bitmap;
-        }
-
-        // Decode image in background.
-        @Override
-        protected Bitmap doInBackground(Integer... params) {
-            try {
-                // check the in-memory cache
-                String key = mUrl;
-                Bitmap bm = BitmapWorkerTask.bitmapForURL(key, mImageViewReference.get().getContext().getApplicationContext());
-
-                if (bm != null) {
-                    return bm;
-                }
-
-                URL url = new URL(mUrl);
-                Log.d(LOG_TAG, "BitmapWorkerTask open >>>>> " + mUrl);
-                InputStream stream = url.openConnection().getInputStream();
-                Bitmap bitmap;
-
-                ImageView imageView = mImageViewReference.get();
-
-                if ((null != imageView) && (null != imageView.getContext()) && (null != imageView.getContext().getApplicationContext())) {
-                    String filename  = "file" + url.hashCode();
-                    Context context = imageView.getContext().getApplicationContext();
-                    FileOutputStream fos = context.openFileOutput(filename, Context.MODE_PRIVATE);
-
-                    try{
-                        byte[] buf = new byte[1024*32];
-                        int len;
-                        while((len = stream.read(buf)) != -1) {
-                            fos.write(buf, 0, len);
-                        }
-                    } catch (Exception e) {
-                    }
-
-                    fos.flush();
-                    fos.close();
-                    close(stream);
-
-                    // get the bitmap from the filesytem
-                    bitmap = BitmapWorkerTask.bitmapForURL(key, context);
-                } else {
-                    BitmapFactory.Options bitmapOptions = new BitmapFactory.Options();
-                    bitmapOptions.inDither = true;
-                    bitmapOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
-                    bitmap = BitmapFactory.decodeStream(stream, null, bitmapOptions);
-                }
-
-                synchronized (sMemoryCache) {
-                    cacheBitmap(key, bitmap);
-                }
-
-                return bitmap;
-            }
-            catch (Exception e) {
-                Log.e(LOG_TAG, "Unable to load bitmap: "+e);
-                return null;
-            }
-        }
-
-        // Once complete, see if ImageView is still around and set bitmap.
-        @Override
-        protected void onPostExecute(Bitmap bitmap) {
-            if (mImageViewReference != null && bitmap != null) {
-                final ImageView imageView = mImageViewReference.get();
-                if (imageView != null && mUrl.equals(imageView.getTag())) {
-                    imageView.setImageBitmap(bitmap);
-                }
-            }
-        }
-
-        /**
-         * Get the width/height of the image at the end of this InputStream without dumping it all
-         * in memory or disk. Note that this action processes the stream entirely, so a new stream
-         * will be required (or this stream has to be rewindable) if the image is to be loaded from
-         * it.
-         * @param stream The input stream representing an image.
-         * @return The bitmap info
-         * @throws IOException If there isn't a decodable width and height for this image.
-         */
-        private BitmapFactory.Options decodeBitmapDimensions(InputStream stream) throws IOException {
-            BitmapFactory.Options o = new BitmapFactory.Options();
-            o.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(stream, null, o);
-            if (o.outHeight == -1 || o.outWidth == -1) {
-                // this doesn't look like an image...
-                throw new IOException("Cannot resize input stream, failed to get w/h.");
-            }
-            return o;
-        }
-
-        /**
-         * Get the inSampleSize required to decode this image to the 'right' size.
-         * @param w The width of the image in px
-         * @param h The height of the image in px
-         * @param maxSizePx The max dimension allowed in px
-         * @return The sample size to use.
-         */
-        private int getSampleSize(int w, int h, int maxSizePx) {
-            int highestDimensionSize = (h > w) ? h : w;
-            double ratio = (highestDimensionSize > maxSizePx) ? (highestDimensionSize / maxSizePx) : 1.0;
-            int sampleSize = Integer.highestOneBit((int)Math.floor(ratio));
-            if (sampleSize == 0) {
-                sampleSize = 1;
-            }
-            return sampleSize;
-        }
-
-        private void cacheBitmap(String key, Bitmap bitmap) {
-            // for now we'll just in-memory cache this. In future, they should be written to the
-            // cache directory as well.
-            sMemoryCache.put(key, bitmap);
-        }
-
-        private void close(InputStream stream) {
-            try {
-                stream.close();
-            }
-            catch (Exception e) {} // don't care, it's being closed!
-        }
+        contentManager.getMediaDownloader().loadBitmap(imageView, downloadableUrl);
     }
 }
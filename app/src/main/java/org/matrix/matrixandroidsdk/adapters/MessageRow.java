@@ -15,6 +15,7 @@
  */
 package org.matrix.matrixandroidsdk.adapters;
 
+import org.matrix.androidsdk.data.PendingEvent;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.rest.model.Event;
 
@@ -29,6 +30,8 @@ public class MessageRow {
     }
 
     private SentState sentState = SentState.SENT;
+    // Set for local echoes of the messages we send
+    private PendingEvent pendingEvent;
 
     public MessageRow(Event event, RoomState roomState) {
         this.event = event;
@@ -50,4 +53,12 @@ public class MessageRow {
     public void setSentState(SentState sentState) {
         this.sentState = sentState;
     }
+
+    public PendingEvent getPendingEvent() {
+        return pendingEvent;
+    }
+
+    public void setPendingEvent(PendingEvent pendingEvent) {
+        this.pendingEvent = pendingEvent;
+    }
 }
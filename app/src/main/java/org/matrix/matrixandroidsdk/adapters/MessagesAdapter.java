@@ -24,7 +24,6 @@ import org.matrix.androidsdk.rest.model.ImageMessage;
 import org.matrix.androidsdk.rest.model.Message;
 import org.matrix.androidsdk.rest.model.RoomMember;
 import org.matrix.androidsdk.util.ContentManager;
-import org.matrix.androidsdk.util.JsonUtils;
 import org.matrix.matrixandroidsdk.Matrix;
 import org.matrix.matrixandroidsdk.R;
 import org.matrix.matrixandroidsdk.util.EventUtils;
@@ -148,7 +147,7 @@ public class MessagesAdapter extends ArrayAdapter<MessageRow> {
         Event event = row.getEvent();
 
         if (Event.EVENT_TYPE_MESSAGE.equals(event.type)) {
-            Message message = JsonUtils.toMessage(event.content);
+            Message message = event.getContentAsMessage();
 
             if (Message.MSGTYPE_TEXT.equals(message.msgtype)) {
                 return ROW_TYPE_TEXT;
@@ -305,8 +304,8 @@ public class MessagesAdapter extends ArrayAdapter<MessageRow> {
                 // check if the avatar_url is defined in the event body
                 // roomState is updated after managing this event
                 // so, this user could miss
-                if (msg.content.has("avatar_url")) {
-                    url = msg.content.get("avatar_url") == JsonNull.INSTANCE ? null : msg.content.get("avatar_url").getAsString();
+                if (msg.getContent().has("avatar_url")) {
+                    url = msg.getContent().get("avatar_url") == JsonNull.INSTANCE ? null : msg.getContent().get("avatar_url").getAsString();
                 }
             }
 
@@ -398,7 +397,8 @@ public class MessagesAdapter extends ArrayAdapter<MessageRow> {
         MessageRow row = getItem(position);
         Event msg = row.getEvent();
 
-        final ImageMessage imageMessage = JsonUtils.toImageMessage(msg.content);
+        Message message = msg.getContentAsMessage();
+        final ImageMessage imageMessage = (message instanceof ImageMessage) ? (ImageMessage) message : null;
 
         String thumbUrl = null;
         ImageInfo imageInfo = null;
@@ -525,7 +525,7 @@ public class MessagesAdapter extends ArrayAdapter<MessageRow> {
     private boolean isDisplayableEvent(Event event, RoomState roomState) {
         if (Event.EVENT_TYPE_MESSAGE.equals(event.type)) {
             // A message is displayable as long as it has a body
-            Message message = JsonUtils.toMessage(event.content);
+            Message message = event.getContentAsMessage();
             return (message.body != null) && (!message.body.equals(""));
         }
         else if (Event.EVENT_TYPE_STATE_ROOM_TOPIC.equals(event.type)
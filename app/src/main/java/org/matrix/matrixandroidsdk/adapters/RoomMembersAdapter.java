@@ -71,21 +71,22 @@ public class RoomMembersAdapter extends ArrayAdapter<RoomMember> {
             User lUser = mUserMap.get(lhs.getUserId());
             User rUser = mUserMap.get(rhs.getUserId());
 
+            Long lLastActive = (lUser == null) ? null : lUser.getRealLastActiveAgo();
+            Long rLastActive = (rUser == null) ? null : rUser.getRealLastActiveAgo();
+
             // Null cases
-            if ((lUser == null) || (lUser.lastActiveAgo == null)) {
-                if ((rUser == null) || (rUser.lastActiveAgo == null)) {
+            if (lLastActive == null) {
+                if (rLastActive == null) {
                     // Fall back to alphabetical order
                     return alphaComparator.compare(lhs, rhs);
                 }
                 return 1;
             }
-            if ((rUser == null) || (rUser.lastActiveAgo == null)) {
+            if (rLastActive == null) {
                 return -1;
             }
 
             // Non-null cases
-            long lLastActive = lUser.getRealLastActiveAgo();
-            long rLastActive = rUser.getRealLastActiveAgo();
             if (lLastActive < rLastActive) return -1;
             if (lLastActive > rLastActive) return 1;
 
@@ -186,12 +187,13 @@ public class RoomMembersAdapter extends ArrayAdapter<RoomMember> {
         // Member name and last seen time
         TextView textView = (TextView) convertView.findViewById(R.id.roomMembersAdapter_name);
 
-        if ((user == null) || (user.lastActiveAgo == null)) {
+        Long lastActiveAgo = (user == null) ? null : user.getRealLastActiveAgo();
+        if (lastActiveAgo == null) {
             textView.setText(member.getName());
         }
         else {
             String memberName = member.getName();
-            String lastActiveDisplay = "(" + buildLastActiveDisplay(user.getRealLastActiveAgo()) + ")";
+            String lastActiveDisplay = "(" + buildLastActiveDisplay(lastActiveAgo) + ")";
 
             SpannableStringBuilder ssb = new SpannableStringBuilder(memberName + " " + lastActiveDisplay);
             int lastSeenTextColor = mContext.getResources().getColor(R.color.member_list_last_seen_text);
@@ -217,9 +219,10 @@ public class RoomMembersAdapter extends ArrayAdapter<RoomMember> {
         ImageView presenceRing = (ImageView) convertView.findViewById(R.id.imageView_presenceRing);
         presenceRing.setColorFilter(mContext.getResources().getColor(android.R.color.transparent));
         if (user != null) {
-            if (User.PRESENCE_ONLINE.equals(user.presence)) {
+            String presence = user.getPresence();
+            if (User.PRESENCE_ONLINE.equals(presence)) {
                 presenceRing.setColorFilter(mContext.getResources().getColor(R.color.presence_online));
-            } else if (User.PRESENCE_UNAVAILABLE.equals(user.presence)) {
+            } else if (User.PRESENCE_UNAVAILABLE.equals(presence)) {
                 presenceRing.setColorFilter(mContext.getResources().getColor(R.color.presence_unavailable));
             }
         }
@@ -16,6 +16,7 @@ import android.widget.ListView;
 import android.widget.Toast;
 
 import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.PendingEvent;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
@@ -24,7 +25,6 @@ import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.ImageMessage;
 import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.Message;
-import org.matrix.androidsdk.util.JsonUtils;
 import org.matrix.matrixandroidsdk.Matrix;
 import org.matrix.matrixandroidsdk.R;
 import org.matrix.matrixandroidsdk.ToastErrorHandler;
@@ -64,6 +64,8 @@ public class MatrixMessageListFragment extends Fragment implements MatrixMessage
     private Handler mUiHandler;
     private MXSession mSession;
     private Room mRoom;
+    // Local echoes, until their echo comes down the event stream
+    private List<MessageRow> mPendingRows = new ArrayList<MessageRow>();
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -101,6 +103,7 @@ public class MatrixMessageListFragment extends Fragment implements MatrixMessage
             private static final int OPTION_CANCEL = 0;
             private static final int OPTION_RESEND = 1;
             private static final int OPTION_REDACT = 2;
+            private static final int OPTION_DISCARD = 3;
 
             @Override
             public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
@@ -108,6 +111,7 @@ public class MatrixMessageListFragment extends Fragment implements MatrixMessage
                 final List<Integer> options = new ArrayList<Integer>();
                 if (messageRow.getSentState() == MessageRow.SentState.NOT_SENT) {
                     options.add(OPTION_RESEND);
+                    options.add(OPTION_DISCARD);
                 } else if (messageRow.getSentState() == MessageRow.SentState.SENT) {
                     options.add(OPTION_REDACT);
                 }
@@ -123,8 +127,10 @@ public class MatrixMessageListFragment extends Fragment implements MatrixMessage
                                             dialog.cancel();
                                             break;
                                         case OPTION_RESEND:
-                                            Message message = JsonUtils.toMessage(messageRow.getEvent().content);
-                                            send(message);
+                                            resend(messageRow);
+                                            break;
+                                        case OPTION_DISCARD:
+                                            discard(messageRow);
                                             break;
                                         case OPTION_REDACT:
                                             redactEvent(messageRow.getEvent().eventId);
@@ -152,6 +158,9 @@ public class MatrixMessageListFragment extends Fragment implements MatrixMessage
                         case OPTION_RESEND:
                             label = getString(R.string.resend);
                             break;
+                        case OPTION_DISCARD:
+                            label = getString(R.string.discard);
+                            break;
                         case OPTION_REDACT:
                             label = getString(R.string.redact);
                             break;
@@ -222,51 +231,96 @@ public class MatrixMessageListFragment extends Fragment implements MatrixMessage
     }
 
     private void send(Message message) {
-        Event dummyEvent = new Event();
-        dummyEvent.type = Event.EVENT_TYPE_MESSAGE;
-        dummyEvent.content = JsonUtils.toJson(message);
-        dummyEvent.originServerTs = System.currentTimeMillis();
-        dummyEvent.userId = mSession.getCredentials().userId;
-
-        final MessageRow tmpRow = new MessageRow(dummyEvent, mRoom.getLiveState());
-        tmpRow.setSentState(MessageRow.SentState.SENDING);
+        SendCallback callback = new SendCallback();
+        PendingEvent pendingEvent = mMatrixMessagesFragment.send(message, callback);
+        callback.mRow = addPendingRow(pendingEvent);
+    }
 
-        mMatrixMessagesFragment.send(message, new ApiCallback<Event>() {
-            @Override
-            public void onSuccess(Event info) {
-                mAdapter.remove(tmpRow);
-                mAdapter.add(info, mRoom.getLiveState());
-                // NotifyOnChange has been disabled to avoid useless refreshes
-                mAdapter.notifyDataSetChanged();
-            }
+    private void resend(MessageRow row) {
+        SendCallback callback = new SendCallback();
+        callback.mRow = row;
+        row.setSentState(MessageRow.SentState.SENDING);
+        mAdapter.notifyDataSetChanged();
+        mMatrixMessagesFragment.resend(row.getPendingEvent(), callback);
+    }
 
-            private void markError() {
-                tmpRow.setSentState(MessageRow.SentState.NOT_SENT);
-                mAdapter.notifyDataSetChanged();
-            }
+    private void discard(MessageRow row) {
+        mMatrixMessagesFragment.discard(row.getPendingEvent());
+        mAdapter.remove(row);
+        mPendingRows.remove(row);
+        mAdapter.notifyDataSetChanged();
+    }
 
-            @Override
-            public void onNetworkError(Exception e) {
-                markError();
-                Toast.makeText(getActivity(), "Unable to send message. Connection error.", Toast.LENGTH_LONG).show();
+    private void removePendingRow(String eventId) {
+        for (MessageRow row : mPendingRows) {
+            // The event id of a local echo is set once it is sent
+            if ((eventId != null) && eventId.equals(row.getEvent().eventId)) {
+                mAdapter.remove(row);
+                mPendingRows.remove(row);
+                return;
             }
+        }
+    }
 
-            @Override
-            public void onMatrixError(MatrixError e) {
-                markError();
-                Toast.makeText(getActivity(), "Unable to send message. " + e.error + ".", Toast.LENGTH_LONG).show();
-            }
+    private MessageRow addPendingRow(PendingEvent pendingEvent) {
+        MessageRow row = new MessageRow(pendingEvent.getEvent(), mRoom.getLiveState());
+        row.setPendingEvent(pendingEvent);
+        row.setSentState((pendingEvent.getState() == PendingEvent.State.FAILED)
+                ? MessageRow.SentState.NOT_SENT : MessageRow.SentState.SENDING);
 
-            @Override
-            public void onUnexpectedError(Exception e) {
-                markError();
-                Toast.makeText(getActivity(), "Unable to send message.", Toast.LENGTH_LONG).show();
-            }
-        });
-
-        mAdapter.add(tmpRow);
+        mAdapter.add(row);
+        mPendingRows.add(row);
         // NotifyOnChange has been disabled to avoid useless refreshes
         mAdapter.notifyDataSetChanged();
+        return row;
+    }
+
+    /**
+     * Replaces a local echo by the sent event, or marks it as not sent.
+     * Results are posted to the UI thread, after the row has been set by whoever sent the message.
+     */
+    private class SendCallback implements ApiCallback<Event> {
+        private MessageRow mRow;
+
+        @Override
+        public void onSuccess(final Event info) {
+            mUiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mAdapter.remove(mRow);
+                    mPendingRows.remove(mRow);
+                    mAdapter.add(info, mRoom.getLiveState());
+                    // NotifyOnChange has been disabled to avoid useless refreshes
+                    mAdapter.notifyDataSetChanged();
+                }
+            });
+        }
+
+        private void markError(final String message) {
+            mUiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mRow.setSentState(MessageRow.SentState.NOT_SENT);
+                    mAdapter.notifyDataSetChanged();
+                    Toast.makeText(getActivity(), message, Toast.LENGTH_LONG).show();
+                }
+            });
+        }
+
+        @Override
+        public void onNetworkError(Exception e) {
+            markError("Unable to send message. Connection error.");
+        }
+
+        @Override
+        public void onMatrixError(MatrixError e) {
+            markError("Unable to send message. " + e.error + ".");
+        }
+
+        @Override
+        public void onUnexpectedError(Exception e) {
+            markError("Unable to send message.");
+        }
     }
 
     public void requestHistory() {
@@ -305,6 +359,7 @@ public class MatrixMessageListFragment extends Fragment implements MatrixMessage
                     mAdapter.removeEventById(event.redacts);
                 }
                 else {
+                    removePendingRow(event.eventId);
                     mAdapter.add(event, roomState);
                 }
                 mAdapter.notifyDataSetChanged();
@@ -328,6 +383,12 @@ public class MatrixMessageListFragment extends Fragment implements MatrixMessage
         mUiHandler.post(new Runnable() {
             @Override
             public void run() {
+                // Messages still being sent, possibly since before a restart
+                for (PendingEvent pendingEvent : mMatrixMessagesFragment.getPendingEvents()) {
+                    if (pendingEvent.getState() != PendingEvent.State.SENT) {
+                        addPendingRow(pendingEvent);
+                    }
+                }
                 // refresh the list only at the end of the sync
                 // else the one by one message refresh gives a weird UX
                 // The application is almost frozen during the
@@ -6,6 +6,7 @@ import android.support.v4.app.Fragment;
 import android.util.Log;
 
 import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.data.PendingEvent;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.listeners.IMXEventListener;
@@ -13,10 +14,13 @@ import org.matrix.androidsdk.listeners.MXEventListener;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
 import org.matrix.androidsdk.rest.callback.SimpleApiCallback;
 import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.Message;
 import org.matrix.androidsdk.rest.model.RoomMember;
 import org.matrix.matrixandroidsdk.Matrix;
 
+import java.util.List;
+
 /**
  * A non-UI fragment containing logic for extracting messages from a room, including handling
  * pagination. For a UI implementation of this, see {@link MatrixMessageListFragment}.
@@ -54,6 +58,7 @@ public class MatrixMessagesFragment extends Fragment {
     // The adapted listener to register to the SDK
     private IMXEventListener mEventListener;
     private Context mContext;
+    private MXSession mSession;
     private Room mRoom;
 
     @Override
@@ -63,6 +68,7 @@ public class MatrixMessagesFragment extends Fragment {
         mContext = getActivity().getApplicationContext();
         // TODO : Specify which session should be used.
         MXSession session = Matrix.getInstance(mContext).getDefaultSession();
+        mSession = session;
         String roomId = getArguments().getString(ARG_ROOM_ID);
         if (roomId == null) {
             throw new RuntimeException("Must have a room ID specified.");
@@ -101,7 +107,7 @@ public class MatrixMessagesFragment extends Fragment {
             joinRoom();
         }
         else {
-            requestInitialHistory();
+            syncRoom();
         }
     }
 
@@ -120,6 +126,34 @@ public class MatrixMessagesFragment extends Fragment {
         });
     }
 
+    /**
+     * Load the room's messages if the initial sync did not, then request them.
+     */
+    private void syncRoom() {
+        mSession.getDataHandler().getRoomSyncQueue().syncRoom(mRoom, new SimpleApiCallback<Void>() {
+            @Override
+            public void onSuccess(Void info) {
+                requestInitialHistory();
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                // Paginate from what is there
+                requestInitialHistory();
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                requestInitialHistory();
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                requestInitialHistory();
+            }
+        });
+    }
+
     /**
      * Request messages in this room upon entering.
      */
@@ -151,8 +185,20 @@ public class MatrixMessagesFragment extends Fragment {
         mRoom.requestHistory(callback);
     }
 
-    public void send(Message message, ApiCallback<Event> callback) {
-        mRoom.sendMessage(message, callback);
+    public PendingEvent send(Message message, ApiCallback<Event> callback) {
+        return mRoom.sendMessage(message, callback);
+    }
+
+    public void resend(PendingEvent pendingEvent, ApiCallback<Event> callback) {
+        mRoom.resend(pendingEvent, callback);
+    }
+
+    public void discard(PendingEvent pendingEvent) {
+        mRoom.discard(pendingEvent);
+    }
+
+    public List<PendingEvent> getPendingEvents() {
+        return mRoom.getPendingEvents();
     }
 
     public void redact(String eventId, ApiCallback<Event> callback) {
@@ -88,10 +88,10 @@ public class RoomMembersDialogFragment extends DialogFragment {
                     @Override
                     public void run() {
                         if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(event.type)) {
-                            mAdapter.updateMember(event.stateKey, JsonUtils.toRoomMember(event.content));
+                            mAdapter.updateMember(event.stateKey, event.getContentAsRoomMember());
                         }
                         else if (Event.EVENT_TYPE_STATE_ROOM_POWER_LEVELS.equals(event.type)) {
-                            mAdapter.setPowerLevels(JsonUtils.toPowerLevels(event.content));
+                            mAdapter.setPowerLevels(JsonUtils.toPowerLevels(event.getContent()));
                         }
                     }
                 });
@@ -119,7 +119,8 @@ public class RoomMembersDialogFragment extends DialogFragment {
             Collection<RoomMember> members = room.getMembers();
             if (members != null) {
                 for (RoomMember m : members) {
-                    mAdapter.add(m);
+                    // The adapter updates its members in place; room state members are shared and read-only
+                    mAdapter.add(m.deepCopy());
                     mAdapter.saveUser(mSession.getDataHandler().getStore().getUser(m.getUserId()));
                 }
                 mAdapter.sortMembers();
@@ -164,9 +165,14 @@ public class RoomMembersDialogFragment extends DialogFragment {
 
                 final ApiCallback callback = new SimpleApiCallback() {
                     @Override
-                    public void onMatrixError(MatrixError e) {
-                        if (MatrixError.FORBIDDEN.equals(e.errcode)) {
-                            Toast.makeText(getActivity(), e.error, Toast.LENGTH_LONG).show();
+                    public void onMatrixError(final MatrixError e) {
+                        if (MatrixError.FORBIDDEN.equals(e.errcode) && (getActivity() != null)) {
+                            getActivity().runOnUiThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Toast.makeText(getActivity(), e.error, Toast.LENGTH_LONG).show();
+                                }
+                            });
                         }
                     }
                 };
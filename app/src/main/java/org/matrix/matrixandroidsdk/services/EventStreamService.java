@@ -54,10 +54,10 @@ public class EventStreamService extends Service {
 //            if (EventUtils.shouldNotify(EventStreamService.this, event)) {
             String from = event.userId;
             // FIXME: Support event contents with no body
-            if (!event.content.has("body")) {
+            if (!event.getContent().has("body")) {
                 return;
             }
-            String body = event.content.getAsJsonPrimitive("body").getAsString();
+            String body = event.getContent().getAsJsonPrimitive("body").getAsString();
             Notification n = buildMessageNotification(from, body, event.roomId);
             NotificationManager nm = (NotificationManager) EventStreamService.this.getSystemService(Context.NOTIFICATION_SERVICE);
             Log.w(LOG_TAG, "onMessageEvent >>>> " + event);
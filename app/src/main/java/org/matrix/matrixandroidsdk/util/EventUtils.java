@@ -23,7 +23,6 @@ import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.Message;
 import org.matrix.androidsdk.rest.model.RoomMember;
-import org.matrix.androidsdk.util.JsonUtils;
 import org.matrix.matrixandroidsdk.Matrix;
 import org.matrix.matrixandroidsdk.ViewedRoomTracker;
 
@@ -53,7 +52,7 @@ public class EventUtils {
             return false;
         }
 
-        Message msg = JsonUtils.toMessage(event.content);
+        Message msg = event.getContentAsMessage();
         String body = msg.body;
 
         // Extract "bob" from "@bob:matrix.org"
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.data.MXMemoryStore;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.listeners.IMXEventListener;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.rest.model.login.Credentials;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests MXDataHandler.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MXDataHandlerTest {
+
+    private static final String ROOM_A = "!roomA:matrix.org";
+    private static final String ROOM_B = "!roomB:matrix.org";
+    private static final String MY_USER_ID = "@me:matrix.org";
+
+    private MXMemoryStore store;
+    private MXDataHandler dataHandler;
+    private IMXEventListener mockListener;
+
+    @Before
+    public void setUp() {
+        Credentials credentials = new Credentials();
+        credentials.userId = MY_USER_ID;
+        credentials.homeServer = "http://localhost:8008";
+
+        store = spy(new MXMemoryStore());
+        dataHandler = new MXDataHandler(store, credentials);
+        mockListener = mock(IMXEventListener.class);
+        dataHandler.addListener(mockListener);
+    }
+
+    private Event event(String roomId, String eventId, String type, String stateKey, String contentJson) {
+        Event event = new Event();
+        event.roomId = roomId;
+        event.eventId = eventId;
+        event.type = type;
+        event.stateKey = stateKey;
+        event.userId = MY_USER_ID;
+        event.setContent((JsonObject) new JsonParser().parse(contentJson));
+        return event;
+    }
+
+    private List<Event> chunk() {
+        return Arrays.asList(
+                event(ROOM_A, "$1", Event.EVENT_TYPE_STATE_ROOM_NAME, "", "{'name': 'Room A'}"),
+                event(ROOM_A, "$2", Event.EVENT_TYPE_MESSAGE, null, "{'msgtype': 'm.text', 'body': 'one'}"),
+                event(ROOM_B, "$3", Event.EVENT_TYPE_MESSAGE, null, "{'msgtype': 'm.text', 'body': 'two'}"),
+                event(ROOM_A, "$4", Event.EVENT_TYPE_MESSAGE, null, "{'msgtype': 'm.text', 'body': 'three'}"));
+    }
+
+    @Test
+    public void testPerEventMode() {
+        dataHandler.handleLiveEvents(chunk());
+
+        verify(mockListener, times(4)).onLiveEvent(any(Event.class), any(RoomState.class));
+        verify(mockListener, never()).onLiveEvents(anyList(), anyList());
+        verify(store, times(4)).storeSummary(anyString(), any(Event.class), any(RoomState.class), anyString());
+    }
+
+    @Test
+    public void testBatchMode() {
+        dataHandler.setBatchLiveEvents(true);
+        List<Event> events = chunk();
+        dataHandler.handleLiveEvents(events);
+
+        ArgumentCaptor<List> eventsCaptor = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List> statesCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mockListener, times(1)).onLiveEvents(eventsCaptor.capture(), statesCaptor.capture());
+        verify(mockListener, never()).onLiveEvent(any(Event.class), any(RoomState.class));
+
+        assertEquals(events, eventsCaptor.getValue());
+        List<RoomState> states = (List<RoomState>) statesCaptor.getValue();
+        assertEquals(4, states.size());
+        // Each state is the one from right before its event
+        assertNull(states.get(0).name);
+        assertEquals("Room A", states.get(1).name);
+
+        // One summary per room, with the room's latest event
+        verify(store, times(1)).storeLiveRoomEvents(anyList());
+        verify(store, times(2)).storeSummary(anyString(), any(Event.class), any(RoomState.class), anyString());
+        assertEquals("$4", store.getSummary(ROOM_A).getLatestEvent().eventId);
+        assertEquals("$3", store.getSummary(ROOM_B).getLatestEvent().eventId);
+    }
+
+    @Test
+    public void testBatchModeTypingOnly() {
+        dataHandler.setBatchLiveEvents(true);
+        List<Event> events = new ArrayList<Event>();
+        events.add(event(ROOM_A, null, Event.EVENT_TYPE_TYPING, null, "{'user_ids': []}"));
+        dataHandler.handleLiveEvents(events);
+
+        verify(store, never()).storeLiveRoomEvents(anyList());
+        verify(store, never()).storeSummary(anyString(), any(Event.class), any(RoomState.class), anyString());
+        verify(mockListener, never()).onLiveEvents(anyList(), anyList());
+    }
+
+    @Test
+    public void testPresenceIsCompactedPerChunk() {
+        List<Event> events = new ArrayList<Event>();
+        events.add(event(null, null, Event.EVENT_TYPE_PRESENCE, null,
+                "{'user_id': '@bob:matrix.org', 'presence': 'online', 'last_active_ago': 10}"));
+        events.add(event(null, null, Event.EVENT_TYPE_PRESENCE, null,
+                "{'user_id': '@alice:matrix.org', 'presence': 'online'}"));
+        events.add(event(null, null, Event.EVENT_TYPE_PRESENCE, null,
+                "{'user_id': '@bob:matrix.org', 'presence': 'unavailable', 'last_active_ago': 20}"));
+        dataHandler.handleLiveEvents(events);
+
+        ArgumentCaptor<List> usersCaptor = ArgumentCaptor.forClass(List.class);
+        verify(mockListener, times(1)).onPresenceUpdates(anyList(), usersCaptor.capture());
+        verify(mockListener, never()).onPresenceUpdate(any(Event.class), any(User.class));
+        List<User> users = (List<User>) usersCaptor.getValue();
+        assertEquals(2, users.size());
+        assertEquals("@bob:matrix.org", users.get(0).userId);
+        assertEquals(User.PRESENCE_UNAVAILABLE, users.get(0).getPresence());
+        assertTrue(users.get(0).getRealLastActiveAgo() >= 20);
+        // Presence strings are shared
+        assertSame(User.PRESENCE_ONLINE, users.get(1).getPresence());
+        assertNull(users.get(1).getRealLastActiveAgo());
+
+        assertEquals(User.PRESENCE_UNAVAILABLE, dataHandler.getPresenceTable().getPresence("@bob:matrix.org"));
+        verify(store, times(2)).storeUser(any(User.class));
+
+        // A new last active time alone is not stored again, but is read from the table
+        dataHandler.handleLiveEvents(Arrays.asList(event(null, null, Event.EVENT_TYPE_PRESENCE, null,
+                "{'user_id': '@bob:matrix.org', 'presence': 'unavailable', 'last_active_ago': 30000}")));
+        verify(store, times(2)).storeUser(any(User.class));
+        assertTrue(store.getUser("@bob:matrix.org").getRealLastActiveAgo() >= 30000);
+
+        dataHandler.handleLiveEvents(Arrays.asList(event(null, null, Event.EVENT_TYPE_PRESENCE, null,
+                "{'user_id': '@bob:matrix.org', 'presence': 'offline', 'last_active_ago': 40000}")));
+        verify(store, times(3)).storeUser(any(User.class));
+        assertEquals(User.PRESENCE_OFFLINE, store.getUser("@bob:matrix.org").presence);
+    }
+
+    @Test
+    public void testTypingEventsAreCoalesced() {
+        List<Event> events = new ArrayList<Event>();
+        events.add(event(ROOM_A, null, Event.EVENT_TYPE_TYPING, null, "{'user_ids': ['@alice:matrix.org']}"));
+        events.add(event(ROOM_A, "$1", Event.EVENT_TYPE_MESSAGE, null, "{'msgtype': 'm.text', 'body': 'one'}"));
+        events.add(event(ROOM_A, null, Event.EVENT_TYPE_TYPING, null,
+                "{'user_ids': ['@alice:matrix.org', '@bob:matrix.org']}"));
+        dataHandler.handleLiveEvents(events);
+
+        // Only the message goes through the room
+        verify(mockListener, times(1)).onLiveEvent(any(Event.class), any(RoomState.class));
+        List<String> typingUsers = Arrays.asList("@alice:matrix.org", "@bob:matrix.org");
+        verify(mockListener, times(1)).onTypingUpdate(anyString(), anyList());
+        verify(mockListener).onTypingUpdate(ROOM_A, typingUsers);
+        assertEquals(typingUsers, dataHandler.getTypingUsers(ROOM_A));
+
+        // The same users again change nothing
+        dataHandler.handleLiveEvents(events.subList(2, 3));
+        verify(mockListener, times(1)).onTypingUpdate(anyString(), anyList());
+        // No room is needed for them
+        verify(store, never()).getRoom(ROOM_B);
+        dataHandler.handleLiveEvents(Arrays.asList(event(ROOM_B, null, Event.EVENT_TYPE_TYPING, null, "{'user_ids': []}")));
+        verify(store, never()).getRoom(ROOM_B);
+        assertTrue(dataHandler.getTypingUsers(ROOM_B).isEmpty());
+    }
+
+    @Test
+    public void testRoomListenersOnlyGetTheirRoom() {
+        IMXEventListener roomAListener = mock(IMXEventListener.class);
+        IMXEventListener roomBListener = mock(IMXEventListener.class);
+        dataHandler.addRoomListener(ROOM_A, roomAListener);
+        dataHandler.addRoomListener(ROOM_B, roomBListener);
+
+        dataHandler.setBatchLiveEvents(true);
+        dataHandler.handleLiveEvents(chunk());
+
+        ArgumentCaptor<List> eventsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(roomAListener).onLiveEvents(eventsCaptor.capture(), anyList());
+        assertEquals(3, eventsCaptor.getValue().size());
+        verify(roomBListener).onLiveEvents(eventsCaptor.capture(), anyList());
+        assertEquals(1, eventsCaptor.getValue().size());
+
+        dataHandler.removeRoomListener(ROOM_B, roomBListener);
+        dataHandler.handleLiveEvents(chunk());
+        verify(roomAListener, times(2)).onLiveEvents(anyList(), anyList());
+        verifyNoMoreInteractions(roomBListener);
+    }
+
+    @Test
+    public void testUserListenersOnlyGetTheirUser() {
+        IMXEventListener aliceListener = mock(IMXEventListener.class);
+        dataHandler.addUserListener("@alice:matrix.org", aliceListener);
+
+        List<Event> events = new ArrayList<Event>();
+        events.add(event(null, null, Event.EVENT_TYPE_PRESENCE, null, "{'user_id': '@bob:matrix.org', 'presence': 'online'}"));
+        events.add(event(null, null, Event.EVENT_TYPE_PRESENCE, null, "{'user_id': '@alice:matrix.org', 'presence': 'online'}"));
+        dataHandler.handleLiveEvents(events);
+
+        verify(mockListener, times(1)).onPresenceUpdates(anyList(), anyList());
+        ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
+        verify(aliceListener, times(1)).onPresenceUpdate(any(Event.class), userCaptor.capture());
+        assertEquals("@alice:matrix.org", userCaptor.getValue().userId);
+    }
+
+    @Test
+    public void testListenersAreCalledAfterTheBatchIsSaved() {
+        final boolean[] inBatch = {false};
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                inBatch[0] = true;
+                ((Runnable) invocation.getArguments()[0]).run();
+                inBatch[0] = false;
+                return null;
+            }
+        }).when(store).runInBatch(any(Runnable.class));
+        Answer<Void> notInBatch = new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                assertFalse(inBatch[0]);
+                return null;
+            }
+        };
+        doAnswer(notInBatch).when(mockListener).onLiveEvent(any(Event.class), any(RoomState.class));
+        doAnswer(notInBatch).when(mockListener).onPresenceUpdates(anyList(), anyList());
+
+        List<Event> events = new ArrayList<Event>(chunk());
+        events.add(event(null, null, Event.EVENT_TYPE_PRESENCE, null, "{'user_id': '@bob:matrix.org', 'presence': 'online'}"));
+        dataHandler.handleLiveEvents(events, "s2");
+
+        verify(mockListener, times(4)).onLiveEvent(any(Event.class), any(RoomState.class));
+        verify(mockListener).onPresenceUpdates(anyList(), anyList());
+        assertEquals("s2", store.getEventStreamToken());
+    }
+}
@@ -0,0 +1,68 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.client.RoomsRestClient;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.TokensChunkResponse;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests DataRetriever.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DataRetrieverTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStoredHistoryIsAnsweredOnTheCallbackExecutor() {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        RoomsRestClient restClient = mock(RoomsRestClient.class);
+        when(restClient.getCallbackExecutor()).thenReturn(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        IMXStore store = mock(IMXStore.class);
+        TokensChunkResponse<Event> response = new TokensChunkResponse<Event>();
+        when(store.getRoomEvents("!a:matrix.org", "t1")).thenReturn(response);
+
+        DataRetriever dataRetriever = new DataRetriever();
+        dataRetriever.setStore(store);
+        dataRetriever.setRoomsRestClient(restClient);
+        ApiCallback<TokensChunkResponse<Event>> callback = mock(ApiCallback.class);
+        dataRetriever.requestRoomHistory("!a:matrix.org", "t1", callback);
+
+        // Nothing is done on the calling thread
+        verifyZeroInteractions(store, callback);
+        assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        verify(callback).onSuccess(response);
+        verify(restClient, never()).getEarlierMessages(anyString(), anyString(), any(ApiCallback.class));
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.TokensChunkResponse;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests MXMemoryStore's room timelines.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MXMemoryStoreTest {
+
+    private static final String TEST_ROOM_ID = "!testroomid:matrix.org";
+    private static final String OTHER_ROOM_ID = "!otherroomid:matrix.org";
+
+    private MXMemoryStore store;
+
+    @Before
+    public void setUp() {
+        store = new MXMemoryStore();
+    }
+
+    private Event message(String eventId) {
+        return message(TEST_ROOM_ID, eventId);
+    }
+
+    private Event message(String roomId, String eventId) {
+        Event event = new Event();
+        event.roomId = roomId;
+        event.eventId = eventId;
+        event.type = Event.EVENT_TYPE_MESSAGE;
+        return event;
+    }
+
+    private TokensChunkResponse<Event> chunk(String start, String end, String... eventIds) {
+        TokensChunkResponse<Event> response = new TokensChunkResponse<Event>();
+        response.start = start;
+        response.end = end;
+        response.chunk = new ArrayList<Event>();
+        for (String eventId : eventIds) {
+            response.chunk.add(message(eventId));
+        }
+        return response;
+    }
+
+    private void assertEvents(TokensChunkResponse<Event> response, String end, String... eventIds) {
+        assertNotNull(response);
+        assertEquals(end, response.end);
+        assertEquals(eventIds.length, response.chunk.size());
+        for (int i = 0; i < eventIds.length; i++) {
+            assertEquals(eventIds[i], response.chunk.get(i).eventId);
+        }
+    }
+
+    @Test
+    public void testSyncedAndLiveEventsArePaginatedFromStore() {
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t1", "t3", "$1", "$2"), Room.EventDirection.FORWARDS);
+        store.storeLiveRoomEvent(message("$3"));
+
+        // Pages end at the tokens, most recent first
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, null), "t3", "$3");
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, "t3"), "t1", "$2", "$1");
+        // Nothing is stored before the sync
+        assertNull(store.getRoomEvents(TEST_ROOM_ID, "t1"));
+    }
+
+    @Test
+    public void testPaginatedEventsAreServedFromStore() {
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t3", "t5", "$3", "$4"), Room.EventDirection.FORWARDS);
+        // Back pagination from t3, repeating the event it points at
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t3", "t1", "$3", "$2", "$1"), Room.EventDirection.BACKWARDS);
+
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, "t3"), "t1", "$2", "$1");
+        assertNull(store.getRoomEvents(TEST_ROOM_ID, "t1"));
+        assertEquals("$1", store.getOldestEvent(TEST_ROOM_ID).eventId);
+
+        // Paginating from a token the store does not know stores nothing
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("unknown", "t0", "$0"), Room.EventDirection.BACKWARDS);
+        assertNull(store.getRoomEvents(TEST_ROOM_ID, "t1"));
+    }
+
+    @Test
+    public void testGapAfterNewSyncIsFilled() {
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t1", "t3", "$1", "$2"), Room.EventDirection.FORWARDS);
+        // A later sync that does not connect with what is stored
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t6", "t8", "$6", "$7"), Room.EventDirection.FORWARDS);
+
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, null), "t6", "$7", "$6");
+        // The gap before the new sync is fetched from the server
+        assertNull(store.getRoomEvents(TEST_ROOM_ID, "t6"));
+
+        // Pagination reaches the events of the first sync
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t6", "t1", "$5", "$4", "$3", "$2", "$1"), Room.EventDirection.BACKWARDS);
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, "t6"), "t3", "$5", "$4", "$3");
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, "t3"), "t1", "$2", "$1");
+    }
+
+    @Test
+    public void testNewSyncConnectingWithStoredEvents() {
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t1", "t3", "$1", "$2"), Room.EventDirection.FORWARDS);
+        store.storeLiveRoomEvent(message("$3"));
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t2", "t5", "$2", "$3", "$4"), Room.EventDirection.FORWARDS);
+
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, null), "t3", "$4", "$3");
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, "t3"), "t1", "$2", "$1");
+    }
+
+    @Test
+    public void testRoomSyncFillsGapBeforeLatestEvent() {
+        // An initial sync that only got the latest event
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t3", "t4", "$3"), Room.EventDirection.FORWARDS);
+        store.storeLiveRoomEvent(message("$4"));
+        // The room initial sync gets the events before it as well
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t1", "t5", "$1", "$2", "$3", "$4"), Room.EventDirection.FORWARDS);
+
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, null), "t4", "$4");
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, "t4"), "t3", "$3");
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, "t3"), "t1", "$2", "$1");
+        assertNull(store.getRoomEvents(TEST_ROOM_ID, "t1"));
+    }
+
+    @Test
+    public void testLatestEventsAreCountedDownToGap() {
+        assertEquals(0, store.countLatestRoomEvents(TEST_ROOM_ID, 10));
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t3", "t4", "$3"), Room.EventDirection.FORWARDS);
+        store.storeLiveRoomEvent(message("$4"));
+        assertEquals(2, store.countLatestRoomEvents(TEST_ROOM_ID, 10));
+
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t1", "t5", "$1", "$2", "$3", "$4"), Room.EventDirection.FORWARDS);
+        assertEquals(4, store.countLatestRoomEvents(TEST_ROOM_ID, 10));
+        assertEquals(3, store.countLatestRoomEvents(TEST_ROOM_ID, 3));
+    }
+
+    @Test
+    public void testRoomIsTrimmedToTokenWhichBecomesGap() {
+        store = new MXMemoryStore(3, 0);
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t3", "t5", "$3", "$4"), Room.EventDirection.FORWARDS);
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t3", "t1", "$2", "$1"), Room.EventDirection.BACKWARDS);
+        // Kept while the room is scrolled back through
+        assertEquals(4, store.getEventCount());
+        store.storeLiveRoomEvent(message("$5"));
+
+        // Trimmed down to t3, the paginated events can be paginated back in
+        assertEquals(3, store.getEventCount());
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, null), "t5", "$5");
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, "t5"), "t3", "$4", "$3");
+        assertNull(store.getRoomEvents(TEST_ROOM_ID, "t3"));
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("t3", "t1", "$2", "$1"), Room.EventDirection.BACKWARDS);
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, "t3"), "t1", "$2", "$1");
+    }
+
+    @Test
+    public void testLeastRecentlyReadRoomsAreTrimmedFirst() {
+        store = new MXMemoryStore(0, 30);
+        store.storeRoomEvents(TEST_ROOM_ID, chunk("a1", "a2", "$a1", "$a2", "$a3", "$a4", "$a5"), Room.EventDirection.FORWARDS);
+        store.storeRoomEvents(OTHER_ROOM_ID, chunk("b1", "b2", "$b1", "$b2", "$b3", "$b4", "$b5"), Room.EventDirection.FORWARDS);
+
+        // A busy room: live events can only be trimmed once there is a token after them
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 25; i++) {
+            events.add(message(OTHER_ROOM_ID, "$live" + i));
+        }
+        store.storeLiveRoomEvents(events);
+        // The room read last is not trimmed
+        assertEquals(35, store.getEventCount());
+        store.storeEventStreamToken("s1");
+
+        store.getRoomEvents(TEST_ROOM_ID, null);
+        store.storeLiveRoomEvent(message(OTHER_ROOM_ID, "$live25"));
+
+        // The other room is now the least recently read, but its latest page is kept
+        assertEquals(6, store.getEventCount());
+        assertEvents(store.getRoomEvents(OTHER_ROOM_ID, null), "s1", "$live25");
+        assertNull(store.getRoomEvents(OTHER_ROOM_ID, "s1"));
+        assertEvents(store.getRoomEvents(TEST_ROOM_ID, null), "a1", "$a5", "$a4", "$a3", "$a2", "$a1");
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.TokensChunkResponse;
+import org.matrix.androidsdk.rest.model.User;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests MXSqliteStore.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MXSqliteStoreTest {
+
+    private static final String DATABASE_NAME = "test_store.db";
+    private static final String TEST_ROOM_ID = "!testroomid:matrix.org";
+    private static final String MY_USER_ID = "@me:matrix.org";
+
+    private MXSqliteStore store;
+
+    @Before
+    public void setUp() {
+        Robolectric.application.deleteDatabase(DATABASE_NAME);
+        store = new MXSqliteStore(Robolectric.application, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    private MXSqliteStore reopen() {
+        store.close();
+        store = new MXSqliteStore(Robolectric.application, DATABASE_NAME);
+        return store;
+    }
+
+    private Event event(String eventId, String type, String stateKey, String contentJson) {
+        Event event = new Event();
+        event.roomId = TEST_ROOM_ID;
+        event.eventId = eventId;
+        event.type = type;
+        event.stateKey = stateKey;
+        event.userId = MY_USER_ID;
+        event.setContent((JsonObject) new JsonParser().parse(contentJson));
+        return event;
+    }
+
+    private Event message(String eventId, String body) {
+        return event(eventId, Event.EVENT_TYPE_MESSAGE, null, "{'msgtype': 'm.text', 'body': '" + body + "'}");
+    }
+
+    private Room createRoom() {
+        Room room = new Room();
+        room.setRoomId(TEST_ROOM_ID);
+        room.processLiveState(Arrays.asList(
+                event("$name", Event.EVENT_TYPE_STATE_ROOM_NAME, "", "{'name': 'Test room'}"),
+                event("$member", Event.EVENT_TYPE_STATE_ROOM_MEMBER, MY_USER_ID, "{'membership': 'join', 'displayname': 'Me'}")));
+        store.storeRoom(room);
+        return room;
+    }
+
+    private void storeInitialMessages(String... eventIds) {
+        TokensChunkResponse<Event> response = new TokensChunkResponse<Event>();
+        response.start = "t_start";
+        response.chunk = new ArrayList<Event>();
+        for (String eventId : eventIds) {
+            response.chunk.add(message(eventId, eventId));
+        }
+        store.storeRoomEvents(TEST_ROOM_ID, response, Room.EventDirection.FORWARDS);
+    }
+
+    @Test
+    public void testEventsAreOrderedAndPersisted() {
+        createRoom();
+        storeInitialMessages("$1", "$2");
+        store.storeLiveRoomEvents(Arrays.asList(message("$3", "three"), message("$4", "four")));
+        store.storeLiveRoomEvent(message("$5", "five"));
+
+        reopen();
+
+        TokensChunkResponse<Event> events = store.getRoomEvents(TEST_ROOM_ID, null);
+        assertEquals("t_start", events.end);
+        assertEquals(5, events.chunk.size());
+        // Most recent first
+        assertEquals("$5", events.chunk.get(0).eventId);
+        assertEquals("$1", events.chunk.get(4).eventId);
+        assertEquals("$1", store.getOldestEvent(TEST_ROOM_ID).eventId);
+        assertEquals("four", events.chunk.get(1).getContent().get("body").getAsString());
+
+        // Ordering carries on after a restart
+        store.storeLiveRoomEvent(message("$6", "six"));
+        assertEquals("$6", store.getRoomEvents(TEST_ROOM_ID, null).chunk.get(0).eventId);
+    }
+
+    @Test
+    public void testPaginatedEventsArePersisted() {
+        createRoom();
+        storeInitialMessages("$3", "$4");
+        TokensChunkResponse<Event> response = new TokensChunkResponse<Event>();
+        response.start = "t_start";
+        response.end = "t_older";
+        response.chunk = Arrays.asList(message("$2", "two"), message("$1", "one"));
+        store.storeRoomEvents(TEST_ROOM_ID, response, Room.EventDirection.BACKWARDS);
+
+        reopen();
+
+        TokensChunkResponse<Event> events = store.getRoomEvents(TEST_ROOM_ID, "t_start");
+        assertEquals("t_older", events.end);
+        assertEquals(2, events.chunk.size());
+        assertEquals("$2", events.chunk.get(0).eventId);
+        assertEquals("$1", store.getOldestEvent(TEST_ROOM_ID).eventId);
+        // Further back is not stored
+        assertNull(store.getRoomEvents(TEST_ROOM_ID, "t_older"));
+    }
+
+    @Test
+    public void testLiveEventsForUnknownRoomAreNotStored() {
+        createRoom();
+        store.storeLiveRoomEvent(message("$1", "one"));
+        assertNull(store.getRoomEvents(TEST_ROOM_ID, null));
+        assertNull(store.getOldestEvent(TEST_ROOM_ID));
+    }
+
+    @Test
+    public void testUpdateEventContent() {
+        createRoom();
+        storeInitialMessages("$1");
+        store.updateEventContent(TEST_ROOM_ID, "$1", new JsonObject());
+
+        reopen();
+
+        assertEquals(0, store.getOldestEvent(TEST_ROOM_ID).getContent().entrySet().size());
+    }
+
+    @Test
+    public void testRoomStateChangesArePersisted() {
+        Room room = createRoom();
+        RoomMember alice = new RoomMember();
+        alice.membership = RoomMember.MEMBERSHIP_JOIN;
+        room.setMember("@alice:matrix.org", alice);
+        room.getLiveState().topic = "Topic";
+        // Only the changes are written, in one batch
+        store.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                store.storeSummary(TEST_ROOM_ID, message("$1", "hello"), store.getRoom(TEST_ROOM_ID).getLiveState().snapshot(), MY_USER_ID);
+            }
+        });
+        room.getLiveState().removeMember(MY_USER_ID);
+        store.storeRoom(room);
+
+        reopen();
+
+        Room restored = store.getRoom(TEST_ROOM_ID);
+        assertEquals("Topic", restored.getTopic());
+        assertEquals("Test room", restored.getName(MY_USER_ID));
+        assertNull(restored.getMember(MY_USER_ID));
+        assertEquals(RoomMember.MEMBERSHIP_JOIN, restored.getMember("@alice:matrix.org").membership);
+
+        // The summary only keeps the members its event names
+        RoomState summaryState = store.getSummary(TEST_ROOM_ID).getLatestRoomState();
+        assertNotNull(summaryState.getMember(MY_USER_ID));
+        assertNull(summaryState.getMember("@alice:matrix.org"));
+    }
+
+    @Test
+    public void testRoomStateAndSummaryArePersisted() {
+        Room room = createRoom();
+        Event lastMessage = message("$1", "hello");
+        store.storeSummary(TEST_ROOM_ID, lastMessage, room.getLiveState().snapshot(), MY_USER_ID);
+
+        reopen();
+
+        Room restored = store.getRoom(TEST_ROOM_ID);
+        assertNotNull(restored);
+        assertEquals("Test room", restored.getName(MY_USER_ID));
+        RoomMember me = restored.getMember(MY_USER_ID);
+        assertEquals(RoomMember.MEMBERSHIP_JOIN, me.membership);
+        assertEquals("Me", me.displayname);
+        assertEquals(MY_USER_ID, me.getUserId());
+
+        RoomSummary summary = store.getSummary(TEST_ROOM_ID);
+        assertEquals("Test room", summary.getRoomName());
+        assertEquals("$1", summary.getLatestEvent().eventId);
+        assertEquals(1, summary.getNumMembers());
+        assertEquals("Test room", summary.getLatestRoomState().name);
+    }
+
+    @Test
+    public void testUsersAndTokenArePersisted() {
+        User user = new User();
+        user.userId = "@alice:matrix.org";
+        user.displayname = "Alice";
+        user.presence = User.PRESENCE_ONLINE;
+        store.storeUser(user);
+        store.storeEventStreamToken("s42");
+
+        reopen();
+
+        assertEquals("Alice", store.getUser("@alice:matrix.org").displayname);
+        assertEquals(User.PRESENCE_ONLINE, store.getUser("@alice:matrix.org").presence);
+        assertEquals("s42", store.getEventStreamToken());
+    }
+
+    @Test
+    public void testPendingEventStateIsPersisted() {
+        Event event = event(null, Event.EVENT_TYPE_MESSAGE, null, "{'body': 'hello'}");
+        PendingEvent failed = new PendingEvent("m1.0", event);
+        store.storePendingEvent(failed);
+        store.storePendingEvent(new PendingEvent("m1.1", event));
+        failed.setState(PendingEvent.State.FAILED);
+        store.storePendingEvent(failed);
+
+        reopen();
+
+        List<PendingEvent> pendingEvents = new ArrayList<PendingEvent>(store.getPendingEvents());
+        assertEquals(2, pendingEvents.size());
+        // Saving the failure keeps the event in its place
+        assertEquals("m1.0", pendingEvents.get(0).getTxnId());
+        assertEquals(PendingEvent.State.FAILED, pendingEvents.get(0).getState());
+        assertEquals(PendingEvent.State.QUEUED, pendingEvents.get(1).getState());
+    }
+}
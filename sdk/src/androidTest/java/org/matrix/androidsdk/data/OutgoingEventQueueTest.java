@@ -0,0 +1,241 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.client.RoomsRestClient;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.MatrixError;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests OutgoingEventQueue.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class OutgoingEventQueueTest {
+
+    private static final String MY_USER_ID = "@me:matrix.org";
+    private static final String ROOM_ID = "!room:matrix.org";
+    private static final String OTHER_ROOM_ID = "!other:matrix.org";
+
+    private RoomsRestClient mockRestClient;
+    private ScheduledExecutorService mockRetryExecutor;
+    private IMXStore store;
+    private OutgoingEventQueue queue;
+
+    @Before
+    public void setUp() {
+        mockRestClient = mock(RoomsRestClient.class);
+        mockRetryExecutor = mock(ScheduledExecutorService.class);
+        store = new MXMemoryStore();
+        queue = new OutgoingEventQueue(mockRestClient, store, MY_USER_ID, mockRetryExecutor);
+    }
+
+    private JsonObject body(String body) {
+        JsonObject content = new JsonObject();
+        content.addProperty("body", body);
+        return content;
+    }
+
+    private PendingEvent send(String roomId, String body) {
+        return queue.send(roomId, Event.EVENT_TYPE_MESSAGE, body(body), null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ApiCallback<Event> verifySent(String roomId, PendingEvent pendingEvent) {
+        ArgumentCaptor<ApiCallback> callback = ArgumentCaptor.forClass(ApiCallback.class);
+        verify(mockRestClient).sendEvent(eq(roomId), eq(Event.EVENT_TYPE_MESSAGE), eq(pendingEvent.getTxnId()),
+                eq(pendingEvent.getEvent().getContent()), callback.capture());
+        return callback.getValue();
+    }
+
+    private Event response(String eventId) {
+        Event event = new Event();
+        event.eventId = eventId;
+        return event;
+    }
+
+    private Event echo(String roomId, String eventId) {
+        Event event = new Event();
+        event.roomId = roomId;
+        event.eventId = eventId;
+        event.userId = MY_USER_ID;
+        event.type = Event.EVENT_TYPE_MESSAGE;
+        return event;
+    }
+
+    @Test
+    public void testRoomEventsAreSentInOrder() {
+        PendingEvent first = send(ROOM_ID, "first");
+        PendingEvent second = send(ROOM_ID, "second");
+        PendingEvent other = send(OTHER_ROOM_ID, "other");
+        assertFalse(first.getTxnId().equals(second.getTxnId()));
+
+        // Nothing goes out before the initial sync
+        verifyZeroInteractions(mockRestClient);
+        queue.onInitialSyncComplete();
+
+        // One request per room at a time
+        ApiCallback<Event> firstCallback = verifySent(ROOM_ID, first);
+        verifySent(OTHER_ROOM_ID, other);
+        verify(mockRestClient, never()).sendEvent(anyString(), anyString(), eq(second.getTxnId()),
+                any(JsonObject.class), any(ApiCallback.class));
+        assertEquals(PendingEvent.State.SENDING, first.getState());
+        assertEquals(PendingEvent.State.QUEUED, second.getState());
+
+        firstCallback.onSuccess(response("$first"));
+        assertEquals(PendingEvent.State.SENT, first.getState());
+        assertEquals("$first", first.getEvent().eventId);
+        verifySent(ROOM_ID, second);
+    }
+
+    @Test
+    public void testEchoIsMatchedToPendingEvent() {
+        queue.onInitialSyncComplete();
+        PendingEvent first = send(ROOM_ID, "first");
+        PendingEvent second = send(ROOM_ID, "second");
+        verifySent(ROOM_ID, first).onSuccess(response("$first"));
+        assertEquals(2, queue.getPendingEvents(ROOM_ID).size());
+
+        queue.onLiveEvent(echo(ROOM_ID, "$first"), null);
+        assertEquals(1, queue.getPendingEvents(ROOM_ID).size());
+        assertSame(second, queue.getPendingEvents(ROOM_ID).get(0));
+
+        // The echo can also come before the response
+        queue.onLiveEvent(echo(ROOM_ID, "$second"), null);
+        verifySent(ROOM_ID, second).onSuccess(response("$second"));
+        assertTrue(queue.getPendingEvents(ROOM_ID).isEmpty());
+    }
+
+    @Test
+    public void testNetworkErrorsAreRetried() {
+        queue.onInitialSyncComplete();
+        PendingEvent first = send(ROOM_ID, "first");
+        verifySent(ROOM_ID, first).onNetworkError(new Exception());
+        assertEquals(PendingEvent.State.QUEUED, first.getState());
+
+        ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockRetryExecutor).schedule(retry.capture(), eq(1000L), eq(TimeUnit.MILLISECONDS));
+        retry.getValue().run();
+
+        // Same transaction id, so the server cannot post it twice
+        verify(mockRestClient, times(2)).sendEvent(eq(ROOM_ID), eq(Event.EVENT_TYPE_MESSAGE), eq(first.getTxnId()),
+                any(JsonObject.class), any(ApiCallback.class));
+        assertEquals(PendingEvent.State.SENDING, first.getState());
+    }
+
+    @Test
+    public void testRejectedEventFailsAndCanBeResent() {
+        queue.onInitialSyncComplete();
+        @SuppressWarnings("unchecked")
+        ApiCallback<Event> callback = mock(ApiCallback.class);
+        PendingEvent first = queue.send(ROOM_ID, Event.EVENT_TYPE_MESSAGE, body("first"), callback);
+        PendingEvent second = send(ROOM_ID, "second");
+
+        MatrixError error = new MatrixError();
+        error.errcode = MatrixError.FORBIDDEN;
+        verifySent(ROOM_ID, first).onMatrixError(error);
+        verify(callback).onMatrixError(error);
+        assertEquals(PendingEvent.State.FAILED, first.getState());
+        // Failed events stay visible, but do not hold up the room
+        assertEquals(2, queue.getPendingEvents(ROOM_ID).size());
+        verifySent(ROOM_ID, second);
+
+        queue.resend(first, null);
+        assertEquals(PendingEvent.State.QUEUED, first.getState());
+        assertSame(first, queue.getPendingEvents(ROOM_ID).get(1));
+    }
+
+    @Test
+    public void testUnsentEventsSurviveRestart() {
+        PendingEvent first = send(ROOM_ID, "first");
+        assertEquals(1, store.getPendingEvents().size());
+
+        // A new queue on the same store picks the event up
+        queue = new OutgoingEventQueue(mockRestClient, store, MY_USER_ID, mockRetryExecutor);
+        PendingEvent restored = queue.getPendingEvents(ROOM_ID).get(0);
+        assertEquals(first.getTxnId(), restored.getTxnId());
+
+        queue.onInitialSyncComplete();
+        verifySent(ROOM_ID, restored).onSuccess(response("$first"));
+        assertTrue(store.getPendingEvents().isEmpty());
+    }
+
+    @Test
+    public void testFailedEventsAreKeptUntilDiscarded() {
+        queue.onInitialSyncComplete();
+        PendingEvent first = send(ROOM_ID, "first");
+        MatrixError error = new MatrixError();
+        error.errcode = MatrixError.FORBIDDEN;
+        verifySent(ROOM_ID, first).onMatrixError(error);
+        assertEquals(1, store.getPendingEvents().size());
+
+        // After a restart the failed event is listed, but not sent again on its own
+        reset(mockRestClient);
+        queue = new OutgoingEventQueue(mockRestClient, store, MY_USER_ID, mockRetryExecutor);
+        queue.onInitialSyncComplete();
+        PendingEvent restored = queue.getPendingEvents(ROOM_ID).get(0);
+        assertEquals(PendingEvent.State.FAILED, restored.getState());
+        verifyZeroInteractions(mockRestClient);
+
+        queue.discard(restored);
+        assertTrue(queue.getPendingEvents(ROOM_ID).isEmpty());
+        assertTrue(store.getPendingEvents().isEmpty());
+    }
+
+    @Test
+    public void testRateLimitedAndServerErrorsAreRetriedInOrder() {
+        queue.onInitialSyncComplete();
+        PendingEvent first = send(ROOM_ID, "first");
+        send(ROOM_ID, "second");
+
+        MatrixError limited = new MatrixError();
+        limited.errcode = MatrixError.LIMIT_EXCEEDED;
+        limited.retryAfterMs = 5000L;
+        limited.setHttpStatus(429);
+        verifySent(ROOM_ID, first).onMatrixError(limited);
+        assertEquals(PendingEvent.State.QUEUED, first.getState());
+
+        // The server's delay is waited for, and the next event does not overtake the throttled one
+        ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockRetryExecutor).schedule(retry.capture(), eq(5000L), eq(TimeUnit.MILLISECONDS));
+        verify(mockRestClient, times(1)).sendEvent(anyString(), anyString(), anyString(),
+                any(JsonObject.class), any(ApiCallback.class));
+        retry.getValue().run();
+
+        MatrixError serverError = new MatrixError();
+        serverError.errcode = MatrixError.UNKNOWN;
+        serverError.setHttpStatus(502);
+        ArgumentCaptor<ApiCallback> callback = ArgumentCaptor.forClass(ApiCallback.class);
+        verify(mockRestClient, times(2)).sendEvent(eq(ROOM_ID), eq(Event.EVENT_TYPE_MESSAGE), eq(first.getTxnId()),
+                any(JsonObject.class), callback.capture());
+        callback.getValue().onMatrixError(serverError);
+        assertEquals(PendingEvent.State.QUEUED, first.getState());
+        verify(mockRetryExecutor).schedule(any(Runnable.class), eq(2000L), eq(TimeUnit.MILLISECONDS));
+    }
+}
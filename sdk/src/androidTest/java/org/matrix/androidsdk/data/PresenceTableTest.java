@@ -0,0 +1,58 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.User;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests PresenceTable.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PresenceTableTest {
+
+    @Test
+    public void testUpdate() {
+        PresenceTable table = new PresenceTable();
+        assertTrue(table.update("@bob:matrix.org", new String("online"), 1000L, 5000));
+        assertSame(User.PRESENCE_ONLINE, table.getPresence("@bob:matrix.org"));
+        assertEquals(Long.valueOf(1500), table.getRealLastActiveAgo("@bob:matrix.org", 5500));
+
+        // Only the last active time changed
+        assertFalse(table.update("@bob:matrix.org", "online", null, 6000));
+        assertNull(table.getRealLastActiveAgo("@bob:matrix.org", 6000));
+        assertTrue(table.update("@bob:matrix.org", "offline", 0L, 7000));
+
+        assertNull(table.getPresence("@alice:matrix.org"));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testGrows() {
+        PresenceTable table = new PresenceTable();
+        for (int i = 0; i < 200; i++) {
+            table.update("@user" + i + ":matrix.org", (i % 2 == 0) ? "online" : "busy", (long) i, 0);
+        }
+        assertEquals(200, table.size());
+        assertEquals("busy", table.getPresence("@user199:matrix.org"));
+        assertSame(table.intern(new String("busy")), table.getPresence("@user1:matrix.org"));
+        assertEquals(Long.valueOf(150), table.getRealLastActiveAgo("@user150:matrix.org", 0));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests RoomState.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RoomStateTest {
+
+    private static final String TEST_ROOM_ID = "!testroomid:matrix.org";
+
+    private RoomState roomState;
+
+    @Before
+    public void setUp() {
+        roomState = new RoomState();
+        roomState.roomId = TEST_ROOM_ID;
+        roomState.applyState(memberEvent("@alice:matrix.org", "{'membership': 'join'}"), Room.EventDirection.FORWARDS);
+        roomState.applyState(memberEvent("@bob:matrix.org", "{'membership': 'join'}"), Room.EventDirection.FORWARDS);
+    }
+
+    private Event memberEvent(String userId, String contentJson) {
+        Event event = new Event();
+        event.roomId = TEST_ROOM_ID;
+        event.type = Event.EVENT_TYPE_STATE_ROOM_MEMBER;
+        event.stateKey = userId;
+        event.userId = userId;
+        event.setContent((JsonObject) new JsonParser().parse(contentJson));
+        return event;
+    }
+
+    private Event nameEvent(String name) {
+        Event event = new Event();
+        event.roomId = TEST_ROOM_ID;
+        event.type = Event.EVENT_TYPE_STATE_ROOM_NAME;
+        event.stateKey = "";
+        event.setContent((JsonObject) new JsonParser().parse("{'name': '" + name + "'}"));
+        return event;
+    }
+
+    @Test
+    public void testSnapshotIsolatedFromLaterChanges() {
+        RoomState snapshot = roomState.snapshot();
+
+        roomState.applyState(memberEvent("@carol:matrix.org", "{'membership': 'invite'}"), Room.EventDirection.FORWARDS);
+        roomState.applyState(memberEvent("@alice:matrix.org", "{'membership': 'leave'}"), Room.EventDirection.FORWARDS);
+        roomState.applyState(nameEvent("New name"), Room.EventDirection.FORWARDS);
+
+        assertEquals(2, snapshot.getMembers().size());
+        assertNull(snapshot.getMember("@carol:matrix.org"));
+        assertEquals(RoomMember.MEMBERSHIP_JOIN, snapshot.getMember("@alice:matrix.org").membership);
+        assertNull(snapshot.name);
+
+        assertEquals(3, roomState.getMembers().size());
+        assertEquals(RoomMember.MEMBERSHIP_LEAVE, roomState.getMember("@alice:matrix.org").membership);
+        assertEquals("New name", roomState.name);
+    }
+
+    @Test
+    public void testChangesToSnapshotDoNotLeak() {
+        RoomState snapshot = roomState.snapshot();
+        snapshot.removeMember("@bob:matrix.org");
+
+        assertNull(snapshot.getMember("@bob:matrix.org"));
+        assertNotNull(roomState.getMember("@bob:matrix.org"));
+    }
+
+    @Test
+    public void testSnapshotSharesMembers() {
+        RoomState snapshot = roomState.snapshot();
+        assertSame(roomState.getMember("@alice:matrix.org"), snapshot.getMember("@alice:matrix.org"));
+    }
+
+    @Test
+    public void testDisplayNameIsKeptUntilItChanges() {
+        roomState.visibility = RoomState.VISIBILITY_PRIVATE;
+        String displayName = roomState.getDisplayName("@alice:matrix.org");
+        assertEquals("@bob:matrix.org", displayName);
+        assertSame(displayName, roomState.getDisplayName("@alice:matrix.org"));
+        assertEquals("@alice:matrix.org", roomState.getDisplayName("@bob:matrix.org"));
+
+        roomState.applyState(memberEvent("@bob:matrix.org", "{'membership': 'join', 'displayname': 'Bob'}"),
+                Room.EventDirection.FORWARDS);
+        assertEquals("Bob", roomState.getDisplayName("@alice:matrix.org"));
+
+        RoomState snapshot = roomState.snapshot();
+        roomState.applyState(nameEvent("Room"), Room.EventDirection.FORWARDS);
+        assertEquals("Room", roomState.getDisplayName("@alice:matrix.org"));
+        assertEquals("Bob", snapshot.getDisplayName("@alice:matrix.org"));
+
+        roomState.name = null;
+        roomState.visibility = RoomState.VISIBILITY_PUBLIC;
+        assertEquals(TEST_ROOM_ID, roomState.getDisplayName("@alice:matrix.org"));
+    }
+
+    @Test
+    public void testMembershipCountsFollowChanges() {
+        assertEquals(2, roomState.getJoinedMemberCount());
+        assertEquals(0, roomState.getInvitedMemberCount());
+
+        roomState.applyState(memberEvent("@carol:matrix.org", "{'membership': 'invite'}"), Room.EventDirection.FORWARDS);
+        RoomState snapshot = roomState.snapshot();
+        roomState.applyState(memberEvent("@carol:matrix.org", "{'membership': 'join'}"), Room.EventDirection.FORWARDS);
+        roomState.applyState(memberEvent("@bob:matrix.org", "{'membership': 'leave'}"), Room.EventDirection.FORWARDS);
+        roomState.applyState(memberEvent("@dave:matrix.org", "{'membership': 'ban'}"), Room.EventDirection.FORWARDS);
+        assertEquals(2, roomState.getJoinedMemberCount());
+        assertEquals(0, roomState.getInvitedMemberCount());
+        assertEquals(1, roomState.getLeftMemberCount());
+        assertEquals(1, roomState.getBannedMemberCount());
+
+        // The snapshot keeps the counts it was taken with
+        assertEquals(2, snapshot.getJoinedMemberCount());
+        assertEquals(1, snapshot.getInvitedMemberCount());
+
+        roomState.removeMember("@dave:matrix.org");
+        roomState.removeMember("@nobody:matrix.org");
+        assertEquals(0, roomState.getBannedMemberCount());
+        assertEquals(2, roomState.deepCopy().getJoinedMemberCount());
+    }
+}
@@ -0,0 +1,165 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.client.EventsRestClient;
+import org.matrix.androidsdk.rest.model.Event;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests RoomSyncQueue.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RoomSyncQueueTest {
+
+    private IMXStore mockStore;
+    private RoomSyncQueue queue;
+
+    @Before
+    public void setUp() {
+        mockStore = mock(IMXStore.class);
+        // One sync at a time, and the store is looked at straight away
+        queue = new RoomSyncQueue(mockStore, 1, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    private Room room(String roomId) {
+        Room room = mock(Room.class);
+        when(room.getRoomId()).thenReturn(roomId);
+        when(mockStore.getRoom(roomId)).thenReturn(room);
+        return room;
+    }
+
+    private RoomSummary summary(String roomId, long latestTs) {
+        Event event = new Event();
+        event.originServerTs = latestTs;
+        RoomSummary summary = new RoomSummary();
+        summary.setRoomId(roomId);
+        summary.setLatestEvent(event);
+        return summary;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ApiCallback<Void> verifySynced(Room room) {
+        ArgumentCaptor<ApiCallback> callback = ArgumentCaptor.forClass(ApiCallback.class);
+        verify(room).initialSync(callback.capture());
+        return callback.getValue();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testNothingIsSyncedUntilEnabled() {
+        Room room = room("!a:matrix.org");
+        ApiCallback<Void> callback = mock(ApiCallback.class);
+        queue.syncRoom(room, callback);
+
+        verify(callback).onSuccess(null);
+        verify(room, never()).initialSync(any(ApiCallback.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRoomsAreSyncedOnceAndInTurn() {
+        queue.enable(0);
+        Room roomA = room("!a:matrix.org");
+        Room roomB = room("!b:matrix.org");
+        ApiCallback<Void> callbackA = mock(ApiCallback.class);
+        ApiCallback<Void> callbackA2 = mock(ApiCallback.class);
+        queue.syncRoom(roomA, callbackA);
+        queue.syncRoom(roomB, null);
+        queue.syncRoom(roomA, callbackA2);
+
+        ApiCallback<Void> syncA = verifySynced(roomA);
+        verify(roomB, never()).initialSync(any(ApiCallback.class));
+
+        syncA.onSuccess(null);
+        verify(callbackA).onSuccess(null);
+        verify(callbackA2).onSuccess(null);
+        verifySynced(roomB);
+        assertTrue(queue.isSynced("!a:matrix.org"));
+        assertFalse(queue.isSynced("!b:matrix.org"));
+
+        // Already synced
+        ApiCallback<Void> callbackA3 = mock(ApiCallback.class);
+        queue.syncRoom(roomA, callbackA3);
+        verify(callbackA3).onSuccess(null);
+        verify(roomA, times(1)).initialSync(any(ApiCallback.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOpenedRoomGoesBeforePreloadedRooms() {
+        queue.enable(2);
+        Room roomA = room("!a:matrix.org");
+        Room roomB = room("!b:matrix.org");
+        Room roomC = room("!c:matrix.org");
+        when(mockStore.getSummaries()).thenReturn(Arrays.asList(
+                summary("!a:matrix.org", 1), summary("!b:matrix.org", 2), summary("!c:matrix.org", 3)));
+
+        // The two most recent rooms are preloaded
+        queue.onInitialSyncComplete();
+        ApiCallback<Void> syncC = verifySynced(roomC);
+
+        // The user opens the least recent room
+        ApiCallback<Void> callbackA = mock(ApiCallback.class);
+        queue.syncRoom(roomA, callbackA);
+        syncC.onNetworkError(new Exception());
+        assertFalse(queue.isSynced("!c:matrix.org"));
+
+        verifySynced(roomA).onSuccess(null);
+        verify(callbackA).onSuccess(null);
+        verifySynced(roomB);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRoomWithStoredMessagesIsNotSyncedAgain() {
+        queue.enable(0);
+        Room roomA = room("!a:matrix.org");
+        Room roomB = room("!b:matrix.org");
+        // A previous run synced A: a page of messages is stored
+        int limit = EventsRestClient.INITIAL_SYNC_MESSAGES_LIMIT;
+        when(mockStore.countLatestRoomEvents("!a:matrix.org", limit)).thenReturn(limit);
+        // B only has the latest event from the global initial sync, and live events since
+        when(mockStore.countLatestRoomEvents("!b:matrix.org", limit)).thenReturn(3);
+
+        ApiCallback<Void> callbackA = mock(ApiCallback.class);
+        queue.syncRoom(roomA, callbackA);
+        verify(callbackA).onSuccess(null);
+        verify(roomA, never()).initialSync(any(ApiCallback.class));
+        assertTrue(queue.isSynced("!a:matrix.org"));
+
+        queue.syncRoom(roomB, null);
+        verifySynced(roomB);
+        // Reading the room would count as a use of it
+        verify(mockStore, never()).getRoomEvents(anyString(), anyString());
+    }
+}
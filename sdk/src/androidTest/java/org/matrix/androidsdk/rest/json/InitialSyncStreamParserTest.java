@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.RoomResponse;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests InitialSyncStreamParser.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InitialSyncStreamParserTest {
+
+    private static final String RESPONSE = "{"
+            + "\"end\": \"s123\","
+            + "\"unknown_key\": {\"nested\": [1, 2, 3]},"
+            + "\"rooms\": ["
+            + "  {\"room_id\": \"!a:matrix.org\", \"membership\": \"join\","
+            + "   \"messages\": {\"start\": \"t1\", \"end\": \"t2\", \"chunk\": ["
+            + "     {\"event_id\": \"$1\", \"type\": \"m.room.message\", \"room_id\": \"!a:matrix.org\","
+            + "      \"content\": {\"msgtype\": \"m.text\", \"body\": \"hello\"}}]},"
+            + "   \"state\": [{\"type\": \"m.room.name\", \"state_key\": \"\", \"content\": {\"name\": \"A\"}}]},"
+            + "  {\"room_id\": \"!b:matrix.org\", \"membership\": \"invite\", \"inviter\": \"@bob:matrix.org\"}"
+            + "],"
+            + "\"presence\": [{\"type\": \"m.presence\", \"content\": {\"user_id\": \"@bob:matrix.org\"}}]"
+            + "}";
+
+    private static class RecordingListener implements InitialSyncStreamParser.Listener {
+        List<String> calls = new ArrayList<String>();
+        List<RoomResponse> rooms = new ArrayList<RoomResponse>();
+        List<Event> presence;
+
+        @Override
+        public void onPresence(List<Event> presence) {
+            calls.add("presence");
+            this.presence = presence;
+        }
+
+        @Override
+        public void onRoom(RoomResponse roomResponse) {
+            calls.add(roomResponse.roomId);
+            rooms.add(roomResponse);
+        }
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        RecordingListener listener = new RecordingListener();
+        String end = new InitialSyncStreamParser().parse(new StringReader(RESPONSE), listener);
+
+        assertEquals("s123", end);
+        // Everything is handed over in stream order
+        assertEquals(3, listener.calls.size());
+        assertEquals("!a:matrix.org", listener.calls.get(0));
+        assertEquals("!b:matrix.org", listener.calls.get(1));
+        assertEquals("presence", listener.calls.get(2));
+
+        RoomResponse room = listener.rooms.get(0);
+        assertEquals("join", room.membership);
+        assertEquals("t1", room.messages.start);
+        assertEquals(1, room.messages.chunk.size());
+        assertEquals("$1", room.messages.chunk.get(0).eventId);
+        assertEquals("hello", room.messages.chunk.get(0).getContent().get("body").getAsString());
+        assertEquals(1, room.state.size());
+
+        assertEquals("@bob:matrix.org", listener.rooms.get(1).inviter);
+        assertEquals(1, listener.presence.size());
+    }
+
+    @Test
+    public void testNullsAreSkipped() throws IOException {
+        RecordingListener listener = new RecordingListener();
+        String end = new InitialSyncStreamParser().parse(
+                new StringReader("{\"end\": null, \"rooms\": null, \"presence\": []}"), listener);
+
+        assertNull(end);
+        assertEquals(1, listener.calls.size());
+        assertTrue(listener.presence.isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedResponse() throws IOException {
+        new InitialSyncStreamParser().parse(new StringReader(RESPONSE.substring(0, 60)), new RecordingListener());
+    }
+
+    // EventsRestClient.initialSync turns this into an unexpected error
+    @Test(expected = IllegalStateException.class)
+    public void testUnexpectedShape() throws IOException {
+        new InitialSyncStreamParser().parse(new StringReader("{\"rooms\": {\"!a:matrix.org\": {}}}"), new RecordingListener());
+    }
+}
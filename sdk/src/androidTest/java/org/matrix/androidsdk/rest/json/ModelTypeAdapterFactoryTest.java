@@ -0,0 +1,203 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ImageInfo;
+import org.matrix.androidsdk.rest.model.ImageMessage;
+import org.matrix.androidsdk.rest.model.Message;
+import org.matrix.androidsdk.rest.model.PowerLevels;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.util.JsonUtils;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.reflect.Modifier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the adapters of ModelTypeAdapterFactory read and write the same as reflection.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ModelTypeAdapterFactoryTest {
+
+    private Gson reflectiveGson = new GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .excludeFieldsWithModifiers(Modifier.PRIVATE, Modifier.STATIC)
+            .create();
+
+    private Gson gson = JsonUtils.getGson();
+
+    /**
+     * Read the JSON with both Gsons and check that the objects read, written with either, give the same JSON.
+     */
+    private <T> T assertRoundTrip(String json, Class<T> type) {
+        T expected = reflectiveGson.fromJson(json, type);
+        T actual = gson.fromJson(json, type);
+        assertSame(expected.getClass(), actual.getClass());
+
+        String expectedJson = reflectiveGson.toJson(expected);
+        assertEquals(expectedJson, reflectiveGson.toJson(actual));
+        assertEquals(expectedJson, gson.toJson(expected));
+        assertEquals(expectedJson, gson.toJson(actual));
+        assertEquals(reflectiveGson.toJsonTree(expected), gson.toJsonTree(actual));
+
+        // And reading from a tree
+        JsonObject tree = new JsonParser().parse(json).getAsJsonObject();
+        assertEquals(expectedJson, gson.toJson(gson.fromJson(tree, type)));
+        return actual;
+    }
+
+    /**
+     * The fields of an event as they were mapped by reflection, before its content became lazy.
+     */
+    public static class ReflectiveEvent {
+        public String type;
+        public JsonObject content;
+        public String eventId;
+        public String roomId;
+        public String userId;
+        public long originServerTs;
+        public long age;
+        public String stateKey;
+        public JsonObject prevContent;
+        public String redacts;
+    }
+
+    private void assertEventRoundTrip(String json) {
+        ReflectiveEvent expected = reflectiveGson.fromJson(json, ReflectiveEvent.class);
+        String expectedJson = reflectiveGson.toJson(expected);
+
+        // Content kept as text
+        Event event = gson.fromJson(json, Event.class);
+        assertEquals(expectedJson, gson.toJson(event));
+        // Content parsed
+        event.getContent();
+        event.getPrevContent();
+        assertEquals(expectedJson, gson.toJson(event));
+        assertEquals(reflectiveGson.toJsonTree(expected), gson.toJsonTree(event));
+
+        // Content read from a tree
+        JsonObject tree = new JsonParser().parse(json).getAsJsonObject();
+        assertEquals(expectedJson, gson.toJson(gson.fromJson(tree, Event.class)));
+    }
+
+    @Test
+    public void testEvent() {
+        String json = "{'type': 'm.room.message', 'event_id': '$1:matrix.org', 'room_id': '!r:matrix.org',"
+                + " 'user_id': '@u:matrix.org', 'origin_server_ts': 1414000000000, 'age': 12,"
+                + " 'content': {'msgtype': 'm.text', 'body': 'hi \\u00e9\\n', 'n': {'a': [1, 2.50, -3e2, null, true]}},"
+                + " 'unsigned': {'age': 12}}";
+        assertEventRoundTrip(json);
+        Event event = gson.fromJson(json, Event.class);
+        assertEquals("$1:matrix.org", event.eventId);
+        assertEquals(1414000000000L, event.originServerTs);
+        assertEquals("hi \u00e9\n", event.getContent().get("body").getAsString());
+
+        assertEventRoundTrip("{'type': 'm.room.member', 'state_key': '@u:matrix.org', 'content': {'membership': 'join'},"
+                + " 'prev_content': {'membership': 'invite', 'displayname': null}, 'age': null}");
+        assertEventRoundTrip("{'type': 'm.room.redaction', 'redacts': '$2:matrix.org', 'content': {}}");
+        assertEventRoundTrip("{}");
+    }
+
+    @Test
+    public void testRoomMember() {
+        RoomMember member = assertRoundTrip("{'membership': 'join', 'displayname': 'Bob',"
+                + " 'avatar_url': 'mxc://matrix.org/a', 'user_id': '@bob:matrix.org'}", RoomMember.class);
+        assertEquals("Bob", member.displayname);
+        // Not part of the JSON
+        assertNull(member.getUserId());
+        assertRoundTrip("{'membership': 'leave', 'displayname': null}", RoomMember.class);
+    }
+
+    @Test
+    public void testUser() {
+        User user = assertRoundTrip("{'user_id': '@bob:matrix.org', 'displayname': 'Bob', 'presence': 'online',"
+                + " 'last_active_ago': 1234, 'status_msg': 'Away', 'currently_active': true}", User.class);
+        assertEquals(Long.valueOf(1234), user.lastActiveAgo);
+        assertRoundTrip("{'user_id': '@bob:matrix.org', 'last_active_ago': null}", User.class);
+    }
+
+    @Test
+    public void testRoomState() {
+        RoomState roomState = assertRoundTrip("{'name': 'Room', 'topic': 'Things', 'join_rule': 'public',"
+                + " 'creator': '@bob:matrix.org', 'aliases': ['#a:matrix.org', '#b:matrix.org'], 'visibility': 'public'}",
+                RoomState.class);
+        assertEquals(2, roomState.aliases.size());
+        assertRoundTrip("{'room_id': '!r:matrix.org', 'room_alias_name': 'a', 'aliases': []}", RoomState.class);
+    }
+
+    @Test
+    public void testPowerLevels() {
+        PowerLevels powerLevels = assertRoundTrip("{'ban': 50, 'kick': 50, 'redact': 50, 'invite': 0,"
+                + " 'events_default': 0, 'state_default': 50, 'users_default': 0,"
+                + " 'users': {'@bob:matrix.org': 100, '@alice:matrix.org': 50},"
+                + " 'events': {'m.room.name': 100, 'm.room.power_levels': 100}}", PowerLevels.class);
+        assertEquals(100, powerLevels.getUserPowerLevel("@bob:matrix.org"));
+        assertRoundTrip("{'ban': '50', 'users': {'@bob:matrix.org': null}}", PowerLevels.class);
+    }
+
+    @Test
+    public void testMessage() {
+        assertRoundTrip("{'msgtype': 'm.text', 'body': 'hello'}", Message.class);
+        assertRoundTrip("{'body': 'no type', 'url': 'mxc://matrix.org/a'}", Message.class);
+        assertRoundTrip("{'msgtype': 'm.image', 'body': 'image.jpg', 'url': 'mxc://matrix.org/a',"
+                + " 'info': {'mimetype': 'image/jpeg', 'w': 640, 'h': 480, 'size': 12345}}", ImageMessage.class);
+        assertRoundTrip("{'url': 'mxc://matrix.org/a', 'thumbnail_info': null}", ImageMessage.class);
+    }
+
+    @Test
+    public void testImageMessageIsReadInOnePass() {
+        // The msgtype comes after the image fields
+        String json = "{'url': 'mxc://matrix.org/a', 'thumbnail_url': 'mxc://matrix.org/t',"
+                + " 'thumbnail_info': {'mimetype': 'image/jpeg', 'w': 320, 'h': 240, 'size': 1000},"
+                + " 'info': {'mimetype': 'image/jpeg', 'w': 640, 'h': 480, 'size': 12345},"
+                + " 'body': 'image.jpg', 'msgtype': 'm.image'}";
+        Message message = JsonUtils.toMessage(new JsonParser().parse(json).getAsJsonObject());
+        assertTrue(message instanceof ImageMessage);
+
+        ImageMessage imageMessage = (ImageMessage) message;
+        assertEquals("mxc://matrix.org/a", imageMessage.url);
+        assertEquals("mxc://matrix.org/t", imageMessage.thumbnailUrl);
+        assertEquals(640, imageMessage.info.w);
+        assertEquals(1000, imageMessage.thumbnailInfo.size);
+
+        ImageMessage expected = reflectiveGson.fromJson(json, ImageMessage.class);
+        assertEquals(reflectiveGson.toJson(expected), gson.toJson(message));
+        assertEquals(reflectiveGson.toJsonTree(expected), JsonUtils.toJson(message));
+    }
+
+    @Test
+    public void testImageMessageWrittenAsMessage() {
+        ImageMessage imageMessage = new ImageMessage();
+        imageMessage.body = "image.png";
+        imageMessage.url = "mxc://matrix.org/a";
+        imageMessage.info = new ImageInfo();
+        imageMessage.info.mimetype = "image/png";
+
+        assertEquals(reflectiveGson.toJson(imageMessage), gson.toJson(imageMessage, Message.class));
+    }
+}
@@ -0,0 +1,88 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.model;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.util.JsonUtils;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests the lazy content of Event.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EventTest {
+
+    private static final String IMAGE_EVENT = "{'type': 'm.room.message', 'event_id': '$1:matrix.org',"
+            + " 'content': {'msgtype': 'm.image', 'body': 'image.jpg', 'url': 'mxc://matrix.org/a'}}";
+
+    @Test
+    public void testContentIsKeptAsTextUntilUsed() {
+        Event event = JsonUtils.getGson().fromJson(IMAGE_EVENT, Event.class);
+        assertNotNull(event.getRawContent());
+
+        JsonObject content = event.getContent();
+        assertEquals("image.jpg", content.get("body").getAsString());
+        assertNull(event.getRawContent());
+        assertSame(content, event.getContent());
+    }
+
+    @Test
+    public void testMessageIsDecodedFromTextAndKept() {
+        Event event = JsonUtils.getGson().fromJson(IMAGE_EVENT, Event.class);
+        Message message = event.getContentAsMessage();
+        assertTrue(message instanceof ImageMessage);
+        assertEquals("mxc://matrix.org/a", ((ImageMessage) message).url);
+        // The JsonObject was not needed
+        assertNotNull(event.getRawContent());
+        assertSame(message, event.getContentAsMessage());
+    }
+
+    @Test
+    public void testSettingContentResetsDecodedViews() {
+        Event event = JsonUtils.getGson().fromJson(IMAGE_EVENT, Event.class);
+        assertEquals("image.jpg", event.getContentAsMessage().body);
+
+        event.setContent((JsonObject) new JsonParser().parse("{'membership': 'join', 'body': 'redacted'}"));
+        assertNull(event.getRawContent());
+        assertEquals("redacted", event.getContentAsMessage().body);
+        assertEquals("join", event.getContentAsRoomMember().membership);
+    }
+
+    @Test
+    public void testEventWithoutContent() {
+        Event event = JsonUtils.getGson().fromJson("{'type': 'm.typing'}", Event.class);
+        assertNull(event.getContent());
+        assertNull(event.getContentAsMessage());
+        assertNull(event.getContentAsRoomMember());
+    }
+
+    @Test
+    public void testRoomMemberIsNotShared() {
+        Event event = JsonUtils.getGson().fromJson("{'type': 'm.room.member', 'state_key': '@alice:matrix.org',"
+                + " 'content': {'membership': 'join'}}", Event.class);
+        RoomMember member = event.getContentAsRoomMember();
+        member.setUserId("@alice:matrix.org");
+
+        assertNotSame(member, event.getContentAsRoomMember());
+        assertNull(event.getContentAsRoomMember().getUserId());
+    }
+}
@@ -42,7 +42,7 @@ public class ContainsDisplayNameConditionTest {
 
     private void setEventMessage(String type, String rest) {
         String contentJson = "{'msgtype': '" + type + "', " + rest + "}";
-        event.content = (JsonObject) new JsonParser().parse(contentJson);
+        event.setContent((JsonObject) new JsonParser().parse(contentJson));
     }
 
     private void setEventTextMessageBody(String body) {
@@ -91,4 +91,15 @@ public class ContainsDisplayNameConditionTest {
         setEventTextMessageBody("Bob");
         assertFalse(condition.isSatisfied(event, displayName));
     }
+
+    @Test
+    public void testDisplayNameWithSpecialCharacters() {
+        setEventTextMessageBody("Hi Bob (work)!");
+        assertTrue(condition.isSatisfied(event, "Bob (work)"));
+
+        setEventTextMessageBody("Hi Bob");
+        assertFalse(condition.isSatisfied(event, "B.b"));
+        // The pattern follows display name changes
+        assertTrue(condition.isSatisfied(event, "Bob"));
+    }
 }
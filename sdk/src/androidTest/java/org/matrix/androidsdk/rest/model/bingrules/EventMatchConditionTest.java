@@ -41,7 +41,7 @@ public class EventMatchConditionTest {
         event.roomId = TEST_ROOM_ID;
         event.userId = TEST_USER_ID;
         String contentJson = "{'msgtype': 'm.text', 'body': 'Nice body!', 'other_field': 'other_value'}";
-        event.content = (JsonObject) new JsonParser().parse(contentJson);
+        event.setContent((JsonObject) new JsonParser().parse(contentJson));
     }
 
     @Test
@@ -114,4 +114,56 @@ public class EventMatchConditionTest {
         condition.pattern = "?value";
         assertFalse(condition.isSatisfied(event));
     }
+
+    @Test
+    public void testEventType() {
+        event.type = Event.EVENT_TYPE_MESSAGE;
+        condition.key = "type";
+        condition.pattern = "m.room.*";
+        assertTrue(condition.isSatisfied(event));
+
+        event.type = Event.EVENT_TYPE_TYPING;
+        assertFalse(condition.isSatisfied(event));
+    }
+
+    @Test
+    public void testMissingFields() {
+        condition.key = "content.body.nested";
+        condition.pattern = "*";
+        assertFalse(condition.isSatisfied(event));
+
+        condition.key = "content.missing";
+        assertFalse(condition.isSatisfied(event));
+
+        event.setContent(null);
+        condition.key = "content.body";
+        assertFalse(condition.isSatisfied(event));
+    }
+
+    @Test
+    public void testInvalidPattern() {
+        condition.key = "content.body";
+        condition.pattern = "Nice (";
+        assertFalse(condition.isSatisfied(event));
+    }
+
+    @Test
+    public void testCompiledConditionIsUnaffectedByLaterChanges() {
+        condition.key = "content.body";
+        condition.pattern = "Nice";
+        EventMatchCondition.Compiled compiled = condition.compile();
+
+        condition.key = "room_id";
+        condition.pattern = "dog";
+
+        assertTrue(compiled.isSatisfied(event));
+        assertFalse(condition.isSatisfied(event));
+    }
+
+    @Test
+    public void testInvalidPatternDoesNotCompile() {
+        condition.key = "content.body";
+        condition.pattern = "Nice (";
+        assertNull(condition.compile());
+    }
 }
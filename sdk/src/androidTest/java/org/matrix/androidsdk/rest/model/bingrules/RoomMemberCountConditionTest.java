@@ -19,13 +19,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.matrix.androidsdk.data.Room;
+import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.rest.model.RoomMember;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 
-import java.util.ArrayList;
-
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
@@ -44,26 +43,26 @@ public class RoomMemberCountConditionTest {
     }
 
     private void setUpThreeRoomMembers() {
-        ArrayList<RoomMember> members = new ArrayList<RoomMember>();
+        RoomState roomState = new RoomState();
 
         RoomMember rm1 = new RoomMember();
         rm1.membership = RoomMember.MEMBERSHIP_JOIN;
-        members.add(rm1);
+        roomState.setMember("@rm1:matrix.org", rm1);
 
         RoomMember rm2 = new RoomMember();
         rm2.membership = RoomMember.MEMBERSHIP_JOIN;
-        members.add(rm2);
+        roomState.setMember("@rm2:matrix.org", rm2);
 
         RoomMember rm3 = new RoomMember();
         rm3.membership = RoomMember.MEMBERSHIP_JOIN;
-        members.add(rm3);
+        roomState.setMember("@rm3:matrix.org", rm3);
 
         // This one shouldn't count because they're not joined
         RoomMember rm4 = new RoomMember();
         rm4.membership = RoomMember.MEMBERSHIP_LEAVE;
-        members.add(rm4);
+        roomState.setMember("@rm4:matrix.org", rm4);
 
-        when(mockRoom.getMembers()).thenReturn(members);
+        when(mockRoom.getJoinedMemberCount()).thenReturn(roomState.getJoinedMemberCount());
     }
 
     @Test
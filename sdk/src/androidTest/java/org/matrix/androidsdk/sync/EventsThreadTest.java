@@ -24,16 +24,22 @@ import org.matrix.androidsdk.rest.callback.ApiFailureCallback;
 import org.matrix.androidsdk.rest.client.EventsRestClient;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.InitialSyncResponse;
+import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.TokensChunkResponse;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import retrofit.RetrofitError;
+import retrofit.client.Header;
+import retrofit.client.Response;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -69,11 +75,11 @@ public class EventsThreadTest {
         doAnswer(new Answer<Object>() {
             @Override
             public Object answer(InvocationOnMock invocation) throws Throwable {
-                ApiCallback callback = (ApiCallback) invocation.getArguments()[0];
+                ApiCallback callback = (ApiCallback) invocation.getArguments()[1];
                 callback.onSuccess(new InitialSyncResponse());
                 return "onSuccess";
             }
-        }).when(mockRestClient).initialSync(any(ApiCallback.class));
+        }).when(mockRestClient).initialSync(anyInt(), any(ApiCallback.class));
     }
 
     /**
@@ -95,7 +101,7 @@ public class EventsThreadTest {
         eventsThread.start();
 
         // Verify the call to the rest client
-        verify(mockRestClient, timeout(1000)).initialSync(any(ApiCallback.class));
+        verify(mockRestClient, timeout(1000)).initialSync(anyInt(), any(ApiCallback.class));
         // Verify that the listener got notified for the initial sync
         verify(mockListener, timeout(1000)).onInitialSyncComplete(any(InitialSyncResponse.class));
 
@@ -105,6 +111,136 @@ public class EventsThreadTest {
         verify(mockListener, timeout(1000).atLeast(2)).onEventsReceived(any(List.class));
     }
 
+    /**
+     * Test the pipelined flow: events keep being fetched while the listener is still busy.
+     * @throws InterruptedException if Thread.sleep() does
+     */
+    @Test
+    public void testPipelinedFlow() throws InterruptedException {
+        setUpNormalInitialSync();
+        setUpNormalEvents();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                release.await();
+                return null;
+            }
+        }).when(mockListener).onEventsReceived(any(List.class));
+
+        eventsThread = new EventsThread(mockRestClient, mockListener);
+        eventsThread.setPipelineCapacity(2);
+        eventsThread.start();
+
+        // The first chunk blocks the listener, two more fill the queue and a fourth is fetched
+        verify(mockRestClient, timeout(1000).atLeast(4)).events(anyString());
+        Thread.sleep(100);
+        assertEquals(2, eventsThread.getQueueDepth());
+        // The events thread is now blocked on the full queue
+        verify(mockRestClient, times(4)).events(anyString());
+
+        release.countDown();
+        verify(mockListener, timeout(1000).atLeast(4)).onEventsReceived(any(List.class));
+        assertTrue(eventsThread.getMaxApplyLag() >= 100);
+    }
+
+    /**
+     * Test that a listener error in pipelined mode does not stop the processing of later chunks.
+     */
+    @Test
+    public void testPipelinedListenerError() {
+        setUpNormalInitialSync();
+        setUpNormalEvents();
+        doThrow(new RuntimeException("listener error")).doNothing()
+                .when(mockListener).onEventsReceived(any(List.class));
+
+        eventsThread = new EventsThread(mockRestClient, mockListener);
+        eventsThread.setPipelineCapacity(1);
+        eventsThread.start();
+
+        verify(mockListener, timeout(1000).atLeast(4)).onEventsReceived(any(List.class));
+        verify(mockRestClient, timeout(1000).atLeast(5)).events(anyString());
+    }
+
+    /**
+     * Test resuming from a stored token: no initial sync is done.
+     */
+    @Test
+    public void testResume() {
+        setUpNormalInitialSync();
+        setUpNormalEvents();
+        TokensChunkResponse<Event> resumeResponse = new TokensChunkResponse<Event>();
+        resumeResponse.end = "s2";
+        when(mockRestClient.events("s1", 0)).thenReturn(resumeResponse);
+
+        eventsThread = new EventsThread(mockRestClient, mockListener);
+        eventsThread.setResumeToken("s1");
+        eventsThread.start();
+
+        verify(mockListener, timeout(1000)).onEventStreamResumed();
+        verify(mockListener, timeout(1000)).onStreamTokenUpdated("s2");
+        verify(mockRestClient, timeout(1000).atLeastOnce()).events("s2");
+        verify(mockRestClient, never()).initialSync(anyInt(), any(ApiCallback.class));
+        verify(mockListener, never()).onInitialSyncComplete(any(InitialSyncResponse.class));
+    }
+
+    private RetrofitError httpError(int status, String errcode) {
+        RetrofitError error = mock(RetrofitError.class);
+        when(error.isNetworkError()).thenReturn(false);
+        when(error.getResponse()).thenReturn(new Response("https://matrix.org", status, "", new ArrayList<Header>(), null));
+        MatrixError matrixError = null;
+        if (errcode != null) {
+            matrixError = new MatrixError();
+            matrixError.errcode = errcode;
+        }
+        when(error.getBodyAs(MatrixError.class)).thenReturn(matrixError);
+        return error;
+    }
+
+    /**
+     * Test resuming from a token that the server rejects: fall back to the initial sync.
+     */
+    @Test
+    public void testResumeTokenRejected() {
+        setUpNormalInitialSync();
+        setUpNormalEvents();
+        RetrofitError rejectedError = httpError(400, MatrixError.UNKNOWN);
+        when(mockRestClient.events("s1", 0)).thenThrow(rejectedError);
+
+        eventsThread = new EventsThread(mockRestClient, mockListener);
+        eventsThread.setResumeToken("s1");
+        eventsThread.start();
+
+        verify(mockListener, timeout(1000)).onInitialSyncComplete(any(InitialSyncResponse.class));
+        verify(mockListener, never()).onEventStreamResumed();
+        verify(mockListener, timeout(1000).atLeast(2)).onEventsReceived(any(List.class));
+    }
+
+    /**
+     * Test resuming when the server fails for a reason of its own: the token is kept and tried again.
+     */
+    @Test
+    public void testResumeServerErrorIsRetried() {
+        setUpNormalInitialSync();
+        setUpNormalEvents();
+        TokensChunkResponse<Event> resumeResponse = new TokensChunkResponse<Event>();
+        resumeResponse.end = "s2";
+        RetrofitError serverError = httpError(502, null);
+        when(mockRestClient.events("s1", 0)).thenThrow(serverError).thenReturn(resumeResponse);
+
+        eventsThread = new EventsThread(mockRestClient, mockListener);
+        eventsThread.setResumeToken("s1");
+        eventsThread.start();
+
+        verify(mockListener, timeout(15000)).onEventStreamResumed();
+        // The listener hears of the resume once the catch-up events are applied
+        InOrder inOrder = inOrder(mockListener);
+        inOrder.verify(mockListener).onStreamTokenUpdated("s2");
+        inOrder.verify(mockListener).onEventStreamResumed();
+        verify(mockRestClient, never()).initialSync(anyInt(), any(ApiCallback.class));
+    }
+
     /**
      * Set up an initial sync that triggers a network error.
      */
@@ -113,18 +249,18 @@ public class EventsThreadTest {
         doAnswer(new Answer<Object>() {
             @Override
             public Object answer(InvocationOnMock invocation) throws Throwable {
-                ApiCallback callback = (ApiCallback) invocation.getArguments()[0];
+                ApiCallback callback = (ApiCallback) invocation.getArguments()[1];
                 callback.onNetworkError(new Exception());
                 return "onNetworkError";
             }
         }).doAnswer(new Answer<Object>() {
             @Override
             public Object answer(InvocationOnMock invocation) throws Throwable {
-                ApiCallback callback = (ApiCallback) invocation.getArguments()[0];
+                ApiCallback callback = (ApiCallback) invocation.getArguments()[1];
                 callback.onSuccess(new InitialSyncResponse());
                 return "onSuccess";
             }
-        }).when(mockRestClient).initialSync(any(ApiCallback.class));
+        }).when(mockRestClient).initialSync(anyInt(), any(ApiCallback.class));
     }
 
     /**
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.util;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.MXSession;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.client.BingRulesRestClient;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.bingrules.BingRulesResponse;
+import org.matrix.androidsdk.rest.model.login.Credentials;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests BingRulesManager.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BingRulesManagerTest {
+
+    private static final String MUTED_ROOM_ID = "!muted:matrix.org";
+    private static final String OTHER_ROOM_ID = "!other:matrix.org";
+    private static final String MUTED_USER_ID = "@muted:matrix.org";
+    private static final String OTHER_USER_ID = "@other:matrix.org";
+
+    // Room and sender rules mute; an override and a content rule notify; the underride mutes everything else
+    private static final String RULES = "{'global': {"
+            + "'override': [{'rule_id': '.override', 'actions': ['notify'],"
+            + "  'conditions': [{'kind': 'event_match', 'key': 'content.body', 'pattern': 'URGENT*'}]}],"
+            + "'content': [{'rule_id': 'cake', 'pattern': 'cake', 'actions': ['notify']}],"
+            + "'room': [{'rule_id': '" + MUTED_ROOM_ID + "', 'actions': ['dont_notify']}],"
+            + "'sender': [{'rule_id': '" + MUTED_USER_ID + "', 'actions': ['dont_notify']},"
+            + "           {'rule_id': '" + OTHER_USER_ID + "', 'actions': ['notify']}],"
+            + "'underride': [{'rule_id': '.underride', 'actions': ['dont_notify'], 'conditions': []}]"
+            + "}}";
+
+    private BingRulesManager bingRulesManager;
+
+    @Before
+    public void setUp() {
+        final BingRulesResponse response = JsonUtils.getGson().fromJson(RULES, BingRulesResponse.class);
+
+        BingRulesRestClient mockRestClient = mock(BingRulesRestClient.class);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                ((ApiCallback) invocation.getArguments()[0]).onSuccess(response);
+                return null;
+            }
+        }).when(mockRestClient).getAllBingRules(any(ApiCallback.class));
+
+        Credentials credentials = new Credentials();
+        credentials.userId = "@me:matrix.org";
+        MXSession mockSession = mock(MXSession.class);
+        when(mockSession.getBingRulesApiClient()).thenReturn(mockRestClient);
+        when(mockSession.getCredentials()).thenReturn(credentials);
+
+        bingRulesManager = new BingRulesManager(mockSession);
+        bingRulesManager.loadRules(null);
+    }
+
+    private Event message(String roomId, String userId, String body) {
+        Event event = new Event();
+        event.type = Event.EVENT_TYPE_MESSAGE;
+        event.roomId = roomId;
+        event.userId = userId;
+        event.setContent((JsonObject) new JsonParser().parse("{'msgtype': 'm.text', 'body': '" + body + "'}"));
+        return event;
+    }
+
+    @Test
+    public void testRuleStagesAreEvaluatedInOrder() {
+        assertTrue(bingRulesManager.isReady());
+
+        // Room rule
+        assertFalse(bingRulesManager.shouldBing(message(MUTED_ROOM_ID, OTHER_USER_ID, "hello")));
+        // Override and content rules come before room rules
+        assertTrue(bingRulesManager.shouldBing(message(MUTED_ROOM_ID, OTHER_USER_ID, "URGENT: hello")));
+        assertTrue(bingRulesManager.shouldBing(message(MUTED_ROOM_ID, OTHER_USER_ID, "some cake")));
+        // Sender rules
+        assertFalse(bingRulesManager.shouldBing(message(OTHER_ROOM_ID, MUTED_USER_ID, "hello")));
+        assertTrue(bingRulesManager.shouldBing(message(OTHER_ROOM_ID, OTHER_USER_ID, "hello")));
+        // Underride
+        assertFalse(bingRulesManager.shouldBing(message(OTHER_ROOM_ID, "@someone:matrix.org", "hello")));
+    }
+
+    @Test
+    public void testRoomAndSenderRulesMatchExactIds() {
+        assertFalse(bingRulesManager.shouldBing(message(MUTED_ROOM_ID, OTHER_USER_ID, "hello")));
+        assertTrue(bingRulesManager.shouldBing(message("!mutedx:matrix.org", OTHER_USER_ID, "hello")));
+    }
+}
@@ -0,0 +1,231 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.matrix.androidsdk.rest.model.ContentResponse;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests ContentUploader.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ContentUploaderTest {
+
+    private static final String UPLOAD_URL = "https://matrix.org/_matrix/media/v1/upload?access_token=abc";
+    private static final int CONTENT_LENGTH = 200 * 1024;
+
+    // The connections to open, in order
+    private List<HttpURLConnection> connections;
+    private List<FutureTask<?>> submittedTasks;
+    private Executor directExecutor;
+    private ContentUploader uploader;
+
+    @Before
+    public void setUp() {
+        connections = new ArrayList<HttpURLConnection>();
+        // Uploads are queued, to be run by the test
+        submittedTasks = new ArrayList<FutureTask<?>>();
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+        when(mockExecutor.submit(any(Runnable.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                FutureTask<Object> task = new FutureTask<Object>((Runnable) invocation.getArguments()[0], null);
+                submittedTasks.add(task);
+                return task;
+            }
+        });
+        directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        uploader = uploader(mockExecutor);
+    }
+
+    private ContentUploader uploader(ExecutorService executor) {
+        return new ContentUploader(null, executor, directExecutor) {
+            @Override
+            HttpURLConnection openConnection(URL url) {
+                synchronized (connections) {
+                    return connections.remove(0);
+                }
+            }
+        };
+    }
+
+    private int remainingConnections() {
+        synchronized (connections) {
+            return connections.size();
+        }
+    }
+
+    private HttpURLConnection connection(OutputStream out, String response) throws IOException {
+        HttpURLConnection connection = mock(HttpURLConnection.class);
+        when(connection.getOutputStream()).thenReturn(out);
+        when(connection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        when(connection.getInputStream()).thenReturn(new ByteArrayInputStream(response.getBytes("UTF-8")));
+        return connection;
+    }
+
+    @Test
+    public void testContentIsStreamedWithItsLength() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpURLConnection connection = connection(out, "{'content_uri': 'mxc://matrix.org/a'}");
+        connections.add(connection);
+        ContentManager.UploadCallback callback = mock(ContentManager.UploadCallback.class);
+
+        uploader.upload(new ByteArrayInputStream(new byte[CONTENT_LENGTH]), CONTENT_LENGTH, "image/png", UPLOAD_URL, callback);
+        submittedTasks.get(0).run();
+
+        verify(connection).setFixedLengthStreamingMode(CONTENT_LENGTH);
+        verify(connection).setRequestProperty("Content-Type", "image/png");
+        assertEquals(CONTENT_LENGTH, out.size());
+
+        // Progress comes in steps of 64 KiB, and for the last byte
+        InOrder inOrder = inOrder(callback);
+        inOrder.verify(callback).onUploadProgress(64 * 1024, CONTENT_LENGTH);
+        inOrder.verify(callback).onUploadProgress(128 * 1024, CONTENT_LENGTH);
+        inOrder.verify(callback).onUploadProgress(192 * 1024, CONTENT_LENGTH);
+        inOrder.verify(callback).onUploadProgress(CONTENT_LENGTH, CONTENT_LENGTH);
+        ArgumentCaptor<ContentResponse> response = ArgumentCaptor.forClass(ContentResponse.class);
+        inOrder.verify(callback).onUploadComplete(response.capture());
+        assertEquals("mxc://matrix.org/a", response.getValue().contentUri);
+        verify(callback, times(4)).onUploadProgress(anyLong(), anyLong());
+    }
+
+    @Test
+    public void testMalformedResponseCompletesWithNull() throws Exception {
+        HttpURLConnection connection = connection(new ByteArrayOutputStream(), "<html>Bad gateway</html>");
+        connections.add(connection);
+        ContentManager.UploadCallback callback = mock(ContentManager.UploadCallback.class);
+
+        uploader.upload(new ByteArrayInputStream(new byte[10]), 10, null, UPLOAD_URL, callback);
+        submittedTasks.get(0).run();
+
+        verify(callback).onUploadComplete(null);
+    }
+
+    @Test
+    public void testUploadCancelledBeforeStartingIsNotSent() throws Exception {
+        InputStream stream = spy(new ByteArrayInputStream(new byte[10]));
+        ContentManager.UploadCallback callback = mock(ContentManager.UploadCallback.class);
+
+        HttpURLConnection connection = connection(new ByteArrayOutputStream(), "{'content_uri': 'mxc://matrix.org/a'}");
+        connections.add(connection);
+        ContentUploader.Upload upload = uploader.upload(stream, 10, null, UPLOAD_URL, callback);
+        upload.cancel();
+        assertTrue(upload.isCancelled());
+        verify(stream).close();
+
+        submittedTasks.get(0).run();
+        upload.run();
+        // No connection was asked for
+        assertEquals(1, connections.size());
+        verifyZeroInteractions(callback);
+    }
+
+    @Test
+    public void testUploadCancelledWhileSendingStops() throws Exception {
+        final ContentUploader.Upload[] upload = new ContentUploader.Upload[1];
+        final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        // The upload is cancelled once the first buffer is sent
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                sent.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                sent.write(b, off, len);
+                upload[0].cancel();
+            }
+        };
+        HttpURLConnection connection = connection(out, "{'content_uri': 'mxc://matrix.org/a'}");
+        connections.add(connection);
+        ContentManager.UploadCallback callback = mock(ContentManager.UploadCallback.class);
+
+        upload[0] = uploader.upload(new ByteArrayInputStream(new byte[CONTENT_LENGTH]), CONTENT_LENGTH, null, UPLOAD_URL, callback);
+        submittedTasks.get(0).run();
+
+        assertEquals(32 * 1024, sent.size());
+        verify(connection, atLeastOnce()).disconnect();
+        verify(connection, never()).getResponseCode();
+        verify(callback, never()).onUploadComplete(any(ContentResponse.class));
+    }
+
+    @Test
+    public void testUploadsAreCapped() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            // Each upload holds its thread until released
+            OutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public synchronized void write(byte[] b, int off, int len) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    super.write(b, off, len);
+                }
+            };
+            connections.add(connection(out, "{'content_uri': 'mxc://matrix.org/a'}"));
+        }
+        ContentUploader cappedUploader = uploader(ContentUploader.getDefaultExecutor());
+        ContentManager.UploadCallback callback = mock(ContentManager.UploadCallback.class);
+
+        for (int i = 0; i < 3; i++) {
+            cappedUploader.upload(new ByteArrayInputStream(new byte[10]), 10, null, UPLOAD_URL, callback);
+        }
+        long deadline = System.currentTimeMillis() + 1000;
+        while ((remainingConnections() > 1) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        // Two uploads started, the third waits its turn
+        assertEquals(1, remainingConnections());
+
+        release.countDown();
+        verify(callback, timeout(1000).times(3)).onUploadComplete(any(ContentResponse.class));
+        assertEquals(0, remainingConnections());
+    }
+}
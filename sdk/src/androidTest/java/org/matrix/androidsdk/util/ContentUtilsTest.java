@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.util;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests ContentUtils.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ContentUtilsTest {
+
+    @Test
+    public void testSampleSizeKeepsImageCoveringSquare() {
+        // 12 MP photo down to a thumbnail: 4000 / 8 = 500 still covers 320, 4000 / 16 = 250 would not
+        assertEquals(8, ContentUtils.getSampleSize(4000, 3000, 320));
+        assertEquals(8, ContentUtils.getSampleSize(3000, 4000, 320));
+        // Exactly twice the size
+        assertEquals(2, ContentUtils.getSampleSize(640, 480, 320));
+    }
+
+    @Test
+    public void testSmallImagesAreNotSubsampled() {
+        assertEquals(1, ContentUtils.getSampleSize(320, 240, 320));
+        assertEquals(1, ContentUtils.getSampleSize(100, 100, 320));
+        assertEquals(1, ContentUtils.getSampleSize(639, 10, 320));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests MediaCache's disk tier.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MediaCacheTest {
+
+    private static final String URL_A = "https://matrix.org/_matrix/media/v1/download/matrix.org/a";
+    private static final String URL_B = "https://matrix.org/_matrix/media/v1/download/matrix.org/b";
+    private static final String URL_C = "https://matrix.org/_matrix/media/v1/download/matrix.org/c";
+    private static final String THUMBNAIL_URL_A = "https://matrix.org/_matrix/media/v1/thumbnail/matrix.org/a?width=40&height=40&method=crop";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), "media");
+    }
+
+    private File put(MediaCache cache, String url, int size) throws IOException {
+        return cache.putFile(url, new ByteArrayInputStream(new byte[size]));
+    }
+
+    @Test
+    public void testFilesAreKeptPerUrl() throws IOException {
+        MediaCache cache = new MediaCache(directory, 0, 1000);
+        File file = put(cache, URL_A, 10);
+        put(cache, THUMBNAIL_URL_A, 20);
+
+        assertEquals(file, cache.getFile(URL_A));
+        assertEquals(10, cache.getFile(URL_A).length());
+        assertEquals(20, cache.getFile(THUMBNAIL_URL_A).length());
+        assertNull(cache.getFile(URL_B));
+        assertEquals(30, cache.getDiskBytes());
+
+        // Nothing but the two files, no leftover temporary file
+        assertEquals(2, directory.listFiles().length);
+        assertEquals(40, MediaCache.fileName(URL_A).length());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedFilesAreEvicted() throws IOException {
+        MediaCache cache = new MediaCache(directory, 0, 250);
+        put(cache, URL_A, 100);
+        put(cache, URL_B, 100);
+        // A is now more recently used than B
+        cache.getFile(URL_A);
+        put(cache, URL_C, 100);
+
+        assertNotNull(cache.getFile(URL_A));
+        assertNull(cache.getFile(URL_B));
+        assertNotNull(cache.getFile(URL_C));
+        assertEquals(200, cache.getDiskBytes());
+        assertEquals(2, directory.listFiles().length);
+    }
+
+    @Test
+    public void testReplacingFileKeepsSizeRight() throws IOException {
+        MediaCache cache = new MediaCache(directory, 0, 1000);
+        put(cache, URL_A, 100);
+        put(cache, URL_A, 50);
+        assertEquals(50, cache.getDiskBytes());
+        assertEquals(50, cache.getFile(URL_A).length());
+    }
+
+    @Test
+    public void testFilesAreFoundAfterRestart() throws IOException {
+        MediaCache cache = new MediaCache(directory, 0, 1000);
+        put(cache, URL_A, 100);
+        // Left by an interrupted write
+        new File(directory, MediaCache.fileName(URL_B) + ".tmp").createNewFile();
+
+        cache = new MediaCache(directory, 0, 1000);
+        assertNotNull(cache.getFile(URL_A));
+        assertEquals(100, cache.getDiskBytes());
+        assertEquals(1, directory.listFiles().length);
+
+        // A smaller cap takes effect straight away
+        cache = new MediaCache(directory, 0, 50);
+        assertNull(cache.getFile(URL_A));
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testFileLargerThanDiskTierIsNotCached() throws IOException {
+        MediaCache cache = new MediaCache(directory, 0, 250);
+        File fileA = put(cache, URL_A, 100);
+
+        assertNull(put(cache, URL_B, 300));
+        assertNull(cache.getFile(URL_B));
+        // Nothing was evicted to make room for it, and nothing was left behind
+        assertTrue(fileA.exists());
+        assertEquals(100, cache.getDiskBytes());
+        assertEquals(1, directory.listFiles().length);
+
+        // A file that fits the tier on its own is kept, whatever it evicts
+        File fileC = put(cache, URL_C, 250);
+        assertTrue(fileC.exists());
+        assertEquals(fileC, cache.getFile(URL_C));
+        assertEquals(250, cache.getDiskBytes());
+    }
+}
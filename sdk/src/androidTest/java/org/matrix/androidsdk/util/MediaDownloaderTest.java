@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.util;
+
+import android.graphics.Bitmap;
+import android.widget.ImageView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests MediaDownloader.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MediaDownloaderTest {
+
+    private static final String URL_A = "https://matrix.org/_matrix/media/v1/download/matrix.org/a";
+    private static final String URL_B = "https://matrix.org/_matrix/media/v1/download/matrix.org/b";
+
+    private MediaCache mockMediaCache;
+    private List<FutureTask<?>> submittedTasks;
+    private MediaDownloader downloader;
+
+    @Before
+    public void setUp() {
+        mockMediaCache = mock(MediaCache.class);
+        // Loads are queued, to be run by the test
+        submittedTasks = new ArrayList<FutureTask<?>>();
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+        when(mockExecutor.submit(any(Runnable.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                FutureTask<Object> task = new FutureTask<Object>((Runnable) invocation.getArguments()[0], null);
+                submittedTasks.add(task);
+                return task;
+            }
+        });
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        downloader = new MediaDownloader(mockMediaCache, null, mockExecutor, directExecutor);
+    }
+
+    @Test
+    public void testBitmapInMemoryIsSetStraightAway() {
+        Bitmap bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        when(mockMediaCache.getBitmap(URL_A)).thenReturn(bitmap);
+        ImageView imageView = mock(ImageView.class);
+
+        downloader.loadBitmap(imageView, URL_A);
+        verify(imageView).setImageBitmap(bitmap);
+        assertTrue(submittedTasks.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentRequestsAreCoalesced() {
+        ImageView first = mock(ImageView.class);
+        ImageView second = mock(ImageView.class);
+        downloader.loadBitmap(first, URL_A);
+        downloader.loadBitmap(second, URL_A);
+        // Asking again for the same image changes nothing
+        downloader.loadBitmap(first, URL_A);
+        assertEquals(1, submittedTasks.size());
+        assertEquals(1, downloader.getPendingRequestCount());
+
+        Bitmap bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        when(mockMediaCache.loadBitmap(URL_A)).thenReturn(bitmap);
+        submittedTasks.get(0).run();
+
+        verify(mockMediaCache, times(1)).loadBitmap(URL_A);
+        verify(first).setImageBitmap(bitmap);
+        verify(second).setImageBitmap(bitmap);
+        assertEquals(0, downloader.getPendingRequestCount());
+    }
+
+    @Test
+    public void testRecycledTargetCancelsRequest() {
+        ImageView imageView = mock(ImageView.class);
+        downloader.loadBitmap(imageView, URL_A);
+        // The view is recycled for another image before the first is loaded
+        downloader.loadBitmap(imageView, URL_B);
+
+        assertEquals(2, submittedTasks.size());
+        assertTrue(submittedTasks.get(0).isCancelled());
+        assertEquals(1, downloader.getPendingRequestCount());
+
+        Bitmap bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        when(mockMediaCache.loadBitmap(URL_B)).thenReturn(bitmap);
+        submittedTasks.get(0).run();
+        submittedTasks.get(1).run();
+
+        verify(mockMediaCache, never()).loadBitmap(URL_A);
+        verify(imageView, times(1)).setImageBitmap(any(Bitmap.class));
+        verify(imageView).setImageBitmap(bitmap);
+    }
+
+    @Test
+    public void testRequestStillWaitedForIsNotCancelled() {
+        ImageView first = mock(ImageView.class);
+        ImageView second = mock(ImageView.class);
+        downloader.loadBitmap(first, URL_A);
+        downloader.loadBitmap(second, URL_A);
+        downloader.loadBitmap(first, URL_B);
+
+        assertFalse(submittedTasks.get(0).isCancelled());
+
+        Bitmap bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        when(mockMediaCache.loadBitmap(URL_A)).thenReturn(bitmap);
+        submittedTasks.get(0).run();
+        verify(first, never()).setImageBitmap(bitmap);
+        verify(second).setImageBitmap(bitmap);
+    }
+
+    @Test
+    public void testFailedLoadCompletesRequest() {
+        ImageView imageView = mock(ImageView.class);
+        downloader.loadBitmap(imageView, URL_A);
+        when(mockMediaCache.loadBitmap(URL_A)).thenThrow(new OutOfMemoryError());
+        submittedTasks.get(0).run();
+
+        assertEquals(0, downloader.getPendingRequestCount());
+        verify(imageView, never()).setImageBitmap(any(Bitmap.class));
+
+        // The image can be asked for again
+        downloader.loadBitmap(imageView, URL_A);
+        assertEquals(2, submittedTasks.size());
+    }
+}
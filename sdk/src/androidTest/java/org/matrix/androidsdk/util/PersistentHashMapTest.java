@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.util;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests PersistentHashMap.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PersistentHashMapTest {
+
+    /**
+     * Key with a controllable hash code, to force collisions.
+     */
+    private static class BadKey {
+        private final String mName;
+        private final int mHash;
+
+        BadKey(String name, int hash) {
+            mName = name;
+            mHash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof BadKey) && mName.equals(((BadKey) o).mName);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+
+    @Test
+    public void testPlusAndGet() {
+        PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 5000; i++) {
+            map = map.plus("@user" + i + ":matrix.org", i);
+        }
+        assertEquals(5000, map.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(Integer.valueOf(i), map.get("@user" + i + ":matrix.org"));
+        }
+        assertNull(map.get("@nobody:matrix.org"));
+    }
+
+    @Test
+    public void testOldVersionsAreUnchanged() {
+        PersistentHashMap<String, String> v1 = PersistentHashMap.<String, String>empty().plus("a", "1").plus("b", "2");
+        PersistentHashMap<String, String> v2 = v1.plus("a", "changed");
+        PersistentHashMap<String, String> v3 = v2.minus("b");
+
+        assertEquals("1", v1.get("a"));
+        assertEquals("2", v1.get("b"));
+        assertEquals("changed", v2.get("a"));
+        assertEquals(2, v2.size());
+        assertNull(v3.get("b"));
+        assertEquals(1, v3.size());
+    }
+
+    @Test
+    public void testNoOpUpdatesReturnSameMap() {
+        String value = "value";
+        PersistentHashMap<String, String> map = PersistentHashMap.<String, String>empty().plus("key", value);
+        assertSame(map, map.plus("key", value));
+        assertSame(map, map.minus("other"));
+    }
+
+    @Test
+    public void testCollisions() {
+        BadKey k1 = new BadKey("one", 42);
+        BadKey k2 = new BadKey("two", 42);
+        BadKey k3 = new BadKey("three", 42);
+        BadKey k4 = new BadKey("four", 43);
+
+        PersistentHashMap<BadKey, String> map = PersistentHashMap.<BadKey, String>empty()
+                .plus(k1, "1").plus(k2, "2").plus(k3, "3").plus(k4, "4");
+        assertEquals(4, map.size());
+        assertEquals("1", map.get(k1));
+        assertEquals("2", map.get(k2));
+        assertEquals("3", map.get(k3));
+        assertEquals("4", map.get(k4));
+
+        map = map.minus(k2);
+        assertEquals(3, map.size());
+        assertNull(map.get(k2));
+        assertEquals("3", map.get(k3));
+
+        map = map.minus(k1).minus(k3);
+        assertEquals(1, map.size());
+        assertEquals("4", map.get(k4));
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        Random random = new Random(1234);
+        Map<Integer, Integer> reference = new HashMap<Integer, Integer>();
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+
+        for (int i = 0; i < 20000; i++) {
+            Integer key = random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                reference.remove(key);
+                map = map.minus(key);
+            }
+            else {
+                reference.put(key, i);
+                map = map.plus(key, i);
+            }
+        }
+
+        assertEquals(reference.size(), map.size());
+        assertEquals(reference, map);
+        assertEquals(reference.size(), map.values().size());
+
+        int iterated = 0;
+        for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+            assertEquals(reference.get(entry.getKey()), entry.getValue());
+            iterated++;
+        }
+        assertEquals(reference.size(), iterated);
+    }
+
+    @Test
+    public void testRemoveEverything() {
+        PersistentHashMap<String, String> map = PersistentHashMap.empty();
+        for (int i = 0; i < 100; i++) {
+            map = map.plus("key" + i, "value" + i);
+        }
+        for (int i = 0; i < 100; i++) {
+            map = map.minus("key" + i);
+        }
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertFalse(map.entrySet().iterator().hasNext());
+    }
+}
@@ -15,12 +15,20 @@
  */
 package org.matrix.androidsdk;
 
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
 import org.matrix.androidsdk.data.DataRetriever;
 import org.matrix.androidsdk.data.IMXStore;
+import org.matrix.androidsdk.data.OutgoingEventQueue;
+import org.matrix.androidsdk.data.PresenceTable;
 import org.matrix.androidsdk.data.Room;
 import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.data.RoomSyncQueue;
 import org.matrix.androidsdk.listeners.IMXEventListener;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.RoomMember;
@@ -31,7 +39,13 @@ import org.matrix.androidsdk.util.BingRulesManager;
 import org.matrix.androidsdk.util.JsonUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The data handler provides a layer to help manage matrix input and output.
@@ -44,13 +58,23 @@ import java.util.List;
 public class MXDataHandler implements IMXEventListener {
     private static final String LOG_TAG = "MXData";
 
-    private List<IMXEventListener> mEventListeners = new ArrayList<IMXEventListener>();
+    // Listeners are dispatched to from the events thread while the UI thread adds and removes them
+    private List<IMXEventListener> mEventListeners = new CopyOnWriteArrayList<IMXEventListener>();
+    // Listeners only interested in one room or one user, indexed by room id / user id
+    private Map<String, List<IMXEventListener>> mRoomListeners = new ConcurrentHashMap<String, List<IMXEventListener>>();
+    private Map<String, List<IMXEventListener>> mUserListeners = new ConcurrentHashMap<String, List<IMXEventListener>>();
 
     private IMXStore mStore;
     private Credentials mCredentials;
     private volatile boolean mInitialSyncComplete = false;
     private DataRetriever mDataRetriever;
     private BingRulesManager mBingRulesManager;
+    private PresenceTable mPresenceTable = new PresenceTable();
+    private OutgoingEventQueue mOutgoingEventQueue;
+    private RoomSyncQueue mRoomSyncQueue;
+    private boolean mBatchLiveEvents = false;
+    // The users typing in each room
+    private Map<String, List<String>> mTypingUsers = new ConcurrentHashMap<String, List<String>>();
 
     /**
      * Default constructor.
@@ -59,11 +83,43 @@ public class MXDataHandler implements IMXEventListener {
     public MXDataHandler(IMXStore store, Credentials credentials) {
         mStore = store;
         mCredentials = credentials;
+
+        // Rooms restored by a persistent store
+        for (Room room : mStore.getRooms()) {
+            room.setDataHandler(this);
+        }
     }
 
     public void setDataRetriever(DataRetriever dataRetriever) {
         mDataRetriever = dataRetriever;
         mDataRetriever.setStore(mStore);
+
+        for (Room room : mStore.getRooms()) {
+            room.setDataRetriever(dataRetriever);
+        }
+
+        mOutgoingEventQueue = new OutgoingEventQueue(dataRetriever.getRoomsRestClient(), mStore, mCredentials.userId);
+        // Matches echoes, and starts sending after the initial sync
+        addListener(mOutgoingEventQueue);
+        mRoomSyncQueue = new RoomSyncQueue(mStore);
+        // Preloads the most recent rooms after the initial sync
+        addListener(mRoomSyncQueue);
+    }
+
+    /**
+     * Get the queue the events posted by the user are sent through.
+     * @return the queue
+     */
+    public OutgoingEventQueue getOutgoingEventQueue() {
+        return mOutgoingEventQueue;
+    }
+
+    /**
+     * Get the queue rooms are synced through when the initial sync only got their latest event.
+     * @return the queue
+     */
+    public RoomSyncQueue getRoomSyncQueue() {
+        return mRoomSyncQueue;
     }
 
     public void setPushRulesManager(BingRulesManager bingRulesManager) {
@@ -71,10 +127,28 @@ public class MXDataHandler implements IMXEventListener {
         mBingRulesManager.loadRules(null);
     }
 
-    public void addListener(IMXEventListener listener) {
+    /**
+     * Set whether chunks of live events are applied as one unit.
+     * In batch mode, a chunk is stored in one go, each room's summary is written once per chunk and
+     * listeners get a single {@link IMXEventListener#onLiveEvents(List, List)} call per chunk instead
+     * of one {@link IMXEventListener#onLiveEvent(Event, RoomState)} call per event.
+     * Off by default.
+     * @param batch true to batch live events
+     */
+    public void setBatchLiveEvents(boolean batch) {
+        mBatchLiveEvents = batch;
+    }
+
+    public void addListener(final IMXEventListener listener) {
         mEventListeners.add(listener);
         if (mInitialSyncComplete) {
-            listener.onInitialSyncComplete();
+            // Not on the registering thread, which is typically the main one
+            RestClient.getDefaultCallbackExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onInitialSyncComplete();
+                }
+            });
         }
     }
 
@@ -82,6 +156,62 @@ public class MXDataHandler implements IMXEventListener {
         mEventListeners.remove(listener);
     }
 
+    /**
+     * Add a listener for a single room. It is only called for the room's live and back events, and for
+     * presence updates of the room's members.
+     * @param roomId the room id
+     * @param listener the listener
+     */
+    public void addRoomListener(String roomId, IMXEventListener listener) {
+        addKeyedListener(mRoomListeners, roomId, listener);
+    }
+
+    public void removeRoomListener(String roomId, IMXEventListener listener) {
+        removeKeyedListener(mRoomListeners, roomId, listener);
+    }
+
+    /**
+     * Add a listener for a single user. It is only called for the user's presence updates.
+     * @param userId the user id
+     * @param listener the listener
+     */
+    public void addUserListener(String userId, IMXEventListener listener) {
+        addKeyedListener(mUserListeners, userId, listener);
+    }
+
+    public void removeUserListener(String userId, IMXEventListener listener) {
+        removeKeyedListener(mUserListeners, userId, listener);
+    }
+
+    private static void addKeyedListener(Map<String, List<IMXEventListener>> listenersByKey, String key,
+                                         IMXEventListener listener) {
+        synchronized (listenersByKey) {
+            List<IMXEventListener> listeners = listenersByKey.get(key);
+            if (listeners == null) {
+                listeners = new CopyOnWriteArrayList<IMXEventListener>();
+                listenersByKey.put(key, listeners);
+            }
+            listeners.add(listener);
+        }
+    }
+
+    private static List<IMXEventListener> getKeyedListeners(Map<String, List<IMXEventListener>> listenersByKey, String key) {
+        return (key == null) ? null : listenersByKey.get(key);
+    }
+
+    private static void removeKeyedListener(Map<String, List<IMXEventListener>> listenersByKey, String key,
+                                            IMXEventListener listener) {
+        synchronized (listenersByKey) {
+            List<IMXEventListener> listeners = listenersByKey.get(key);
+            if (listeners != null) {
+                listeners.remove(listener);
+                if (listeners.isEmpty()) {
+                    listenersByKey.remove(key);
+                }
+            }
+        }
+    }
+
     /**
      * Handle the room data received from a per-room initial sync
      * @param roomResponse the room response object
@@ -104,7 +234,7 @@ public class MXDataHandler implements IMXEventListener {
 
             // To store the summary, we need the last event and the room state from just before
             Event lastEvent = roomResponse.messages.chunk.get(roomResponse.messages.chunk.size() - 1);
-            RoomState beforeLiveRoomState = room.getLiveState().deepCopy();
+            RoomState beforeLiveRoomState = room.getLiveState().snapshot();
             beforeLiveRoomState.applyState(lastEvent, Room.EventDirection.BACKWARDS);
 
             mStore.storeSummary(room.getRoomId(), lastEvent, beforeLiveRoomState, mCredentials.userId);
@@ -147,7 +277,7 @@ public class MXDataHandler implements IMXEventListener {
         inviteEvent.userId = inviterUserId;
         inviteEvent.type = Event.EVENT_TYPE_STATE_ROOM_MEMBER;
         inviteEvent.originServerTs = System.currentTimeMillis(); // This is where it's fake
-        inviteEvent.content = JsonUtils.toJson(member);
+        inviteEvent.setContent(JsonUtils.toJson(member));
 
         mStore.storeSummary(roomId, inviteEvent, null, mCredentials.userId);
     }
@@ -156,65 +286,180 @@ public class MXDataHandler implements IMXEventListener {
         return mStore;
     }
 
+    /**
+     * @return the latest presence of the users, which User.getPresence() reads
+     */
+    public PresenceTable getPresenceTable() {
+        return mPresenceTable;
+    }
+
+    /**
+     * Get the users typing in a room, as of the latest typing event.
+     * @param roomId the room id
+     * @return the ids of the users typing
+     */
+    public List<String> getTypingUsers(String roomId) {
+        List<String> typingUsers = mTypingUsers.get(roomId);
+        return (typingUsers == null) ? Collections.<String>emptyList() : typingUsers;
+    }
+
     /**
      * Handle a list of events coming down from the event stream.
+     * Presence and typing events are set aside: they are not stored and do not change the room state,
+     * and each replaces the previous one of its user or room, so only the latest of each user or room
+     * is applied, after the other events. Only the user id of a presence event is read until then.
      * @param events the live events
      */
     public void handleLiveEvents(List<Event> events) {
-        for (Event event : events) {
-            handleLiveEvent(event);
+        applyLiveEvents(events, null);
+    }
+
+    /**
+     * Handle a chunk of events coming down from the event stream, saving it and the stream token after it
+     * in one batch (see {@link IMXStore#runInBatch(Runnable)}). Listeners are only called once the batch is
+     * saved, so that they never run while the store is held.
+     * @param events the live events
+     * @param token the stream token to go on from
+     */
+    public void handleLiveEvents(final List<Event> events, final String token) {
+        final List<Runnable> notifications = new ArrayList<Runnable>();
+        mStore.runInBatch(new Runnable() {
+            @Override
+            public void run() {
+                applyLiveEvents(events, notifications);
+                mStore.storeEventStreamToken(token);
+            }
+        });
+        for (Runnable notification : notifications) {
+            notification.run();
         }
     }
 
     /**
-     * Handle events coming down from the event stream.
-     * @param event the live event
+     * Call the listeners now, or once the batch being saved is done.
+     * @param notifications the calls to make after the batch; null to make them straight away
+     * @param notification the call
      */
-    private void handleLiveEvent(Event event) {
-        // Presence event
-        if (Event.EVENT_TYPE_PRESENCE.equals(event.type)) {
-            User userPresence = JsonUtils.toUser(event.content);
-            User user = mStore.getUser(userPresence.userId);
-            if (user == null) {
-                user = userPresence;
-                user.lastActiveReceived();
-                user.setDataHandler(this);
-                mStore.storeUser(user);
+    private static void dispatch(List<Runnable> notifications, Runnable notification) {
+        if (notifications == null) {
+            notification.run();
+        }
+        else {
+            notifications.add(notification);
+        }
+    }
+
+    private void applyLiveEvents(List<Event> events, List<Runnable> notifications) {
+        List<Event> otherEvents = new ArrayList<Event>(events.size());
+        Map<String, Event> presenceEvents = null;
+        Map<String, Event> typingEvents = null;
+        for (Event event : events) {
+            if (Event.EVENT_TYPE_PRESENCE.equals(event.type)) {
+                JsonObject content = event.getContent();
+                JsonElement userId = (content == null) ? null : content.get("user_id");
+                if ((userId == null) || !userId.isJsonPrimitive()) {
+                    continue;
+                }
+                if (presenceEvents == null) {
+                    presenceEvents = new LinkedHashMap<String, Event>();
+                }
+                presenceEvents.put(userId.getAsString(), event);
+            }
+            else if (Event.EVENT_TYPE_TYPING.equals(event.type)) {
+                if (typingEvents == null) {
+                    typingEvents = new LinkedHashMap<String, Event>();
+                }
+                typingEvents.put(event.roomId, event);
             }
             else {
-                user.presence = userPresence.presence;
-                user.lastActiveAgo = userPresence.lastActiveAgo;
-                user.lastActiveReceived();
+                otherEvents.add(event);
+            }
+        }
+
+        if (mBatchLiveEvents) {
+            handleLiveEventsBatch(otherEvents, notifications);
+        }
+        else {
+            for (Event event : otherEvents) {
+                handleLiveEvent(event, notifications);
+            }
+        }
+
+        if (presenceEvents != null) {
+            handlePresenceEvents(presenceEvents, notifications);
+        }
+        if (typingEvents != null) {
+            for (Event event : typingEvents.values()) {
+                handleTypingEvent(event, notifications);
+            }
+        }
+    }
+
+    /**
+     * Update the users typing in a room, without going through the room and its state.
+     * @param event the typing event
+     * @param notifications the listener calls to make after the batch, or null
+     */
+    private void handleTypingEvent(final Event event, List<Runnable> notifications) {
+        if (event.roomId == null) {
+            return;
+        }
+        List<String> typingUsers = new ArrayList<String>();
+        JsonObject content = event.getContent();
+        JsonElement userIds = (content == null) ? null : content.get("user_ids");
+        if ((userIds != null) && userIds.isJsonArray()) {
+            for (JsonElement userId : (JsonArray) userIds) {
+                if (userId.isJsonPrimitive()) {
+                    typingUsers.add(userId.getAsString());
+                }
             }
-            this.onPresenceUpdate(event, user);
         }
 
-        // Room event
-        else if (event.roomId != null) {
+        if (!typingUsers.equals(getTypingUsers(event.roomId))) {
+            final List<String> newTypingUsers = Collections.unmodifiableList(typingUsers);
+            mTypingUsers.put(event.roomId, newTypingUsers);
+            dispatch(notifications, new Runnable() {
+                @Override
+                public void run() {
+                    onTypingUpdate(event.roomId, newTypingUsers);
+                }
+            });
+        }
+    }
+
+    /**
+     * Handle events coming down from the event stream.
+     * @param event the live event
+     * @param notifications the listener calls to make after the batch, or null
+     */
+    private void handleLiveEvent(final Event event, List<Runnable> notifications) {
+        if (event.roomId != null) {
             Room room = getRoom(event.roomId);
             // The room state we send with the callback is the one before the current event was processed
-            RoomState beforeState = room.getLiveState().deepCopy();
+            final RoomState beforeState = room.getLiveState().snapshot();
             if (event.stateKey != null) {
                 room.processStateEvent(event, Room.EventDirection.FORWARDS);
             }
-            if (!Event.EVENT_TYPE_TYPING.equals(event.type)) {
-                mStore.storeLiveRoomEvent(event);
-                mStore.storeSummary(event.roomId, event, beforeState, mCredentials.userId);
-            }
+            mStore.storeLiveRoomEvent(event);
+            mStore.storeSummary(event.roomId, event, beforeState, mCredentials.userId);
 
             if (Event.EVENT_TYPE_REDACTION.equals(event.type)) {
                 if (event.redacts != null) {
-                    mStore.updateEventContent(event.roomId, event.redacts, event.content);
+                    mStore.updateEventContent(event.roomId, event.redacts, event.getContent());
                 }
             }
 
-            onLiveEvent(event, beforeState);
-
             // If the bing rules apply, bing
-            if (!Event.EVENT_TYPE_TYPING.equals(event.type)
-                    && (mBingRulesManager != null) && mBingRulesManager.shouldBing(event)) {
-                onBingEvent(event, beforeState);
-            }
+            final boolean bing = shouldBing(event);
+            dispatch(notifications, new Runnable() {
+                @Override
+                public void run() {
+                    onLiveEvent(event, beforeState);
+                    if (bing) {
+                        onBingEvent(event, beforeState);
+                    }
+                }
+            });
         }
 
         else {
@@ -222,6 +467,137 @@ public class MXDataHandler implements IMXEventListener {
         }
     }
 
+    /**
+     * Apply a chunk of live events as one unit: state changes are applied in order, then the chunk is
+     * stored, one summary per room is written and the listeners are called once.
+     * @param events the live events
+     * @param notifications the listener calls to make after the batch, or null
+     */
+    private void handleLiveEventsBatch(List<Event> events, List<Runnable> notifications) {
+        final List<Event> roomEvents = new ArrayList<Event>(events.size());
+        final List<RoomState> roomStates = new ArrayList<RoomState>(events.size());
+        List<Event> redactions = null;
+        final List<Event> bingEvents = new ArrayList<Event>();
+        final List<RoomState> bingStates = new ArrayList<RoomState>();
+        // room id -> index in roomEvents of the room's latest event to summarise
+        Map<String, Integer> latestEventIndexes = new HashMap<String, Integer>();
+
+        for (Event event : events) {
+            if (event.roomId != null) {
+                Room room = getRoom(event.roomId);
+                RoomState beforeState = room.getLiveState().snapshot();
+                if (event.stateKey != null) {
+                    room.processStateEvent(event, Room.EventDirection.FORWARDS);
+                }
+                latestEventIndexes.put(event.roomId, roomEvents.size());
+                if (Event.EVENT_TYPE_REDACTION.equals(event.type) && (event.redacts != null)) {
+                    if (redactions == null) {
+                        redactions = new ArrayList<Event>();
+                    }
+                    redactions.add(event);
+                }
+
+                // Bing rules look at the live state, so evaluate them before the next event is applied
+                if (shouldBing(event)) {
+                    bingEvents.add(event);
+                    bingStates.add(beforeState);
+                }
+
+                roomEvents.add(event);
+                roomStates.add(beforeState);
+            }
+            else {
+                Log.e(LOG_TAG, "Unknown live event type: " + event.type);
+            }
+        }
+
+        if (roomEvents.size() != 0) {
+            mStore.storeLiveRoomEvents(roomEvents);
+        }
+
+        // Redactions may target events from the same chunk, so they go after the chunk is stored
+        if (redactions != null) {
+            for (Event redaction : redactions) {
+                mStore.updateEventContent(redaction.roomId, redaction.redacts, redaction.getContent());
+            }
+        }
+
+        for (Map.Entry<String, Integer> entry : latestEventIndexes.entrySet()) {
+            int index = entry.getValue();
+            mStore.storeSummary(entry.getKey(), roomEvents.get(index), roomStates.get(index), mCredentials.userId);
+        }
+
+        if (roomEvents.size() != 0) {
+            dispatch(notifications, new Runnable() {
+                @Override
+                public void run() {
+                    onLiveEvents(roomEvents, roomStates);
+                    for (int i = 0; i < bingEvents.size(); i++) {
+                        onBingEvent(bingEvents.get(i), bingStates.get(i));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Update the presence table from the latest presence event of each user in a chunk.
+     * Only the presence and last active time are read from the event; a full user is only decoded for a user
+     * not stored yet. A stored user is only updated and saved again if their presence changed: a new
+     * last active time alone is not worth a write, the table has it.
+     * @param events the latest presence event of each user, by user id
+     * @param notifications the listener calls to make after the batch, or null
+     */
+    private void handlePresenceEvents(Map<String, Event> events, List<Runnable> notifications) {
+        final List<Event> updatedEvents = new ArrayList<Event>(events.size());
+        final List<User> updatedUsers = new ArrayList<User>(events.size());
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Event> entry : events.entrySet()) {
+            String userId = entry.getKey();
+            JsonObject content = entry.getValue().getContent();
+            JsonElement presenceElement = content.get("presence");
+            JsonElement lastActiveAgoElement = content.get("last_active_ago");
+            String presence = ((presenceElement == null) || presenceElement.isJsonNull())
+                    ? null : mPresenceTable.intern(presenceElement.getAsString());
+            Long lastActiveAgo = ((lastActiveAgoElement == null) || lastActiveAgoElement.isJsonNull())
+                    ? null : lastActiveAgoElement.getAsLong();
+
+            User user = mStore.getUser(userId);
+            if (user == null) {
+                user = JsonUtils.toUser(content);
+                if (user == null) {
+                    continue;
+                }
+                user.userId = userId;
+                user.presence = presence;
+                user.lastActiveReceived();
+                mStore.storeUser(user);
+            }
+            boolean changed = mPresenceTable.update(userId, presence, lastActiveAgo, now);
+            if (changed && !TextUtils.equals(user.presence, presence)) {
+                user.presence = presence;
+                user.lastActiveAgo = lastActiveAgo;
+                user.lastActiveReceived();
+                mStore.storeUser(user);
+            }
+            // Users loaded from the store do not have it yet
+            user.setDataHandler(this);
+
+            updatedEvents.add(entry.getValue());
+            updatedUsers.add(user);
+        }
+        dispatch(notifications, new Runnable() {
+            @Override
+            public void run() {
+                onPresenceUpdates(updatedEvents, updatedUsers);
+            }
+        });
+    }
+
+    private boolean shouldBing(Event event) {
+        return (mBingRulesManager != null) && mBingRulesManager.shouldBing(event);
+    }
+
     /**
      * Get the room object for the corresponding room id. Creates and initializes the object if there is none.
      * @param roomId the room id
@@ -239,12 +615,53 @@ public class MXDataHandler implements IMXEventListener {
         return room;
     }
 
-    // Proxy IMXEventListener callbacks to everything in mEventListeners
+    // Proxy IMXEventListener callbacks to everything in mEventListeners,
+    // and to the room and user listeners concerned
 
     @Override
     public void onPresenceUpdate(Event event, User user) {
+        onPresenceUpdates(Collections.singletonList(event), Collections.singletonList(user));
+    }
+
+    @Override
+    public void onPresenceUpdates(List<Event> events, List<User> users) {
         for (IMXEventListener listener : mEventListeners) {
-            listener.onPresenceUpdate(event, user);
+            listener.onPresenceUpdates(events, users);
+        }
+
+        for (int i = 0; i < users.size(); i++) {
+            List<IMXEventListener> userListeners = getKeyedListeners(mUserListeners, users.get(i).userId);
+            if (userListeners != null) {
+                for (IMXEventListener listener : userListeners) {
+                    listener.onPresenceUpdate(events.get(i), users.get(i));
+                }
+            }
+        }
+
+        // Only the rooms with listeners need checking, typically the one or two that are open,
+        // and they only get the updates of their members
+        for (Map.Entry<String, List<IMXEventListener>> entry : mRoomListeners.entrySet()) {
+            Room room = mStore.getRoom(entry.getKey());
+            if (room == null) {
+                continue;
+            }
+            List<Event> roomEvents = null;
+            List<User> roomUsers = null;
+            for (int i = 0; i < users.size(); i++) {
+                if (room.getMember(users.get(i).userId) != null) {
+                    if (roomEvents == null) {
+                        roomEvents = new ArrayList<Event>();
+                        roomUsers = new ArrayList<User>();
+                    }
+                    roomEvents.add(events.get(i));
+                    roomUsers.add(users.get(i));
+                }
+            }
+            if (roomEvents != null) {
+                for (IMXEventListener listener : entry.getValue()) {
+                    listener.onPresenceUpdates(roomEvents, roomUsers);
+                }
+            }
         }
     }
 
@@ -253,6 +670,54 @@ public class MXDataHandler implements IMXEventListener {
         for (IMXEventListener listener : mEventListeners) {
             listener.onLiveEvent(event, roomState);
         }
+
+        List<IMXEventListener> roomListeners = getKeyedListeners(mRoomListeners, event.roomId);
+        if (roomListeners != null) {
+            for (IMXEventListener listener : roomListeners) {
+                listener.onLiveEvent(event, roomState);
+            }
+        }
+    }
+
+    @Override
+    public void onLiveEvents(List<Event> events, List<RoomState> roomStates) {
+        for (IMXEventListener listener : mEventListeners) {
+            listener.onLiveEvents(events, roomStates);
+        }
+
+        if (mRoomListeners.isEmpty()) {
+            return;
+        }
+
+        // Room listeners only get their room's part of the chunk
+        Map<String, List<Integer>> indexesByRoom = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < events.size(); i++) {
+            String roomId = events.get(i).roomId;
+            if ((roomId != null) && mRoomListeners.containsKey(roomId)) {
+                List<Integer> indexes = indexesByRoom.get(roomId);
+                if (indexes == null) {
+                    indexes = new ArrayList<Integer>();
+                    indexesByRoom.put(roomId, indexes);
+                }
+                indexes.add(i);
+            }
+        }
+
+        for (Map.Entry<String, List<Integer>> entry : indexesByRoom.entrySet()) {
+            List<IMXEventListener> roomListeners = mRoomListeners.get(entry.getKey());
+            if (roomListeners == null) {
+                continue;
+            }
+            List<Event> roomEvents = new ArrayList<Event>(entry.getValue().size());
+            List<RoomState> states = new ArrayList<RoomState>(entry.getValue().size());
+            for (int index : entry.getValue()) {
+                roomEvents.add(events.get(index));
+                states.add(roomStates.get(index));
+            }
+            for (IMXEventListener listener : roomListeners) {
+                listener.onLiveEvents(roomEvents, states);
+            }
+        }
     }
 
     @Override
@@ -260,6 +725,13 @@ public class MXDataHandler implements IMXEventListener {
         for (IMXEventListener listener : mEventListeners) {
             listener.onBackEvent(event, roomState);
         }
+
+        List<IMXEventListener> roomListeners = getKeyedListeners(mRoomListeners, event.roomId);
+        if (roomListeners != null) {
+            for (IMXEventListener listener : roomListeners) {
+                listener.onBackEvent(event, roomState);
+            }
+        }
     }
 
     @Override
@@ -269,6 +741,20 @@ public class MXDataHandler implements IMXEventListener {
         }
     }
 
+    @Override
+    public void onTypingUpdate(String roomId, List<String> typingUserIds) {
+        for (IMXEventListener listener : mEventListeners) {
+            listener.onTypingUpdate(roomId, typingUserIds);
+        }
+
+        List<IMXEventListener> roomListeners = getKeyedListeners(mRoomListeners, roomId);
+        if (roomListeners != null) {
+            for (IMXEventListener listener : roomListeners) {
+                listener.onTypingUpdate(roomId, typingUserIds);
+            }
+        }
+    }
+
     @Override
     public void onInitialSyncComplete() {
         mInitialSyncComplete = true;
@@ -17,6 +17,8 @@ package org.matrix.androidsdk;
 
 import android.util.Log;
 
+import com.squareup.okhttp.OkHttpClient;
+
 import org.matrix.androidsdk.data.DataRetriever;
 import org.matrix.androidsdk.data.MyUser;
 import org.matrix.androidsdk.data.Room;
@@ -57,6 +59,9 @@ public class MXSession {
     private BingRulesRestClient mBingRulesRestClient;
 
     private ApiFailureCallback mFailureCallback;
+    private int mEventStreamPipelineCapacity = 0;
+    private boolean mSummaryInitialSync = false;
+    private int mPreloadedRoomCount = 0;
 
     private ContentManager mContentManager;
 
@@ -65,15 +70,24 @@ public class MXSession {
      * @param credentials the user credentials
      */
     public MXSession(Credentials credentials) {
+        this(credentials, RestClient.getDefaultHttpClient());
+    }
+
+    /**
+     * Create a basic session whose API calls and uploads all go through the given HTTP client.
+     * @param credentials the user credentials
+     * @param httpClient the HTTP client, shared with anything else that uses it
+     */
+    public MXSession(Credentials credentials, OkHttpClient httpClient) {
         mCredentials = credentials;
 
-        mEventsRestClient = new EventsRestClient(credentials);
-        mProfileRestClient = new ProfileRestClient(credentials);
-        mPresenceRestClient = new PresenceRestClient(credentials);
-        mRoomsRestClient = new RoomsRestClient(credentials);
-        mBingRulesRestClient = new BingRulesRestClient(credentials);
+        mEventsRestClient = new EventsRestClient(credentials, httpClient);
+        mProfileRestClient = new ProfileRestClient(credentials, httpClient);
+        mPresenceRestClient = new PresenceRestClient(credentials, httpClient);
+        mRoomsRestClient = new RoomsRestClient(credentials, httpClient);
+        mBingRulesRestClient = new BingRulesRestClient(credentials, httpClient);
 
-        mContentManager = new ContentManager(credentials.homeServer, credentials.accessToken);
+        mContentManager = new ContentManager(credentials.homeServer, credentials.accessToken, httpClient);
     }
 
     /**
@@ -188,6 +202,8 @@ public class MXSession {
             mMyUser.setPresenceRestClient(mPresenceRestClient);
             // ensure that the user ID is set event if the oneself user is not found.
             mMyUser.userId = mCredentials.userId;
+            // for its presence to be read from the data handler's presence table
+            mMyUser.setDataHandler(mDataHandler);
         }
         return mMyUser;
     }
@@ -211,6 +227,16 @@ public class MXSession {
         }
 
         mEventsThread = new EventsThread(mEventsRestClient, eventsListener);
+        mEventsThread.setPipelineCapacity(mEventStreamPipelineCapacity);
+        if (eventsListener instanceof DefaultEventsThreadListener) {
+            // The data handler's store may already be up to date with a previous run
+            mEventsThread.setResumeToken(mDataHandler.getStore().getEventStreamToken());
+            if (mSummaryInitialSync) {
+                // Rooms already synced by a previous run are told apart by what the store has of them
+                mEventsThread.setInitialSyncLimit(EventsRestClient.SUMMARY_SYNC_MESSAGES_LIMIT);
+                mDataHandler.getRoomSyncQueue().enable(mPreloadedRoomCount);
+            }
+        }
         if (mFailureCallback != null) {
             mEventsThread.setFailureCallback(mFailureCallback);
         }
@@ -219,6 +245,29 @@ public class MXSession {
         }
     }
 
+    /**
+     * Process the event stream on a separate thread so that long-polling does not wait for listeners.
+     * Takes effect on the next {@link #startEventStream(org.matrix.androidsdk.sync.EventsThreadListener)}.
+     * @param capacity the maximum number of fetched chunks waiting to be processed, or 0 to disable
+     * @see EventsThread#setPipelineCapacity(int)
+     */
+    public void setEventStreamPipelineCapacity(int capacity) {
+        mEventStreamPipelineCapacity = capacity;
+    }
+
+    /**
+     * Only get the state and latest event of each room in the initial sync, so that the room list can be
+     * shown sooner. The messages of a room are then loaded through the data handler's
+     * {@link org.matrix.androidsdk.data.RoomSyncQueue} when it is opened, or after the initial sync
+     * for the most recent rooms. Only applies when the event stream is started with the data handler.
+     * Takes effect on the next {@link #startEventStream(org.matrix.androidsdk.sync.EventsThreadListener)}.
+     * @param preloadedRoomCount the number of most recent rooms to load after the initial sync
+     */
+    public void setSummaryInitialSync(int preloadedRoomCount) {
+        mSummaryInitialSync = true;
+        mPreloadedRoomCount = preloadedRoomCount;
+    }
+
     /**
      * Shorthand for {@link #startEventStream(org.matrix.androidsdk.sync.EventsThreadListener)} with no eventListener
      * using a DataHandler and no specific failure callback.
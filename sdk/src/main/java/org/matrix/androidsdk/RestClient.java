@@ -16,6 +16,9 @@
 package org.matrix.androidsdk;
 
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 
 import com.google.gson.FieldNamingPolicy;
@@ -28,7 +31,13 @@ import org.matrix.androidsdk.rest.model.login.Credentials;
 import org.matrix.androidsdk.util.JsonUtils;
 
 import java.lang.reflect.Modifier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import retrofit.RequestInterceptor;
 import retrofit.RestAdapter;
@@ -48,10 +57,21 @@ public class RestClient<T> {
     private static final int CONNECTION_TIMEOUT_MS = 60000;
     private static final int READ_TIMEOUT_MS = 60000;
 
+    // Maximum number of asynchronous API calls in flight at once, across all clients
+    private static final int MAX_HTTP_THREADS = 4;
+    private static final int HTTP_THREAD_KEEP_ALIVE_S = 30;
+
+    private static OkHttpClient sDefaultHttpClient;
+    private static Executor sHttpExecutor;
+    private static Executor sMainThreadExecutor;
+    private static Executor sDefaultCallbackExecutor;
+
     protected Credentials mCredentials;
 
     protected T mApi;
 
+    private Executor mCallbackExecutor;
+
     protected Gson gson;
 
     /**
@@ -59,24 +79,41 @@ public class RestClient<T> {
      * @param hsUri The http[s] URI to the home server.
      */
     public RestClient(Uri hsUri, Class<T> type) {
+        this(hsUri, type, getDefaultHttpClient());
+    }
+
+    /**
+     * Constructor sharing the given HTTP client, and so its connection pool, with other clients.
+     * @param hsUri The http[s] URI to the home server.
+     * @param httpClient the HTTP client to make the requests with
+     */
+    public RestClient(Uri hsUri, Class<T> type, OkHttpClient httpClient) {
+        this(hsUri, type, httpClient, getDefaultCallbackExecutor());
+    }
+
+    /**
+     * Constructor choosing where the results of asynchronous calls are delivered.
+     * @param hsUri The http[s] URI to the home server.
+     * @param httpClient the HTTP client to make the requests with
+     * @param callbackExecutor the executor running the callbacks
+     */
+    public RestClient(Uri hsUri, Class<T> type, OkHttpClient httpClient, Executor callbackExecutor) {
         // sanity check
         if (hsUri == null || (!"http".equals(hsUri.getScheme()) && !"https".equals(hsUri.getScheme())) ) {
             throw new RuntimeException("Invalid home server URI: "+hsUri);
         }
 
+        mCallbackExecutor = callbackExecutor;
+
         // The JSON -> object mapper
         gson = JsonUtils.getGson();
 
-        // HTTP client
-        OkHttpClient okHttpClient = new OkHttpClient();
-        okHttpClient.setConnectTimeout(CONNECTION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-        okHttpClient.setReadTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-
         // Rest adapter for turning API interfaces into actual REST-calling objects
         RestAdapter restAdapter = new RestAdapter.Builder()
                 .setEndpoint(hsUri.toString() + URI_PREFIX)
                 .setConverter(new GsonConverter(gson))
-                .setClient(new OkClient(okHttpClient))
+                .setClient(new OkClient(httpClient))
+                .setExecutors(getHttpExecutor(), callbackExecutor)
                 .setRequestInterceptor(new RequestInterceptor() {
                     @Override
                     public void intercept(RequestInterceptor.RequestFacade request) {
@@ -98,10 +135,124 @@ public class RestClient<T> {
      * @param credentials the user credentials
      */
     public RestClient(Credentials credentials, Class<T> type) {
-        this(Uri.parse(credentials.homeServer), type);
+        this(credentials, type, getDefaultHttpClient());
+    }
+
+    /**
+     * Constructor providing the full user credentials and the HTTP client to share.
+     * @param credentials the user credentials
+     * @param httpClient the HTTP client to make the requests with
+     */
+    public RestClient(Credentials credentials, Class<T> type, OkHttpClient httpClient) {
+        this(Uri.parse(credentials.homeServer), type, httpClient);
         mCredentials = credentials;
     }
 
+    /**
+     * @return the executor running the callbacks of this client's asynchronous calls
+     */
+    public Executor getCallbackExecutor() {
+        return mCallbackExecutor;
+    }
+
+    /**
+     * Get the HTTP client shared by default by all the clients of the process, so that they all
+     * draw on the same pool of open connections.
+     * @return the process-wide HTTP client
+     */
+    public static synchronized OkHttpClient getDefaultHttpClient() {
+        if (sDefaultHttpClient == null) {
+            sDefaultHttpClient = new OkHttpClient();
+            sDefaultHttpClient.setConnectTimeout(CONNECTION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            sDefaultHttpClient.setReadTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        return sDefaultHttpClient;
+    }
+
+    /**
+     * The bounded pool running the asynchronous API calls of all the clients.
+     * Idle threads are let go after a while.
+     */
+    private static synchronized Executor getHttpExecutor() {
+        if (sHttpExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_HTTP_THREADS, MAX_HTTP_THREADS,
+                    HTTP_THREAD_KEEP_ALIVE_S, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    newBackgroundThreadFactory("RestClient"));
+            executor.allowCoreThreadTimeOut(true);
+            sHttpExecutor = executor;
+        }
+        return sHttpExecutor;
+    }
+
+    /**
+     * Get the executor running the callbacks of the clients that are not given one, by default a
+     * single background thread. The SDK's own callbacks turn responses into room state there, so
+     * this work is kept off the main thread and applied in the order the responses arrive.
+     * @return the default callback executor
+     */
+    public static synchronized Executor getDefaultCallbackExecutor() {
+        if (sDefaultCallbackExecutor == null) {
+            sDefaultCallbackExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return newBackgroundThread(r, "RestClient callbacks");
+                }
+            });
+        }
+        return sDefaultCallbackExecutor;
+    }
+
+    /**
+     * Set the executor running the callbacks of the clients created from now on.
+     * @param executor the executor, for instance {@link #getMainThreadExecutor()} to get the callbacks
+     *                 on the main thread as Retrofit does by default
+     */
+    public static synchronized void setDefaultCallbackExecutor(Executor executor) {
+        sDefaultCallbackExecutor = executor;
+    }
+
+    /**
+     * @return an executor posting to the main thread
+     */
+    public static synchronized Executor getMainThreadExecutor() {
+        if (sMainThreadExecutor == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            sMainThreadExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    handler.post(command);
+                }
+            };
+        }
+        return sMainThreadExecutor;
+    }
+
+    /**
+     * Get a factory of numbered background priority threads, for the pools shared by the process.
+     * @param name the prefix of the thread names
+     * @return the thread factory
+     */
+    public static ThreadFactory newBackgroundThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return newBackgroundThread(r, name + "-" + mCount.incrementAndGet());
+            }
+        };
+    }
+
+    private static Thread newBackgroundThread(final Runnable r, String name) {
+        return new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }
+        }, name);
+    }
+
     /**
      * Get the user's credentials. Typically for saving them somewhere persistent.
      * @return the user credentials
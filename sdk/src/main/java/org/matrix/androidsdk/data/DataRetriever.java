@@ -27,6 +27,7 @@ import java.util.List;
 
 /**
  * Layer for retrieving data either from the storage implementation, or from the server if the information is not available.
+ * History fetched from the server is stored, so paginating through it again is answered from the store.
  */
 public class DataRetriever {
 
@@ -47,32 +48,54 @@ public class DataRetriever {
 
     /**
      * Request older messages than the given token. These will come from storage if available, from the server otherwise.
+     * Either way, the lookup and the callback run on the REST client's callback executor, not on the calling thread.
      * @param roomId the room id
      * @param token the token to go back from. Null to start from live.
      * @param callback the onComplete callback
      */
-    public void requestRoomHistory(final String roomId, String token, final ApiCallback<TokensChunkResponse<Event>> callback) {
-        TokensChunkResponse<Event> storageResponse = mStore.getRoomEvents(roomId, token);
-        if (storageResponse != null) {
-            callback.onSuccess(storageResponse);
-        }
-        else {
-            mRestClient.getEarlierMessages(roomId, token, new SimpleApiCallback<TokensChunkResponse<Event>>(callback) {
-                @Override
-                public void onSuccess(TokensChunkResponse<Event> info) {
-                    // Watch for the one event overlap
-                    Event oldestEvent = mStore.getOldestEvent(roomId);
-                    if (info.chunk.size() != 0) {
-                        Event firstReturnedEvent = info.chunk.get(0);
-                        if ((oldestEvent != null) && (firstReturnedEvent != null)
-                                && oldestEvent.eventId.equals(firstReturnedEvent.eventId)) {
-                            info.chunk.remove(0);
-                        }
+    public void requestRoomHistory(final String roomId, final String token, final ApiCallback<TokensChunkResponse<Event>> callback) {
+        mRestClient.getCallbackExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                TokensChunkResponse<Event> storageResponse = mStore.getRoomEvents(roomId, token);
+                if (storageResponse != null) {
+                    callback.onSuccess(storageResponse);
+                }
+                else {
+                    requestServerRoomHistory(roomId, token, callback);
+                }
+            }
+        });
+    }
+
+    /**
+     * Request older messages from the server, and store them.
+     */
+    private void requestServerRoomHistory(final String roomId, final String token, final ApiCallback<TokensChunkResponse<Event>> callback) {
+        mRestClient.getEarlierMessages(roomId, token, new SimpleApiCallback<TokensChunkResponse<Event>>(callback) {
+            @Override
+            public void onSuccess(TokensChunkResponse<Event> info) {
+                mStore.storeRoomEvents(roomId, info, Room.EventDirection.BACKWARDS);
+
+                // Once the store has filled the gap, answer from it, so that the events it already had
+                // are not repeated and the next token is one it knows
+                TokensChunkResponse<Event> storedResponse = (token == null) ? null : mStore.getRoomEvents(roomId, token);
+                if (storedResponse != null) {
+                    callback.onSuccess(storedResponse);
+                    return;
+                }
+
+                // Watch for the one event overlap
+                Event oldestEvent = mStore.getOldestEvent(roomId);
+                if (info.chunk.size() != 0) {
+                    Event firstReturnedEvent = info.chunk.get(0);
+                    if ((oldestEvent != null) && (firstReturnedEvent != null)
+                            && oldestEvent.eventId.equals(firstReturnedEvent.eventId)) {
+                        info.chunk.remove(0);
                     }
-                    mStore.storeRoomEvents(roomId, info, Room.EventDirection.BACKWARDS);
-                    callback.onSuccess(info);
                 }
-            });
-        }
+                callback.onSuccess(info);
+            }
+        });
     }
 }
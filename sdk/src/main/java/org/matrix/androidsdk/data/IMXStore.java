@@ -25,22 +25,39 @@ public interface IMXStore {
      */
     public void storeLiveRoomEvent(Event event);
 
+    /**
+     * Store a chunk of live room events in one go.
+     * @param events The events to be stored, possibly from several rooms.
+     */
+    public void storeLiveRoomEvents(List<Event> events);
+
     /**
      * Store a block of room events either live or from pagination.
+     * Events from pagination are kept if they were paginated from a token the store knows,
+     * so that the store can answer for them next time.
      * @param roomId the room id
-     * @param eventsResponse The events to be stored.
+     * @param eventsResponse The events to be stored; for pagination, start is the token paginated from.
      * @param direction the direction; forwards for live, backwards for pagination
      */
     public void storeRoomEvents(String roomId, TokensChunkResponse<Event> eventsResponse, Room.EventDirection direction);
 
     /**
-     * Retrieve all non-state room events for this room.
+     * Retrieve the stored room events before a pagination token, down to the next token the store knows.
      * @param roomId The room ID
-     * @param token the associated token
-     * @return A collection of events.
+     * @param token the token to paginate from; null for the most recent events
+     * @return The events, most recent first, with the token to go on from as end; null if they are not stored.
      */
     public TokensChunkResponse<Event> getRoomEvents(String roomId, String token);
 
+    /**
+     * Count the most recent events of a room that {@link #getRoomEvents(String, String)} can page through
+     * from the latest one. Unlike reading them, this does not count as a use of the room.
+     * @param roomId the room id
+     * @param maxEvents the count to stop at
+     * @return the number of events, no more than maxEvents
+     */
+    public int countLatestRoomEvents(String roomId, int maxEvents);
+
     /**
      * Get the oldest event from the given room (to prevent pagination overlap).
      * @param roomId the room id
@@ -82,4 +99,45 @@ public interface IMXStore {
      * @param selfUserId our own user id - used to display the room name
      */
     public void storeSummary(String roomId, Event event, RoomState roomState, String selfUserId);
+
+    /**
+     * Get the events stream token saved with {@link #storeEventStreamToken(String)}.
+     * @return the token, or null if there is none
+     */
+    public String getEventStreamToken();
+
+    /**
+     * Save the events stream token that the stored data is up to date with.
+     * @param token the token
+     */
+    public void storeEventStreamToken(String token);
+
+    /**
+     * Make a series of writes, which the store saves together if it can.
+     * Calls to the store from other threads wait until they are done, so the writes must not call out to
+     * code that may be waiting on the store, such as event listeners.
+     * If the writes throw, what the store saved of them may be rolled back while the objects it keeps in
+     * memory, such as room states, keep the changes; they are saved whole the next time they change.
+     * @param writes the writes, made on the calling thread
+     */
+    public void runInBatch(Runnable writes);
+
+    /**
+     * Save an event that has not been sent yet, with its state, so that it can be sent after a restart.
+     * Saving it again updates it.
+     * @param pendingEvent the event
+     */
+    public void storePendingEvent(PendingEvent pendingEvent);
+
+    /**
+     * Forget an event saved with {@link #storePendingEvent(PendingEvent)}, once it is sent or discarded.
+     * @param txnId the event's transaction id
+     */
+    public void removePendingEvent(String txnId);
+
+    /**
+     * Get the events saved with {@link #storePendingEvent(PendingEvent)}.
+     * @return the events, in the order they were saved
+     */
+    public Collection<PendingEvent> getPendingEvents();
 }
@@ -11,25 +11,59 @@ import org.matrix.androidsdk.rest.model.User;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An in-memory IMXStore.
+ * <p>It can be bounded, keeping only so many events per room and in all. Room timelines are trimmed from
+ * their oldest events, the least recently read rooms first, down to a pagination token that becomes a gap,
+ * so the events can be paginated back in from the server. Rooms and summaries are always kept.</p>
  */
 public class MXMemoryStore implements IMXStore {
 
+    // Live events to wait for before adding an event stream token to a room timeline, to trim it down to
+    private static final int LIVE_TOKEN_STEP = 20;
+
+    private final int mMaxEventsPerRoom;
+    private final int mMaxEvents;
+
     private Map<String, Room> mRooms = new ConcurrentHashMap<String, Room>();
     private Map<String, User> mUsers = new ConcurrentHashMap<String, User>();
-    // room id -> map of (event_id -> event) events for this room (linked so insertion order is preserved)
-    private Map<String, LinkedHashMap<String, Event>> mRoomEvents = new ConcurrentHashMap<String, LinkedHashMap<String, Event>>();
-    private Map<String, String> mRoomTokens = new ConcurrentHashMap<String, String>();
+    // room id -> events and pagination tokens for this room
+    private Map<String, MemoryRoomTimeline> mRoomTimelines = new ConcurrentHashMap<String, MemoryRoomTimeline>();
 
     private Map<String, RoomSummary> mRoomSummaries = new ConcurrentHashMap<String, RoomSummary>();
 
+    private volatile String mEventStreamToken;
+
+    // txn id -> event not sent yet
+    private Map<String, PendingEvent> mPendingEvents = Collections.synchronizedMap(new LinkedHashMap<String, PendingEvent>());
+
+    // Room ids, the least recently read first
+    private final LinkedHashMap<String, Boolean> mRoomUsage = new LinkedHashMap<String, Boolean>(16, 0.75f, true);
+
+    /**
+     * Default constructor, for a store that keeps every event.
+     */
+    public MXMemoryStore() {
+        this(0, 0);
+    }
+
+    /**
+     * Constructor for a store bounded in memory.
+     * @param maxEventsPerRoom the number of events to keep per room; 0 for no limit
+     * @param maxEvents the number of events to keep in all; 0 for no limit
+     */
+    public MXMemoryStore(int maxEventsPerRoom, int maxEvents) {
+        mMaxEventsPerRoom = maxEventsPerRoom;
+        mMaxEvents = maxEvents;
+    }
+
     @Override
     public Collection<Room> getRooms() {
         return mRooms.values();
@@ -61,49 +95,61 @@ public class MXMemoryStore implements IMXStore {
 
     @Override
     public Event getOldestEvent(String roomId) {
-        LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
-
-        if (events != null) {
-            Iterator<Event> it = events.values().iterator();
-            if (it.hasNext()) {
-                return it.next();
-            }
-        }
-        return null;
+        MemoryRoomTimeline timeline = mRoomTimelines.get(roomId);
+        return (timeline == null) ? null : timeline.getOldestEvent();
     }
 
     @Override
     public void storeLiveRoomEvent(Event event) {
-        LinkedHashMap<String, Event> events = mRoomEvents.get(event.roomId);
-        if (events != null) {
+        addLiveRoomEvent(event);
+        trimAll();
+    }
+
+    @Override
+    public void storeLiveRoomEvents(List<Event> events) {
+        for (Event event : events) {
+            addLiveRoomEvent(event);
+        }
+        trimAll();
+    }
+
+    private void addLiveRoomEvent(Event event) {
+        MemoryRoomTimeline timeline = mRoomTimelines.get(event.roomId);
+        if (timeline != null) {
             // If we don't have any information on this room - a pagination token, namely - we don't store the event but instead
             // wait for the first pagination request to set things right
-            events.put(event.eventId, event);
+            timeline.addLiveEvent(event);
+            trim(timeline);
         }
     }
 
     @Override
     public void storeRoomEvents(String roomId, TokensChunkResponse<Event> eventsResponse, Room.EventDirection direction) {
-        if (direction == Room.EventDirection.FORWARDS) { // TODO: Implement backwards direction
-            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
-            if (events == null) {
-                events = new LinkedHashMap<String, Event>();
-                mRoomEvents.put(roomId, events);
-                mRoomTokens.put(roomId, eventsResponse.start);
-            }
-            for (Event event : eventsResponse.chunk) {
-                events.put(event.eventId, event);
+        MemoryRoomTimeline timeline = mRoomTimelines.get(roomId);
+        if (direction == Room.EventDirection.FORWARDS) {
+            if (timeline == null) {
+                timeline = new MemoryRoomTimeline();
+                mRoomTimelines.put(roomId, timeline);
             }
+            timeline.addSyncedEvents(eventsResponse);
+            touch(roomId);
+            trim(timeline);
+            trimAll();
+        }
+        else if (timeline != null) {
+            // Left for now, as the room is being scrolled back through; it is trimmed with the next live event
+            timeline.addPaginatedEvents(eventsResponse);
+            touch(roomId);
         }
     }
 
     @Override
     public void updateEventContent(String roomId, String eventId, JsonObject newContent) {
-        LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
-        if (events != null) {
-            Event event = events.get(eventId);
+        MemoryRoomTimeline timeline = mRoomTimelines.get(roomId);
+        if (timeline != null) {
+            Event event = timeline.getEvent(eventId);
             if (event != null) {
-                event.content = newContent;
+                event.setContent(newContent);
             }
         }
     }
@@ -118,7 +164,7 @@ public class MXMemoryStore implements IMXStore {
             }
             summary.setLatestEvent(event);
             summary.setLatestRoomState(roomState);
-            summary.setMembers(room.getMembers());
+            summary.setMembers(room.getLiveState());
             summary.setName(room.getName(selfUserId));
             summary.setRoomId(room.getRoomId());
             summary.setTopic(room.getTopic());
@@ -129,21 +175,18 @@ public class MXMemoryStore implements IMXStore {
 
     @Override
     public TokensChunkResponse<Event> getRoomEvents(String roomId, String token) {
-        // For now, we return everything we have for the original null token request
-        // For older requests (providing a token), returning null for now
-        if (token == null) {
-            LinkedHashMap<String, Event> events = mRoomEvents.get(roomId);
-            if (events == null) {
-                return null;
-            }
-            TokensChunkResponse<Event> response = new TokensChunkResponse<Event>();
-            response.chunk = new ArrayList<Event>(events.values());
-            // We want a chunk that goes from most recent to least
-            Collections.reverse(response.chunk);
-            response.end = mRoomTokens.get(roomId);
-            return response;
+        MemoryRoomTimeline timeline = mRoomTimelines.get(roomId);
+        if (timeline == null) {
+            return null;
         }
-        return null;
+        touch(roomId);
+        return timeline.getEventsBefore(token);
+    }
+
+    @Override
+    public int countLatestRoomEvents(String roomId, int maxEvents) {
+        MemoryRoomTimeline timeline = mRoomTimelines.get(roomId);
+        return (timeline == null) ? 0 : timeline.countLatestEvents(maxEvents);
     }
 
     @Override
@@ -155,4 +198,143 @@ public class MXMemoryStore implements IMXStore {
     public RoomSummary getSummary(String roomId) {
         return mRoomSummaries.get(roomId);
     }
+
+    @Override
+    public String getEventStreamToken() {
+        return mEventStreamToken;
+    }
+
+    @Override
+    public void storeEventStreamToken(String token) {
+        mEventStreamToken = token;
+        if ((mMaxEventsPerRoom > 0) || (mMaxEvents > 0)) {
+            // Live events can only be trimmed down to a token
+            for (MemoryRoomTimeline timeline : mRoomTimelines.values()) {
+                timeline.addLiveToken(token, LIVE_TOKEN_STEP);
+            }
+        }
+    }
+
+    @Override
+    public void runInBatch(Runnable writes) {
+        writes.run();
+    }
+
+    @Override
+    public void storePendingEvent(PendingEvent pendingEvent) {
+        mPendingEvents.put(pendingEvent.getTxnId(), pendingEvent);
+    }
+
+    @Override
+    public void removePendingEvent(String txnId) {
+        mPendingEvents.remove(txnId);
+    }
+
+    @Override
+    public Collection<PendingEvent> getPendingEvents() {
+        synchronized (mPendingEvents) {
+            return new ArrayList<PendingEvent>(mPendingEvents.values());
+        }
+    }
+
+    /**
+     * @return the number of room events held
+     */
+    public int getEventCount() {
+        int count = 0;
+        for (MemoryRoomTimeline timeline : mRoomTimelines.values()) {
+            count += timeline.getEventCount();
+        }
+        return count;
+    }
+
+    private void touch(String roomId) {
+        synchronized (mRoomUsage) {
+            mRoomUsage.put(roomId, Boolean.TRUE);
+        }
+    }
+
+    private void trim(MemoryRoomTimeline timeline) {
+        if ((mMaxEventsPerRoom > 0) && (timeline.getEventCount() > mMaxEventsPerRoom)) {
+            timeline.trim(mMaxEventsPerRoom);
+        }
+    }
+
+    private void trimAll() {
+        if (mMaxEvents <= 0) {
+            return;
+        }
+        int count = getEventCount();
+        if (count <= mMaxEvents) {
+            return;
+        }
+
+        List<String> roomIds;
+        synchronized (mRoomUsage) {
+            roomIds = new ArrayList<String>(mRoomUsage.keySet());
+        }
+        // Down to their latest page, the least recently read first, but for the room in view
+        for (String roomId : roomIds.subList(0, roomIds.size() - 1)) {
+            MemoryRoomTimeline timeline = mRoomTimelines.get(roomId);
+            if (timeline != null) {
+                count -= timeline.trim(0);
+                if (count <= mMaxEvents) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * A room timeline holding its events in memory.
+     */
+    private static class MemoryRoomTimeline extends RoomTimeline {
+        private final TreeMap<Long, Event> mEvents = new TreeMap<Long, Event>();
+        private final Map<String, Long> mOrderings = new HashMap<String, Long>();
+
+        @Override
+        protected Long getOrdering(String eventId) {
+            return mOrderings.get(eventId);
+        }
+
+        @Override
+        protected void insert(Event event, long ordering) {
+            mEvents.put(ordering, event);
+            mOrderings.put(event.eventId, ordering);
+        }
+
+        @Override
+        protected List<Event> getEvents(long fromOrdering, long toOrdering) {
+            return new ArrayList<Event>(mEvents.subMap(fromOrdering, true, toOrdering, false).descendingMap().values());
+        }
+
+        @Override
+        protected int countEvents(long fromOrdering, long toOrdering) {
+            return mEvents.subMap(fromOrdering, true, toOrdering, false).size();
+        }
+
+        @Override
+        protected int removeEventsBefore(long ordering) {
+            Map<Long, Event> removed = mEvents.headMap(ordering);
+            int count = removed.size();
+            for (Event event : removed.values()) {
+                mOrderings.remove(event.eventId);
+            }
+            removed.clear();
+            return count;
+        }
+
+        synchronized int getEventCount() {
+            return mEvents.size();
+        }
+
+        synchronized Event getEvent(String eventId) {
+            Long ordering = mOrderings.get(eventId);
+            return (ordering == null) ? null : mEvents.get(ordering);
+        }
+
+        synchronized Event getOldestEvent() {
+            return mEvents.isEmpty() ? null : mEvents.firstEntry().getValue();
+        }
+    }
 }
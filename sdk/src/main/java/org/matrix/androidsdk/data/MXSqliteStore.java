@@ -0,0 +1,715 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.PowerLevels;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.TokensChunkResponse;
+import org.matrix.androidsdk.rest.model.User;
+import org.matrix.androidsdk.util.JsonUtils;
+import org.matrix.androidsdk.util.PersistentHashMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An IMXStore backed by an SQLite database, so that the data survives a restart.
+ * <p>Rooms, users and summaries are loaded when the store is opened and then kept in memory as well, since
+ * they are live objects that the rest of the SDK updates in place. Room events stay on disk and are only
+ * read on request. Each call that stores several events does so in a single transaction, and the writes
+ * made through {@link #runInBatch(Runnable)} share one transaction.</p>
+ * <p>Room state is saved whenever the room or its summary is stored, but only what changed since it was
+ * last saved is written: a member row per changed member, and the rest of the state if it changed.</p>
+ */
+public class MXSqliteStore implements IMXStore {
+
+    private static final String LOG_TAG = "MXSqliteStore";
+
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_EVENTS = "events";
+    private static final String TABLE_ROOMS = "rooms";
+    private static final String TABLE_ROOM_MEMBERS = "room_members";
+    private static final String TABLE_ROOM_TOKENS = "room_tokens";
+    private static final String TABLE_USERS = "users";
+    private static final String TABLE_SUMMARIES = "summaries";
+    private static final String TABLE_META = "meta";
+    private static final String TABLE_PENDING_EVENTS = "pending_events";
+
+    private static final String META_EVENT_STREAM_TOKEN = "event_stream_token";
+
+    /**
+     * Creates the schema.
+     */
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+
+        DatabaseHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_EVENTS + " (room_id TEXT NOT NULL, event_id TEXT NOT NULL,"
+                    + " ordering INTEGER NOT NULL, json TEXT NOT NULL, PRIMARY KEY (room_id, event_id))");
+            db.execSQL("CREATE INDEX events_room_ordering ON " + TABLE_EVENTS + " (room_id, ordering)");
+            db.execSQL("CREATE TABLE " + TABLE_ROOMS + " (room_id TEXT PRIMARY KEY, state TEXT NOT NULL)");
+            db.execSQL("CREATE TABLE " + TABLE_ROOM_MEMBERS + " (room_id TEXT NOT NULL, user_id TEXT NOT NULL,"
+                    + " json TEXT NOT NULL, PRIMARY KEY (room_id, user_id))");
+            db.execSQL("CREATE TABLE " + TABLE_ROOM_TOKENS + " (room_id TEXT NOT NULL, token TEXT NOT NULL,"
+                    + " ordering INTEGER NOT NULL, gap INTEGER NOT NULL, PRIMARY KEY (room_id, token))");
+            db.execSQL("CREATE TABLE " + TABLE_USERS + " (user_id TEXT PRIMARY KEY, json TEXT NOT NULL)");
+            db.execSQL("CREATE TABLE " + TABLE_SUMMARIES + " (room_id TEXT PRIMARY KEY, name TEXT, topic TEXT,"
+                    + " latest_event TEXT, latest_state TEXT, inviter TEXT)");
+            db.execSQL("CREATE TABLE " + TABLE_META + " (key TEXT PRIMARY KEY, value TEXT)");
+            db.execSQL("CREATE TABLE " + TABLE_PENDING_EVENTS + " (txn_id TEXT PRIMARY KEY, json TEXT NOT NULL,"
+                    + " state TEXT NOT NULL DEFAULT '" + PendingEvent.State.QUEUED.name() + "')");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // There is no older schema yet
+        }
+    }
+
+    private Gson mGson = JsonUtils.getGson();
+    private DatabaseHelper mHelper;
+    private SQLiteDatabase mDb;
+
+    private SQLiteStatement mInsertEventStatement;
+    private SQLiteStatement mUpdateEventStatement;
+    private SQLiteStatement mStoreRoomStatement;
+    private SQLiteStatement mStoreRoomMemberStatement;
+    private SQLiteStatement mRemoveRoomMemberStatement;
+    private SQLiteStatement mStoreRoomTokenStatement;
+    private SQLiteStatement mStoreUserStatement;
+    private SQLiteStatement mStoreSummaryStatement;
+    private SQLiteStatement mStoreMetaStatement;
+    private SQLiteStatement mStorePendingEventStatement;
+    private SQLiteStatement mUpdatePendingEventStatement;
+    private SQLiteStatement mRemovePendingEventStatement;
+
+    private Map<String, Room> mRooms = new ConcurrentHashMap<String, Room>();
+    private Map<String, User> mUsers = new ConcurrentHashMap<String, User>();
+    private Map<String, RoomSummary> mRoomSummaries = new ConcurrentHashMap<String, RoomSummary>();
+    // Rooms we keep events for, with where their events and pagination tokens are
+    private Map<String, SqliteRoomTimeline> mRoomTimelines = Collections.synchronizedMap(new HashMap<String, SqliteRoomTimeline>());
+    private volatile String mEventStreamToken;
+    // Snapshots of each room's state as last saved, to tell what has changed since
+    private Map<String, RoomState> mSavedStates = new HashMap<String, RoomState>();
+
+    /**
+     * Open (or create) the store and load the rooms, users and summaries it holds.
+     * This does disk I/O and should not be called on the UI thread.
+     * @param context the context
+     * @param databaseName the database file name, typically one per account; null for a store that only lives in memory
+     */
+    public MXSqliteStore(Context context, String databaseName) {
+        mHelper = new DatabaseHelper(context, databaseName);
+        mDb = mHelper.getWritableDatabase();
+        if ((databaseName != null) && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)) {
+            // Lets the UI read while the events thread writes
+            mDb.enableWriteAheadLogging();
+        }
+
+        mInsertEventStatement = mDb.compileStatement("INSERT OR IGNORE INTO " + TABLE_EVENTS
+                + " (room_id, event_id, ordering, json) VALUES (?, ?, ?, ?)");
+        mUpdateEventStatement = mDb.compileStatement("UPDATE " + TABLE_EVENTS
+                + " SET json = ? WHERE room_id = ? AND event_id = ?");
+        mStoreRoomStatement = mDb.compileStatement("INSERT OR REPLACE INTO " + TABLE_ROOMS
+                + " (room_id, state) VALUES (?, ?)");
+        mStoreRoomMemberStatement = mDb.compileStatement("INSERT OR REPLACE INTO " + TABLE_ROOM_MEMBERS
+                + " (room_id, user_id, json) VALUES (?, ?, ?)");
+        mRemoveRoomMemberStatement = mDb.compileStatement("DELETE FROM " + TABLE_ROOM_MEMBERS
+                + " WHERE room_id = ? AND user_id = ?");
+        mStoreRoomTokenStatement = mDb.compileStatement("INSERT OR REPLACE INTO " + TABLE_ROOM_TOKENS
+                + " (room_id, token, ordering, gap) VALUES (?, ?, ?, ?)");
+        mStoreUserStatement = mDb.compileStatement("INSERT OR REPLACE INTO " + TABLE_USERS
+                + " (user_id, json) VALUES (?, ?)");
+        mStoreSummaryStatement = mDb.compileStatement("INSERT OR REPLACE INTO " + TABLE_SUMMARIES
+                + " (room_id, name, topic, latest_event, latest_state, inviter) VALUES (?, ?, ?, ?, ?, ?)");
+        mStoreMetaStatement = mDb.compileStatement("INSERT OR REPLACE INTO " + TABLE_META
+                + " (key, value) VALUES (?, ?)");
+        mStorePendingEventStatement = mDb.compileStatement("INSERT OR IGNORE INTO " + TABLE_PENDING_EVENTS
+                + " (txn_id, json, state) VALUES (?, ?, ?)");
+        mUpdatePendingEventStatement = mDb.compileStatement("UPDATE " + TABLE_PENDING_EVENTS
+                + " SET json = ?, state = ? WHERE txn_id = ?");
+        mRemovePendingEventStatement = mDb.compileStatement("DELETE FROM " + TABLE_PENDING_EVENTS
+                + " WHERE txn_id = ?");
+
+        load();
+    }
+
+    /**
+     * Close the database. The store cannot be used afterwards.
+     */
+    public synchronized void close() {
+        mHelper.close();
+    }
+
+    private void load() {
+        Map<String, RoomState> states = new HashMap<String, RoomState>();
+        Cursor cursor = mDb.rawQuery("SELECT room_id, state FROM " + TABLE_ROOMS, null);
+        try {
+            while (cursor.moveToNext()) {
+                states.put(cursor.getString(0), roomStateFromJson(cursor.getString(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        cursor = mDb.rawQuery("SELECT room_id, user_id, json FROM " + TABLE_ROOM_MEMBERS, null);
+        try {
+            while (cursor.moveToNext()) {
+                RoomState state = states.get(cursor.getString(0));
+                if (state != null) {
+                    state.setMember(cursor.getString(1), mGson.fromJson(cursor.getString(2), RoomMember.class));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (Map.Entry<String, RoomState> entry : states.entrySet()) {
+            Room room = new Room();
+            room.setRoomId(entry.getKey());
+            room.restoreLiveState(entry.getValue());
+            mRooms.put(room.getRoomId(), room);
+            mSavedStates.put(room.getRoomId(), room.getLiveState().snapshot());
+        }
+
+        cursor = mDb.rawQuery("SELECT json FROM " + TABLE_USERS, null);
+        try {
+            while (cursor.moveToNext()) {
+                User user = mGson.fromJson(cursor.getString(0), User.class);
+                mUsers.put(user.userId, user);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        cursor = mDb.rawQuery("SELECT room_id, name, topic, latest_event, latest_state, inviter FROM "
+                + TABLE_SUMMARIES, null);
+        try {
+            while (cursor.moveToNext()) {
+                String roomId = cursor.getString(0);
+                RoomSummary summary = new RoomSummary();
+                summary.setRoomId(roomId);
+                summary.setName(cursor.getString(1));
+                summary.setTopic(cursor.getString(2));
+                if (!cursor.isNull(3)) {
+                    summary.setLatestEvent(mGson.fromJson(cursor.getString(3), Event.class));
+                }
+                if (!cursor.isNull(4)) {
+                    summary.setLatestRoomState(roomStateFromJson(cursor.getString(4)));
+                }
+                summary.setInviterUserId(cursor.getString(5));
+                Room room = mRooms.get(roomId);
+                if (room != null) {
+                    summary.setMembers(room.getLiveState());
+                }
+                mRoomSummaries.put(roomId, summary);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Map<String, List<RoomTimeline.Token>> tokens = new HashMap<String, List<RoomTimeline.Token>>();
+        cursor = mDb.rawQuery("SELECT room_id, token, ordering, gap FROM " + TABLE_ROOM_TOKENS, null);
+        try {
+            while (cursor.moveToNext()) {
+                List<RoomTimeline.Token> roomTokens = tokens.get(cursor.getString(0));
+                if (roomTokens == null) {
+                    roomTokens = new ArrayList<RoomTimeline.Token>();
+                    tokens.put(cursor.getString(0), roomTokens);
+                }
+                roomTokens.add(new RoomTimeline.Token(cursor.getString(1), cursor.getLong(2), cursor.getInt(3) != 0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        cursor = mDb.rawQuery("SELECT room_id, MAX(ordering) FROM " + TABLE_EVENTS + " GROUP BY room_id", null);
+        Map<String, Long> tops = new HashMap<String, Long>();
+        try {
+            while (cursor.moveToNext()) {
+                tops.put(cursor.getString(0), cursor.getLong(1) + 1);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (Map.Entry<String, List<RoomTimeline.Token>> entry : tokens.entrySet()) {
+            SqliteRoomTimeline timeline = new SqliteRoomTimeline(entry.getKey());
+            Long top = tops.get(entry.getKey());
+            timeline.restore(entry.getValue(), (top == null) ? 0 : top);
+            mRoomTimelines.put(entry.getKey(), timeline);
+        }
+
+        mEventStreamToken = getMeta(META_EVENT_STREAM_TOKEN);
+
+        Log.i(LOG_TAG, "Loaded " + mRooms.size() + " rooms, " + mUsers.size() + " users");
+    }
+
+    @Override
+    public Collection<Room> getRooms() {
+        return mRooms.values();
+    }
+
+    @Override
+    public Room getRoom(String roomId) {
+        return mRooms.get(roomId);
+    }
+
+    @Override
+    public User getUser(String userId) {
+        return mUsers.get(userId);
+    }
+
+    @Override
+    public synchronized void storeUser(User user) {
+        mUsers.put(user.userId, user);
+        mStoreUserStatement.bindString(1, user.userId);
+        mStoreUserStatement.bindString(2, mGson.toJson(user, User.class));
+        mStoreUserStatement.execute();
+    }
+
+    @Override
+    public synchronized void storeRoom(Room room) {
+        mRooms.put(room.getRoomId(), room);
+        saveRoomState(room);
+    }
+
+    @Override
+    public Event getOldestEvent(String roomId) {
+        Cursor cursor = mDb.rawQuery("SELECT json FROM " + TABLE_EVENTS + " WHERE room_id = ? ORDER BY ordering ASC LIMIT 1",
+                new String[] {roomId});
+        try {
+            return cursor.moveToFirst() ? mGson.fromJson(cursor.getString(0), Event.class) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public synchronized void storeLiveRoomEvent(Event event) {
+        // As in MXMemoryStore, events for rooms we know nothing about yet are left to the first pagination request
+        SqliteRoomTimeline timeline = mRoomTimelines.get(event.roomId);
+        if (timeline != null) {
+            timeline.addLiveEvent(event);
+        }
+    }
+
+    @Override
+    public synchronized void storeLiveRoomEvents(List<Event> events) {
+        mDb.beginTransaction();
+        try {
+            for (Event event : events) {
+                SqliteRoomTimeline timeline = mRoomTimelines.get(event.roomId);
+                if (timeline != null) {
+                    timeline.addLiveEvent(event);
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @Override
+    public synchronized void storeRoomEvents(String roomId, TokensChunkResponse<Event> eventsResponse, Room.EventDirection direction) {
+        SqliteRoomTimeline timeline = mRoomTimelines.get(roomId);
+        if ((timeline == null) && (direction == Room.EventDirection.BACKWARDS)) {
+            return;
+        }
+
+        mDb.beginTransaction();
+        try {
+            if (direction == Room.EventDirection.FORWARDS) {
+                if (timeline == null) {
+                    timeline = new SqliteRoomTimeline(roomId);
+                    mRoomTimelines.put(roomId, timeline);
+                }
+                timeline.addSyncedEvents(eventsResponse);
+            }
+            else {
+                timeline.addPaginatedEvents(eventsResponse);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @Override
+    public synchronized void updateEventContent(String roomId, String eventId, JsonObject newContent) {
+        Cursor cursor = mDb.rawQuery("SELECT json FROM " + TABLE_EVENTS + " WHERE room_id = ? AND event_id = ?",
+                new String[] {roomId, eventId});
+        Event event;
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            event = mGson.fromJson(cursor.getString(0), Event.class);
+        } finally {
+            cursor.close();
+        }
+
+        event.setContent(newContent);
+        mUpdateEventStatement.bindString(1, mGson.toJson(event));
+        mUpdateEventStatement.bindString(2, roomId);
+        mUpdateEventStatement.bindString(3, eventId);
+        mUpdateEventStatement.execute();
+    }
+
+    @Override
+    public synchronized void storeSummary(String roomId, Event event, RoomState roomState, String selfUserId) {
+        Room room = mRooms.get(roomId);
+        if (room != null) { // Should always be the case
+            RoomSummary summary = mRoomSummaries.get(roomId);
+            if (summary == null) {
+                summary = new RoomSummary();
+            }
+            summary.setLatestEvent(event);
+            summary.setLatestRoomState(roomState);
+            summary.setMembers(room.getLiveState());
+            summary.setName(room.getName(selfUserId));
+            summary.setRoomId(room.getRoomId());
+            summary.setTopic(room.getTopic());
+
+            mRoomSummaries.put(roomId, summary);
+
+            // The summary is stored whenever the room has changed, so save its state along with it
+            mDb.beginTransaction();
+            try {
+                saveRoomState(room);
+
+                bindStringOrNull(mStoreSummaryStatement, 1, roomId);
+                bindStringOrNull(mStoreSummaryStatement, 2, summary.getRoomName());
+                bindStringOrNull(mStoreSummaryStatement, 3, summary.getRoomTopic());
+                bindStringOrNull(mStoreSummaryStatement, 4, (event == null) ? null : mGson.toJson(event));
+                bindStringOrNull(mStoreSummaryStatement, 5, (roomState == null) ? null : summaryStateToJson(roomState, event));
+                bindStringOrNull(mStoreSummaryStatement, 6, summary.getInviterUserId());
+                mStoreSummaryStatement.execute();
+
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+        }
+    }
+
+    @Override
+    public TokensChunkResponse<Event> getRoomEvents(String roomId, String token) {
+        SqliteRoomTimeline timeline = mRoomTimelines.get(roomId);
+        return (timeline == null) ? null : timeline.getEventsBefore(token);
+    }
+
+    @Override
+    public int countLatestRoomEvents(String roomId, int maxEvents) {
+        SqliteRoomTimeline timeline = mRoomTimelines.get(roomId);
+        return (timeline == null) ? 0 : timeline.countLatestEvents(maxEvents);
+    }
+
+    @Override
+    public Collection<RoomSummary> getSummaries() {
+        return mRoomSummaries.values();
+    }
+
+    @Override
+    public RoomSummary getSummary(String roomId) {
+        return mRoomSummaries.get(roomId);
+    }
+
+    @Override
+    public String getEventStreamToken() {
+        return mEventStreamToken;
+    }
+
+    @Override
+    public synchronized void storeEventStreamToken(String token) {
+        mEventStreamToken = token;
+        bindStringOrNull(mStoreMetaStatement, 1, META_EVENT_STREAM_TOKEN);
+        bindStringOrNull(mStoreMetaStatement, 2, token);
+        mStoreMetaStatement.execute();
+    }
+
+    @Override
+    public synchronized void runInBatch(Runnable writes) {
+        mDb.beginTransaction();
+        boolean successful = false;
+        try {
+            writes.run();
+            mDb.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            mDb.endTransaction();
+            if (!successful) {
+                // What was saved of the room states is rolled back, so save them whole next time.
+                // Known limitation: until then the database is behind the room states in memory, and a
+                // restart before that resumes from the previous stream token with the older state.
+                mSavedStates.clear();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void storePendingEvent(PendingEvent pendingEvent) {
+        String json = mGson.toJson(pendingEvent.getEvent());
+        String state = pendingEvent.getState().name();
+        // An event saved again keeps its place in the order
+        mUpdatePendingEventStatement.bindString(1, json);
+        mUpdatePendingEventStatement.bindString(2, state);
+        mUpdatePendingEventStatement.bindString(3, pendingEvent.getTxnId());
+        mUpdatePendingEventStatement.execute();
+        mStorePendingEventStatement.bindString(1, pendingEvent.getTxnId());
+        mStorePendingEventStatement.bindString(2, json);
+        mStorePendingEventStatement.bindString(3, state);
+        mStorePendingEventStatement.execute();
+    }
+
+    @Override
+    public synchronized void removePendingEvent(String txnId) {
+        mRemovePendingEventStatement.bindString(1, txnId);
+        mRemovePendingEventStatement.execute();
+    }
+
+    @Override
+    public Collection<PendingEvent> getPendingEvents() {
+        List<PendingEvent> pendingEvents = new ArrayList<PendingEvent>();
+        Cursor cursor = mDb.rawQuery("SELECT txn_id, json, state FROM " + TABLE_PENDING_EVENTS + " ORDER BY rowid", null);
+        try {
+            while (cursor.moveToNext()) {
+                PendingEvent pendingEvent = new PendingEvent(cursor.getString(0), mGson.fromJson(cursor.getString(1), Event.class));
+                // Only whether it failed matters: any other event is sent again
+                if (PendingEvent.State.FAILED.name().equals(cursor.getString(2))) {
+                    pendingEvent.setState(PendingEvent.State.FAILED);
+                }
+                pendingEvents.add(pendingEvent);
+            }
+        } finally {
+            cursor.close();
+        }
+        return pendingEvents;
+    }
+
+    /**
+     * Save what has changed in a room's state since it was last saved.
+     * @param room the room
+     */
+    private void saveRoomState(Room room) {
+        RoomState state = room.getLiveState();
+        RoomState saved = mSavedStates.get(room.getRoomId());
+        if ((saved == null) || !sameFields(saved, state) || (saved.getPowerLevels() != state.getPowerLevels())) {
+            mStoreRoomStatement.bindString(1, room.getRoomId());
+            mStoreRoomStatement.bindString(2, roomStateToJson(state));
+            mStoreRoomStatement.execute();
+        }
+
+        PersistentHashMap<String, RoomMember> members = state.getMemberMap();
+        PersistentHashMap<String, RoomMember> savedMembers = (saved == null) ? null : saved.getMemberMap();
+        if (members != savedMembers) {
+            // Members are replaced rather than modified, so a different object is a changed member
+            for (Map.Entry<String, RoomMember> entry : members.entrySet()) {
+                if ((savedMembers == null) || (savedMembers.get(entry.getKey()) != entry.getValue())) {
+                    mStoreRoomMemberStatement.bindString(1, room.getRoomId());
+                    mStoreRoomMemberStatement.bindString(2, entry.getKey());
+                    mStoreRoomMemberStatement.bindString(3, mGson.toJson(entry.getValue(), RoomMember.class));
+                    mStoreRoomMemberStatement.execute();
+                }
+            }
+            if (savedMembers != null) {
+                for (String userId : savedMembers.keySet()) {
+                    if (!members.containsKey(userId)) {
+                        mRemoveRoomMemberStatement.bindString(1, room.getRoomId());
+                        mRemoveRoomMemberStatement.bindString(2, userId);
+                        mRemoveRoomMemberStatement.execute();
+                    }
+                }
+            }
+        }
+
+        mSavedStates.put(room.getRoomId(), state.snapshot());
+    }
+
+    private static boolean sameFields(RoomState a, RoomState b) {
+        return TextUtils.equals(a.roomId, b.roomId) && TextUtils.equals(a.name, b.name)
+                && TextUtils.equals(a.topic, b.topic) && TextUtils.equals(a.roomAliasName, b.roomAliasName)
+                && TextUtils.equals(a.visibility, b.visibility) && TextUtils.equals(a.creator, b.creator)
+                && TextUtils.equals(a.joinRule, b.joinRule)
+                // Replaced, not modified, when they change
+                && (a.aliases == b.aliases);
+    }
+
+    private String getMeta(String key) {
+        Cursor cursor = mDb.rawQuery("SELECT value FROM " + TABLE_META + " WHERE key = ?", new String[] {key});
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        }
+        else {
+            statement.bindString(index, value);
+        }
+    }
+
+    // The Gson mapping only covers RoomState's public fields; power levels are added separately,
+    // and members are kept in their own table.
+    private String roomStateToJson(RoomState roomState) {
+        JsonObject json = new JsonObject();
+        json.add("state", mGson.toJsonTree(roomState));
+        if (roomState.getPowerLevels() != null) {
+            json.add("power_levels", mGson.toJsonTree(roomState.getPowerLevels()));
+        }
+        return json.toString();
+    }
+
+    // A summary's state is only used to display its latest event, so only keep the members that event names.
+    private String summaryStateToJson(RoomState roomState, Event event) {
+        JsonObject json = new JsonObject();
+        json.add("state", mGson.toJsonTree(roomState));
+
+        JsonObject members = new JsonObject();
+        if (event != null) {
+            for (String userId : new String[] {event.userId, event.stateKey}) {
+                RoomMember member = (userId == null) ? null : roomState.getMember(userId);
+                if (member != null) {
+                    members.add(userId, mGson.toJsonTree(member));
+                }
+            }
+        }
+        json.add("members", members);
+        return json.toString();
+    }
+
+    private RoomState roomStateFromJson(String jsonString) {
+        JsonObject json = new JsonParser().parse(jsonString).getAsJsonObject();
+        RoomState roomState = mGson.fromJson(json.get("state"), RoomState.class);
+
+        JsonObject members = json.getAsJsonObject("members");
+        if (members != null) {
+            for (Map.Entry<String, JsonElement> entry : members.entrySet()) {
+                roomState.setMember(entry.getKey(), mGson.fromJson(entry.getValue(), RoomMember.class));
+            }
+        }
+
+        JsonElement powerLevels = json.get("power_levels");
+        if (powerLevels != null) {
+            roomState.setPowerLevels(mGson.fromJson(powerLevels, PowerLevels.class));
+        }
+        return roomState;
+    }
+
+    /**
+     * A room timeline holding its events in the events table.
+     */
+    private class SqliteRoomTimeline extends RoomTimeline {
+        private final String mRoomId;
+
+        SqliteRoomTimeline(String roomId) {
+            mRoomId = roomId;
+        }
+
+        @Override
+        protected Long getOrdering(String eventId) {
+            Cursor cursor = mDb.rawQuery("SELECT ordering FROM " + TABLE_EVENTS + " WHERE room_id = ? AND event_id = ?",
+                    new String[] {mRoomId, eventId});
+            try {
+                return cursor.moveToFirst() ? cursor.getLong(0) : null;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        protected void insert(Event event, long ordering) {
+            mInsertEventStatement.bindString(1, mRoomId);
+            mInsertEventStatement.bindString(2, event.eventId);
+            mInsertEventStatement.bindLong(3, ordering);
+            mInsertEventStatement.bindString(4, mGson.toJson(event));
+            mInsertEventStatement.execute();
+        }
+
+        @Override
+        protected List<Event> getEvents(long fromOrdering, long toOrdering) {
+            List<Event> events = new ArrayList<Event>();
+            Cursor cursor = mDb.rawQuery("SELECT json FROM " + TABLE_EVENTS
+                    + " WHERE room_id = ? AND ordering >= ? AND ordering < ? ORDER BY ordering DESC",
+                    new String[] {mRoomId, Long.toString(fromOrdering), Long.toString(toOrdering)});
+            try {
+                while (cursor.moveToNext()) {
+                    events.add(mGson.fromJson(cursor.getString(0), Event.class));
+                }
+            } finally {
+                cursor.close();
+            }
+            return events;
+        }
+
+        @Override
+        protected int countEvents(long fromOrdering, long toOrdering) {
+            Cursor cursor = mDb.rawQuery("SELECT COUNT(*) FROM " + TABLE_EVENTS
+                    + " WHERE room_id = ? AND ordering >= ? AND ordering < ?",
+                    new String[] {mRoomId, Long.toString(fromOrdering), Long.toString(toOrdering)});
+            try {
+                return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        protected int removeEventsBefore(long ordering) {
+            String[] args = new String[] {mRoomId, Long.toString(ordering)};
+            mDb.delete(TABLE_ROOM_TOKENS, "room_id = ? AND ordering < ?", args);
+            return mDb.delete(TABLE_EVENTS, "room_id = ? AND ordering < ?", args);
+        }
+
+        @Override
+        protected void onTokenChanged(Token token) {
+            mStoreRoomTokenStatement.bindString(1, mRoomId);
+            mStoreRoomTokenStatement.bindString(2, token.token);
+            mStoreRoomTokenStatement.bindLong(3, token.ordering);
+            mStoreRoomTokenStatement.bindLong(4, token.gap ? 1 : 0);
+            mStoreRoomTokenStatement.execute();
+        }
+    }
+}
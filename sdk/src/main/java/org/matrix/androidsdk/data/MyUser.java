@@ -84,7 +84,7 @@ public class MyUser extends User {
             @Override
             public void onSuccess(Void info) {
                 // Update the object member before calling the given callback
-                MyUser.this.presence = presence;
+                setLatestPresence(presence, 0L);
                 MyUser.this.statusMsg = statusMsg;
                 super.onSuccess(info);
             }
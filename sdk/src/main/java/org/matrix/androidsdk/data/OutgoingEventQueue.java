@@ -0,0 +1,384 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data;
+
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import org.matrix.androidsdk.listeners.MXEventListener;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.RestClient;
+import org.matrix.androidsdk.rest.client.RoomsRestClient;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.MatrixError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the events posted by the user.
+ * <ul>
+ * <li>Each event gets a transaction id, so sending it again after an error cannot post it twice.</li>
+ * <li>The events of a room are sent one after the other, in the order they were posted. Rooms are
+ * sent to concurrently over the shared connection pool.</li>
+ * <li>Network and server errors are retried with an increasing delay, as are requests the server is
+ * rate limiting, for at least as long as it asks. Events the server rejects fail.</li>
+ * <li>Events are kept in the store until they are sent, and sent again after a restart. Failed events
+ * stay in the store until they are resent or discarded.</li>
+ * <li>Sent events are matched to their echo from the event stream by event id.</li>
+ * </ul>
+ * Sending starts once the initial sync is complete.
+ */
+public class OutgoingEventQueue extends MXEventListener {
+
+    private static final String LOG_TAG = "OutgoingEventQueue";
+
+    private static final long FIRST_RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 60000;
+    // Network errors and rate limiting are retried until they are over, server and unexpected errors only this many times
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int MAX_EARLY_ECHOES = 50;
+    private static final int THREAD_KEEP_ALIVE_S = 30;
+
+    private static ScheduledExecutorService sRetryExecutor;
+
+    private RoomsRestClient mRestClient;
+    private IMXStore mStore;
+    private String mMyUserId;
+    private ScheduledExecutorService mRetryExecutor;
+    private boolean mStarted = false;
+    private long mTxnCounter = 0;
+
+    // room id -> the room's events that have not been echoed, in the order they were posted
+    private Map<String, LinkedHashMap<String, PendingEvent>> mPendingEvents = new HashMap<String, LinkedHashMap<String, PendingEvent>>();
+    // room id -> the room's events still to send; the head is the one being sent
+    private Map<String, LinkedList<PendingEvent>> mRoomQueues = new HashMap<String, LinkedList<PendingEvent>>();
+    // event id -> sent events waiting for their echo
+    private Map<String, PendingEvent> mAwaitingEcho = new HashMap<String, PendingEvent>();
+    // Ids of our own events that came down the stream while a send was in flight, in case they are its echo
+    private Map<String, String> mEarlyEchoes = new LinkedHashMap<String, String>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_EARLY_ECHOES;
+        }
+    };
+
+    /**
+     * Constructor. Loads the events left unsent by a previous run.
+     * @param restClient the client to send the events with
+     * @param store the store to keep unsent events in
+     * @param myUserId the user id the events are sent as
+     */
+    public OutgoingEventQueue(RoomsRestClient restClient, IMXStore store, String myUserId) {
+        this(restClient, store, myUserId, getDefaultRetryExecutor());
+    }
+
+    /**
+     * The thread shared by all the queues of the process to wait out retry delays on.
+     * It is let go when idle for a while.
+     */
+    private static synchronized ScheduledExecutorService getDefaultRetryExecutor() {
+        if (sRetryExecutor == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                    RestClient.newBackgroundThreadFactory("OutgoingEventQueue"));
+            executor.setKeepAliveTime(THREAD_KEEP_ALIVE_S, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            sRetryExecutor = executor;
+        }
+        return sRetryExecutor;
+    }
+
+    OutgoingEventQueue(RoomsRestClient restClient, IMXStore store, String myUserId, ScheduledExecutorService retryExecutor) {
+        mRestClient = restClient;
+        mStore = store;
+        mMyUserId = myUserId;
+        mRetryExecutor = retryExecutor;
+
+        for (PendingEvent pendingEvent : mStore.getPendingEvents()) {
+            if (pendingEvent.getState() == PendingEvent.State.FAILED) {
+                // Kept for display until the user resends or discards it
+                addPendingEvent(pendingEvent);
+            }
+            else {
+                add(pendingEvent);
+            }
+        }
+    }
+
+    /**
+     * Queue an event for sending.
+     * @param roomId the room id
+     * @param eventType the event type
+     * @param content the event content
+     * @param callback called with the event once the server has accepted it, or with the error
+     *                 that made it fail. Can be null.
+     * @return the pending event, whose event can be displayed until the echo arrives
+     */
+    public PendingEvent send(String roomId, String eventType, JsonObject content, ApiCallback<Event> callback) {
+        Event event = new Event();
+        event.roomId = roomId;
+        event.type = eventType;
+        event.setContent(content);
+        event.userId = mMyUserId;
+        event.originServerTs = System.currentTimeMillis();
+
+        synchronized (this) {
+            // Unique across restarts as well as within this run
+            PendingEvent pendingEvent = new PendingEvent("m" + event.originServerTs + "." + (mTxnCounter++), event);
+            pendingEvent.mCallback = callback;
+            mStore.storePendingEvent(pendingEvent);
+            add(pendingEvent);
+            return pendingEvent;
+        }
+    }
+
+    /**
+     * Queue a failed event again, behind the room's other pending events.
+     * @param pendingEvent the event
+     * @param callback the new callback. Can be null.
+     */
+    public synchronized void resend(PendingEvent pendingEvent, ApiCallback<Event> callback) {
+        if (pendingEvent.getState() != PendingEvent.State.FAILED) {
+            return;
+        }
+        String roomId = pendingEvent.getEvent().roomId;
+        LinkedHashMap<String, PendingEvent> roomEvents = mPendingEvents.get(roomId);
+        if (roomEvents != null) {
+            roomEvents.remove(pendingEvent.getTxnId());
+        }
+        pendingEvent.setState(PendingEvent.State.QUEUED);
+        pendingEvent.mAttempts = 0;
+        pendingEvent.mCallback = callback;
+        // Saved again so that it moves behind the room's other pending events after a restart too
+        mStore.removePendingEvent(pendingEvent.getTxnId());
+        mStore.storePendingEvent(pendingEvent);
+        add(pendingEvent);
+    }
+
+    /**
+     * Give up on a failed event for good.
+     * @param pendingEvent the event
+     */
+    public synchronized void discard(PendingEvent pendingEvent) {
+        if (pendingEvent.getState() != PendingEvent.State.FAILED) {
+            return;
+        }
+        removePendingEvent(pendingEvent);
+        mStore.removePendingEvent(pendingEvent.getTxnId());
+    }
+
+    /**
+     * Get the events of a room that have not come down the event stream yet, including failed ones.
+     * @param roomId the room id
+     * @return the events, in the order they were posted
+     */
+    public synchronized List<PendingEvent> getPendingEvents(String roomId) {
+        LinkedHashMap<String, PendingEvent> roomEvents = mPendingEvents.get(roomId);
+        return (roomEvents == null) ? new ArrayList<PendingEvent>() : new ArrayList<PendingEvent>(roomEvents.values());
+    }
+
+    /**
+     * Start sending. Called when the initial sync is complete.
+     */
+    @Override
+    public synchronized void onInitialSyncComplete() {
+        if (!mStarted) {
+            mStarted = true;
+            for (String roomId : mRoomQueues.keySet()) {
+                sendHead(roomId);
+            }
+        }
+    }
+
+    @Override
+    public void onLiveEvent(Event event, RoomState roomState) {
+        if ((event.eventId == null) || !mMyUserId.equals(event.userId)) {
+            return;
+        }
+        synchronized (this) {
+            PendingEvent pendingEvent = mAwaitingEcho.remove(event.eventId);
+            if (pendingEvent != null) {
+                removePendingEvent(pendingEvent);
+            }
+            else if (mRoomQueues.containsKey(event.roomId)) {
+                // The response to the send may not be in yet
+                mEarlyEchoes.put(event.eventId, event.eventId);
+            }
+        }
+    }
+
+    private void add(PendingEvent pendingEvent) {
+        String roomId = pendingEvent.getEvent().roomId;
+        addPendingEvent(pendingEvent);
+
+        LinkedList<PendingEvent> queue = mRoomQueues.get(roomId);
+        if (queue == null) {
+            queue = new LinkedList<PendingEvent>();
+            mRoomQueues.put(roomId, queue);
+        }
+        queue.add(pendingEvent);
+        if ((queue.size() == 1) && mStarted) {
+            sendHead(roomId);
+        }
+    }
+
+    private void addPendingEvent(PendingEvent pendingEvent) {
+        String roomId = pendingEvent.getEvent().roomId;
+        LinkedHashMap<String, PendingEvent> roomEvents = mPendingEvents.get(roomId);
+        if (roomEvents == null) {
+            roomEvents = new LinkedHashMap<String, PendingEvent>();
+            mPendingEvents.put(roomId, roomEvents);
+        }
+        roomEvents.put(pendingEvent.getTxnId(), pendingEvent);
+    }
+
+    private void removePendingEvent(PendingEvent pendingEvent) {
+        String roomId = pendingEvent.getEvent().roomId;
+        LinkedHashMap<String, PendingEvent> roomEvents = mPendingEvents.get(roomId);
+        if (roomEvents != null) {
+            roomEvents.remove(pendingEvent.getTxnId());
+            if (roomEvents.isEmpty()) {
+                mPendingEvents.remove(roomId);
+            }
+        }
+    }
+
+    private void sendHead(final String roomId) {
+        LinkedList<PendingEvent> queue = mRoomQueues.get(roomId);
+        final PendingEvent pendingEvent = (queue == null) ? null : queue.peek();
+        if ((pendingEvent == null) || (pendingEvent.getState() == PendingEvent.State.SENDING)) {
+            return;
+        }
+        pendingEvent.setState(PendingEvent.State.SENDING);
+        pendingEvent.mAttempts++;
+
+        Event event = pendingEvent.getEvent();
+        mRestClient.sendEvent(roomId, event.type, pendingEvent.getTxnId(), event.getContent(), new ApiCallback<Event>() {
+            @Override
+            public void onSuccess(Event info) {
+                onSent(pendingEvent, info.eventId);
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                retry(pendingEvent, 0);
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                if (MatrixError.LIMIT_EXCEEDED.equals(e.errcode) || (e.getHttpStatus() == 429)) {
+                    retry(pendingEvent, (e.retryAfterMs == null) ? 0 : e.retryAfterMs);
+                }
+                else if (e.isTemporary() && (pendingEvent.mAttempts < MAX_ATTEMPTS)) {
+                    retry(pendingEvent, 0);
+                }
+                else {
+                    Log.e(LOG_TAG, "Event " + pendingEvent.getTxnId() + " rejected: " + e.error);
+                    onFailed(pendingEvent, e, null);
+                }
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                if (pendingEvent.mAttempts < MAX_ATTEMPTS) {
+                    retry(pendingEvent, 0);
+                }
+                else {
+                    Log.e(LOG_TAG, "Giving up on event " + pendingEvent.getTxnId() + ": " + e.getMessage());
+                    onFailed(pendingEvent, null, e);
+                }
+            }
+        });
+    }
+
+    private void onSent(PendingEvent pendingEvent, String eventId) {
+        String roomId = pendingEvent.getEvent().roomId;
+        synchronized (this) {
+            pendingEvent.getEvent().eventId = eventId;
+            pendingEvent.setState(PendingEvent.State.SENT);
+            mStore.removePendingEvent(pendingEvent.getTxnId());
+            if (mEarlyEchoes.remove(eventId) != null) {
+                removePendingEvent(pendingEvent);
+            }
+            else {
+                mAwaitingEcho.put(eventId, pendingEvent);
+            }
+            sendNext(roomId);
+        }
+        if (pendingEvent.mCallback != null) {
+            pendingEvent.mCallback.onSuccess(pendingEvent.getEvent());
+        }
+    }
+
+    private void onFailed(PendingEvent pendingEvent, MatrixError matrixError, Exception exception) {
+        synchronized (this) {
+            pendingEvent.setState(PendingEvent.State.FAILED);
+            mStore.storePendingEvent(pendingEvent);
+            sendNext(pendingEvent.getEvent().roomId);
+        }
+        ApiCallback<Event> callback = pendingEvent.mCallback;
+        if (callback != null) {
+            if (matrixError != null) {
+                callback.onMatrixError(matrixError);
+            }
+            else {
+                callback.onUnexpectedError(exception);
+            }
+        }
+    }
+
+    /**
+     * Send the head of the room's queue again after a delay, which increases with each attempt.
+     * @param pendingEvent the event
+     * @param minDelay the delay the server asked for, in ms; 0 if none
+     */
+    private void retry(final PendingEvent pendingEvent, long minDelay) {
+        long delay = Math.min(FIRST_RETRY_DELAY_MS << Math.min(pendingEvent.mAttempts - 1, 16), MAX_RETRY_DELAY_MS);
+        delay = Math.max(delay, minDelay);
+        Log.i(LOG_TAG, "Retrying event " + pendingEvent.getTxnId() + " in " + delay + "ms");
+        synchronized (this) {
+            pendingEvent.setState(PendingEvent.State.QUEUED);
+        }
+        mRetryExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (OutgoingEventQueue.this) {
+                    sendHead(pendingEvent.getEvent().roomId);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // Remove the head of the room's queue and send the next event, if any
+    private void sendNext(String roomId) {
+        LinkedList<PendingEvent> queue = mRoomQueues.get(roomId);
+        queue.poll();
+        if (queue.isEmpty()) {
+            mRoomQueues.remove(roomId);
+        }
+        else {
+            sendHead(roomId);
+        }
+    }
+}
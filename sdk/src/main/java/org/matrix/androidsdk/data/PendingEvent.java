@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data;
+
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.model.Event;
+
+/**
+ * An event posted by the user that has not come back down the event stream yet.
+ * Its event can be displayed as a local echo in the meantime.
+ */
+public class PendingEvent {
+
+    public enum State {
+        QUEUED, // Waiting for the events before it in the room, or for a retry
+        SENDING, // Request in flight
+        SENT, // Accepted by the server, waiting for the echo
+        FAILED // Rejected by the server, or given up on
+    }
+
+    private String mTxnId;
+    private Event mEvent;
+    private volatile State mState = State.QUEUED;
+
+    // Only set for events queued by this process
+    ApiCallback<Event> mCallback;
+    int mAttempts = 0;
+
+    /**
+     * Constructor.
+     * @param txnId the transaction id the event is sent with
+     * @param event the event; its event id is set once it is sent
+     */
+    public PendingEvent(String txnId, Event event) {
+        mTxnId = txnId;
+        mEvent = event;
+    }
+
+    public String getTxnId() {
+        return mTxnId;
+    }
+
+    public Event getEvent() {
+        return mEvent;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    void setState(State state) {
+        mState = state;
+    }
+}
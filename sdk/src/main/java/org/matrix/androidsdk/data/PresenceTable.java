@@ -0,0 +1,144 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data;
+
+import org.matrix.androidsdk.rest.model.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The latest presence of each user, kept compactly: a row per user, with the presence as an index
+ * into a table of interned presence strings and the times as primitives.
+ * <p>Presence is sent for every user the account knows of, again and again, so the row of a user is
+ * updated in place and the presence strings are shared rather than decoded anew each time.</p>
+ */
+public class PresenceTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+    // A row with no last active time
+    private static final long UNKNOWN = -1;
+
+    // The distinct presence strings; index 0 stands for none
+    private final List<String> mPresences = new ArrayList<String>();
+    private final Map<String, Short> mPresenceIndexes = new HashMap<String, Short>();
+
+    private final Map<String, Integer> mRows = new HashMap<String, Integer>();
+    private short[] mPresence = new short[INITIAL_CAPACITY];
+    private long[] mLastActiveAgo = new long[INITIAL_CAPACITY];
+    // When the last active time was received, to age it
+    private long[] mReceivedTs = new long[INITIAL_CAPACITY];
+
+    public PresenceTable() {
+        mPresences.add(null);
+        intern(User.PRESENCE_ONLINE);
+        intern(User.PRESENCE_UNAVAILABLE);
+        intern(User.PRESENCE_OFFLINE);
+        intern(User.PRESENCE_FREE_FOR_CHAT);
+        intern(User.PRESENCE_HIDDEN);
+    }
+
+    /**
+     * Get the shared instance of a presence string.
+     * @param presence the presence
+     * @return an equal string, the same instance for every call
+     */
+    public synchronized String intern(String presence) {
+        return mPresences.get(indexOf(presence));
+    }
+
+    /**
+     * Update the presence of a user.
+     * @param userId the user id
+     * @param presence the presence; null if unknown
+     * @param lastActiveAgo how long ago the user was last active, in ms; null if unknown
+     * @param receivedTs when the update was received
+     * @return true if the user is new or their presence changed; false if only their last active time changed
+     */
+    public synchronized boolean update(String userId, String presence, Long lastActiveAgo, long receivedTs) {
+        short presenceIndex = indexOf(presence);
+        Integer row = mRows.get(userId);
+        boolean changed;
+        if (row == null) {
+            row = mRows.size();
+            if (row == mPresence.length) {
+                int capacity = row * 2;
+                mPresence = Arrays.copyOf(mPresence, capacity);
+                mLastActiveAgo = Arrays.copyOf(mLastActiveAgo, capacity);
+                mReceivedTs = Arrays.copyOf(mReceivedTs, capacity);
+            }
+            mRows.put(userId, row);
+            changed = true;
+        }
+        else {
+            changed = (mPresence[row] != presenceIndex);
+        }
+        mPresence[row] = presenceIndex;
+        mLastActiveAgo[row] = (lastActiveAgo == null) ? UNKNOWN : lastActiveAgo;
+        mReceivedTs[row] = receivedTs;
+        return changed;
+    }
+
+    /**
+     * @param userId the user id
+     * @return the user's presence, or null if unknown
+     */
+    public synchronized String getPresence(String userId) {
+        Integer row = mRows.get(userId);
+        return (row == null) ? null : mPresences.get(mPresence[row]);
+    }
+
+    /**
+     * Get how long ago a user was last active: the time given by the server plus the time since it was received.
+     * @param userId the user id
+     * @param now the current time
+     * @return the time in ms, or null if unknown
+     */
+    public synchronized Long getRealLastActiveAgo(String userId, long now) {
+        Integer row = mRows.get(userId);
+        if ((row == null) || (mLastActiveAgo[row] == UNKNOWN)) {
+            return null;
+        }
+        return mLastActiveAgo[row] + now - mReceivedTs[row];
+    }
+
+    /**
+     * @return the number of users in the table
+     */
+    public synchronized int size() {
+        return mRows.size();
+    }
+
+    private short indexOf(String presence) {
+        if (presence == null) {
+            return 0;
+        }
+        Short index = mPresenceIndexes.get(presence);
+        if (index == null) {
+            if (mPresences.size() > Short.MAX_VALUE) {
+                // Not a presence the spec knows of anyway
+                return 0;
+            }
+            index = (short) mPresences.size();
+            mPresences.add(presence);
+            mPresenceIndexes.put(presence, index);
+        }
+        return index;
+    }
+}
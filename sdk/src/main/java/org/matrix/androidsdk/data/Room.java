@@ -72,10 +72,11 @@ public class Room {
     // This is needed to find the right one when removing the listener.
     private Map<IMXEventListener, IMXEventListener> mEventListeners = new HashMap<IMXEventListener, IMXEventListener>();
 
-    private boolean isPaginating = false;
-    private boolean canStillPaginate = true;
+    // Set on the thread the history comes back on, read on the one requesting it
+    private volatile boolean isPaginating = false;
+    private volatile boolean canStillPaginate = true;
     // This is used to block live events and history requests until the state is fully processed and ready
-    private boolean isReady = false;
+    private volatile boolean isReady = false;
 
     public String getRoomId() {
         return this.mRoomId;
@@ -103,6 +104,13 @@ public class Room {
         return mLiveState.getMember(userId);
     }
 
+    /**
+     * @return the number of members who have joined the room, from the live state
+     */
+    public int getJoinedMemberCount() {
+        return mLiveState.getJoinedMemberCount();
+    }
+
     public String getTopic() {
         return this.mLiveState.topic;
     }
@@ -140,34 +148,47 @@ public class Room {
      * @param eventListener the event listener to add
      */
     public void addEventListener(final IMXEventListener eventListener) {
-        // Create a global listener that we'll add to the data handler
-        IMXEventListener globalListener = new MXEventListener() {
+        // Create a wrapper that we'll register to the data handler for this room
+        IMXEventListener roomListener = new MXEventListener() {
             @Override
             public void onPresenceUpdate(Event event, User user) {
-                // Only pass event through if the user is a member of the room
-                if (getMember(user.userId) != null) {
-                    eventListener.onPresenceUpdate(event, user);
-                }
+                eventListener.onPresenceUpdate(event, user);
+            }
+
+            @Override
+            public void onPresenceUpdates(List<Event> events, List<User> users) {
+                eventListener.onPresenceUpdates(events, users);
             }
 
             @Override
             public void onLiveEvent(Event event, RoomState roomState) {
-                // Filter out events for other rooms and events while we are joining (before the room is ready)
-                if (mRoomId.equals(event.roomId) && isReady) {
+                // Filter out events while we are joining (before the room is ready)
+                if (isReady) {
                     eventListener.onLiveEvent(event, roomState);
                 }
             }
 
+            @Override
+            public void onLiveEvents(List<Event> events, List<RoomState> roomStates) {
+                if (isReady) {
+                    eventListener.onLiveEvents(events, roomStates);
+                }
+            }
+
             @Override
             public void onBackEvent(Event event, RoomState roomState) {
-                // Filter out events for other rooms
-                if (mRoomId.equals(event.roomId)) {
-                    eventListener.onBackEvent(event, roomState);
+                eventListener.onBackEvent(event, roomState);
+            }
+
+            @Override
+            public void onTypingUpdate(String roomId, List<String> typingUserIds) {
+                if (isReady) {
+                    eventListener.onTypingUpdate(roomId, typingUserIds);
                 }
             }
         };
-        mEventListeners.put(eventListener, globalListener);
-        mDataHandler.addListener(globalListener);
+        mEventListeners.put(eventListener, roomListener);
+        mDataHandler.addRoomListener(mRoomId, roomListener);
     }
 
     /**
@@ -175,7 +196,7 @@ public class Room {
      * @param eventListener the event listener to remove
      */
     public void removeEventListener(IMXEventListener eventListener) {
-        mDataHandler.removeListener(mEventListeners.get(eventListener));
+        mDataHandler.removeRoomListener(mRoomId, mEventListeners.get(eventListener));
         mEventListeners.remove(eventListener);
     }
 
@@ -184,7 +205,7 @@ public class Room {
      * Must be called when opening a room if interested in history.
      */
     public void initHistory() {
-        mBackState = mLiveState.deepCopy();
+        mBackState = mLiveState.snapshot();
         canStillPaginate = true;
     }
 
@@ -198,6 +219,16 @@ public class Room {
         affectedState.applyState(event, direction);
     }
 
+    /**
+     * Restore the live state of a room saved by a persistent store. The room is then ready to pass on events.
+     * @param liveState the saved live state
+     */
+    void restoreLiveState(RoomState liveState) {
+        mLiveState = liveState;
+        mLiveState.roomId = mRoomId;
+        isReady = true;
+    }
+
     /**
      * Process the live state events for the room. Only once this is done is the room considered ready to pass on events.
      * @param stateEvents the state events describing the state of the room
@@ -210,12 +241,39 @@ public class Room {
     }
 
     /**
-     * Send a message to the room.
+     * Send a message to the room. Messages are sent in order and retried on errors; see {@link OutgoingEventQueue}.
      * @param message the message
      * @param callback the callback with the created event
+     * @return the pending event, to display as a local echo
+     */
+    public PendingEvent sendMessage(Message message, ApiCallback<Event> callback) {
+        return mDataHandler.getOutgoingEventQueue().send(mRoomId, Event.EVENT_TYPE_MESSAGE, JsonUtils.toJson(message), callback);
+    }
+
+    /**
+     * Send a message that failed again.
+     * @param pendingEvent the pending event returned when it was first sent
+     * @param callback the callback with the created event
+     */
+    public void resend(PendingEvent pendingEvent, ApiCallback<Event> callback) {
+        mDataHandler.getOutgoingEventQueue().resend(pendingEvent, callback);
+    }
+
+    /**
+     * Give up on a message that failed, so that it is no longer kept or listed.
+     * @param pendingEvent the pending event returned when it was first sent
+     */
+    public void discard(PendingEvent pendingEvent) {
+        mDataHandler.getOutgoingEventQueue().discard(pendingEvent);
+    }
+
+    /**
+     * Get the messages sent to the room that have not come down the event stream yet, including
+     * those left by a previous run and those that failed.
+     * @return the pending events, in the order they were sent
      */
-    public void sendMessage(Message message, ApiCallback<Event> callback) {
-        mDataRetriever.getRoomsRestClient().sendMessage(mRoomId, message, callback);
+    public List<PendingEvent> getPendingEvents() {
+        return mDataHandler.getOutgoingEventQueue().getPendingEvents(mRoomId);
     }
 
     /**
@@ -237,7 +295,7 @@ public class Room {
                     if (event.stateKey != null) {
                         processStateEvent(event, EventDirection.BACKWARDS);
                     }
-                    mDataHandler.onBackEvent(event, mBackState.deepCopy());
+                    mDataHandler.onBackEvent(event, mBackState.snapshot());
                 }
                 if (response.chunk.size() == 0) {
                     canStillPaginate = false;
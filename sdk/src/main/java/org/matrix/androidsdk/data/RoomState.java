@@ -24,16 +24,19 @@ import org.matrix.androidsdk.rest.model.PowerLevels;
 import org.matrix.androidsdk.rest.model.RoomMember;
 import org.matrix.androidsdk.rest.model.User;
 import org.matrix.androidsdk.util.JsonUtils;
+import org.matrix.androidsdk.util.PersistentHashMap;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 /**
  * The state of a room.
+ * <p>Members are kept in a persistent map so that {@link #snapshot()} is cheap: a snapshot shares the
+ * member map with the state it was taken from, and applying a state event only copies the part of the
+ * map it changes. RoomMember and PowerLevels objects are shared between snapshots and must be treated
+ * as read-only; state changes replace them instead.</p>
  */
 public class RoomState {
     public static final String VISIBILITY_PRIVATE = "private";
@@ -50,8 +53,97 @@ public class RoomState {
     public List<String> aliases;
 
     private String token;
-    private Map<String, RoomMember> mMembers = new HashMap<String, RoomMember>();
+    private PersistentHashMap<String, RoomMember> mMembers = PersistentHashMap.empty();
     private PowerLevels powerLevels;
+    // Members by membership, kept up to date by setMember and removeMember
+    private int mJoinedCount;
+    private int mInvitedCount;
+    private int mLeftCount;
+    private int mBannedCount;
+
+    /**
+     * A display name and what it was computed from. Changes to the fields it depends on replace
+     * them (the member map included), so comparing references tells if it is stale.
+     */
+    private static final class DisplayName {
+        final String displayName;
+        final String selfUserId;
+        final String roomId;
+        final String name;
+        final List<String> aliases;
+        final String visibility;
+        final PersistentHashMap<String, RoomMember> members;
+
+        DisplayName(String selfUserId, RoomState state) {
+            this.selfUserId = selfUserId;
+            roomId = state.roomId;
+            name = state.name;
+            aliases = state.aliases;
+            visibility = state.visibility;
+            members = state.mMembers;
+            // From the fields read above, in case the state changes meanwhile
+            displayName = build();
+        }
+
+        private String build() {
+            String displayName = null, alias = null;
+
+            if ((aliases != null) && (aliases.size() != 0)) {
+                alias = aliases.get(0);
+            }
+
+            if (name != null) {
+                displayName = name;
+            }
+            else if (alias != null) {
+                displayName = alias;
+            }
+
+            else if (VISIBILITY_PRIVATE.equals(visibility)) {
+                Map.Entry<String, RoomMember> otherUserPair = null;
+                // A One2One private room can default to being called like the other guy
+                if ((members.size() == 2) && (selfUserId != null)) {
+                    for (Map.Entry<String, RoomMember> pair : members.entrySet()) {
+                        if (!selfUserId.equals(pair.getKey())) {
+                            otherUserPair = pair;
+                            break;
+                        }
+                    }
+                }
+                // A private room with just one user (probably you) can be shown as the name of the user
+                else if (members.size() == 1) {
+                    otherUserPair = members.entrySet().iterator().next();
+                }
+
+                if (otherUserPair != null) {
+                    if (otherUserPair.getValue().getName() != null) {
+                        displayName = otherUserPair.getValue().getName(); // The member name
+                    } else {
+                        displayName = otherUserPair.getKey(); // The user id
+                    }
+                }
+            }
+
+            if ((displayName != null) && (alias != null) && !displayName.equals(alias)) {
+                displayName += " (" + alias + ")";
+            }
+
+            if (displayName == null) {
+                displayName = roomId;
+            }
+
+            return displayName;
+        }
+
+        boolean isValidFor(String selfUserId, RoomState state) {
+            return (roomId == state.roomId) && (name == state.name) && (aliases == state.aliases)
+                    && (visibility == state.visibility) && (members == state.mMembers)
+                    && ((selfUserId == null) ? (this.selfUserId == null) : selfUserId.equals(this.selfUserId));
+        }
+    }
+
+    // Set as a whole, so that readers on other threads see a consistent one
+    private volatile DisplayName mDisplayName;
 
     public String getToken() {
         return token;
@@ -70,15 +162,75 @@ public class RoomState {
         if (member.getUserId() == null) {
             member.setUserId(userId);
         }
-        mMembers.put(userId, member);
+        RoomMember previous = mMembers.get(userId);
+        if (previous != null) {
+            countMembership(previous.membership, -1);
+        }
+        countMembership(member.membership, 1);
+        mMembers = mMembers.plus(userId, member);
     }
 
     public RoomMember getMember(String userId) {
         return mMembers.get(userId);
     }
 
+    /**
+     * @return the members by user id. The map is replaced whenever a member changes, so it can be
+     *         compared by reference with one from an earlier snapshot.
+     */
+    PersistentHashMap<String, RoomMember> getMemberMap() {
+        return mMembers;
+    }
+
     public void removeMember(String userId) {
-        mMembers.remove(userId);
+        RoomMember previous = mMembers.get(userId);
+        if (previous != null) {
+            countMembership(previous.membership, -1);
+            mMembers = mMembers.minus(userId);
+        }
+    }
+
+    /**
+     * @return the number of members who have joined the room
+     */
+    public int getJoinedMemberCount() {
+        return mJoinedCount;
+    }
+
+    /**
+     * @return the number of members who are invited to the room
+     */
+    public int getInvitedMemberCount() {
+        return mInvitedCount;
+    }
+
+    /**
+     * @return the number of members who have left the room
+     */
+    public int getLeftMemberCount() {
+        return mLeftCount;
+    }
+
+    /**
+     * @return the number of members who are banned from the room
+     */
+    public int getBannedMemberCount() {
+        return mBannedCount;
+    }
+
+    private void countMembership(String membership, int delta) {
+        if (RoomMember.MEMBERSHIP_JOIN.equals(membership)) {
+            mJoinedCount += delta;
+        }
+        else if (RoomMember.MEMBERSHIP_INVITE.equals(membership)) {
+            mInvitedCount += delta;
+        }
+        else if (RoomMember.MEMBERSHIP_LEAVE.equals(membership)) {
+            mLeftCount += delta;
+        }
+        else if (RoomMember.MEMBERSHIP_BAN.equals(membership)) {
+            mBannedCount += delta;
+        }
     }
 
     public PowerLevels getPowerLevels() {
@@ -90,7 +242,37 @@ public class RoomState {
     }
 
     /**
-     * Make a deep copy of this room state object.
+     * Take a snapshot of this room state, e.g. to pass along with an event.
+     * This is O(1): the members and power levels are shared with this object rather than copied.
+     * Later changes to this state do not affect the snapshot, and vice versa.
+     * As with {@link #deepCopy()}, the pagination token is not carried over.
+     * @return the snapshot
+     */
+    public RoomState snapshot() {
+        RoomState copy = new RoomState();
+        copy.roomId = roomId;
+        copy.name = name;
+        copy.topic = topic;
+        copy.roomAliasName = roomAliasName;
+        copy.visibility = visibility;
+        copy.creator = creator;
+        copy.joinRule = joinRule;
+        // applyState replaces the aliases list rather than modifying it
+        copy.aliases = aliases;
+        copy.mMembers = mMembers;
+        copy.mJoinedCount = mJoinedCount;
+        copy.mInvitedCount = mInvitedCount;
+        copy.mLeftCount = mLeftCount;
+        copy.mBannedCount = mBannedCount;
+        copy.powerLevels = powerLevels;
+        // Computed from the same fields, so still valid
+        copy.mDisplayName = mDisplayName;
+        return copy;
+    }
+
+    /**
+     * Make a deep copy of this room state object, including copies of every member.
+     * Prefer {@link #snapshot()} unless the members are going to be modified.
      * @return the copy
      */
     public RoomState deepCopy() {
@@ -104,9 +286,7 @@ public class RoomState {
         copy.joinRule = joinRule;
         copy.aliases = (aliases == null) ? null : new ArrayList<String>(aliases);
 
-        Iterator it = mMembers.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, RoomMember> pair = (Map.Entry<String, RoomMember>) it.next();
+        for (Map.Entry<String, RoomMember> pair : mMembers.entrySet()) {
             copy.setMember(pair.getKey(), pair.getValue().deepCopy());
         }
 
@@ -116,60 +296,18 @@ public class RoomState {
     }
 
     /**
-     * Build and return the room's display name.
+     * Get the room's display name. It is kept until the name, aliases, visibility or members change,
+     * so this is O(1) for all but the first call after such a change.
      * @param selfUserId this user's user id (to exclude from members)
      * @return the display name
      */
     public String getDisplayName(String selfUserId) {
-        String displayName = null, alias = null;
-
-        if ((aliases != null) && (aliases.size() != 0)) {
-            alias = aliases.get(0);
-        }
-
-        if (name != null) {
-            displayName = name;
-        }
-        else if (alias != null) {
-            displayName = alias;
-        }
-
-        else if (VISIBILITY_PRIVATE.equals(visibility)) {
-            Iterator it = mMembers.entrySet().iterator();
-            Map.Entry<String, RoomMember> otherUserPair = null;
-            // A One2One private room can default to being called like the other guy
-            if ((mMembers.size() == 2) && (selfUserId != null)) {
-                while (it.hasNext()) {
-                    Map.Entry<String, RoomMember> pair = (Map.Entry<String, RoomMember>) it.next();
-                    if (!selfUserId.equals(pair.getKey())) {
-                        otherUserPair = pair;
-                        break;
-                    }
-                }
-            }
-            // A private room with just one user (probably you) can be shown as the name of the user
-            else if (mMembers.size() == 1) {
-                otherUserPair = (Map.Entry<String, RoomMember>) it.next();
-            }
-
-            if (otherUserPair != null) {
-                if (otherUserPair.getValue().getName() != null) {
-                    displayName = otherUserPair.getValue().getName(); // The member name
-                } else {
-                    displayName = otherUserPair.getKey(); // The user id
-                }
-            }
+        DisplayName displayName = mDisplayName;
+        if ((displayName == null) || !displayName.isValidFor(selfUserId, this)) {
+            displayName = new DisplayName(selfUserId, this);
+            mDisplayName = displayName;
         }
-
-        if ((displayName != null) && (alias != null) && !displayName.equals(alias)) {
-            displayName += " (" + alias + ")";
-        }
-
-        if (displayName == null) {
-            displayName = roomId;
-        }
-
-        return displayName;
+        return displayName.displayName;
     }
 
     /**
@@ -180,7 +318,7 @@ public class RoomState {
     public void applyState(Event event, Room.EventDirection direction) {
         if (event.stateKey == null) return; // Ignore non-state events
 
-        JsonObject contentToConsider = (direction == Room.EventDirection.FORWARDS) ? event.content : event.prevContent;
+        JsonObject contentToConsider = (direction == Room.EventDirection.FORWARDS) ? event.getContent() : event.getPrevContent();
 
         if (Event.EVENT_TYPE_STATE_ROOM_NAME.equals(event.type)) {
             RoomState roomState = JsonUtils.toRoomState(contentToConsider);
@@ -203,7 +341,9 @@ public class RoomState {
             aliases = (roomState == null) ? null : roomState.aliases;
         }
         else if (Event.EVENT_TYPE_STATE_ROOM_MEMBER.equals(event.type)) {
-            RoomMember member = JsonUtils.toRoomMember(contentToConsider);
+            // Either way the member is a new object, which the state can keep
+            RoomMember member = (direction == Room.EventDirection.FORWARDS)
+                    ? event.getContentAsRoomMember() : JsonUtils.toRoomMember(contentToConsider);
             String userId = event.stateKey;
             if (member == null) {
                 removeMember(userId);
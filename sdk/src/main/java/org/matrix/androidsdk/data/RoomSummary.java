@@ -15,6 +15,8 @@ public class RoomSummary {
     private String mName;
     private String mTopic;
     private int mNumMembers;
+    private int mNumJoinedMembers;
+    private int mNumInvitedMembers;
     private Event mLatestEvent;
     private RoomState mLatestRoomState;
     private Collection<RoomMember> mMembers;
@@ -47,6 +49,14 @@ public class RoomSummary {
         return mNumMembers;
     }
 
+    public int getNumJoinedMembers() {
+        return mNumJoinedMembers;
+    }
+
+    public int getNumInvitedMembers() {
+        return mNumInvitedMembers;
+    }
+
     public Event getLatestEvent() {
         return mLatestEvent;
     }
@@ -89,6 +99,19 @@ public class RoomSummary {
         return this;
     }
 
+    /**
+     * Set the room's members and their counts from a room state, without going through the members.
+     * @param roomState the room state
+     * @return This summary for chaining calls.
+     */
+    public RoomSummary setMembers(RoomState roomState) {
+        mMembers = roomState.getMembers();
+        mNumMembers = mMembers.size();
+        mNumJoinedMembers = roomState.getJoinedMemberCount();
+        mNumInvitedMembers = roomState.getInvitedMemberCount();
+        return this;
+    }
+
     /**
      * Set the room's {@link org.matrix.androidsdk.rest.model.Event#EVENT_TYPE_STATE_ROOM_TOPIC}.
      * @param topic The topic
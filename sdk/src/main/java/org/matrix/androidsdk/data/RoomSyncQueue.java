@@ -0,0 +1,286 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data;
+
+import org.matrix.androidsdk.RestClient;
+import org.matrix.androidsdk.listeners.MXEventListener;
+import org.matrix.androidsdk.rest.callback.ApiCallback;
+import org.matrix.androidsdk.rest.client.EventsRestClient;
+import org.matrix.androidsdk.rest.model.MatrixError;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads the messages of rooms with room initial syncs, after a global initial sync that only got what
+ * the room list shows.
+ * <ul>
+ * <li>A room is synced the first time it is asked for, unless the store already has a page of its latest
+ * messages, e.g. from a previous run. The store is looked at on a background thread. A failed sync is done
+ * again the next time.</li>
+ * <li>Rooms the user opens go before the most recent rooms, which are preloaded once the initial sync is complete.</li>
+ * <li>A few rooms are synced at the same time; the others wait their turn.</li>
+ * </ul>
+ * Until it is enabled, rooms are taken to have been synced by the global initial sync.
+ */
+public class RoomSyncQueue extends MXEventListener {
+
+    private static final int DEFAULT_MAX_CONCURRENT_SYNCS = 2;
+
+    private IMXStore mStore;
+    private Executor mExecutor;
+    private int mMaxConcurrentSyncs;
+    private boolean mEnabled = false;
+    private int mPreloadCount = 0;
+    private boolean mPreloaded = false;
+
+    // Rooms waiting to be synced, those asked for by the user first
+    private LinkedList<Room> mQueue = new LinkedList<Room>();
+    // room id -> the callbacks of a room waiting or being synced
+    private Map<String, List<ApiCallback<Void>>> mCallbacks = new HashMap<String, List<ApiCallback<Void>>>();
+    // Rooms synced by this run, including those with too few messages for the store to tell,
+    // and those the store was found to have
+    private Set<String> mSynced = new HashSet<String>();
+    private int mRunning = 0;
+
+    /**
+     * Constructor.
+     * @param store the store to find the rooms to preload in
+     */
+    public RoomSyncQueue(IMXStore store) {
+        this(store, DEFAULT_MAX_CONCURRENT_SYNCS, RestClient.getDefaultCallbackExecutor());
+    }
+
+    RoomSyncQueue(IMXStore store, int maxConcurrentSyncs, Executor executor) {
+        mStore = store;
+        mMaxConcurrentSyncs = maxConcurrentSyncs;
+        mExecutor = executor;
+    }
+
+    /**
+     * Sync rooms as they are asked for. To be called when the global initial sync only gets the latest
+     * event of each room.
+     * @param preloadCount the number of most recent rooms to sync once the initial sync is complete
+     */
+    public synchronized void enable(int preloadCount) {
+        mEnabled = true;
+        mPreloadCount = preloadCount;
+    }
+
+    /**
+     * @param roomId the room id
+     * @return true if the room is known not to need syncing; the store is not looked at
+     */
+    public synchronized boolean isSynced(String roomId) {
+        return !mEnabled || mSynced.contains(roomId);
+    }
+
+    /**
+     * Returns whether the store has as many of a room's latest messages as an initial sync with messages
+     * gets, with no gap in between. Queries the store, so it is not called on the main thread or under the lock.
+     * @param roomId the room id
+     * @return true if the room has been synced before
+     */
+    private boolean hasStoredMessages(String roomId) {
+        int limit = EventsRestClient.INITIAL_SYNC_MESSAGES_LIMIT;
+        return mStore.countLatestRoomEvents(roomId, limit) >= limit;
+    }
+
+    /**
+     * Sync a room the user is opening, before the rooms being preloaded.
+     * @param room the room
+     * @param callback called once the room is synced, straight away if it is known to be. Can be null.
+     */
+    public void syncRoom(final Room room, final ApiCallback<Void> callback) {
+        boolean knownSynced;
+        synchronized (this) {
+            knownSynced = isSynced(room.getRoomId());
+            if (!knownSynced && mCallbacks.containsKey(room.getRoomId())) {
+                // Already waiting or being synced
+                enqueue(room, callback, true);
+                return;
+            }
+        }
+        if (knownSynced) {
+            if (callback != null) {
+                callback.onSuccess(null);
+            }
+            return;
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean stored = hasStoredMessages(room.getRoomId());
+                boolean synced;
+                synchronized (RoomSyncQueue.this) {
+                    if (stored) {
+                        mSynced.add(room.getRoomId());
+                    }
+                    synced = isSynced(room.getRoomId());
+                    if (!synced) {
+                        enqueue(room, callback, true);
+                    }
+                }
+                if (synced) {
+                    if (callback != null) {
+                        callback.onSuccess(null);
+                    }
+                }
+                else {
+                    startSyncs();
+                }
+            }
+        });
+    }
+
+    /**
+     * Preload the most recent rooms once the initial sync is complete.
+     */
+    @Override
+    public void onInitialSyncComplete() {
+        List<Room> rooms = new ArrayList<Room>();
+        synchronized (this) {
+            if (!mEnabled || mPreloaded) {
+                return;
+            }
+            mPreloaded = true;
+
+            List<RoomSummary> summaries = new ArrayList<RoomSummary>(mStore.getSummaries());
+            Collections.sort(summaries, new Comparator<RoomSummary>() {
+                @Override
+                public int compare(RoomSummary lhs, RoomSummary rhs) {
+                    long lhsTs = (lhs.getLatestEvent() == null) ? 0 : lhs.getLatestEvent().originServerTs;
+                    long rhsTs = (rhs.getLatestEvent() == null) ? 0 : rhs.getLatestEvent().originServerTs;
+                    return (lhsTs > rhsTs) ? -1 : ((lhsTs < rhsTs) ? 1 : 0);
+                }
+            });
+            for (RoomSummary summary : summaries.subList(0, Math.min(mPreloadCount, summaries.size()))) {
+                Room room = mStore.getRoom(summary.getRoomId());
+                if ((room != null) && !isSynced(room.getRoomId())) {
+                    rooms.add(room);
+                }
+            }
+        }
+
+        // Called on the events thread, so the store can be looked at here
+        for (Room room : rooms) {
+            boolean stored = hasStoredMessages(room.getRoomId());
+            synchronized (this) {
+                if (stored) {
+                    mSynced.add(room.getRoomId());
+                }
+                else if (!isSynced(room.getRoomId())) {
+                    enqueue(room, null, false);
+                }
+            }
+        }
+        startSyncs();
+    }
+
+    private void enqueue(Room room, ApiCallback<Void> callback, boolean first) {
+        List<ApiCallback<Void>> callbacks = mCallbacks.get(room.getRoomId());
+        if (callbacks == null) {
+            callbacks = new ArrayList<ApiCallback<Void>>();
+            mCallbacks.put(room.getRoomId(), callbacks);
+            if (first) {
+                mQueue.addFirst(room);
+            }
+            else {
+                mQueue.addLast(room);
+            }
+        }
+        else if (first && mQueue.remove(room)) {
+            // Waiting to be preloaded: move it up
+            mQueue.addFirst(room);
+        }
+        if (callback != null) {
+            callbacks.add(callback);
+        }
+    }
+
+    private void startSyncs() {
+        List<Room> rooms = new ArrayList<Room>();
+        synchronized (this) {
+            while ((mRunning < mMaxConcurrentSyncs) && !mQueue.isEmpty()) {
+                rooms.add(mQueue.removeFirst());
+                mRunning++;
+            }
+        }
+        for (Room room : rooms) {
+            sync(room);
+        }
+    }
+
+    private void sync(final Room room) {
+        room.initialSync(new ApiCallback<Void>() {
+            @Override
+            public void onSuccess(Void info) {
+                for (ApiCallback<Void> callback : done(room, true)) {
+                    callback.onSuccess(info);
+                }
+            }
+
+            @Override
+            public void onNetworkError(Exception e) {
+                for (ApiCallback<Void> callback : done(room, false)) {
+                    callback.onNetworkError(e);
+                }
+            }
+
+            @Override
+            public void onMatrixError(MatrixError e) {
+                for (ApiCallback<Void> callback : done(room, false)) {
+                    callback.onMatrixError(e);
+                }
+            }
+
+            @Override
+            public void onUnexpectedError(Exception e) {
+                for (ApiCallback<Void> callback : done(room, false)) {
+                    callback.onUnexpectedError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Called when a room sync is over, to start the next one.
+     * @param room the room
+     * @param synced whether the sync succeeded
+     * @return the callbacks of the room
+     */
+    private List<ApiCallback<Void>> done(Room room, boolean synced) {
+        List<ApiCallback<Void>> callbacks;
+        synchronized (this) {
+            mRunning--;
+            if (synced) {
+                mSynced.add(room.getRoomId());
+            }
+            callbacks = mCallbacks.remove(room.getRoomId());
+        }
+        startSyncs();
+        return callbacks;
+    }
+}
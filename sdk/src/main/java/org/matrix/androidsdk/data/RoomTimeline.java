@@ -0,0 +1,363 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.data;
+
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.TokensChunkResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The stored events of a room, in the order they happened, with the pagination tokens pointing into them,
+ * so that history already fetched is paginated through again without going to the server.
+ * <p>Each event has an ordering. Live events count up; events from back pagination count down from the
+ * position they were paginated from. A sync that does not connect with the events already stored starts
+ * a new run of events well above them, leaving room for the gap in between to be filled by pagination.</p>
+ * <p>A token sits at an ordering, between the events before it and those from it on. It is a gap if the
+ * events just before it are not stored, so paginating from it must go to the server.</p>
+ * <p>Subclasses hold the events themselves.</p>
+ */
+abstract class RoomTimeline {
+
+    // Room left under a new run of events for the gap before it
+    static final long GAP = 1L << 32;
+
+    /**
+     * A pagination token and where it points.
+     */
+    static class Token {
+        final String token;
+        final long ordering;
+        boolean gap;
+
+        Token(String token, long ordering, boolean gap) {
+            this.token = token;
+            this.ordering = ordering;
+            this.gap = gap;
+        }
+    }
+
+    private final Map<String, Token> mTokens = new HashMap<String, Token>();
+    // The token at each ordering, to find where a page ends
+    private final TreeMap<Long, Token> mTokensByOrdering = new TreeMap<Long, Token>();
+    // One more than the highest ordering
+    private long mTop;
+    // Whether the room has been synced, and so live events are stored
+    private boolean mSynced = false;
+
+    /**
+     * Get the ordering of a stored event.
+     * @param eventId the event id
+     * @return its ordering, or null if it is not stored
+     */
+    protected abstract Long getOrdering(String eventId);
+
+    /**
+     * Store an event.
+     * @param event the event
+     * @param ordering its ordering
+     */
+    protected abstract void insert(Event event, long ordering);
+
+    /**
+     * Get stored events, most recent first.
+     * @param fromOrdering the lowest ordering, included
+     * @param toOrdering the highest ordering, excluded
+     * @return the events
+     */
+    protected abstract List<Event> getEvents(long fromOrdering, long toOrdering);
+
+    /**
+     * Count stored events.
+     * @param fromOrdering the lowest ordering, included
+     * @param toOrdering the highest ordering, excluded
+     * @return the number of events
+     */
+    protected abstract int countEvents(long fromOrdering, long toOrdering);
+
+    /**
+     * Remove stored events, and any saved tokens, before an ordering.
+     * @param ordering the ordering to remove the events before
+     * @return the number of events removed
+     */
+    protected abstract int removeEventsBefore(long ordering);
+
+    /**
+     * Called when a token is added or has changed, for subclasses to save it.
+     * @param token the token
+     */
+    protected void onTokenChanged(Token token) {
+    }
+
+    /**
+     * Set things back up from saved data.
+     * @param tokens the tokens
+     * @param top one more than the highest ordering of the stored events
+     */
+    protected synchronized void restore(List<Token> tokens, long top) {
+        mTop = top;
+        for (Token token : tokens) {
+            addToken(token);
+            mTop = Math.max(mTop, token.ordering);
+        }
+        mSynced = !tokens.isEmpty();
+    }
+
+    /**
+     * Add a live event after the others. Until the room has been synced, there is no pagination token to
+     * go back from it, so it is not stored.
+     * @param event the event
+     */
+    public synchronized void addLiveEvent(Event event) {
+        if (mSynced && (event.eventId != null) && (getOrdering(event.eventId) == null)) {
+            insert(event, mTop++);
+        }
+    }
+
+    /**
+     * Add the latest events of the room, as returned by an initial sync. If they connect with the events
+     * already stored and the first of those has a gap before it, e.g. after an initial sync that only fetched
+     * the latest event, the events before it fill the gap.
+     * @param response the events, from the oldest, with the tokens before and after them
+     */
+    public synchronized void addSyncedEvents(TokensChunkResponse<Event> response) {
+        int firstStored = -1;
+        Long firstStoredOrdering = null;
+        for (int i = 0; i < response.chunk.size(); i++) {
+            Event event = response.chunk.get(i);
+            if (event.eventId != null) {
+                firstStoredOrdering = getOrdering(event.eventId);
+                if (firstStoredOrdering != null) {
+                    firstStored = i;
+                    break;
+                }
+            }
+        }
+
+        if (firstStored < 0) {
+            // Start a new run, with a gap before it
+            if (mSynced) {
+                mTop += GAP;
+            }
+            putToken(response.start, mTop, true);
+        }
+        else if (firstStored > 0) {
+            Token before = mTokensByOrdering.get(firstStoredOrdering);
+            if ((before != null) && before.gap) {
+                List<Event> older = new ArrayList<Event>(response.chunk.subList(0, firstStored));
+                Collections.reverse(older);
+                fillGap(before, older, response.start);
+            }
+        }
+        for (Event event : response.chunk) {
+            if ((event.eventId != null) && (getOrdering(event.eventId) == null)) {
+                insert(event, mTop++);
+            }
+        }
+        putToken(response.end, mTop, false);
+        mSynced = true;
+    }
+
+    /**
+     * Add events from back pagination. They fill the gap before the token they were paginated from,
+     * until they reach events that are already stored.
+     * @param response the events, from the most recent, with the token paginated from as start and the token
+     *                 to go on from as end
+     */
+    public synchronized void addPaginatedEvents(TokensChunkResponse<Event> response) {
+        Token from = (response.start == null) ? null : mTokens.get(response.start);
+        if ((from == null) || !from.gap || response.chunk.isEmpty()) {
+            return;
+        }
+        fillGap(from, response.chunk, response.end);
+    }
+
+    /**
+     * Add a token after the latest events, for the timeline to be trimmed down to. It is only added once
+     * enough live events have come since the last one.
+     * @param token a token from the event stream, which can be paginated back from
+     * @param minEvents the number of events there must be since the last token
+     */
+    public synchronized void addLiveToken(String token, int minEvents) {
+        if (!mSynced) {
+            return;
+        }
+        Map.Entry<Long, Token> last = mTokensByOrdering.lastEntry();
+        long from = (last == null) ? Long.MIN_VALUE : last.getKey();
+        if (countEvents(from, mTop) >= minEvents) {
+            putToken(token, mTop, false);
+        }
+    }
+
+    /**
+     * Remove the oldest events, keeping no more than maxEvents if the tokens allow it. Events are removed
+     * up to a token, which becomes a gap so that they can be paginated back in. The events after the latest
+     * token with any events after it are always kept, as they are the first page.
+     * @param maxEvents the number of events to keep
+     * @return the number of events removed
+     */
+    public synchronized int trim(int maxEvents) {
+        Long cut = null;
+        int count = 0;
+        long above = Long.MAX_VALUE;
+        for (Token token : mTokensByOrdering.descendingMap().values()) {
+            count += countEvents(token.ordering, above);
+            above = token.ordering;
+            if (count == 0) {
+                continue;
+            }
+            if ((cut != null) && (count > maxEvents)) {
+                break;
+            }
+            cut = token.ordering;
+        }
+        if (cut == null) {
+            return 0;
+        }
+
+        int removed = removeEventsBefore(cut);
+        if (removed == 0) {
+            return 0;
+        }
+        mTokensByOrdering.headMap(cut).clear();
+        for (Iterator<Token> it = mTokens.values().iterator(); it.hasNext(); ) {
+            Token token = it.next();
+            if (token.ordering < cut) {
+                it.remove();
+            }
+            else if ((token.ordering == cut) && !token.gap) {
+                token.gap = true;
+                onTokenChanged(token);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Count the most recent events that can be paginated through without going to the server.
+     * @param maxEvents the count to stop at
+     * @return the number of events, no more than maxEvents
+     */
+    public synchronized int countLatestEvents(int maxEvents) {
+        int count = 0;
+        long above = Long.MAX_VALUE;
+        for (Token token : mTokensByOrdering.descendingMap().values()) {
+            count += countEvents(token.ordering, above);
+            if ((count >= maxEvents) || token.gap) {
+                break;
+            }
+            above = token.ordering;
+        }
+        return Math.min(count, maxEvents);
+    }
+
+    /**
+     * Get the events before a token, down to the next token.
+     * @param token the token to paginate from; null to start from the most recent event
+     * @return the events, from the most recent, with the token to go on from as end; null if they are not stored
+     */
+    public synchronized TokensChunkResponse<Event> getEventsBefore(String token) {
+        long ordering;
+        if (token == null) {
+            ordering = Long.MAX_VALUE;
+        }
+        else {
+            Token from = mTokens.get(token);
+            if ((from == null) || from.gap) {
+                return null;
+            }
+            ordering = from.ordering;
+        }
+
+        List<Event> events = new ArrayList<Event>();
+        Map.Entry<Long, Token> next = mTokensByOrdering.lowerEntry(ordering);
+        while (next != null) {
+            events.addAll(getEvents(next.getKey(), ordering));
+            // Go past tokens with nothing between them
+            if (!events.isEmpty() || next.getValue().gap) {
+                break;
+            }
+            ordering = next.getKey();
+            next = mTokensByOrdering.lowerEntry(ordering);
+        }
+        if ((next == null) || events.isEmpty()) {
+            return null;
+        }
+
+        TokensChunkResponse<Event> response = new TokensChunkResponse<Event>();
+        response.chunk = events;
+        response.start = token;
+        response.end = next.getValue().token;
+        return response;
+    }
+
+    /**
+     * Store events in the gap before a token, down to the events already stored.
+     * @param from the token with the gap
+     * @param events the events, from the most recent
+     * @param end the token to go on from if the gap is not filled
+     */
+    private void fillGap(Token from, List<Event> events, String end) {
+        long ordering = from.ordering;
+        boolean joined = false;
+        for (Event event : events) {
+            if (event.eventId == null) {
+                continue;
+            }
+            Long stored = getOrdering(event.eventId);
+            if (stored == null) {
+                insert(event, --ordering);
+            }
+            else if (stored < from.ordering) {
+                // Reached an earlier run: the gap is filled
+                joined = true;
+                break;
+            }
+            // Else it is the event the token points at, sent again
+        }
+
+        from.gap = false;
+        onTokenChanged(from);
+        if (!joined) {
+            putToken(end, ordering, true);
+        }
+    }
+
+    private void putToken(String tokenString, long ordering, boolean gap) {
+        if (tokenString == null) {
+            return;
+        }
+        // Whether the events before are stored depends on the position, not the token
+        Token previous = mTokensByOrdering.get(ordering);
+        if ((previous != null) && previous.gap) {
+            gap = true;
+        }
+        Token token = new Token(tokenString, ordering, gap);
+        addToken(token);
+        onTokenChanged(token);
+    }
+
+    private void addToken(Token token) {
+        mTokens.put(token.token, token);
+        mTokensByOrdering.put(token.ordering, token);
+    }
+}
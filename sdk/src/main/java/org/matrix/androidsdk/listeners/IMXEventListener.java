@@ -20,6 +20,25 @@ import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.User;
 
+import java.util.List;
+
+/**
+ * Listener for the data handler's events.
+ * <p>
+ * Threading: these methods are called on background threads, never on the main thread, so
+ * implementations that touch views must post to it.
+ * <ul>
+ * <li>Presence updates, live events, bing events, typing updates and onInitialSyncComplete come from the event stream:
+ * they are called on the events thread, or on its processing thread when the stream is pipelined
+ * (see {@link org.matrix.androidsdk.sync.EventsThread#setPipelineCapacity(int)}).</li>
+ * <li>Back events, and the events of rooms synced on their own (e.g. after a join), are called on
+ * the REST callback executor (see {@link org.matrix.androidsdk.RestClient#getDefaultCallbackExecutor()}),
+ * whether the history comes from the server or from the store.</li>
+ * <li>onInitialSyncComplete is also called on the REST callback executor when a listener is added
+ * after the initial sync.</li>
+ * </ul>
+ * Calls for a given source never overlap, but calls from different sources may run concurrently.
+ */
 public interface IMXEventListener {
 
     /**
@@ -29,6 +48,15 @@ public interface IMXEventListener {
      */
     public void onPresenceUpdate(Event event, User user);
 
+    /**
+     * The presence of users was updated by a chunk of events. Only the latest update of each user in the
+     * chunk is passed on. The data handler calls this instead of {@link #onPresenceUpdate(Event, User)},
+     * except for the listeners of a single user.
+     * @param events the presence events
+     * @param users the updated users (same indexes as events)
+     */
+    public void onPresenceUpdates(List<Event> events, List<User> users);
+
     /**
      * A live room event was received.
      * @param event the event
@@ -36,6 +64,16 @@ public interface IMXEventListener {
      */
     public void onLiveEvent(Event event, RoomState roomState);
 
+    /**
+     * A chunk of live room events was received and applied.
+     * Only called when the data handler batches live events (see
+     * {@link org.matrix.androidsdk.MXDataHandler#setBatchLiveEvents(boolean)}), in which case
+     * {@link #onLiveEvent(Event, RoomState)} is not called for these events.
+     * @param events the events, in stream order
+     * @param roomStates the room state right before each event (same indexes as events)
+     */
+    public void onLiveEvents(List<Event> events, List<RoomState> roomStates);
+
     /**
      * A back room event was received.
      * @param event the event
@@ -45,6 +83,14 @@ public interface IMXEventListener {
 
     public void onBingEvent(Event event, RoomState roomState);
 
+    /**
+     * The users typing in a room changed. Typing events are not passed to the live event callbacks:
+     * only the latest one of a chunk is applied, and this is only called if it changes the typing users.
+     * @param roomId the room id
+     * @param typingUserIds the ids of the users now typing in the room
+     */
+    public void onTypingUpdate(String roomId, List<String> typingUserIds);
+
     /**
      * The initial sync is complete and the store can be queried for current state.
      */
@@ -20,6 +20,8 @@ import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.User;
 
+import java.util.List;
+
 /**
  * A no-op class implementing {@link IMXEventListener} so listeners can just implement the methods
  * that they require.
@@ -31,11 +33,31 @@ public class MXEventListener implements IMXEventListener {
 
     }
 
+    /**
+     * Default implementation passing each update to {@link #onPresenceUpdate(Event, User)}.
+     */
+    @Override
+    public void onPresenceUpdates(List<Event> events, List<User> users) {
+        for (int i = 0; i < events.size(); i++) {
+            onPresenceUpdate(events.get(i), users.get(i));
+        }
+    }
+
     @Override
     public void onLiveEvent(Event event, RoomState roomState) {
 
     }
 
+    /**
+     * Default implementation passing each event to {@link #onLiveEvent(Event, RoomState)}.
+     */
+    @Override
+    public void onLiveEvents(List<Event> events, List<RoomState> roomStates) {
+        for (int i = 0; i < events.size(); i++) {
+            onLiveEvent(events.get(i), roomStates.get(i));
+        }
+    }
+
     @Override
     public void onBackEvent(Event event, RoomState roomState) {
 
@@ -46,6 +68,11 @@ public class MXEventListener implements IMXEventListener {
 
     }
 
+    @Override
+    public void onTypingUpdate(String roomId, List<String> typingUserIds) {
+
+    }
+
     @Override
     public void onInitialSyncComplete() {
 
@@ -22,9 +22,11 @@ import org.matrix.androidsdk.rest.model.PublicRoom;
 import org.matrix.androidsdk.rest.model.TokensChunkResponse;
 
 import retrofit.Callback;
+import retrofit.client.Response;
 import retrofit.http.GET;
 import retrofit.http.Path;
 import retrofit.http.Query;
+import retrofit.http.Streaming;
 
 /**
  * The events API.
@@ -63,4 +65,13 @@ public interface EventsApi {
     @GET("/initialSync")
     public void initialSync(@Query("limit") int limit,
                                            Callback<InitialSyncResponse> callback);
+
+    /**
+     * Perform the initial sync, leaving the response body unread so that it can be parsed as it downloads.
+     * @param limit the limit of the amount of messages to return per room
+     * @return the raw response
+     */
+    @GET("/initialSync")
+    @Streaming
+    public Response initialSyncStream(@Query("limit") int limit);
 }
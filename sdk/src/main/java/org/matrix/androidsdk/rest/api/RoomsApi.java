@@ -55,6 +55,19 @@ public interface RoomsApi {
     public void send(@Path("roomId") String roomId, @Path("eventType") String eventType, @Body JsonObject content,
                      Callback<Event> callback);
 
+    /**
+     * Send an event about a room with a transaction id. Sending again with the same transaction id
+     * does not post the event twice.
+     * @param roomId the room id
+     * @param eventType the event type
+     * @param txnId the transaction id, unique to the access token
+     * @param content the event content
+     * @param callback the asynchronous callback called with the response
+     */
+    @PUT("/rooms/{roomId}/send/{eventType}/{txnId}")
+    public void send(@Path("roomId") String roomId, @Path("eventType") String eventType, @Path("txnId") String txnId,
+                     @Body JsonObject content, Callback<Event> callback);
+
     /**
      * Set state information for a room. The state key can be omitted.
      * @param roomId the room id
@@ -17,6 +17,8 @@ package org.matrix.androidsdk.rest.callback;
 
 /**
  * Generic callback interface for asynchronously returning information.
+ * Callbacks are run on the executor of the client making the call, which by default is a
+ * background thread (see {@link org.matrix.androidsdk.RestClient#getDefaultCallbackExecutor()}).
  * @param <T> the type of information to return on success
  */
 public interface ApiCallback<T> extends ApiFailureCallback {
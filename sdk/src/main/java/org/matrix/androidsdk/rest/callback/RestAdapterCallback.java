@@ -58,6 +58,9 @@ public class RestAdapterCallback<T> implements Callback<T> {
                 mxError = null;
             }
             if (mxError != null) {
+                if (error.getResponse() != null) {
+                    mxError.setHttpStatus(error.getResponse().getStatus());
+                }
                 apiCallback.onMatrixError(mxError);
             }
             else {
@@ -15,6 +15,8 @@
  */
 package org.matrix.androidsdk.rest.client;
 
+import com.squareup.okhttp.OkHttpClient;
+
 import org.matrix.androidsdk.RestClient;
 import org.matrix.androidsdk.rest.api.BingRulesApi;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
@@ -35,6 +37,13 @@ public class BingRulesRestClient extends RestClient<BingRulesApi> {
         super(credentials, BingRulesApi.class);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public BingRulesRestClient(Credentials credentials, OkHttpClient httpClient) {
+        super(credentials, BingRulesApi.class, httpClient);
+    }
+
     public void getAllBingRules(final ApiCallback<BingRulesResponse> callback) {
         //mApi.getAllBingRules(new RestAdapterCallback<BingRulesResponse>(callback));
         mApi.getAllBingRules(new Callback<BingRulesResponse>() {
@@ -17,19 +17,27 @@ package org.matrix.androidsdk.rest.client;
 
 import android.net.Uri;
 
+import com.google.gson.JsonParseException;
+import com.squareup.okhttp.OkHttpClient;
+
 import org.matrix.androidsdk.RestClient;
 import org.matrix.androidsdk.rest.api.EventsApi;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
 import org.matrix.androidsdk.rest.callback.RestAdapterCallback;
+import org.matrix.androidsdk.rest.json.InitialSyncStreamParser;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.InitialSyncResponse;
 import org.matrix.androidsdk.rest.model.PublicRoom;
 import org.matrix.androidsdk.rest.model.TokensChunkResponse;
 import org.matrix.androidsdk.rest.model.login.Credentials;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.List;
 
 import retrofit.RestAdapter;
+import retrofit.RetrofitError;
 import retrofit.client.Response;
 
 /**
@@ -38,6 +46,9 @@ import retrofit.client.Response;
 public class EventsRestClient extends RestClient<EventsApi> {
 
     protected static final int EVENT_STREAM_TIMEOUT_MS = 30000;
+    public static final int INITIAL_SYNC_MESSAGES_LIMIT = 10;
+    // Enough for the room list: each room's state and its latest event
+    public static final int SUMMARY_SYNC_MESSAGES_LIMIT = 1;
 
     /**
      * {@inheritDoc}
@@ -46,6 +57,13 @@ public class EventsRestClient extends RestClient<EventsApi> {
         super(credentials, EventsApi.class);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public EventsRestClient(Credentials credentials, OkHttpClient httpClient) {
+        super(credentials, EventsApi.class, httpClient);
+    }
+
     protected EventsRestClient(EventsApi api) {
         mApi = api;
     }
@@ -68,7 +86,62 @@ public class EventsRestClient extends RestClient<EventsApi> {
      * @param callback callback to provide the information
      */
     public void initialSync(final ApiCallback<InitialSyncResponse> callback) {
-        mApi.initialSync(10, new RestAdapterCallback<InitialSyncResponse>(callback));
+        initialSync(INITIAL_SYNC_MESSAGES_LIMIT, callback);
+    }
+
+    /**
+     * Get initial information about the user's rooms, messages, other users.
+     * @param messagesLimit the number of messages to get per room
+     * @param callback callback to provide the information
+     */
+    public void initialSync(int messagesLimit, final ApiCallback<InitialSyncResponse> callback) {
+        mApi.initialSync(messagesLimit, new RestAdapterCallback<InitialSyncResponse>(callback));
+    }
+
+    /**
+     * Synchronous initial sync that hands each room to the listener as soon as it has been parsed,
+     * instead of building the whole response in memory first.
+     * @param listener the listener to receive the presence events and the rooms
+     * @return the token to start the events stream from
+     * @throws RetrofitError if the request fails or the response cannot be parsed
+     */
+    public String initialSync(InitialSyncStreamParser.Listener listener) {
+        return initialSync(INITIAL_SYNC_MESSAGES_LIMIT, listener);
+    }
+
+    /**
+     * {@link #initialSync(InitialSyncStreamParser.Listener)} with a given number of messages per room.
+     * @param messagesLimit the number of messages to get per room
+     * @param listener the listener to receive the presence events and the rooms
+     * @return the token to start the events stream from
+     * @throws RetrofitError if the request fails or the response cannot be parsed
+     */
+    public String initialSync(int messagesLimit, InitialSyncStreamParser.Listener listener) {
+        Response response = mApi.initialSyncStream(messagesLimit);
+        InputStream in = null;
+        try {
+            in = response.getBody().in();
+            return new InitialSyncStreamParser().parse(new InputStreamReader(in, "UTF-8"), listener);
+        }
+        catch (IOException e) {
+            throw RetrofitError.networkError(response.getUrl(), e);
+        }
+        catch (JsonParseException e) {
+            throw RetrofitError.unexpectedError(response.getUrl(), e);
+        }
+        catch (IllegalStateException e) {
+            // What JsonReader throws when the response is not of the expected shape
+            throw RetrofitError.unexpectedError(response.getUrl(), e);
+        }
+        finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing more to read anyway
+                }
+            }
+        }
     }
 
     /**
@@ -18,6 +18,7 @@ package org.matrix.androidsdk.rest.client;
 import android.net.Uri;
 
 import com.google.gson.JsonObject;
+import com.squareup.okhttp.OkHttpClient;
 
 import org.matrix.androidsdk.RestClient;
 import org.matrix.androidsdk.rest.api.LoginApi;
@@ -44,6 +45,16 @@ public class LoginRestClient extends RestClient<LoginApi> {
         mHsUri = hsUri;
     }
 
+    /**
+     * Constructor sharing the given HTTP client with other clients.
+     * @param hsUri the home server URI
+     * @param httpClient the HTTP client to make the requests with
+     */
+    public LoginRestClient(Uri hsUri, OkHttpClient httpClient) {
+        super(hsUri, LoginApi.class, httpClient);
+        mHsUri = hsUri;
+    }
+
     /**
      * Attempt a user/password log in.
      * @param user the user name
@@ -15,6 +15,8 @@
  */
 package org.matrix.androidsdk.rest.client;
 
+import com.squareup.okhttp.OkHttpClient;
+
 import org.matrix.androidsdk.RestClient;
 import org.matrix.androidsdk.rest.api.PresenceApi;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
@@ -34,6 +36,13 @@ public class PresenceRestClient extends RestClient<PresenceApi> {
         super(credentials, PresenceApi.class);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public PresenceRestClient(Credentials credentials, OkHttpClient httpClient) {
+        super(credentials, PresenceApi.class, httpClient);
+    }
+
     /**
      * Set this user's presence.
      * @param presence the presence state
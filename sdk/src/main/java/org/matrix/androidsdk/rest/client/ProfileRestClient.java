@@ -15,6 +15,8 @@
  */
 package org.matrix.androidsdk.rest.client;
 
+import com.squareup.okhttp.OkHttpClient;
+
 import org.matrix.androidsdk.RestClient;
 import org.matrix.androidsdk.rest.api.ProfileApi;
 import org.matrix.androidsdk.rest.callback.ApiCallback;
@@ -36,6 +38,13 @@ public class ProfileRestClient extends RestClient<ProfileApi> {
         super(credentials, ProfileApi.class);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ProfileRestClient(Credentials credentials, OkHttpClient httpClient) {
+        super(credentials, ProfileApi.class, httpClient);
+    }
+
     /**
      * Get the user's display name.
      * @param userId the user id
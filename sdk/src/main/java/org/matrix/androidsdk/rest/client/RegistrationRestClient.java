@@ -18,6 +18,7 @@ package org.matrix.androidsdk.rest.client;
 import android.net.Uri;
 
 import com.google.gson.JsonObject;
+import com.squareup.okhttp.OkHttpClient;
 
 import org.matrix.androidsdk.RestClient;
 import org.matrix.androidsdk.rest.api.RegistrationApi;
@@ -44,6 +45,16 @@ public class RegistrationRestClient extends RestClient<RegistrationApi> {
         mHsUri = hsUri;
     }
 
+    /**
+     * Constructor sharing the given HTTP client with other clients.
+     * @param hsUri the home server URI
+     * @param httpClient the HTTP client to make the requests with
+     */
+    public RegistrationRestClient(Uri hsUri, OkHttpClient httpClient) {
+        super(hsUri, RegistrationApi.class, httpClient);
+        mHsUri = hsUri;
+    }
+
     /**
      * Attempt a user/password registration.
      * @param user the user name
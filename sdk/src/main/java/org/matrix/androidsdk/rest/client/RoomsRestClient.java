@@ -16,6 +16,7 @@
 package org.matrix.androidsdk.rest.client;
 
 import com.google.gson.JsonObject;
+import com.squareup.okhttp.OkHttpClient;
 
 import org.matrix.androidsdk.RestClient;
 import org.matrix.androidsdk.data.RoomState;
@@ -51,6 +52,13 @@ public class RoomsRestClient extends RestClient<RoomsApi> {
         super(credentials, RoomsApi.class);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public RoomsRestClient(Credentials credentials, OkHttpClient httpClient) {
+        super(credentials, RoomsApi.class, httpClient);
+    }
+
     /**
      * Send a message to a room.
      * @param roomId the room id
@@ -72,6 +80,18 @@ public class RoomsRestClient extends RestClient<RoomsApi> {
         mApi.send(roomId, eventType, content, new RestAdapterCallback<Event>(callback));
     }
 
+    /**
+     * Send an event to a room with a transaction id, so that sending it again after an error cannot post it twice.
+     * @param roomId the room id
+     * @param eventType the type of event
+     * @param txnId the transaction id
+     * @param content the event content
+     * @param callback the callback containing the created event if successful
+     */
+    public void sendEvent(String roomId, String eventType, String txnId, JsonObject content, ApiCallback<Event> callback) {
+        mApi.send(roomId, eventType, txnId, content, new RestAdapterCallback<Event>(callback));
+    }
+
     /**
      * Get the last messages for the given room.
      * @param roomId the room id
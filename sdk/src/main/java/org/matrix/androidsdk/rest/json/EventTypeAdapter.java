@@ -0,0 +1,160 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.matrix.androidsdk.rest.model.Event;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes {@link Event}s.
+ * <p>When reading from a stream, the content and previous content are copied out as JSON text without
+ * building their JsonObjects, which the event only does if they are used. Content that is still text
+ * is copied back out the same way when the event is written.</p>
+ */
+class EventTypeAdapter extends ModelTypeAdapter<Event> {
+
+    private final TypeAdapter<JsonElement> mElementAdapter;
+
+    EventTypeAdapter(TypeAdapter<JsonElement> elementAdapter) {
+        mElementAdapter = elementAdapter;
+    }
+
+    @Override
+    public void write(JsonWriter out, Event event) throws IOException {
+        if (event == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("type").value(event.type);
+        out.name("content");
+        String rawContent = event.getRawContent();
+        if (rawContent != null) {
+            JsonCopier.copy(rawContent, out);
+        }
+        else {
+            mElementAdapter.write(out, event.getContent());
+        }
+        out.name("event_id").value(event.eventId);
+        out.name("room_id").value(event.roomId);
+        out.name("user_id").value(event.userId);
+        out.name("origin_server_ts").value(event.originServerTs);
+        out.name("age").value(event.age);
+        out.name("state_key").value(event.stateKey);
+        out.name("prev_content");
+        String rawPrevContent = event.getRawPrevContent();
+        if (rawPrevContent != null) {
+            JsonCopier.copy(rawPrevContent, out);
+        }
+        else {
+            mElementAdapter.write(out, event.getPrevContent());
+        }
+        out.name("redacts").value(event.redacts);
+        out.endObject();
+    }
+
+    @Override
+    public Event read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Event event = new Event();
+        // A tree reader already holds the content as a JsonObject
+        boolean keepText = (in.getClass() == JsonReader.class);
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if ("type".equals(name)) {
+                event.type = readString(in);
+            }
+            else if ("content".equals(name)) {
+                if (keepText) {
+                    event.setRawContent(readObjectText(in));
+                }
+                else {
+                    event.setContent(readObject(in));
+                }
+            }
+            else if ("event_id".equals(name)) {
+                event.eventId = readString(in);
+            }
+            else if ("room_id".equals(name)) {
+                event.roomId = readString(in);
+            }
+            else if ("user_id".equals(name)) {
+                event.userId = readString(in);
+            }
+            else if ("origin_server_ts".equals(name)) {
+                event.originServerTs = readLong(in, event.originServerTs);
+            }
+            else if ("age".equals(name)) {
+                event.age = readLong(in, event.age);
+            }
+            else if ("state_key".equals(name)) {
+                event.stateKey = readString(in);
+            }
+            else if ("prev_content".equals(name)) {
+                if (keepText) {
+                    event.setRawPrevContent(readObjectText(in));
+                }
+                else {
+                    event.setPrevContent(readObject(in));
+                }
+            }
+            else if ("redacts".equals(name)) {
+                event.redacts = readString(in);
+            }
+            else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return event;
+    }
+
+    private static String readObjectText(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token != JsonToken.BEGIN_OBJECT) {
+            throw new JsonSyntaxException("Expected an object but was " + token);
+        }
+        return JsonCopier.copy(in);
+    }
+
+    private JsonObject readObject(JsonReader in) throws IOException {
+        JsonElement element = mElementAdapter.read(in);
+        if ((element == null) || element.isJsonNull()) {
+            return null;
+        }
+        if (!element.isJsonObject()) {
+            throw new JsonSyntaxException("Expected an object but was " + element);
+        }
+        return element.getAsJsonObject();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.RoomResponse;
+import org.matrix.androidsdk.util.JsonUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Incremental parser for the initial sync response.
+ * Rooms are decoded one at a time and handed to the listener straight away, so the whole response
+ * never needs to be held in memory.
+ */
+public class InitialSyncStreamParser {
+
+    private static final Type EVENT_LIST_TYPE = new TypeToken<List<Event>>(){}.getType();
+
+    /**
+     * Receives the parts of the initial sync response in the order they appear in the stream.
+     */
+    public interface Listener {
+        /**
+         * Called with the global presence events.
+         * @param presence the presence events
+         */
+        public void onPresence(List<Event> presence);
+
+        /**
+         * Called for each room as soon as it has been decoded.
+         * @param roomResponse the room
+         */
+        public void onRoom(RoomResponse roomResponse);
+    }
+
+    private Gson mGson = JsonUtils.getGson();
+
+    /**
+     * Parse an initial sync response.
+     * @param in the response body
+     * @param listener the listener to hand the presence and rooms to
+     * @return the stream token to continue from (the response's "end")
+     * @throws IOException if the stream cannot be read or is not valid JSON
+     */
+    public String parse(Reader in, Listener listener) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        String end = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            }
+            else if ("end".equals(name)) {
+                end = reader.nextString();
+            }
+            else if ("presence".equals(name)) {
+                List<Event> presence = mGson.fromJson(reader, EVENT_LIST_TYPE);
+                listener.onPresence(presence);
+            }
+            else if ("rooms".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    RoomResponse roomResponse = mGson.fromJson(reader, RoomResponse.class);
+                    listener.onRoom(roomResponse);
+                }
+                reader.endArray();
+            }
+            else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return end;
+    }
+}
@@ -0,0 +1,147 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+
+/**
+ * Copies JSON values from a reader to a writer token by token, without building a tree of them.
+ * Numbers are copied as they are written, as Gson's own trees keep them.
+ */
+class JsonCopier {
+
+    /**
+     * A number kept as the text it was read from.
+     */
+    private static final class TextNumber extends Number {
+        private final String mText;
+
+        TextNumber(String text) {
+            mText = text;
+        }
+
+        @Override
+        public int intValue() {
+            try {
+                return Integer.parseInt(mText);
+            } catch (NumberFormatException e) {
+                return (int) longValue();
+            }
+        }
+
+        @Override
+        public long longValue() {
+            try {
+                return Long.parseLong(mText);
+            } catch (NumberFormatException e) {
+                return new BigDecimal(mText).longValue();
+            }
+        }
+
+        @Override
+        public float floatValue() {
+            return Float.parseFloat(mText);
+        }
+
+        @Override
+        public double doubleValue() {
+            return Double.parseDouble(mText);
+        }
+
+        @Override
+        public String toString() {
+            return mText;
+        }
+    }
+
+    /**
+     * Copy the next value of a reader as JSON text.
+     * @param in the reader
+     * @return the value as JSON text
+     */
+    static String copy(JsonReader in) throws IOException {
+        StringWriter text = new StringWriter();
+        JsonWriter out = new JsonWriter(text);
+        out.setLenient(true);
+        copy(in, out);
+        out.flush();
+        return text.toString();
+    }
+
+    /**
+     * Write a JSON value given as text.
+     * @param json the value as JSON text
+     * @param out the writer
+     */
+    static void copy(String json, JsonWriter out) throws IOException {
+        JsonReader in = new JsonReader(new StringReader(json));
+        in.setLenient(true);
+        copy(in, out);
+    }
+
+    private static void copy(JsonReader in, JsonWriter out) throws IOException {
+        // Depth of the arrays and objects open
+        int depth = 0;
+        do {
+            switch (in.peek()) {
+                case BEGIN_ARRAY:
+                    in.beginArray();
+                    out.beginArray();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    in.endArray();
+                    out.endArray();
+                    depth--;
+                    break;
+                case BEGIN_OBJECT:
+                    in.beginObject();
+                    out.beginObject();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    in.endObject();
+                    out.endObject();
+                    depth--;
+                    break;
+                case NAME:
+                    out.name(in.nextName());
+                    break;
+                case STRING:
+                    out.value(in.nextString());
+                    break;
+                case NUMBER:
+                    out.value(new TextNumber(in.nextString()));
+                    break;
+                case BOOLEAN:
+                    out.value(in.nextBoolean());
+                    break;
+                case NULL:
+                    in.nextNull();
+                    out.nullValue();
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected " + in.peek());
+            }
+        } while (depth > 0);
+    }
+}
@@ -0,0 +1,168 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.matrix.androidsdk.rest.model.ImageInfo;
+import org.matrix.androidsdk.rest.model.ImageMessage;
+import org.matrix.androidsdk.rest.model.Message;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes {@link Message}s and their subclasses. The fields of every message type are read
+ * in one pass, whatever order they come in, and the message is built from its msgtype at the end.
+ */
+class MessageTypeAdapter extends ModelTypeAdapter<Message> {
+
+    private final boolean mImageOnly;
+
+    /**
+     * Constructor.
+     * @param imageOnly true to always read an {@link ImageMessage}, whatever its msgtype
+     */
+    MessageTypeAdapter(boolean imageOnly) {
+        mImageOnly = imageOnly;
+    }
+
+    @Override
+    public void write(JsonWriter out, Message message) throws IOException {
+        if (message == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        // The subclass fields come first, as with reflection
+        if (message instanceof ImageMessage) {
+            ImageMessage imageMessage = (ImageMessage) message;
+            out.name("info");
+            writeImageInfo(out, imageMessage.info);
+            out.name("thumbnail_info");
+            writeImageInfo(out, imageMessage.thumbnailInfo);
+            out.name("url").value(imageMessage.url);
+            out.name("thumbnail_url").value(imageMessage.thumbnailUrl);
+        }
+        out.name("msgtype").value(message.msgtype);
+        out.name("body").value(message.body);
+        out.endObject();
+    }
+
+    @Override
+    public Message read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        boolean hasMsgtype = false;
+        String msgtype = null;
+        String body = null;
+        ImageInfo info = null;
+        ImageInfo thumbnailInfo = null;
+        String url = null;
+        String thumbnailUrl = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if ("msgtype".equals(name)) {
+                msgtype = readString(in);
+                hasMsgtype = true;
+            }
+            else if ("body".equals(name)) {
+                body = readString(in);
+            }
+            else if ("info".equals(name)) {
+                info = readImageInfo(in);
+            }
+            else if ("thumbnail_info".equals(name)) {
+                thumbnailInfo = readImageInfo(in);
+            }
+            else if ("url".equals(name)) {
+                url = readString(in);
+            }
+            else if ("thumbnail_url".equals(name)) {
+                thumbnailUrl = readString(in);
+            }
+            else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+
+        Message message;
+        if (mImageOnly || Message.MSGTYPE_IMAGE.equals(msgtype)) {
+            ImageMessage imageMessage = new ImageMessage();
+            imageMessage.info = info;
+            imageMessage.thumbnailInfo = thumbnailInfo;
+            imageMessage.url = url;
+            imageMessage.thumbnailUrl = thumbnailUrl;
+            message = imageMessage;
+        }
+        else {
+            message = new Message();
+        }
+        if (hasMsgtype) {
+            message.msgtype = msgtype;
+        }
+        message.body = body;
+        return message;
+    }
+
+    private static void writeImageInfo(JsonWriter out, ImageInfo info) throws IOException {
+        if (info == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("mimetype").value(info.mimetype);
+        out.name("w").value(info.w);
+        out.name("h").value(info.h);
+        out.name("size").value(info.size);
+        out.endObject();
+    }
+
+    private static ImageInfo readImageInfo(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        ImageInfo info = new ImageInfo();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if ("mimetype".equals(name)) {
+                info.mimetype = readString(in);
+            }
+            else if ("w".equals(name)) {
+                info.w = readInt(in, info.w);
+            }
+            else if ("h".equals(name)) {
+                info.h = readInt(in, info.h);
+            }
+            else if ("size".equals(name)) {
+                info.size = readLong(in, info.size);
+            }
+            else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return info;
+    }
+}
@@ -0,0 +1,155 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class of the hand-written adapters of the model classes.
+ * <p>The adapters read and write exactly what the reflective adapter would with the SDK's Gson settings:
+ * fields are named in lower case with underscores, private fields are left out, null fields are
+ * written as null (so the writer drops them) and unknown fields are skipped. Values are read the way
+ * Gson's own type adapters read them.</p>
+ * @param <T> the model class
+ */
+abstract class ModelTypeAdapter<T> extends TypeAdapter<T> {
+
+    static String readString(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    /**
+     * Read an int into a primitive field.
+     * @param in the reader
+     * @param value the value of the field, kept if the JSON value is null
+     * @return the value read
+     */
+    static int readInt(JsonReader in, int value) throws IOException {
+        Integer read = readInteger(in);
+        return (read == null) ? value : read;
+    }
+
+    static Integer readInteger(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        try {
+            return in.nextInt();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Read a long into a primitive field.
+     * @param in the reader
+     * @param value the value of the field, kept if the JSON value is null
+     * @return the value read
+     */
+    static long readLong(JsonReader in, long value) throws IOException {
+        Long read = readLongObject(in);
+        return (read == null) ? value : read;
+    }
+
+    static Long readLongObject(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        try {
+            return in.nextLong();
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    static List<String> readStringList(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<String> list = new ArrayList<String>();
+        in.beginArray();
+        while (in.hasNext()) {
+            list.add(readString(in));
+        }
+        in.endArray();
+        return list;
+    }
+
+    static void writeStringList(JsonWriter out, List<String> list) throws IOException {
+        if (list == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (String value : list) {
+            out.value(value);
+        }
+        out.endArray();
+    }
+
+    static Map<String, Integer> readIntegerMap(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        // Keeps the order of the keys, as Gson's own maps do
+        Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            if (map.containsKey(key)) {
+                throw new JsonSyntaxException("duplicate key: " + key);
+            }
+            map.put(key, readInteger(in));
+        }
+        in.endObject();
+        return map;
+    }
+
+    static void writeIntegerMap(JsonWriter out, Map<String, Integer> map) throws IOException {
+        if (map == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            out.name(String.valueOf(entry.getKey()));
+            out.value(entry.getValue());
+        }
+        out.endObject();
+    }
+}
@@ -0,0 +1,68 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+import org.matrix.androidsdk.data.RoomState;
+import org.matrix.androidsdk.rest.model.Event;
+import org.matrix.androidsdk.rest.model.ImageMessage;
+import org.matrix.androidsdk.rest.model.Message;
+import org.matrix.androidsdk.rest.model.PowerLevels;
+import org.matrix.androidsdk.rest.model.RoomMember;
+import org.matrix.androidsdk.rest.model.User;
+
+/**
+ * Provides hand-written streaming adapters for the model classes read and written most often:
+ * events, members, users, room states, power levels and messages. They produce the same objects
+ * and JSON as the reflective adapter, without reflection.
+ * Other classes, and subclasses of these, are left to Gson.
+ */
+public class ModelTypeAdapterFactory implements TypeAdapterFactory {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        TypeAdapter<?> adapter = null;
+        if (rawType == Event.class) {
+            adapter = new EventTypeAdapter(gson.getAdapter(JsonElement.class));
+        }
+        else if (rawType == RoomMember.class) {
+            adapter = new RoomMemberTypeAdapter();
+        }
+        else if (rawType == User.class) {
+            adapter = new UserTypeAdapter();
+        }
+        else if (rawType == RoomState.class) {
+            adapter = new RoomStateTypeAdapter();
+        }
+        else if (rawType == PowerLevels.class) {
+            adapter = new PowerLevelsTypeAdapter();
+        }
+        else if (rawType == Message.class) {
+            adapter = new MessageTypeAdapter(false);
+        }
+        else if (rawType == ImageMessage.class) {
+            adapter = new MessageTypeAdapter(true);
+        }
+        return (TypeAdapter<T>) adapter;
+    }
+}
@@ -0,0 +1,96 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.matrix.androidsdk.rest.model.PowerLevels;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes {@link PowerLevels}.
+ */
+class PowerLevelsTypeAdapter extends ModelTypeAdapter<PowerLevels> {
+
+    @Override
+    public void write(JsonWriter out, PowerLevels powerLevels) throws IOException {
+        if (powerLevels == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("ban").value(powerLevels.ban);
+        out.name("kick").value(powerLevels.kick);
+        out.name("invite").value(powerLevels.invite);
+        out.name("redact").value(powerLevels.redact);
+        out.name("events_default").value(powerLevels.eventsDefault);
+        out.name("events");
+        writeIntegerMap(out, powerLevels.events);
+        out.name("users_default").value(powerLevels.usersDefault);
+        out.name("users");
+        writeIntegerMap(out, powerLevels.users);
+        out.name("state_default").value(powerLevels.stateDefault);
+        out.endObject();
+    }
+
+    @Override
+    public PowerLevels read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        PowerLevels powerLevels = new PowerLevels();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if ("ban".equals(name)) {
+                powerLevels.ban = readInt(in, powerLevels.ban);
+            }
+            else if ("kick".equals(name)) {
+                powerLevels.kick = readInt(in, powerLevels.kick);
+            }
+            else if ("invite".equals(name)) {
+                powerLevels.invite = readInt(in, powerLevels.invite);
+            }
+            else if ("redact".equals(name)) {
+                powerLevels.redact = readInt(in, powerLevels.redact);
+            }
+            else if ("events_default".equals(name)) {
+                powerLevels.eventsDefault = readInt(in, powerLevels.eventsDefault);
+            }
+            else if ("events".equals(name)) {
+                powerLevels.events = readIntegerMap(in);
+            }
+            else if ("users_default".equals(name)) {
+                powerLevels.usersDefault = readInt(in, powerLevels.usersDefault);
+            }
+            else if ("users".equals(name)) {
+                powerLevels.users = readIntegerMap(in);
+            }
+            else if ("state_default".equals(name)) {
+                powerLevels.stateDefault = readInt(in, powerLevels.stateDefault);
+            }
+            else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return powerLevels;
+    }
+}
@@ -0,0 +1,70 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.matrix.androidsdk.rest.model.RoomMember;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes {@link RoomMember}s. The user id is not part of the JSON; it is the state key of the member event.
+ */
+class RoomMemberTypeAdapter extends ModelTypeAdapter<RoomMember> {
+
+    @Override
+    public void write(JsonWriter out, RoomMember member) throws IOException {
+        if (member == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("displayname").value(member.displayname);
+        out.name("avatar_url").value(member.avatarUrl);
+        out.name("membership").value(member.membership);
+        out.endObject();
+    }
+
+    @Override
+    public RoomMember read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        RoomMember member = new RoomMember();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if ("displayname".equals(name)) {
+                member.displayname = readString(in);
+            }
+            else if ("avatar_url".equals(name)) {
+                member.avatarUrl = readString(in);
+            }
+            else if ("membership".equals(name)) {
+                member.membership = readString(in);
+            }
+            else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return member;
+    }
+}
@@ -0,0 +1,92 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.matrix.androidsdk.data.RoomState;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes the fields of a {@link RoomState} that come from state event contents.
+ * The members, power levels and token are not part of the JSON.
+ */
+class RoomStateTypeAdapter extends ModelTypeAdapter<RoomState> {
+
+    @Override
+    public void write(JsonWriter out, RoomState roomState) throws IOException {
+        if (roomState == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("room_id").value(roomState.roomId);
+        out.name("name").value(roomState.name);
+        out.name("topic").value(roomState.topic);
+        out.name("room_alias_name").value(roomState.roomAliasName);
+        out.name("visibility").value(roomState.visibility);
+        out.name("creator").value(roomState.creator);
+        out.name("join_rule").value(roomState.joinRule);
+        out.name("aliases");
+        writeStringList(out, roomState.aliases);
+        out.endObject();
+    }
+
+    @Override
+    public RoomState read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        RoomState roomState = new RoomState();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if ("room_id".equals(name)) {
+                roomState.roomId = readString(in);
+            }
+            else if ("name".equals(name)) {
+                roomState.name = readString(in);
+            }
+            else if ("topic".equals(name)) {
+                roomState.topic = readString(in);
+            }
+            else if ("room_alias_name".equals(name)) {
+                roomState.roomAliasName = readString(in);
+            }
+            else if ("visibility".equals(name)) {
+                roomState.visibility = readString(in);
+            }
+            else if ("creator".equals(name)) {
+                roomState.creator = readString(in);
+            }
+            else if ("join_rule".equals(name)) {
+                roomState.joinRule = readString(in);
+            }
+            else if ("aliases".equals(name)) {
+                roomState.aliases = readStringList(in);
+            }
+            else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return roomState;
+    }
+}
@@ -0,0 +1,82 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.rest.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.matrix.androidsdk.rest.model.User;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes {@link User}s.
+ */
+class UserTypeAdapter extends ModelTypeAdapter<User> {
+
+    @Override
+    public void write(JsonWriter out, User user) throws IOException {
+        if (user == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("user_id").value(user.userId);
+        out.name("displayname").value(user.displayname);
+        out.name("avatar_url").value(user.avatarUrl);
+        out.name("presence").value(user.presence);
+        out.name("last_active_ago").value(user.lastActiveAgo);
+        out.name("status_msg").value(user.statusMsg);
+        out.endObject();
+    }
+
+    @Override
+    public User read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        User user = new User();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if ("user_id".equals(name)) {
+                user.userId = readString(in);
+            }
+            else if ("displayname".equals(name)) {
+                user.displayname = readString(in);
+            }
+            else if ("avatar_url".equals(name)) {
+                user.avatarUrl = readString(in);
+            }
+            else if ("presence".equals(name)) {
+                user.presence = readString(in);
+            }
+            else if ("last_active_ago".equals(name)) {
+                user.lastActiveAgo = readLongObject(in);
+            }
+            else if ("status_msg".equals(name)) {
+                user.statusMsg = readString(in);
+            }
+            else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return user;
+    }
+}
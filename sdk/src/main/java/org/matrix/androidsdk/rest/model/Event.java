@@ -16,9 +16,18 @@
 package org.matrix.androidsdk.rest.model;
 
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.matrix.androidsdk.util.JsonUtils;
 
 /**
  * Generic event class with all possible fields for events.
+ * <p>The content and previous content are kept as the JSON text they were read from until they are first
+ * used, as most events are stored or paged through without ever being looked at. The JsonObject is built
+ * on first access; {@link #getContentAsMessage()} and {@link #getContentAsRoomMember()} decode the text
+ * straight into a model object instead. The JsonObject and the message are built once and kept, so they must
+ * be treated as read-only; to change the content, set a new one. The room member is decoded on each call,
+ * as room states keep and update it.</p>
  */
 public class Event {
     public static final String EVENT_TYPE_PRESENCE = "m.presence";
@@ -37,7 +46,6 @@ public class Event {
     public static final String EVENT_TYPE_STATE_ROOM_ALIASES = "m.room.aliases";
 
     public String type;
-    public JsonObject content;
 
     public String eventId;
     public String roomId;
@@ -47,8 +55,111 @@ public class Event {
 
     // Specific to state events
     public String stateKey;
-    public JsonObject prevContent;
 
     // Specific to redactions
     public String redacts;
+
+    // The content as JSON text, until it is parsed
+    private String mRawContent;
+    private JsonObject mContent;
+    private Message mMessage;
+
+    private String mRawPrevContent;
+    private JsonObject mPrevContent;
+
+    /**
+     * @return the content, parsed on first call; null if the event has none
+     */
+    public synchronized JsonObject getContent() {
+        if (mRawContent != null) {
+            mContent = parse(mRawContent);
+            mRawContent = null;
+        }
+        return mContent;
+    }
+
+    public synchronized void setContent(JsonObject content) {
+        mContent = content;
+        mRawContent = null;
+        mMessage = null;
+    }
+
+    /**
+     * @return the content as JSON text if it has not been parsed yet, else null
+     */
+    public synchronized String getRawContent() {
+        return mRawContent;
+    }
+
+    /**
+     * Set the content as JSON text, to be parsed when it is first used.
+     * @param rawContent a JSON object
+     */
+    public synchronized void setRawContent(String rawContent) {
+        setContent(null);
+        mRawContent = rawContent;
+    }
+
+    /**
+     * @return the previous content, parsed on first call; null if the event has none
+     */
+    public synchronized JsonObject getPrevContent() {
+        if (mRawPrevContent != null) {
+            mPrevContent = parse(mRawPrevContent);
+            mRawPrevContent = null;
+        }
+        return mPrevContent;
+    }
+
+    public synchronized void setPrevContent(JsonObject prevContent) {
+        mPrevContent = prevContent;
+        mRawPrevContent = null;
+    }
+
+    /**
+     * @return the previous content as JSON text if it has not been parsed yet, else null
+     */
+    public synchronized String getRawPrevContent() {
+        return mRawPrevContent;
+    }
+
+    /**
+     * Set the previous content as JSON text, to be parsed when it is first used.
+     * @param rawPrevContent a JSON object
+     */
+    public synchronized void setRawPrevContent(String rawPrevContent) {
+        mPrevContent = null;
+        mRawPrevContent = rawPrevContent;
+    }
+
+    /**
+     * Get the content as a message, of the subclass matching its msgtype. It is decoded once and kept.
+     * @return the message, or null if the event has no content
+     */
+    public synchronized Message getContentAsMessage() {
+        if (mMessage == null) {
+            if (mRawContent != null) {
+                mMessage = JsonUtils.getGson().fromJson(mRawContent, Message.class);
+            }
+            else if (mContent != null) {
+                mMessage = JsonUtils.toMessage(mContent);
+            }
+        }
+        return mMessage;
+    }
+
+    /**
+     * Get the content of a member event as a room member. A new one is decoded on each call and belongs to the caller.
+     * @return the member, or null if the event has no content
+     */
+    public synchronized RoomMember getContentAsRoomMember() {
+        if (mRawContent != null) {
+            return JsonUtils.getGson().fromJson(mRawContent, RoomMember.class);
+        }
+        return (mContent == null) ? null : JsonUtils.toRoomMember(mContent);
+    }
+
+    private static JsonObject parse(String json) {
+        return new JsonParser().parse(json).getAsJsonObject();
+    }
 }
@@ -32,4 +32,24 @@ public class MatrixError {
 
     public String errcode;
     public String error;
+    // With LIMIT_EXCEEDED: how long to wait before trying again
+    public Long retryAfterMs;
+
+    // The HTTP status of the response, which is not part of the body; 0 if unknown
+    private int mHttpStatus;
+
+    public int getHttpStatus() {
+        return mHttpStatus;
+    }
+
+    public void setHttpStatus(int httpStatus) {
+        mHttpStatus = httpStatus;
+    }
+
+    /**
+     * @return true if the request may succeed when made again later: the server is rate limiting or failed
+     */
+    public boolean isTemporary() {
+        return LIMIT_EXCEEDED.equals(errcode) || (mHttpStatus == 429) || (mHttpStatus >= 500);
+    }
 }
@@ -16,13 +16,11 @@
 package org.matrix.androidsdk.rest.model;
 
 import org.matrix.androidsdk.MXDataHandler;
+import org.matrix.androidsdk.data.PresenceTable;
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.listeners.IMXEventListener;
-import org.matrix.androidsdk.listeners.MXEventListener;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Class representing a user.
@@ -37,6 +35,8 @@ public class User {
     public String userId;
     public String displayname;
     public String avatarUrl;
+    // The presence the user was last stored with; the latest is in the data handler's presence table,
+    // read it through getPresence() and getRealLastActiveAgo()
     public String presence;
     public Long lastActiveAgo;
     public String statusMsg;
@@ -45,10 +45,6 @@ public class User {
     // the last active ago time provided by the server + the time that has gone by since
     private long lastPresenceTs;
 
-    // Map to keep track of the listeners the client adds vs. the ones we actually register to the global data handler.
-    // This is needed to find the right one when removing the listener.
-    private Map<IMXEventListener, IMXEventListener> mEventListeners = new HashMap<IMXEventListener, IMXEventListener>();
-
     private MXDataHandler mDataHandler;
     private ArrayList<IMXEventListener> pendingListeners = new ArrayList<IMXEventListener>();
 
@@ -79,12 +75,50 @@ public class User {
         lastPresenceTs = System.currentTimeMillis();
     }
 
+    /**
+     * Get the user's latest presence: the one in the presence table if the user is in it,
+     * else the one the user was stored with.
+     * @return the presence, or null if unknown
+     */
+    public String getPresence() {
+        PresenceTable presenceTable = getPresenceTable();
+        String latest = (presenceTable == null) ? null : presenceTable.getPresence(userId);
+        return (latest != null) ? latest : presence;
+    }
+
     /**
      * Get the user's last active ago time by adding the one given by the server and the time since elapsed.
-     * @return how long ago the user was last active (in ms)
+     * @return how long ago the user was last active (in ms), or null if unknown
+     */
+    public Long getRealLastActiveAgo() {
+        long now = System.currentTimeMillis();
+        PresenceTable presenceTable = getPresenceTable();
+        Long latest = (presenceTable == null) ? null : presenceTable.getRealLastActiveAgo(userId, now);
+        if (latest != null) {
+            return latest;
+        }
+        return (lastActiveAgo == null) ? null : lastActiveAgo + now - lastPresenceTs;
+    }
+
+    /**
+     * Set the user's presence, as the latest known: in the presence table too, so that it is not
+     * shadowed by an older one there.
+     * @param presence the presence
+     * @param lastActiveAgo how long ago the user was last active, in ms; null if unknown
      */
-    public long getRealLastActiveAgo() {
-        return lastActiveAgo + System.currentTimeMillis() - lastPresenceTs;
+    protected void setLatestPresence(String presence, Long lastActiveAgo) {
+        this.presence = presence;
+        this.lastActiveAgo = lastActiveAgo;
+        lastActiveReceived();
+
+        PresenceTable presenceTable = getPresenceTable();
+        if (presenceTable != null) {
+            presenceTable.update(userId, presence, lastActiveAgo, lastPresenceTs);
+        }
+    }
+
+    private PresenceTable getPresenceTable() {
+        return (mDataHandler == null) ? null : mDataHandler.getPresenceTable();
     }
 
     /**
@@ -95,32 +129,21 @@ public class User {
         mDataHandler = dataHandler;
 
         for(IMXEventListener listener : pendingListeners) {
-            mDataHandler.addListener(listener);
+            mDataHandler.addUserListener(userId, listener);
         }
+        pendingListeners.clear();
     }
 
     /**
-     * Add an event listener to this room. Only events relative to the room will come down.
+     * Add an event listener to this user. Only presence updates for the user will come down.
      * @param eventListener the event listener to add
      */
-    public void addEventListener(final IMXEventListener eventListener) {
-        // Create a global listener that we'll add to the data handler
-        IMXEventListener globalListener = new MXEventListener() {
-            @Override
-            public void onPresenceUpdate(Event event, User user) {
-                // Only pass event through for this user
-                if (user.userId.equals(userId)) {
-                    eventListener.onPresenceUpdate(event, user);
-                }
-            }
-        };
-        mEventListeners.put(eventListener, globalListener);
-
+    public void addEventListener(IMXEventListener eventListener) {
         // the handler could be set later
         if (null != mDataHandler) {
-            mDataHandler.addListener(globalListener);
+            mDataHandler.addUserListener(userId, eventListener);
         } else {
-            pendingListeners.add(globalListener);
+            pendingListeners.add(eventListener);
         }
     }
 
@@ -129,13 +152,10 @@ public class User {
      * @param eventListener the event listener to remove
      */
     public void removeEventListener(IMXEventListener eventListener) {
-
         if (null != mDataHandler) {
-            mDataHandler.removeListener(mEventListeners.get(eventListener));
+            mDataHandler.removeUserListener(userId, eventListener);
         } else {
-            pendingListeners.remove(mEventListeners.get(eventListener));
+            pendingListeners.remove(eventListener);
         }
-
-        mEventListeners.remove(eventListener);
     }
 }
@@ -15,9 +15,9 @@
  */
 package org.matrix.androidsdk.rest.model.bingrules;
 
+import com.google.gson.JsonElement;
+
 import org.matrix.androidsdk.rest.model.Event;
-import org.matrix.androidsdk.rest.model.Message;
-import org.matrix.androidsdk.util.JsonUtils;
 
 import java.util.regex.Pattern;
 
@@ -25,15 +25,32 @@ import java.util.regex.Pattern;
  * Bing rule condition that is satisfied when a message body contains the user's current display name.
  */
 public class ContainsDisplayNameCondition extends Condition {
+    /**
+     * A display name with its compiled pattern, replaced as a whole so that concurrent evaluations
+     * never pair a name with the pattern of another.
+     */
+    private static class NamePattern {
+        final String subString;
+        final Pattern pattern;
+
+        NamePattern(String subString) {
+            this.subString = subString;
+            pattern = Pattern.compile("(\\W|^)" + Pattern.quote(subString) + "(\\W|$)", Pattern.CASE_INSENSITIVE);
+        }
+    }
+
+    // Pattern for the last display name looked for
+    private transient volatile NamePattern mNamePattern;
+
     public ContainsDisplayNameCondition() {
         kind = Condition.KIND_CONTAINS_DISPLAY_NAME;
     }
 
     public boolean isSatisfied(Event event, String myDisplayName) {
-        if (Event.EVENT_TYPE_MESSAGE.equals(event.type)) {
-            Message msg = JsonUtils.toMessage(event.content);
-            if (msg.body != null) {
-                return caseInsensitiveFind(myDisplayName, msg.body);
+        if ((myDisplayName != null) && Event.EVENT_TYPE_MESSAGE.equals(event.type) && (event.getContent() != null)) {
+            JsonElement body = event.getContent().get("body");
+            if ((body != null) && body.isJsonPrimitive()) {
+                return caseInsensitiveFind(myDisplayName, body.getAsString());
             }
         }
         return false;
@@ -41,12 +58,17 @@ public class ContainsDisplayNameCondition extends Condition {
 
     /**
      * Returns whether a string contains an occurrence of another, as a standalone word, regardless of case.
+     * The pattern is only compiled again when the string to search for changes.
      * @param subString the string to search for
      * @param longString the string to search in
      * @return whether a match was found
      */
     private boolean caseInsensitiveFind(String subString, String longString) {
-        Pattern pattern = Pattern.compile("(\\W|^)" + subString + "(\\W|$)", Pattern.CASE_INSENSITIVE);
-        return pattern.matcher(longString).find();
+        NamePattern namePattern = mNamePattern;
+        if ((namePattern == null) || !subString.equals(namePattern.subString)) {
+            namePattern = new NamePattern(subString);
+            mNamePattern = namePattern;
+        }
+        return namePattern.pattern.matcher(longString).find();
     }
 }
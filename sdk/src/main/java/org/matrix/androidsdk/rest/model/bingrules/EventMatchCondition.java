@@ -15,13 +15,20 @@
  */
 package org.matrix.androidsdk.rest.model.bingrules;
 
+import android.util.Log;
+
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.util.JsonUtils;
 
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
 public class EventMatchCondition extends Condition {
+    private static final String LOG_TAG = "EventMatchCondition";
+
     public String key;
     public String pattern;
 
@@ -31,38 +38,102 @@ public class EventMatchCondition extends Condition {
 
     /**
      * Returns whether the given event satisfies the condition.
+     * This compiles the condition on every call: use {@link #compile()} to evaluate it repeatedly.
      * @param event the event
      * @return true if the event satisfies the condition
      */
     public boolean isSatisfied(Event event) {
-        JsonObject eventJson = JsonUtils.toJson(event);
-        // Extract the value that we want to match
-        String fieldVal = extractField(eventJson, key);
-        if (fieldVal == null) {
-            return false;
-        }
-        // Process the pattern
-        String patternRegex = globToRegex(pattern);
+        Compiled compiled = compile();
+        return (compiled != null) && compiled.isSatisfied(event);
+    }
 
-        return fieldVal.matches(patternRegex);
+    /**
+     * Compile the key and pattern into a form that can be evaluated without serializing the event.
+     * @return the compiled condition, or null if it can never be satisfied
+     */
+    public Compiled compile() {
+        if ((key == null) || (pattern == null)) {
+            return null;
+        }
+        try {
+            return new Compiled(key.split("\\."), Pattern.compile(globToRegex(pattern)));
+        } catch (PatternSyntaxException e) {
+            Log.e(LOG_TAG, "Invalid pattern " + pattern + ": " + e.getMessage());
+            return null;
+        }
     }
 
-    private String extractField(JsonObject jsonObject, String fieldPath) {
-        String[] fieldParts = fieldPath.split("\\.");
-        JsonElement jsonElement = null;
-        for (String field : fieldParts) {
-            jsonElement = jsonObject.get(field);
-            if (jsonElement == null) {
-                return null;
+    /**
+     * An event match condition with its key split into a path and its glob turned into a regular expression.
+     * Immutable, so it can be shared by the threads evaluating the rules.
+     */
+    public static class Compiled {
+        private final String[] mKeyPath;
+        private final Pattern mPattern;
+
+        private Compiled(String[] keyPath, Pattern pattern) {
+            mKeyPath = keyPath;
+            mPattern = pattern;
+        }
+
+        /**
+         * Returns whether the given event satisfies the condition.
+         * @param event the event
+         * @return true if the event satisfies the condition
+         */
+        public boolean isSatisfied(Event event) {
+            // Extract the value that we want to match
+            String fieldVal = extractField(event);
+            if (fieldVal == null) {
+                return false;
+            }
+
+            return mPattern.matcher(fieldVal).matches();
+        }
+
+        private String extractField(Event event) {
+            String topLevel = mKeyPath[0];
+            if (mKeyPath.length == 1) {
+                if ("room_id".equals(topLevel)) {
+                    return event.roomId;
+                }
+                if ("user_id".equals(topLevel)) {
+                    return event.userId;
+                }
+                if ("type".equals(topLevel)) {
+                    return event.type;
+                }
+                if ("state_key".equals(topLevel)) {
+                    return event.stateKey;
+                }
+                if ("event_id".equals(topLevel)) {
+                    return event.eventId;
+                }
             }
-            if (jsonElement.isJsonObject()) {
-                jsonObject = (JsonObject) jsonElement;
+            else if ("content".equals(topLevel)) {
+                return extractField(event.getContent(), 1);
+            }
+            else if ("prev_content".equals(topLevel)) {
+                return extractField(event.getPrevContent(), 1);
+            }
+
+            // Any other key: go through the JSON form of the event
+            return extractField(JsonUtils.toJson(event), 0);
+        }
+
+        private String extractField(JsonObject jsonObject, int firstPart) {
+            JsonElement jsonElement = jsonObject;
+            for (int i = firstPart; i < mKeyPath.length; i++) {
+                if ((jsonElement == null) || !jsonElement.isJsonObject()) {
+                    return null;
+                }
+                jsonElement = ((JsonObject) jsonElement).get(mKeyPath[i]);
             }
+            return ((jsonElement == null) || !jsonElement.isJsonPrimitive()) ? null : jsonElement.getAsString();
         }
-        return (jsonElement == null) ? null : jsonElement.getAsString();
     }
 
-    private String globToRegex(String glob) {
+    private static String globToRegex(String glob) {
         String res = glob.replace("*", ".*").replace("?", ".");
         // If no special characters were found (detected here by no replacements having been made),
         // add asterisks to both sides
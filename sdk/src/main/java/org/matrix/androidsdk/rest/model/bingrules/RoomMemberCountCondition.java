@@ -18,7 +18,6 @@ package org.matrix.androidsdk.rest.model.bingrules;
 import android.util.Log;
 
 import org.matrix.androidsdk.data.Room;
-import org.matrix.androidsdk.rest.model.RoomMember;
 
 public class RoomMemberCountCondition extends Condition {
     private static final String LOG_TAG = "RoomMemberCountCondition";
@@ -43,7 +42,7 @@ public class RoomMemberCountCondition extends Condition {
             if (parseError) return false;
         }
 
-        int numMembers = getNumberOfMembers(room);
+        int numMembers = room.getJoinedMemberCount();
         if ("==".equals(comparisonPrefix) || "".equals(comparisonPrefix)) {
             return numMembers == limit;
         }
@@ -62,21 +61,6 @@ public class RoomMemberCountCondition extends Condition {
         return false;
     }
 
-    /**
-     * Count joined room members in the room.
-     * @param room the room
-     * @return the number of joined members
-     */
-    private int getNumberOfMembers(Room room) {
-        int n = 0;
-        for (RoomMember member : room.getMembers()) {
-            if (RoomMember.MEMBERSHIP_JOIN.equals(member.membership)) {
-                n++;
-            }
-        }
-        return n;
-    }
-
     /**
      * Parse the is field to extract meaningful information.
      */
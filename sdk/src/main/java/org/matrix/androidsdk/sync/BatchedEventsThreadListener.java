@@ -0,0 +1,36 @@
+/* 
+ * Copyright 2014 OpenMarket Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.sync;
+
+import org.matrix.androidsdk.rest.model.Event;
+
+import java.util.List;
+
+/**
+ * Events thread listener that takes each chunk of the event stream along with its stream token,
+ * so that both can be saved together.
+ * The events thread uses this instead of {@link #onEventsReceived(List)} followed by
+ * {@link #onStreamTokenUpdated(String)} when the listener implements it.
+ */
+public interface BatchedEventsThreadListener extends EventsThreadListener {
+
+    /**
+     * Called every time events come down the stream.
+     * @param events the events
+     * @param token the stream token to go on from once they are applied
+     */
+    public void onEventsReceived(List<Event> events, String token);
+}
@@ -26,7 +26,7 @@ import java.util.List;
 /**
  * Listener for the events thread that sends data back to a data handler.
  */
-public class DefaultEventsThreadListener implements EventsThreadListener {
+public class DefaultEventsThreadListener implements StreamingEventsThreadListener, BatchedEventsThreadListener {
     private MXDataHandler mData;
 
     public DefaultEventsThreadListener(MXDataHandler data) {
@@ -46,8 +46,39 @@ public class DefaultEventsThreadListener implements EventsThreadListener {
         mData.onInitialSyncComplete();
     }
 
+    @Override
+    public void onPresence(List<Event> presence) {
+        mData.handleLiveEvents(presence);
+    }
+
+    @Override
+    public void onRoom(RoomResponse roomResponse) {
+        mData.handleInitialRoomResponse(roomResponse);
+    }
+
+    @Override
+    public void onInitialSyncStreamComplete() {
+        mData.onInitialSyncComplete();
+    }
+
     @Override
     public void onEventsReceived(List<Event> events) {
         mData.handleLiveEvents(events);
     }
+
+    @Override
+    public void onEventsReceived(List<Event> events, String token) {
+        // The chunk's events, room states, summaries and stream token are saved in one go
+        mData.handleLiveEvents(events, token);
+    }
+
+    @Override
+    public void onEventStreamResumed() {
+        mData.onInitialSyncComplete();
+    }
+
+    @Override
+    public void onStreamTokenUpdated(String token) {
+        mData.getStore().storeEventStreamToken(token);
+    }
 }
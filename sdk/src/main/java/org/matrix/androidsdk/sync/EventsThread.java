@@ -26,7 +26,11 @@ import org.matrix.androidsdk.rest.model.InitialSyncResponse;
 import org.matrix.androidsdk.rest.model.MatrixError;
 import org.matrix.androidsdk.rest.model.TokensChunkResponse;
 
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import retrofit.RetrofitError;
 
@@ -37,14 +41,42 @@ public class EventsThread extends Thread {
     private static final String LOG_TAG = "EventsThread";
 
     private static final int RETRY_WAIT_TIME_MS = 10000;
+    // How often the events thread checks on the processing thread while the queue is full
+    private static final int ENQUEUE_WAIT_TIME_MS = 1000;
+
+    /**
+     * A chunk of events fetched from the stream, waiting to be processed.
+     */
+    private static class FetchedChunk {
+        final List<Event> events;
+        final String token;
+        final long fetchTime;
+
+        FetchedChunk(List<Event> events, String token) {
+            this.events = events;
+            this.token = token;
+            fetchTime = System.currentTimeMillis();
+        }
+    }
+
+    // Queued by the events thread to tell the processing thread to stop
+    private static final FetchedChunk END_OF_STREAM = new FetchedChunk(null, null);
 
     private EventsRestClient mApiClient;
     private EventsThreadListener mListener = null;
     private String mCurrentToken;
+    private int mInitialSyncLimit = EventsRestClient.INITIAL_SYNC_MESSAGES_LIMIT;
 
     private boolean mInitialSyncDone = false;
     private boolean mPaused = true;
-    private boolean mKilling = false;
+    private volatile boolean mKilling = false;
+
+    // Pipelined mode: chunks are handed over to a processing thread through a bounded queue
+    private int mPipelineCapacity = 0;
+    private BlockingQueue<FetchedChunk> mPipeline;
+    private Thread mProcessingThread;
+    private volatile long mLastApplyLag = 0;
+    private volatile long mMaxApplyLag = 0;
 
     // Custom Retrofit error callback that will convert Retrofit errors into our own error callback
     private RestAdapterCallback mEventsFailureCallback;
@@ -61,6 +93,26 @@ public class EventsThread extends Thread {
         mListener = listener;
     }
 
+    /**
+     * Resume the event stream from a token saved by a previous run instead of doing an initial sync.
+     * The initial sync is only done if the server rejects the token.
+     * Must be called before the thread is started.
+     * @param token the token last passed to {@link EventsThreadListener#onStreamTokenUpdated(String)}
+     */
+    public void setResumeToken(String token) {
+        mCurrentToken = token;
+    }
+
+    /**
+     * Set the number of messages the initial sync gets per room.
+     * Must be called before the thread is started.
+     * @param limit the number of messages, e.g. {@link EventsRestClient#SUMMARY_SYNC_MESSAGES_LIMIT} to only
+     *              get what the room list shows and load the rest of each room later
+     */
+    public void setInitialSyncLimit(int limit) {
+        mInitialSyncLimit = limit;
+    }
+
     /**
      * Set the failure callback.
      * @param failureCallback
@@ -70,6 +122,39 @@ public class EventsThread extends Thread {
         mEventsFailureCallback = new RestAdapterCallback(new SimpleApiCallback(failureCallback));
     }
 
+    /**
+     * Enable pipelined mode, where the next events request is sent as soon as a response arrives
+     * and the chunks are handed to the listener on a separate processing thread.
+     * The events thread blocks when the given number of chunks are waiting to be processed.
+     * Must be called before the thread is started.
+     * @param capacity the maximum number of pending chunks, or 0 to process chunks synchronously (default)
+     */
+    public void setPipelineCapacity(int capacity) {
+        mPipelineCapacity = capacity;
+    }
+
+    /**
+     * @return the number of fetched chunks waiting to be processed, always 0 in synchronous mode
+     */
+    public int getQueueDepth() {
+        BlockingQueue<FetchedChunk> pipeline = mPipeline;
+        return (pipeline == null) ? 0 : pipeline.size();
+    }
+
+    /**
+     * @return the time in ms between fetching the last processed chunk and handing it to the listener
+     */
+    public long getLastApplyLag() {
+        return mLastApplyLag;
+    }
+
+    /**
+     * @return the largest fetch-to-apply time in ms seen so far
+     */
+    public long getMaxApplyLag() {
+        return mMaxApplyLag;
+    }
+
     /**
      * Pause the thread. It will resume where it left off when unpause()d.
      */
@@ -100,18 +185,29 @@ public class EventsThread extends Thread {
 
     @Override
     public void run() {
-        Log.d(LOG_TAG, "Requesting initial sync...");
         mPaused = false;
 
-        // Start with initial sync
+        if (mCurrentToken != null) {
+            resumeEventStream();
+        }
+
+        if (!mInitialSyncDone) {
+            Log.d(LOG_TAG, "Requesting initial sync...");
+        }
+
+        // Start with initial sync, streamed room by room if the listener can take it
+        if (!mInitialSyncDone && (mListener instanceof StreamingEventsThreadListener)) {
+            streamInitialSync((StreamingEventsThreadListener) mListener);
+        }
         while (!mInitialSyncDone) {
             final CountDownLatch latch = new CountDownLatch(1);
-            mApiClient.initialSync(new SimpleApiCallback<InitialSyncResponse>(mFailureCallback) {
+            mApiClient.initialSync(mInitialSyncLimit, new SimpleApiCallback<InitialSyncResponse>(mFailureCallback) {
                 @Override
                 public void onSuccess(InitialSyncResponse initialSync) {
                     Log.i(LOG_TAG, "Received initial sync response.");
                     mListener.onInitialSyncComplete(initialSync);
                     mCurrentToken = initialSync.end;
+                    mListener.onStreamTokenUpdated(mCurrentToken);
                     mInitialSyncDone = true;
                     // unblock the events thread
                     latch.countDown();
@@ -156,6 +252,10 @@ public class EventsThread extends Thread {
 
         Log.d(LOG_TAG, "Starting event stream from token " + mCurrentToken);
 
+        if (mPipelineCapacity > 0) {
+            startProcessingThread();
+        }
+
         // Then repeatedly long-poll for events
         while (!mKilling) {
             if (mPaused) {
@@ -172,21 +272,176 @@ public class EventsThread extends Thread {
 
             try {
                 TokensChunkResponse<Event> eventsResponse = mApiClient.events(mCurrentToken);
-                mListener.onEventsReceived(eventsResponse.chunk);
+                FetchedChunk chunk = new FetchedChunk(eventsResponse.chunk, eventsResponse.end);
+                if (mPipeline != null) {
+                    if (!enqueue(chunk)) {
+                        break;
+                    }
+                    mCurrentToken = chunk.token;
+                }
+                else {
+                    processChunk(chunk);
+                    mCurrentToken = chunk.token;
+                }
+            }
+            catch (RetrofitError error) {
+                onRetrofitError(error);
+            }
+        }
+
+        if (mPipeline != null) {
+            // Let the processing thread finish what has already been fetched
+            enqueue(END_OF_STREAM);
+        }
+        Log.d(LOG_TAG, "Event stream terminating.");
+    }
+
+    /**
+     * Check the resume token with a non-blocking events request and apply what has happened since.
+     * Clears the token if the server rejects it, so that the initial sync is done instead.
+     */
+    private void resumeEventStream() {
+        Log.d(LOG_TAG, "Resuming event stream from token " + mCurrentToken);
+        while (!mInitialSyncDone) {
+            try {
+                TokensChunkResponse<Event> eventsResponse = mApiClient.events(mCurrentToken, 0);
+                processChunk(new FetchedChunk(eventsResponse.chunk, eventsResponse.end));
                 mCurrentToken = eventsResponse.end;
+                mInitialSyncDone = true;
+                // Only once the state has caught up
+                mListener.onEventStreamResumed();
             }
             catch (RetrofitError error) {
-                if (mEventsFailureCallback != null) {
-                    mEventsFailureCallback.failure(error);
+                if (isTokenRejected(error)) {
+                    Log.w(LOG_TAG, "Resume token rejected: " + error.getMessage());
+                    mCurrentToken = null;
+                    return;
                 }
-                Log.i(LOG_TAG, "Waiting a bit before retrying");
+                onRetrofitError(error);
+            }
+        }
+    }
+
+    /**
+     * Tell if the server turned the stream token down, as opposed to failing for another reason
+     * that is worth retrying with the same token.
+     * @param error the error
+     * @return true for a client error with a Matrix error code, other than rate limiting
+     */
+    private static boolean isTokenRejected(RetrofitError error) {
+        if (error.isNetworkError() || (error.getResponse() == null)) {
+            return false;
+        }
+        int status = error.getResponse().getStatus();
+        if ((status < 400) || (status >= 500) || (status == 429)) {
+            return false;
+        }
+        try {
+            MatrixError matrixError = (MatrixError) error.getBodyAs(MatrixError.class);
+            return (matrixError != null) && (matrixError.errcode != null);
+        }
+        catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Perform the initial sync through the streaming parser, retrying until it succeeds.
+     * Rooms handed over by a failed attempt are handed over again by the next one.
+     * @param listener the listener to hand the rooms to
+     */
+    private void streamInitialSync(StreamingEventsThreadListener listener) {
+        while (!mInitialSyncDone) {
+            try {
+                mCurrentToken = mApiClient.initialSync(mInitialSyncLimit, listener);
+                Log.i(LOG_TAG, "Received initial sync response.");
+                listener.onInitialSyncStreamComplete();
+                listener.onStreamTokenUpdated(mCurrentToken);
+                mInitialSyncDone = true;
+            }
+            catch (RetrofitError error) {
+                onRetrofitError(error);
+            }
+        }
+    }
+
+    private void onRetrofitError(RetrofitError error) {
+        if (mEventsFailureCallback != null) {
+            mEventsFailureCallback.failure(error);
+        }
+        Log.i(LOG_TAG, "Waiting a bit before retrying");
+        try {
+            Thread.sleep(RETRY_WAIT_TIME_MS);
+        } catch (InterruptedException e1) {
+            Log.e(LOG_TAG, "Unexpected interruption while sleeping: " + e1.getMessage());
+        }
+    }
+
+    private void startProcessingThread() {
+        mPipeline = new ArrayBlockingQueue<FetchedChunk>(mPipelineCapacity);
+        mProcessingThread = new Thread("Events processing thread") {
+            @Override
+            public void run() {
                 try {
-                    Thread.sleep(RETRY_WAIT_TIME_MS);
-                } catch (InterruptedException e1) {
-                    Log.e(LOG_TAG, "Unexpected interruption while sleeping: " + e1.getMessage());
+                    while (true) {
+                        FetchedChunk chunk = mPipeline.take();
+                        if (chunk == END_OF_STREAM) {
+                            break;
+                        }
+                        try {
+                            processChunk(chunk);
+                        } catch (RuntimeException e) {
+                            // Go on with the next chunks, else the events thread ends up blocked on a full queue
+                            Log.e(LOG_TAG, "Error processing events: " + e.getMessage(), e);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Log.e(LOG_TAG, "Event processing interrupted");
+                }
+                Log.d(LOG_TAG, "Event processing terminating.");
+            }
+        };
+        mProcessingThread.start();
+    }
+
+    /**
+     * Hand a chunk over to the processing thread, waiting while the queue is full.
+     * @param chunk the chunk
+     * @return false if the chunk could not be queued because the processing thread has stopped
+     *         or this thread was interrupted
+     */
+    private boolean enqueue(FetchedChunk chunk) {
+        if (mPipeline.offer(chunk)) {
+            return true;
+        }
+        Log.w(LOG_TAG, "Event processing is falling behind: " + mPipeline.size() + " chunks pending, lag "
+                + mLastApplyLag + "ms");
+        try {
+            while (!mPipeline.offer(chunk, ENQUEUE_WAIT_TIME_MS, TimeUnit.MILLISECONDS)) {
+                if (!mProcessingThread.isAlive()) {
+                    Log.e(LOG_TAG, "Event processing has stopped");
+                    return false;
                 }
             }
+            return true;
+        } catch (InterruptedException e) {
+            Log.e(LOG_TAG, "Interrupted while queueing events");
+            return false;
+        }
+    }
+
+    private void processChunk(FetchedChunk chunk) {
+        long lag = System.currentTimeMillis() - chunk.fetchTime;
+        mLastApplyLag = lag;
+        if (lag > mMaxApplyLag) {
+            mMaxApplyLag = lag;
+        }
+        if (mListener instanceof BatchedEventsThreadListener) {
+            ((BatchedEventsThreadListener) mListener).onEventsReceived(chunk.events, chunk.token);
+        }
+        else {
+            mListener.onEventsReceived(chunk.events);
+            mListener.onStreamTokenUpdated(chunk.token);
         }
-        Log.d(LOG_TAG, "Event stream terminating.");
     }
 }
@@ -21,4 +21,17 @@ public interface EventsThreadListener {
      * @param events the events
      */
     public void onEventsReceived(List<Event> events);
+
+    /**
+     * Called instead of {@link #onInitialSyncComplete(InitialSyncResponse)} when the thread resumed the stream
+     * from a token given by {@link EventsThread#setResumeToken(String)}.
+     */
+    public void onEventStreamResumed();
+
+    /**
+     * Called once everything up to the given stream token has been handed to the listener,
+     * e.g. so that the token can be persisted and the stream resumed from there on the next start.
+     * @param token the stream token
+     */
+    public void onStreamTokenUpdated(String token);
 }
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.sync;
+
+import org.matrix.androidsdk.rest.json.InitialSyncStreamParser;
+
+/**
+ * Events thread listener that takes the initial sync one room at a time as it is parsed.
+ * The events thread uses this instead of {@link #onInitialSyncComplete} when the listener implements it.
+ */
+public interface StreamingEventsThreadListener extends EventsThreadListener, InitialSyncStreamParser.Listener {
+
+    /**
+     * Called once the presence and all the rooms of the initial sync have been handed over.
+     */
+    public void onInitialSyncStreamComplete();
+}
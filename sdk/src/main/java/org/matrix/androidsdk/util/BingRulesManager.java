@@ -34,7 +34,9 @@ import org.matrix.androidsdk.rest.model.bingrules.EventMatchCondition;
 import org.matrix.androidsdk.rest.model.bingrules.RoomMemberCountCondition;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Object that gets and processes bing rules from the server.
@@ -45,7 +47,56 @@ public class BingRulesManager {
     private String mMyUserId;
     private MXDataHandler mDataHandler;
 
-    private List<BingRule> mRules = new ArrayList<BingRule>();
+    /**
+     * A rule in the form used for evaluation: its event match conditions compiled, its other conditions
+     * in an array and its actions already turned into a decision. Nothing in it changes once built.
+     */
+    private static class CompiledRule {
+        final EventMatchCondition.Compiled[] eventMatches;
+        final Condition[] conditions;
+        // False if one of the conditions can never be satisfied, e.g. because of an invalid pattern
+        final boolean matchable;
+        final boolean bing;
+
+        CompiledRule(BingRule bingRule) {
+            List<EventMatchCondition.Compiled> eventMatchList = new ArrayList<EventMatchCondition.Compiled>();
+            List<Condition> conditionList = new ArrayList<Condition>();
+            boolean canMatch = true;
+            if (bingRule.conditions != null) {
+                for (Condition condition : bingRule.conditions) {
+                    if (condition instanceof EventMatchCondition) {
+                        EventMatchCondition.Compiled compiled = ((EventMatchCondition) condition).compile();
+                        if (compiled == null) {
+                            canMatch = false;
+                        } else {
+                            eventMatchList.add(compiled);
+                        }
+                    } else {
+                        conditionList.add(condition);
+                    }
+                }
+            }
+            eventMatches = eventMatchList.toArray(new EventMatchCondition.Compiled[eventMatchList.size()]);
+            conditions = conditionList.toArray(new Condition[conditionList.size()]);
+            matchable = canMatch;
+            bing = shouldBing(bingRule);
+        }
+    }
+
+    /**
+     * The rules to evaluate, by stage. Room and sender rules apply to exactly one room or sender,
+     * so they are looked up by id rather than matched one by one.
+     */
+    private static class CompiledRules {
+        // Override and content rules, in order
+        final List<CompiledRule> beforeRoomRules = new ArrayList<CompiledRule>();
+        final Map<String, CompiledRule> roomRules = new HashMap<String, CompiledRule>();
+        final Map<String, CompiledRule> senderRules = new HashMap<String, CompiledRule>();
+        final List<CompiledRule> underrideRules = new ArrayList<CompiledRule>();
+    }
+
+    // Replaced as a whole when the rules are reloaded, so that evaluation never sees a partial set
+    private volatile CompiledRules mRules = new CompiledRules();
 
     private boolean isReady = false;
 
@@ -87,87 +138,121 @@ public class BingRulesManager {
         if (!isReady) {
             return false;
         }
-        if (mRules != null) {
-            // Go down the rule list until we find a match
-            for (BingRule bingRule : mRules) {
-                if (eventMatchesConditions(event, bingRule.conditions)) {
-                    for (JsonElement action : bingRule.actions) {
-                        if (action.isJsonPrimitive()) {
-                            if (BingRule.ACTION_NOTIFY.equals(action.getAsString())
-                                    || BingRule.ACTION_COALESCE.equals(action.getAsString())) {
-                                return true;
-                            } else if (BingRule.ACTION_DONT_NOTIFY.equals(action.getAsString())) {
-                                return false;
-                            }
-                        }
-                        // FIXME: Support other actions
-                    }
-                    // No supported actions were found, just bing
-                    return true;
-                }
+        CompiledRules rules = mRules;
+
+        // Go down the rule list until we find a match
+        for (CompiledRule rule : rules.beforeRoomRules) {
+            if (eventMatchesRule(event, rule)) {
+                return rule.bing;
             }
         }
+
+        CompiledRule roomRule = (event.roomId == null) ? null : rules.roomRules.get(event.roomId);
+        if ((roomRule != null) && eventMatchesRule(event, roomRule)) {
+            return roomRule.bing;
+        }
+
+        CompiledRule senderRule = (event.userId == null) ? null : rules.senderRules.get(event.userId);
+        if ((senderRule != null) && eventMatchesRule(event, senderRule)) {
+            return senderRule.bing;
+        }
+
+        for (CompiledRule rule : rules.underrideRules) {
+            if (eventMatchesRule(event, rule)) {
+                return rule.bing;
+            }
+        }
+
         // The default is to bing
         return true;
     }
 
-    private boolean eventMatchesConditions(Event event, List<Condition> conditions) {
-        if (conditions != null) {
-            for (Condition condition : conditions) {
-                if (condition instanceof EventMatchCondition) {
-                    if (!((EventMatchCondition) condition).isSatisfied(event)) {
+    private boolean eventMatchesRule(Event event, CompiledRule rule) {
+        if (!rule.matchable) {
+            return false;
+        }
+        for (EventMatchCondition.Compiled eventMatch : rule.eventMatches) {
+            if (!eventMatch.isSatisfied(event)) {
+                return false;
+            }
+        }
+        for (Condition condition : rule.conditions) {
+            if (condition instanceof ContainsDisplayNameCondition) {
+                if (event.roomId != null) {
+                    // Best way to get your display name for now
+                    String myDisplayName = mDataHandler.getRoom(event.roomId).getMember(mMyUserId).displayname;
+                    if (!((ContainsDisplayNameCondition) condition).isSatisfied(event, myDisplayName)) {
                         return false;
                     }
                 }
-                else if (condition instanceof ContainsDisplayNameCondition) {
-                    if (event.roomId != null) {
-                        // Best way to get your display name for now
-                        String myDisplayName = mDataHandler.getRoom(event.roomId).getMember(mMyUserId).displayname;
-                        if (!((ContainsDisplayNameCondition) condition).isSatisfied(event, myDisplayName)) {
-                            return false;
-                        }
+            }
+            else if (condition instanceof RoomMemberCountCondition) {
+                if (event.roomId != null) {
+                    Room room = mDataHandler.getRoom(event.roomId);
+                    if (!((RoomMemberCountCondition) condition).isSatisfied(room)) {
+                        return false;
                     }
                 }
-                else if (condition instanceof RoomMemberCountCondition) {
-                    if (event.roomId != null) {
-                        Room room = mDataHandler.getRoom(event.roomId);
-                        if (!((RoomMemberCountCondition) condition).isSatisfied(room)) {
-                            return false;
-                        }
+            }
+            // FIXME: Handle device rules
+        }
+        return true;
+    }
+
+    /**
+     * Work out once what a rule's actions mean, rather than on every matching event.
+     * @param bingRule the rule
+     * @return true if an event matching the rule should bing
+     */
+    private static boolean shouldBing(BingRule bingRule) {
+        if (bingRule.actions != null) {
+            for (JsonElement action : bingRule.actions) {
+                if (action.isJsonPrimitive()) {
+                    if (BingRule.ACTION_NOTIFY.equals(action.getAsString())
+                            || BingRule.ACTION_COALESCE.equals(action.getAsString())) {
+                        return true;
+                    } else if (BingRule.ACTION_DONT_NOTIFY.equals(action.getAsString())) {
+                        return false;
                     }
                 }
-                // FIXME: Handle device rules
+                // FIXME: Support other actions
             }
         }
+        // No supported actions were found, just bing
         return true;
     }
 
     private void buildRules(BingRulesResponse bingRulesResponse) {
-        mRules.clear();
+        CompiledRules rules = new CompiledRules();
         // FIXME: Handle device rules
-        addRules(bingRulesResponse.global);
+        addRules(rules, bingRulesResponse.global);
+        mRules = rules;
     }
 
-    private void addRules(BingRuleSet ruleSet) {
+    private void addRules(CompiledRules rules, BingRuleSet ruleSet) {
         if (ruleSet.override != null) {
-            mRules.addAll(ruleSet.override);
+            for (BingRule rule : ruleSet.override) {
+                rules.beforeRoomRules.add(new CompiledRule(rule));
+            }
         }
         if (ruleSet.content != null) {
-            addContentRules(ruleSet.content);
+            addContentRules(rules, ruleSet.content);
         }
         if (ruleSet.room != null) {
-            addRoomRules(ruleSet.room);
+            addRulesById(rules.roomRules, ruleSet.room);
         }
         if (ruleSet.sender != null) {
-            addSenderRules(ruleSet.sender);
+            addRulesById(rules.senderRules, ruleSet.sender);
         }
         if (ruleSet.underride != null) {
-            mRules.addAll(ruleSet.underride);
+            for (BingRule rule : ruleSet.underride) {
+                rules.underrideRules.add(new CompiledRule(rule));
+            }
         }
     }
 
-    private void addContentRules(List<ContentRule> rules) {
-        for (ContentRule rule : rules) {
+    private void addContentRules(CompiledRules rules, List<ContentRule> contentRules) {
+        for (ContentRule rule : contentRules) {
             EventMatchCondition condition = new EventMatchCondition();
             condition.kind = Condition.KIND_EVENT_MATCH;
             condition.key = "content.body";
@@ -175,33 +260,21 @@ public class BingRulesManager {
 
             rule.addCondition(condition);
 
-            mRules.add(rule);
-        }
-    }
-
-    private void addRoomRules(List<BingRule> rules) {
-        for (BingRule rule : rules) {
-            EventMatchCondition condition = new EventMatchCondition();
-            condition.kind = Condition.KIND_EVENT_MATCH;
-            condition.key = "room_id";
-            condition.pattern = rule.ruleId;
-
-            rule.addCondition(condition);
-
-            mRules.add(rule);
+            rules.beforeRoomRules.add(new CompiledRule(rule));
         }
     }
 
-    private void addSenderRules(List<BingRule> rules) {
-        for (BingRule rule : rules) {
-            EventMatchCondition condition = new EventMatchCondition();
-            condition.kind = Condition.KIND_EVENT_MATCH;
-            condition.key = "user_id";
-            condition.pattern = rule.ruleId;
-
-            rule.addCondition(condition);
-
-            mRules.add(rule);
+    /**
+     * Add room or sender rules, whose rule id is the room or user id they apply to.
+     * @param rulesById the map to add to
+     * @param bingRules the rules
+     */
+    private void addRulesById(Map<String, CompiledRule> rulesById, List<BingRule> bingRules) {
+        for (BingRule rule : bingRules) {
+            // The first rule for an id is the one that would have matched first
+            if ((rule.ruleId != null) && !rulesById.containsKey(rule.ruleId)) {
+                rulesById.put(rule.ruleId, new CompiledRule(rule));
+            }
         }
     }
 }
@@ -15,19 +15,17 @@
  */
 package org.matrix.androidsdk.util;
 
-import android.os.AsyncTask;
 import android.util.Log;
 
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.OkUrlFactory;
+
+import org.matrix.androidsdk.RestClient;
 import org.matrix.androidsdk.rest.model.ContentResponse;
-import org.matrix.androidsdk.rest.model.ImageInfo;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 
 /**
  * Class for accessing content from the current session.
@@ -45,12 +43,25 @@ public class ContentManager {
 
     private String mHsUri;
     private String mAccessToken;
+    private OkUrlFactory mUrlFactory;
+    private MediaCache mMediaCache;
+    private MediaDownloader mMediaDownloader;
+    private ContentUploader mContentUploader;
+    private ImageUploader mImageUploader;
 
     /**
      * Interface to implement to get the mxc URI of uploaded content.
+     * Its methods are called on the main thread.
      */
     public static interface UploadCallback {
 
+        /**
+         * Called as the content is sent.
+         * @param bytesSent the number of bytes sent so far
+         * @param totalBytes the length of the content
+         */
+        public void onUploadProgress(long bytesSent, long totalBytes);
+
         /**
          * Called when the upload is complete or has failed.
          * @param uploadResponse the ContentResponse object containing the mxc URI or null if the upload failed
@@ -64,8 +75,44 @@ public class ContentManager {
      * @param accessToken the user's access token
      */
     public ContentManager(String hsUri, String accessToken) {
+        this(hsUri, accessToken, RestClient.getDefaultHttpClient());
+    }
+
+    /**
+     * Constructor sharing the given HTTP client, and so its connection pool, with the API clients.
+     * @param hsUri the home server URL
+     * @param accessToken the user's access token
+     * @param httpClient the HTTP client to make the requests with
+     */
+    public ContentManager(String hsUri, String accessToken, OkHttpClient httpClient) {
         mHsUri = hsUri;
         mAccessToken = accessToken;
+        mUrlFactory = new OkUrlFactory(httpClient);
+        mContentUploader = new ContentUploader(mUrlFactory);
+        mImageUploader = new ImageUploader(this);
+    }
+
+    /**
+     * Set the cache to keep downloaded media in.
+     * @param mediaCache the cache, typically shared by all sessions
+     */
+    public void setMediaCache(MediaCache mediaCache) {
+        mMediaCache = mediaCache;
+        mMediaDownloader = new MediaDownloader(mediaCache, mUrlFactory);
+    }
+
+    /**
+     * @return the cache to keep downloaded media in
+     */
+    public MediaCache getMediaCache() {
+        return mMediaCache;
+    }
+
+    /**
+     * @return the downloader loading media through the cache, once a cache is set
+     */
+    public MediaDownloader getMediaDownloader() {
+        return mMediaDownloader;
     }
 
     /**
@@ -108,117 +155,56 @@ public class ContentManager {
     }
 
     /**
-     * Upload a file.
+     * Upload a file, of any type.
      * @param fileName the file path
      * @param callback the async callback returning a mxc: URI to access the uploaded file
+     * @return the upload, to cancel it, or null if the file cannot be read
      */
-    public void uploadContent(String fileName, UploadCallback callback) {
-        new ContentUploadTask(callback).execute(fileName, mHsUri, mAccessToken);
+    public ContentUploader.Upload uploadContent(String fileName, UploadCallback callback) {
+        return uploadContent(new File(fileName), ContentUtils.getMimeType(fileName), callback);
     }
 
     /**
-     * Private AsyncTask used to upload files.
+     * Upload a file.
+     * @param file the file
+     * @param mimeType the MIME type of the content
+     * @param callback the async callback returning a mxc: URI to access the uploaded file
+     * @return the upload, to cancel it, or null if the file cannot be read
      */
-    private static class ContentUploadTask extends AsyncTask<String, Void, String> {
-
-        private UploadCallback callback;
-
-        public ContentUploadTask(UploadCallback callback) {
-            this.callback = callback;
+    public ContentUploader.Upload uploadContent(File file, String mimeType, UploadCallback callback) {
+        try {
+            return mContentUploader.upload(file, mimeType, getUploadUrl(), callback);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error: " + e.getMessage());
+            callback.onUploadComplete(null);
+            return null;
         }
+    }
 
-        @Override
-        protected String doInBackground(String... params) {
-            HttpURLConnection conn;
-            DataOutputStream dos;
-            DataInputStream inStream;
-
-            String fileName = params[0];
-            String hsUrl = params[1];
-            String accessToken = params[2];
-
-            int bytesRead, bytesAvailable, bufferSize;
-
-            byte[] buffer;
-
-            int maxBufferSize = 1*1024*1024;
-
-            String responseFromServer = null;
-
-            String urlString = hsUrl + URI_PREFIX_CONTENT_API + "/upload?access_token=" + accessToken;
-
-            try
-            {
-                FileInputStream fileInputStream = new FileInputStream(new File(fileName));
-
-                URL url = new URL(urlString);
-
-                conn = (HttpURLConnection) url.openConnection();
-                conn.setDoInput(true);
-                conn.setDoOutput(true);
-                conn.setUseCaches(false);
-                conn.setRequestMethod("POST");
-
-                // TODO: Handle other file types
-                String mimeType = ContentUtils.getMimeType(fileName);
-                if (mimeType.startsWith("image/")) {
-                    ImageInfo imageInfo = ContentUtils.getImageInfoFromFile(fileName);
-                    conn.setRequestProperty("Content-type", imageInfo.mimetype);
-                    conn.setRequestProperty("Content-length", String.valueOf(imageInfo.size));
-                }
-
-                conn.connect();
-
-                dos = new DataOutputStream(conn.getOutputStream() );
-
-                // create a buffer of maximum size
-                bytesAvailable = fileInputStream.available();
-                bufferSize = Math.min(bytesAvailable, maxBufferSize);
-                buffer = new byte[bufferSize];
-
-                // read file and write it into form...
-                bytesRead = fileInputStream.read(buffer, 0, bufferSize);
-
-                while (bytesRead > 0) {
-                    dos.write(buffer, 0, bufferSize);
-                    bytesAvailable = fileInputStream.available();
-                    bufferSize = Math.min(bytesAvailable, maxBufferSize);
-                    bytesRead = fileInputStream.read(buffer, 0, bufferSize);
-                }
-
-                // close streams
-                fileInputStream.close();
-                dos.flush();
-                dos.close();
-
-                // Read the SERVER RESPONSE
-                int status = conn.getResponseCode();
-                if (status == 200) {
-                    InputStream is = conn.getInputStream();
-                    int ch;
-                    StringBuffer b = new StringBuffer();
-                    while ((ch = is.read()) != -1) {
-                        b.append((char) ch);
-                    }
-                    responseFromServer = b.toString();
-                    is.close();
-                }
-                else {
-                    Log.e(LOG_TAG, "Error: Upload returned " + status + " status code");
-                    return null;
-                }
-
-            }
-            catch (Exception e) {
-                Log.e(LOG_TAG, "Error: " + e.getMessage());
-            }
-
-            return responseFromServer;
-        }
+    /**
+     * Upload the content of a stream, which is closed once read.
+     * @param stream the content
+     * @param length the length of the content in bytes
+     * @param mimeType the MIME type of the content
+     * @param callback the async callback returning a mxc: URI to access the uploaded content
+     * @return the upload, to cancel it
+     */
+    public ContentUploader.Upload uploadContent(InputStream stream, long length, String mimeType, UploadCallback callback) {
+        return mContentUploader.upload(stream, length, mimeType, getUploadUrl(), callback);
+    }
 
-        @Override
-        protected void onPostExecute(String s) {
-            callback.onUploadComplete((s == null) ? null : JsonUtils.toContentResponse(s));
-        }
+    /**
+     * Upload an image with a thumbnail of it, preparing both in the background.
+     * @param filePath the path to the image in storage
+     * @param maxImageSize the longest side the uploaded image may have, it is scaled down if larger; 0 to upload it as it is
+     * @param callback the async callback returning the image message to send
+     * @return the upload, to cancel it
+     */
+    public ImageUploader.ImageUpload uploadImage(String filePath, int maxImageSize, ImageUploader.ImageUploadCallback callback) {
+        return mImageUploader.upload(filePath, maxImageSize, callback);
+    }
+
+    private String getUploadUrl() {
+        return mHsUri + URI_PREFIX_CONTENT_API + "/upload?access_token=" + mAccessToken;
     }
 }
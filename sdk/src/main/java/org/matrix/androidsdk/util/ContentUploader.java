@@ -0,0 +1,309 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.util;
+
+import android.util.Log;
+
+import com.google.gson.JsonParseException;
+import com.squareup.okhttp.OkUrlFactory;
+
+import org.matrix.androidsdk.RestClient;
+import org.matrix.androidsdk.rest.model.ContentResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Uploads content to the media repository.
+ * <ul>
+ * <li>The data is streamed from a file channel or input stream through one fixed size buffer,
+ * with its length declared up front, so it is never held in memory whole.</li>
+ * <li>Progress is reported as the data goes out, and an upload can be cancelled.</li>
+ * <li>A few uploads run at the same time; the others wait their turn.</li>
+ * </ul>
+ * Callbacks are called on the main thread.
+ */
+public class ContentUploader {
+
+    private static final String LOG_TAG = "ContentUploader";
+
+    private static final int MAX_UPLOAD_THREADS = 2;
+    private static final int THREAD_KEEP_ALIVE_S = 30;
+    private static final int BUFFER_SIZE = 32 * 1024;
+    // Report progress in steps of this many bytes at most
+    private static final long PROGRESS_STEP = 64 * 1024;
+
+    /**
+     * An upload, queued or in progress.
+     */
+    public class Upload implements Runnable {
+        private final ReadableByteChannel mChannel;
+        private final long mLength;
+        private final String mMimeType;
+        private final String mUrl;
+        private final ContentManager.UploadCallback mCallback;
+
+        private volatile boolean mCancelled = false;
+        // Taken by whichever comes first of run() and cancel(), so that a started upload is not closed under it
+        private final AtomicBoolean mStarted = new AtomicBoolean();
+        private volatile HttpURLConnection mConnection;
+        private Future<?> mFuture;
+
+        Upload(ReadableByteChannel channel, long length, String mimeType, String url, ContentManager.UploadCallback callback) {
+            mChannel = channel;
+            mLength = length;
+            mMimeType = mimeType;
+            mUrl = url;
+            mCallback = callback;
+        }
+
+        /**
+         * Stop the upload. The callback is not called any more.
+         */
+        public void cancel() {
+            mCancelled = true;
+            if (mStarted.compareAndSet(false, true)) {
+                // It never started
+                mFuture.cancel(false);
+                close();
+            }
+            HttpURLConnection connection = mConnection;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+
+        /**
+         * @return true if the upload was cancelled
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public void run() {
+            if (!mStarted.compareAndSet(false, true)) {
+                return;
+            }
+
+            String response = null;
+            try {
+                response = upload(this);
+            } catch (IOException e) {
+                if (!mCancelled) {
+                    Log.e(LOG_TAG, "Error: " + e.getMessage());
+                }
+            } finally {
+                close();
+            }
+
+            ContentResponse parsedResponse = null;
+            if (response != null) {
+                try {
+                    parsedResponse = JsonUtils.toContentResponse(response);
+                } catch (JsonParseException e) {
+                    Log.e(LOG_TAG, "Error: malformed upload response " + e.getMessage());
+                }
+            }
+            final ContentResponse contentResponse = parsedResponse;
+            mMainThreadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onUploadComplete(contentResponse);
+                    }
+                }
+            });
+        }
+
+        private void onProgress(final long bytesSent) {
+            mMainThreadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onUploadProgress(bytesSent, mLength);
+                    }
+                }
+            });
+        }
+
+        private void close() {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error: " + e.getMessage());
+            }
+        }
+    }
+
+    private static ExecutorService sExecutor;
+
+    private OkUrlFactory mUrlFactory;
+    private ExecutorService mExecutor;
+    private Executor mMainThreadExecutor;
+
+    /**
+     * Constructor.
+     * @param urlFactory the factory for the HTTP connections
+     */
+    public ContentUploader(OkUrlFactory urlFactory) {
+        this(urlFactory, getDefaultExecutor(), RestClient.getMainThreadExecutor());
+    }
+
+    /**
+     * The pool shared by all the uploaders of the process, running at most MAX_UPLOAD_THREADS uploads at a time.
+     * Idle threads are let go after a while.
+     */
+    static synchronized ExecutorService getDefaultExecutor() {
+        if (sExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_UPLOAD_THREADS, MAX_UPLOAD_THREADS,
+                    THREAD_KEEP_ALIVE_S, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    RestClient.newBackgroundThreadFactory("ContentUploader"));
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    ContentUploader(OkUrlFactory urlFactory, ExecutorService executor, Executor mainThreadExecutor) {
+        mUrlFactory = urlFactory;
+        mExecutor = executor;
+        mMainThreadExecutor = mainThreadExecutor;
+    }
+
+    /**
+     * Upload a file.
+     * @param file the file
+     * @param mimeType the MIME type of the content
+     * @param url the upload URL, with the access token
+     * @param callback the callback returning a mxc: URI to access the uploaded content
+     * @return the upload, to cancel it
+     * @throws IOException if the file cannot be opened
+     */
+    public Upload upload(File file, String mimeType, String url, ContentManager.UploadCallback callback) throws IOException {
+        return start(new Upload(new FileInputStream(file).getChannel(), file.length(), mimeType, url, callback));
+    }
+
+    /**
+     * Upload the content of a stream, which is closed once read.
+     * @param stream the content
+     * @param length the length of the content in bytes
+     * @param mimeType the MIME type of the content
+     * @param url the upload URL, with the access token
+     * @param callback the callback returning a mxc: URI to access the uploaded content
+     * @return the upload, to cancel it
+     */
+    public Upload upload(InputStream stream, long length, String mimeType, String url, ContentManager.UploadCallback callback) {
+        return start(new Upload(Channels.newChannel(stream), length, mimeType, url, callback));
+    }
+
+    private Upload start(Upload upload) {
+        upload.mFuture = mExecutor.submit(upload);
+        return upload;
+    }
+
+    // Runs on an upload thread
+    private String upload(Upload upload) throws IOException {
+        HttpURLConnection conn = openConnection(new URL(upload.mUrl));
+        upload.mConnection = conn;
+        if (upload.mCancelled) {
+            return null;
+        }
+
+        try {
+            conn.setDoInput(true);
+            conn.setDoOutput(true);
+            conn.setUseCaches(false);
+            conn.setRequestMethod("POST");
+            if (upload.mMimeType != null) {
+                conn.setRequestProperty("Content-Type", upload.mMimeType);
+            }
+            // Else the whole body is buffered to work out its length
+            if (upload.mLength <= Integer.MAX_VALUE) {
+                conn.setFixedLengthStreamingMode((int) upload.mLength);
+            }
+            else {
+                conn.setChunkedStreamingMode(BUFFER_SIZE);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            OutputStream out = conn.getOutputStream();
+            try {
+                long bytesSent = 0;
+                long lastReported = 0;
+                int count;
+                while (!upload.mCancelled && ((count = upload.mChannel.read(buffer)) != -1)) {
+                    out.write(buffer.array(), 0, count);
+                    buffer.clear();
+                    bytesSent += count;
+                    if ((bytesSent - lastReported >= PROGRESS_STEP) || (bytesSent == upload.mLength)) {
+                        upload.onProgress(bytesSent);
+                        lastReported = bytesSent;
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (upload.mCancelled) {
+                return null;
+            }
+
+            int status = conn.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Error: Upload returned " + status + " status code");
+                return null;
+            }
+            return readResponse(conn.getInputStream());
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    // Overridden by the tests
+    HttpURLConnection openConnection(URL url) {
+        return mUrlFactory.open(url);
+    }
+
+    private static String readResponse(InputStream stream) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int count;
+            while ((count = stream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return bytes.toString("UTF-8");
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -30,23 +30,84 @@ public class ContentUtils {
 
     /**
      * Build an ImageInfo object based on the image at the given path.
+     * Only the image header is decoded, not its pixels.
      * @param filePath the path to the image in storage
-     * @return the image info
+     * @return the image info, or null if the file is not an image
      */
     public static ImageInfo getImageInfoFromFile(String filePath) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(filePath, options);
+        if ((options.outWidth <= 0) || (options.outHeight <= 0)) {
+            return null;
+        }
+
         ImageInfo imageInfo = new ImageInfo();
-        Bitmap imageBitmap = BitmapFactory.decodeFile(filePath);
-        imageInfo.w = imageBitmap.getWidth();
-        imageInfo.h = imageBitmap.getHeight();
+        imageInfo.w = options.outWidth;
+        imageInfo.h = options.outHeight;
 
         File file = new File(filePath);
         imageInfo.size = file.length();
 
         imageInfo.mimetype = getMimeType(filePath);
+        if (imageInfo.mimetype == null) {
+            imageInfo.mimetype = options.outMimeType;
+        }
 
         return imageInfo;
     }
 
+    /**
+     * Decode an image scaled down to fit in a square, reading no more pixels than needed.
+     * @param filePath the path to the image in storage
+     * @param maxSize the side of the square
+     * @return the bitmap, or null if the file is not an image
+     */
+    public static Bitmap decodeScaledBitmap(String filePath, int maxSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(filePath, options);
+        if ((options.outWidth <= 0) || (options.outHeight <= 0)) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, maxSize);
+        Bitmap bitmap = BitmapFactory.decodeFile(filePath, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (Math.max(width, height) <= maxSize) {
+            return bitmap;
+        }
+        float scale = (float) maxSize / Math.max(width, height);
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)), true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Get the largest power of two to subsample an image by so that it still covers a square.
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param maxSize the side of the square
+     * @return the sample size, for BitmapFactory.Options.inSampleSize
+     */
+    public static int getSampleSize(int width, int height, int maxSize) {
+        int longestSide = Math.max(width, height);
+        int sampleSize = 1;
+        while (longestSide / (sampleSize * 2) >= maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
     public static String getMimeType(String filePath) {
         MimeTypeMap mime = MimeTypeMap.getSingleton();
         return mime.getMimeTypeFromExtension(filePath.substring(filePath.lastIndexOf('.') + 1));
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.util;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import org.matrix.androidsdk.RestClient;
+import org.matrix.androidsdk.rest.model.ContentResponse;
+import org.matrix.androidsdk.rest.model.ImageInfo;
+import org.matrix.androidsdk.rest.model.ImageMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prepares images for sending and uploads them, building the image message.
+ * <ul>
+ * <li>The size of the image is read from its header, without decoding its pixels.</li>
+ * <li>A thumbnail is decoded from a subsample of the image and uploaded alongside it.</li>
+ * <li>Images larger than a given size can be scaled down before they are uploaded.</li>
+ * </ul>
+ * Images are prepared one at a time on a background thread, so at most one scaled-down
+ * image is in memory at once. Callbacks are called on the main thread.
+ */
+public class ImageUploader {
+
+    private static final String LOG_TAG = "ImageUploader";
+
+    public static final int THUMBNAIL_SIZE = 320;
+
+    private static final int JPEG_QUALITY = 90;
+    private static final String MIME_TYPE_JPEG = "image/jpeg";
+    private static final String MIME_TYPE_PNG = "image/png";
+    private static final int THREAD_KEEP_ALIVE_S = 30;
+
+    private static ExecutorService sExecutor;
+
+    /**
+     * Interface to implement to get the image message once its content is uploaded.
+     */
+    public static interface ImageUploadCallback {
+
+        /**
+         * Called as the image is sent.
+         * @param bytesSent the number of bytes sent so far
+         * @param totalBytes the length of the image
+         */
+        public void onUploadProgress(long bytesSent, long totalBytes);
+
+        /**
+         * Called when the upload is complete or has failed.
+         * @param message the image message, ready to be sent, or null if the upload failed
+         */
+        public void onImageMessageReady(ImageMessage message);
+    }
+
+    /**
+     * An image being prepared or uploaded.
+     */
+    public class ImageUpload {
+        private volatile boolean mCancelled = false;
+        private volatile ContentUploader.Upload mUpload;
+        // A scaled-down copy of the image, deleted once uploaded
+        private volatile File mTempFile;
+
+        /**
+         * Stop the upload. The callback is not called any more.
+         */
+        public void cancel() {
+            mCancelled = true;
+            ContentUploader.Upload upload = mUpload;
+            if (upload != null) {
+                upload.cancel();
+            }
+            File tempFile = mTempFile;
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private ContentManager mContentManager;
+    private ExecutorService mExecutor;
+    private Executor mMainThreadExecutor;
+
+    /**
+     * Constructor.
+     * @param contentManager the content manager to upload through
+     */
+    public ImageUploader(ContentManager contentManager) {
+        this(contentManager, getDefaultExecutor(), RestClient.getMainThreadExecutor());
+    }
+
+    /**
+     * The thread shared by all the uploaders of the process, preparing one image at a time.
+     * It is let go when idle for a while.
+     */
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (sExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                    THREAD_KEEP_ALIVE_S, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    RestClient.newBackgroundThreadFactory("ImageUploader"));
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    ImageUploader(ContentManager contentManager, ExecutorService executor, Executor mainThreadExecutor) {
+        mContentManager = contentManager;
+        mExecutor = executor;
+        mMainThreadExecutor = mainThreadExecutor;
+    }
+
+    /**
+     * Upload an image and its thumbnail.
+     * @param filePath the path to the image in storage
+     * @param maxImageSize the longest side the uploaded image may have, it is scaled down if larger; 0 to upload it as it is
+     * @param callback the callback returning the image message
+     * @return the upload, to cancel it
+     */
+    public ImageUpload upload(final String filePath, final int maxImageSize, final ImageUploadCallback callback) {
+        final ImageUpload imageUpload = new ImageUpload();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                prepare(imageUpload, filePath, maxImageSize, callback);
+            }
+        });
+        return imageUpload;
+    }
+
+    // Runs on the preparation thread
+    private void prepare(final ImageUpload imageUpload, final String filePath, int maxImageSize, final ImageUploadCallback callback) {
+        ImageInfo info = ContentUtils.getImageInfoFromFile(filePath);
+        if (info == null) {
+            Log.e(LOG_TAG, "Not an image: " + filePath);
+            done(imageUpload, callback, null);
+            return;
+        }
+
+        final ImageMessage message = new ImageMessage();
+        message.body = filePath.substring(filePath.lastIndexOf('/') + 1);
+
+        // Both are small enough to keep in memory
+        message.thumbnailInfo = new ImageInfo();
+        final byte[] thumbnail = encodeScaled(filePath, THUMBNAIL_SIZE, info, message.thumbnailInfo);
+        File scaledFile = null;
+        if ((maxImageSize > 0) && (Math.max(info.w, info.h) > maxImageSize)) {
+            ImageInfo scaledInfo = new ImageInfo();
+            byte[] scaled = encodeScaled(filePath, maxImageSize, info, scaledInfo);
+            if (scaled != null) {
+                try {
+                    scaledFile = File.createTempFile("upload", ".tmp");
+                    FileOutputStream out = new FileOutputStream(scaledFile);
+                    try {
+                        out.write(scaled);
+                    } finally {
+                        out.close();
+                    }
+                    info = scaledInfo;
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Cannot scale " + filePath + " down: " + e.getMessage());
+                    if (scaledFile != null) {
+                        scaledFile.delete();
+                        scaledFile = null;
+                    }
+                }
+            }
+        }
+        message.info = info;
+        final File imageFile = (scaledFile != null) ? scaledFile : new File(filePath);
+        final boolean deleteImageFile = (scaledFile != null);
+        imageUpload.mTempFile = scaledFile;
+
+        final ContentManager.UploadCallback imageCallback = new ContentManager.UploadCallback() {
+            @Override
+            public void onUploadProgress(long bytesSent, long totalBytes) {
+                if (!imageUpload.mCancelled) {
+                    callback.onUploadProgress(bytesSent, totalBytes);
+                }
+            }
+
+            @Override
+            public void onUploadComplete(ContentResponse uploadResponse) {
+                if (deleteImageFile) {
+                    imageFile.delete();
+                }
+                if (uploadResponse == null) {
+                    done(imageUpload, callback, null);
+                }
+                else {
+                    message.url = uploadResponse.contentUri;
+                    done(imageUpload, callback, message);
+                }
+            }
+        };
+
+        if (imageUpload.mCancelled) {
+            imageCallback.onUploadComplete(null);
+            return;
+        }
+        if (thumbnail == null) {
+            message.thumbnailInfo = null;
+            uploadImage(imageUpload, imageFile, message.info.mimetype, imageCallback);
+            return;
+        }
+
+        setUpload(imageUpload, mContentManager.uploadContent(new ByteArrayInputStream(thumbnail), thumbnail.length,
+                message.thumbnailInfo.mimetype, new ContentManager.UploadCallback() {
+            @Override
+            public void onUploadProgress(long bytesSent, long totalBytes) {
+            }
+
+            @Override
+            public void onUploadComplete(ContentResponse uploadResponse) {
+                if (uploadResponse == null) {
+                    // Send the image without its thumbnail
+                    message.thumbnailInfo = null;
+                }
+                else {
+                    message.thumbnailUrl = uploadResponse.contentUri;
+                }
+                uploadImage(imageUpload, imageFile, message.info.mimetype, imageCallback);
+            }
+        }));
+    }
+
+    private void uploadImage(ImageUpload imageUpload, File imageFile, String mimeType, ContentManager.UploadCallback callback) {
+        if (imageUpload.mCancelled) {
+            callback.onUploadComplete(null);
+            return;
+        }
+        setUpload(imageUpload, mContentManager.uploadContent(imageFile, mimeType, callback));
+    }
+
+    private static void setUpload(ImageUpload imageUpload, ContentUploader.Upload upload) {
+        imageUpload.mUpload = upload;
+        // In case it was cancelled in between
+        if (imageUpload.mCancelled && (upload != null)) {
+            upload.cancel();
+        }
+    }
+
+    private void done(final ImageUpload imageUpload, final ImageUploadCallback callback, final ImageMessage message) {
+        mMainThreadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!imageUpload.mCancelled) {
+                    callback.onImageMessageReady(message);
+                }
+            }
+        });
+    }
+
+    /**
+     * Decode an image scaled down to fit in a square and encode it again.
+     * @param filePath the path to the image in storage
+     * @param maxSize the side of the square
+     * @param sourceInfo the info of the image
+     * @param info filled in with the info of the encoded image
+     * @return the encoded image, or null if it cannot be decoded
+     */
+    private static byte[] encodeScaled(String filePath, int maxSize, ImageInfo sourceInfo, ImageInfo info) {
+        Bitmap bitmap = ContentUtils.decodeScaledBitmap(filePath, maxSize);
+        if (bitmap == null) {
+            return null;
+        }
+        // Keep transparency
+        boolean png = MIME_TYPE_PNG.equals(sourceInfo.mimetype);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bitmap.compress(png ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG, JPEG_QUALITY, bytes);
+
+        info.w = bitmap.getWidth();
+        info.h = bitmap.getHeight();
+        info.size = bytes.size();
+        info.mimetype = png ? MIME_TYPE_PNG : MIME_TYPE_JPEG;
+        bitmap.recycle();
+        return bytes.toByteArray();
+    }
+}
@@ -22,6 +22,7 @@ import com.google.gson.JsonObject;
 
 import org.matrix.androidsdk.data.RoomState;
 import org.matrix.androidsdk.rest.json.ConditionDeserializer;
+import org.matrix.androidsdk.rest.json.ModelTypeAdapterFactory;
 import org.matrix.androidsdk.rest.model.ContentResponse;
 import org.matrix.androidsdk.rest.model.Event;
 import org.matrix.androidsdk.rest.model.ImageMessage;
@@ -42,8 +43,14 @@ public class JsonUtils {
             .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
             .excludeFieldsWithModifiers(Modifier.PRIVATE, Modifier.STATIC)
             .registerTypeAdapter(Condition.class, new ConditionDeserializer())
+            .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
             .create();
 
+    /**
+     * Get the Gson instance used throughout the SDK. The most common model classes are read and written
+     * by streaming adapters from {@link ModelTypeAdapterFactory}, the others by reflection.
+     * @return the Gson instance
+     */
     public static Gson getGson() {
         return gson;
     }
@@ -64,16 +71,13 @@ public class JsonUtils {
         return (JsonObject) gson.toJsonTree(roomMember);
     }
 
+    /**
+     * Convert message content into a message, of the subclass matching its msgtype if there is one.
+     * @param jsonObject the message content
+     * @return the message
+     */
     public static Message toMessage(JsonObject jsonObject) {
-        Message message = gson.fromJson(jsonObject, Message.class);
-
-        // Try to return the right subclass
-        if (Message.MSGTYPE_IMAGE.equals(message.msgtype)) {
-            return toImageMessage(jsonObject);
-        }
-
-        // Fall back to the generic Message type
-        return message;
+        return gson.fromJson(jsonObject, Message.class);
     }
 
     public static JsonObject toJson(Message message) {
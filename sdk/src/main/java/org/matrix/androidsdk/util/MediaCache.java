@@ -0,0 +1,275 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache for downloaded media, keyed by downloadable URL (see {@link ContentManager}), so a
+ * thumbnail is cached apart from its full-size image and from thumbnails of other sizes.
+ * <ul>
+ * <li>Decoded bitmaps are kept in memory, up to a number of bytes.</li>
+ * <li>Downloaded files are kept on disk, up to a number of bytes, the least recently used going first.
+ * Files are named by the SHA-1 of their URL and written under a temporary name, then renamed,
+ * so a half-written file is never read back.</li>
+ * </ul>
+ */
+public class MediaCache {
+
+    private static final String LOG_TAG = "MediaCache";
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private final long mMaxMemoryBytes;
+    private final long mMaxDiskBytes;
+    private final File mDirectory;
+
+    private long mMemoryBytes = 0;
+    private long mDiskBytes = 0;
+
+    // Access ordered, so the first entries are the least recently used
+    private final LinkedHashMap<String, Bitmap> mBitmaps = new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+    // File name -> size
+    private final LinkedHashMap<String, Long> mFiles = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /**
+     * Constructor. Indexes the files left by a previous run, which does disk I/O.
+     * @param directory the directory to keep the files in, typically under the app's cache directory
+     * @param maxMemoryBytes the size of the bitmaps to keep in memory
+     * @param maxDiskBytes the size of the files to keep on disk
+     */
+    public MediaCache(File directory, long maxMemoryBytes, long maxDiskBytes) {
+        mDirectory = directory;
+        mMaxMemoryBytes = maxMemoryBytes;
+        mMaxDiskBytes = maxDiskBytes;
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Cannot create " + mDirectory);
+        }
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            // Oldest first; files are touched when read
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    long lhsModified = lhs.lastModified();
+                    long rhsModified = rhs.lastModified();
+                    return (lhsModified < rhsModified) ? -1 : ((lhsModified == rhsModified) ? 0 : 1);
+                }
+            });
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                    // Interrupted write
+                    file.delete();
+                }
+                else {
+                    mFiles.put(file.getName(), file.length());
+                    mDiskBytes += file.length();
+                }
+            }
+        }
+        synchronized (this) {
+            trimDisk(null);
+        }
+    }
+
+    /**
+     * Get a bitmap from memory.
+     * @param url the downloadable URL
+     * @return the bitmap, or null if it is not in memory
+     */
+    public synchronized Bitmap getBitmap(String url) {
+        return mBitmaps.get(url);
+    }
+
+    /**
+     * Keep a decoded bitmap in memory.
+     * @param url the downloadable URL
+     * @param bitmap the bitmap
+     */
+    public synchronized void putBitmap(String url, Bitmap bitmap) {
+        Bitmap previous = mBitmaps.put(url, bitmap);
+        if (previous != null) {
+            mMemoryBytes -= sizeOf(previous);
+        }
+        mMemoryBytes += sizeOf(bitmap);
+
+        Iterator<Bitmap> it = mBitmaps.values().iterator();
+        while ((mMemoryBytes > mMaxMemoryBytes) && it.hasNext()) {
+            mMemoryBytes -= sizeOf(it.next());
+            it.remove();
+        }
+    }
+
+    /**
+     * Get a file from disk. This counts as a use of the file.
+     * @param url the downloadable URL
+     * @return the file, or null if it is not on disk
+     */
+    public File getFile(String url) {
+        String name = fileName(url);
+        synchronized (this) {
+            if (mFiles.get(name) == null) {
+                return null;
+            }
+        }
+        File file = new File(mDirectory, name);
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Save a download to disk, evicting the least recently used files if the disk tier is full.
+     * A download larger than the whole disk tier is not saved, and is only read until that shows.
+     * The stream is not closed.
+     * @param url the downloadable URL
+     * @param stream the downloaded data
+     * @return the file, or null if the download is too large to be cached
+     * @throws IOException if the data cannot be read or written
+     */
+    public File putFile(String url, InputStream stream) throws IOException {
+        String name = fileName(url);
+        File file = new File(mDirectory, name);
+        // Unique per writer, in case the same URL is saved twice at once
+        File tempFile = File.createTempFile(name, TEMP_FILE_SUFFIX, mDirectory);
+
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long size = 0;
+            int count;
+            while ((count = stream.read(buffer)) != -1) {
+                size += count;
+                if (size > mMaxDiskBytes) {
+                    Log.w(LOG_TAG, "Not caching " + url + ": larger than " + mMaxDiskBytes + " bytes");
+                    tempFile.delete();
+                    return null;
+                }
+                out.write(buffer, 0, count);
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        } finally {
+            out.close();
+        }
+
+        synchronized (this) {
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Cannot rename " + tempFile + " to " + file);
+            }
+            Long previousSize = mFiles.put(name, file.length());
+            if (previousSize != null) {
+                mDiskBytes -= previousSize;
+            }
+            mDiskBytes += file.length();
+            trimDisk(name);
+        }
+        return file;
+    }
+
+    /**
+     * Get a bitmap from memory, or else decode it from disk and keep it in memory.
+     * This may do disk I/O and decoding, so should not be called on the UI thread.
+     * @param url the downloadable URL
+     * @return the bitmap, or null if it is in neither tier
+     */
+    public Bitmap loadBitmap(String url) {
+        Bitmap bitmap = getBitmap(url);
+        if (bitmap == null) {
+            File file = getFile(url);
+            if (file != null) {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+                bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+                if (bitmap != null) {
+                    putBitmap(url, bitmap);
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return the size of the files on disk
+     */
+    public synchronized long getDiskBytes() {
+        return mDiskBytes;
+    }
+
+    /**
+     * @return the size of the bitmaps in memory
+     */
+    public synchronized long getMemoryBytes() {
+        return mMemoryBytes;
+    }
+
+    /**
+     * Evict the least recently used files until the disk tier fits.
+     * @param keptName the name of a file not to evict, as it has just been written; can be null
+     */
+    private void trimDisk(String keptName) {
+        Iterator<Map.Entry<String, Long>> it = mFiles.entrySet().iterator();
+        while ((mDiskBytes > mMaxDiskBytes) && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getKey().equals(keptName)) {
+                continue;
+            }
+            new File(mDirectory, entry.getKey()).delete();
+            mDiskBytes -= entry.getValue();
+            it.remove();
+        }
+    }
+
+    private static long sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Name files by a cryptographic hash of their URL, so that two URLs never share a file.
+     */
+    static String fileName(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.util;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.squareup.okhttp.OkUrlFactory;
+
+import org.matrix.androidsdk.RestClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+
+/**
+ * Loads images into image views through a {@link MediaCache}.
+ * <ul>
+ * <li>Image views asking for the same URL at the same time share one download and one decode.</li>
+ * <li>An image view asking for another URL, as happens when list items are recycled, no longer
+ * waits for the previous one, and a download nobody waits for any more is dropped if it has not started.</li>
+ * <li>Downloads run on a small pool of threads.</li>
+ * </ul>
+ * Must be called on the main thread.
+ */
+public class MediaDownloader {
+
+    private static final String LOG_TAG = "MediaDownloader";
+
+    private static final int MAX_DOWNLOAD_THREADS = 3;
+    private static final int THREAD_KEEP_ALIVE_S = 30;
+
+    private static ExecutorService sExecutor;
+
+    /**
+     * A download and the image views waiting for it.
+     */
+    private class Request implements Runnable {
+        final String url;
+        final List<WeakReference<ImageView>> targets = new ArrayList<WeakReference<ImageView>>();
+        Future<?> future;
+
+        Request(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap = null;
+            try {
+                bitmap = load(url);
+            } finally {
+                // Even if loading threw, so that the request does not stay in progress for good
+                final Bitmap loaded = bitmap;
+                mMainThreadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoaded(Request.this, loaded);
+                    }
+                });
+            }
+        }
+    }
+
+    private MediaCache mMediaCache;
+    private OkUrlFactory mUrlFactory;
+    private ExecutorService mExecutor;
+    private Executor mMainThreadExecutor;
+
+    // Downloads in progress, by URL
+    private Map<String, Request> mRequests = new HashMap<String, Request>();
+    // What each image view is waiting for
+    private Map<ImageView, Request> mTargets = new WeakHashMap<ImageView, Request>();
+
+    /**
+     * Constructor.
+     * @param mediaCache the cache to look images up in and save downloads to
+     * @param urlFactory the factory for the HTTP connections
+     */
+    public MediaDownloader(MediaCache mediaCache, OkUrlFactory urlFactory) {
+        this(mediaCache, urlFactory, getDefaultExecutor(), RestClient.getMainThreadExecutor());
+    }
+
+    /**
+     * The pool shared by all the downloaders of the process, running at most MAX_DOWNLOAD_THREADS downloads at a time.
+     * Idle threads are let go after a while.
+     */
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (sExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_DOWNLOAD_THREADS, MAX_DOWNLOAD_THREADS,
+                    THREAD_KEEP_ALIVE_S, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    RestClient.newBackgroundThreadFactory("MediaDownloader"));
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    MediaDownloader(MediaCache mediaCache, OkUrlFactory urlFactory, ExecutorService executor, Executor mainThreadExecutor) {
+        mMediaCache = mediaCache;
+        mUrlFactory = urlFactory;
+        mExecutor = executor;
+        mMainThreadExecutor = mainThreadExecutor;
+    }
+
+    /**
+     * Display an image in an image view, from memory straight away if it is there, else once it is
+     * loaded from disk or downloaded.
+     * @param imageView the image view
+     * @param url the downloadable URL
+     */
+    public void loadBitmap(ImageView imageView, String url) {
+        Request previous = mTargets.remove(imageView);
+        if (previous != null) {
+            if (previous.url.equals(url)) {
+                mTargets.put(imageView, previous);
+                return;
+            }
+            removeTarget(previous, imageView);
+        }
+
+        if (url == null) {
+            return;
+        }
+
+        Bitmap bitmap = mMediaCache.getBitmap(url);
+        if (bitmap != null) {
+            imageView.setImageBitmap(bitmap);
+            return;
+        }
+
+        Request request = mRequests.get(url);
+        if (request == null) {
+            request = new Request(url);
+            mRequests.put(url, request);
+            request.future = mExecutor.submit(request);
+        }
+        request.targets.add(new WeakReference<ImageView>(imageView));
+        mTargets.put(imageView, request);
+    }
+
+    /**
+     * @return the number of downloads in progress
+     */
+    public int getPendingRequestCount() {
+        return mRequests.size();
+    }
+
+    private void removeTarget(Request request, ImageView imageView) {
+        boolean waitedFor = false;
+        for (int i = request.targets.size() - 1; i >= 0; i--) {
+            ImageView target = request.targets.get(i).get();
+            if ((target == null) || (target == imageView)) {
+                request.targets.remove(i);
+            }
+            else {
+                waitedFor = true;
+            }
+        }
+        // A download already running is let finish, for the cache
+        if (!waitedFor && request.future.cancel(false)) {
+            mRequests.remove(request.url);
+        }
+    }
+
+    private void onLoaded(Request request, Bitmap bitmap) {
+        mRequests.remove(request.url);
+        for (WeakReference<ImageView> reference : request.targets) {
+            ImageView imageView = reference.get();
+            // Unless it has moved on to another image
+            if ((imageView != null) && (mTargets.get(imageView) == request)) {
+                mTargets.remove(imageView);
+                if (bitmap != null) {
+                    imageView.setImageBitmap(bitmap);
+                }
+            }
+        }
+    }
+
+    // Runs on a download thread
+    private Bitmap load(String url) {
+        Bitmap bitmap = mMediaCache.loadBitmap(url);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        try {
+            HttpURLConnection connection = mUrlFactory.open(new URL(url));
+            InputStream stream = connection.getInputStream();
+            try {
+                if (mMediaCache.putFile(url, stream) == null) {
+                    return null;
+                }
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to download " + url + ": " + e.getMessage());
+            return null;
+        }
+        return mMediaCache.loadBitmap(url);
+    }
+}
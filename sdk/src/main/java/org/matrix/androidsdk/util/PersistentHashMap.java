@@ -0,0 +1,458 @@
+/*
+ * Copyright 2014 OpenMarket Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.matrix.androidsdk.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable hash map with structural sharing (a hash array mapped trie).
+ * <p>{@link #plus(Object, Object)} and {@link #minus(Object)} return a new map and leave this one untouched.
+ * Only the nodes on the path to the changed key are copied, so keeping older versions of the map around
+ * is cheap. The {@link java.util.Map} mutators are not supported.</p>
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    // 7 levels of 5 bits cover the 32-bit hash, plus one level for hash collisions
+    private static final int MAX_DEPTH = 8;
+
+    private static final PersistentHashMap EMPTY = new PersistentHashMap(null, 0);
+
+    private final Node mRoot;
+    private final int mSize;
+
+    private PersistentHashMap(Node root, int size) {
+        mRoot = root;
+        mSize = size;
+    }
+
+    /**
+     * Get the empty map.
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public V get(Object key) {
+        Leaf leaf = find(key);
+        return (leaf == null) ? null : (V) leaf.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    /**
+     * Return a map with the given key set to the given value.
+     * @param key the key
+     * @param value the value
+     * @return the new map, or this map if it already contained this exact mapping
+     */
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        int hash = hash(key);
+        boolean[] added = new boolean[1];
+        Node newRoot = (mRoot == null)
+                ? new Node(bit(hash, 0), new Object[] {new Leaf(hash, key, value)})
+                : (Node) put(mRoot, hash, key, value, 0, added);
+        if (newRoot == mRoot) {
+            return this;
+        }
+        return new PersistentHashMap<K, V>(newRoot, (mRoot == null || added[0]) ? mSize + 1 : mSize);
+    }
+
+    /**
+     * Return a map without the given key.
+     * @param key the key
+     * @return the new map, or this map if the key was not present
+     */
+    public PersistentHashMap<K, V> minus(Object key) {
+        if (mRoot == null) {
+            return this;
+        }
+        int hash = hash(key);
+        Object newRoot = remove(mRoot, hash, key, 0);
+        if (newRoot == mRoot) {
+            return this;
+        }
+        if (mSize == 1) {
+            return empty();
+        }
+        if (newRoot instanceof Leaf) {
+            // The root must stay a bitmap node
+            Leaf leaf = (Leaf) newRoot;
+            newRoot = new Node(bit(leaf.hash, 0), new Object[] {leaf});
+        }
+        return new PersistentHashMap<K, V>((Node) newRoot, mSize - 1);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator<K, V>(mRoot);
+            }
+
+            @Override
+            public int size() {
+                return mSize;
+            }
+        };
+    }
+
+    // Trie internals. Node slots hold either a Leaf or a sub-node (Node or CollisionNode).
+
+    private static final class Leaf implements Map.Entry {
+        final int hash;
+        final Object key;
+        final Object value;
+
+        Leaf(int hash, Object key, Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry other = (Map.Entry) o;
+            return eq(key, other.getKey()) && eq(value, other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return ((key == null) ? 0 : key.hashCode()) ^ ((value == null) ? 0 : value.hashCode());
+        }
+    }
+
+    private static final class Node {
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    private static final class CollisionNode {
+        final int hash;
+        final Object[] leaves;
+
+        CollisionNode(int hash, Object[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+    }
+
+    private static int hash(Object key) {
+        int h = (key == null) ? 0 : key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+
+    private Leaf find(Object key) {
+        int hash = hash(key);
+        Object node = mRoot;
+        int shift = 0;
+        while (node != null) {
+            if (node instanceof Leaf) {
+                Leaf leaf = (Leaf) node;
+                return ((leaf.hash == hash) && eq(leaf.key, key)) ? leaf : null;
+            }
+            if (node instanceof CollisionNode) {
+                CollisionNode collisionNode = (CollisionNode) node;
+                if (collisionNode.hash == hash) {
+                    for (Object o : collisionNode.leaves) {
+                        if (eq(((Leaf) o).key, key)) {
+                            return (Leaf) o;
+                        }
+                    }
+                }
+                return null;
+            }
+            Node n = (Node) node;
+            int bit = bit(hash, shift);
+            if ((n.bitmap & bit) == 0) {
+                return null;
+            }
+            node = n.slots[n.index(bit)];
+            shift += BITS;
+        }
+        return null;
+    }
+
+    private static Object put(Object node, int hash, Object key, Object value, int shift, boolean[] added) {
+        if (node instanceof CollisionNode) {
+            CollisionNode collisionNode = (CollisionNode) node;
+            if (collisionNode.hash != hash) {
+                // Push the collision node one level down next to the new key
+                Node wrapper = new Node(bit(collisionNode.hash, shift), new Object[] {collisionNode});
+                return put(wrapper, hash, key, value, shift, added);
+            }
+            Object[] leaves = collisionNode.leaves;
+            for (int i = 0; i < leaves.length; i++) {
+                Leaf leaf = (Leaf) leaves[i];
+                if (eq(leaf.key, key)) {
+                    if (leaf.value == value) {
+                        return node;
+                    }
+                    Object[] newLeaves = leaves.clone();
+                    newLeaves[i] = new Leaf(hash, key, value);
+                    return new CollisionNode(hash, newLeaves);
+                }
+            }
+            Object[] newLeaves = new Object[leaves.length + 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, leaves.length);
+            newLeaves[leaves.length] = new Leaf(hash, key, value);
+            added[0] = true;
+            return new CollisionNode(hash, newLeaves);
+        }
+
+        Node n = (Node) node;
+        int bit = bit(hash, shift);
+        int idx = n.index(bit);
+
+        if ((n.bitmap & bit) == 0) {
+            Object[] newSlots = new Object[n.slots.length + 1];
+            System.arraycopy(n.slots, 0, newSlots, 0, idx);
+            newSlots[idx] = new Leaf(hash, key, value);
+            System.arraycopy(n.slots, idx, newSlots, idx + 1, n.slots.length - idx);
+            added[0] = true;
+            return new Node(n.bitmap | bit, newSlots);
+        }
+
+        Object child = n.slots[idx];
+        Object newChild;
+        if (child instanceof Leaf) {
+            Leaf leaf = (Leaf) child;
+            if ((leaf.hash == hash) && eq(leaf.key, key)) {
+                if (leaf.value == value) {
+                    return node;
+                }
+                newChild = new Leaf(hash, key, value);
+            }
+            else {
+                newChild = merge(leaf, new Leaf(hash, key, value), shift + BITS);
+                added[0] = true;
+            }
+        }
+        else {
+            newChild = put(child, hash, key, value, shift + BITS, added);
+            if (newChild == child) {
+                return node;
+            }
+        }
+
+        Object[] newSlots = n.slots.clone();
+        newSlots[idx] = newChild;
+        return new Node(n.bitmap, newSlots);
+    }
+
+    private static Object merge(Leaf a, Leaf b, int shift) {
+        if (a.hash == b.hash) {
+            return new CollisionNode(a.hash, new Object[] {a, b});
+        }
+        int posA = (a.hash >>> shift) & MASK;
+        int posB = (b.hash >>> shift) & MASK;
+        if (posA == posB) {
+            return new Node(1 << posA, new Object[] {merge(a, b, shift + BITS)});
+        }
+        int bitmap = (1 << posA) | (1 << posB);
+        return (posA < posB)
+                ? new Node(bitmap, new Object[] {a, b})
+                : new Node(bitmap, new Object[] {b, a});
+    }
+
+    /**
+     * Remove a key below the given node.
+     * @return the same node if the key was absent, null if the node became empty,
+     * a Leaf if a single entry is left (so the parent can inline it), or the new node
+     */
+    private static Object remove(Object node, int hash, Object key, int shift) {
+        if (node instanceof CollisionNode) {
+            CollisionNode collisionNode = (CollisionNode) node;
+            if (collisionNode.hash != hash) {
+                return node;
+            }
+            Object[] leaves = collisionNode.leaves;
+            for (int i = 0; i < leaves.length; i++) {
+                if (eq(((Leaf) leaves[i]).key, key)) {
+                    if (leaves.length == 2) {
+                        return leaves[1 - i];
+                    }
+                    Object[] newLeaves = new Object[leaves.length - 1];
+                    System.arraycopy(leaves, 0, newLeaves, 0, i);
+                    System.arraycopy(leaves, i + 1, newLeaves, i, leaves.length - i - 1);
+                    return new CollisionNode(hash, newLeaves);
+                }
+            }
+            return node;
+        }
+
+        Node n = (Node) node;
+        int bit = bit(hash, shift);
+        if ((n.bitmap & bit) == 0) {
+            return node;
+        }
+        int idx = n.index(bit);
+        Object child = n.slots[idx];
+        Object newChild;
+        if (child instanceof Leaf) {
+            Leaf leaf = (Leaf) child;
+            if ((leaf.hash != hash) || !eq(leaf.key, key)) {
+                return node;
+            }
+            newChild = null;
+        }
+        else {
+            newChild = remove(child, hash, key, shift + BITS);
+            if (newChild == child) {
+                return node;
+            }
+        }
+
+        if (newChild == null) {
+            if (n.slots.length == 1) {
+                return null;
+            }
+            Object[] newSlots = new Object[n.slots.length - 1];
+            System.arraycopy(n.slots, 0, newSlots, 0, idx);
+            System.arraycopy(n.slots, idx + 1, newSlots, idx, n.slots.length - idx - 1);
+            if ((newSlots.length == 1) && (newSlots[0] instanceof Leaf)) {
+                return newSlots[0];
+            }
+            return new Node(n.bitmap & ~bit, newSlots);
+        }
+
+        if ((n.slots.length == 1) && (newChild instanceof Leaf)) {
+            return newChild;
+        }
+        Object[] newSlots = n.slots.clone();
+        newSlots[idx] = newChild;
+        return new Node(n.bitmap, newSlots);
+    }
+
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Object[][] mStack = new Object[MAX_DEPTH][];
+        private final int[] mPositions = new int[MAX_DEPTH];
+        private int mDepth = -1;
+        private Leaf mNext;
+
+        EntryIterator(Node root) {
+            if (root != null) {
+                push(root.slots);
+                advance();
+            }
+        }
+
+        private void push(Object[] slots) {
+            mDepth++;
+            mStack[mDepth] = slots;
+            mPositions[mDepth] = 0;
+        }
+
+        private void advance() {
+            mNext = null;
+            while (mDepth >= 0) {
+                Object[] slots = mStack[mDepth];
+                if (mPositions[mDepth] >= slots.length) {
+                    mStack[mDepth] = null;
+                    mDepth--;
+                    continue;
+                }
+                Object o = slots[mPositions[mDepth]++];
+                if (o instanceof Leaf) {
+                    mNext = (Leaf) o;
+                    return;
+                }
+                if (o instanceof Node) {
+                    push(((Node) o).slots);
+                }
+                else {
+                    push(((CollisionNode) o).leaves);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNext != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (mNext == null) {
+                throw new NoSuchElementException();
+            }
+            Leaf leaf = mNext;
+            advance();
+            return (Map.Entry<K, V>) leaf;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}